@@ -0,0 +1,27 @@
+package org.opentrafficsim.spatialtree;
+
+/**
+ * Receives the pairs of overlapping objects that a spatial join finds, one pair at a time, e.g., a lane and a GTU on it. A
+ * visitor can be reused for many joins. The visitor should not change the trees or collections that are joined.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ * @param <A> the type of the first object of a pair
+ * @param <B> the type of the second object of a pair
+ */
+@FunctionalInterface
+public interface SpatialJoinVisitor<A, B>
+{
+    /**
+     * Visit a pair of objects of the right classes of which the shapes overlap.
+     * @param objectA the object of the first class
+     * @param objectB the object of the second class
+     * @return whether the join should continue; false to stop it
+     */
+    boolean visit(A objectA, B objectB);
+
+}
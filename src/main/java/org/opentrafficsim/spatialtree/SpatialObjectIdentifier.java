@@ -0,0 +1,59 @@
+package org.opentrafficsim.spatialtree;
+
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.gtu.Gtu;
+import org.opentrafficsim.core.network.Link;
+import org.opentrafficsim.core.object.LocatedObject;
+import org.opentrafficsim.road.network.lane.CrossSectionElement;
+
+/**
+ * Gives the objects of a stored index an id that is the same in every run, such as the full id of a lane, so the index in the
+ * file can be matched with the objects of the network that is built again in a later run. This is used by the file-backed
+ * SpatialTreeH2, and by SpatialTreeNative, which can be saved to and loaded from an index file.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public interface SpatialObjectIdentifier
+{
+    /**
+     * Identifier of the objects of an OTS network: the full id (link id and element id) of lanes and other cross-section
+     * elements, the full id of located objects such as detectors, and the id of links and GTUs. Other objects throw an
+     * IllegalArgumentException.
+     */
+    SpatialObjectIdentifier OTS = new SpatialObjectIdentifier()
+    {
+        @Override
+        public String getId(final SpatialObject object)
+        {
+            if (object instanceof CrossSectionElement)
+            {
+                return ((CrossSectionElement) object).getFullId();
+            }
+            if (object instanceof LocatedObject)
+            {
+                return ((LocatedObject) object).getFullId();
+            }
+            if (object instanceof Link)
+            {
+                return ((Link) object).getId();
+            }
+            if (object instanceof Gtu)
+            {
+                return ((Gtu) object).getId();
+            }
+            throw new IllegalArgumentException("No id for object " + object + " of " + object.getClass());
+        }
+    };
+
+    /**
+     * Return the id of an object, which is unique among the objects in the tree and the same in every run.
+     * @param object the object
+     * @return the id of the object
+     */
+    String getId(SpatialObject object);
+}
@@ -1,13 +1,21 @@
 package org.opentrafficsim.spatialtree;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import org.djunits.value.vdouble.scalar.Length;
 import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
 import org.opentrafficsim.base.HierarchicalType;
 import org.opentrafficsim.base.HierarchicallyTyped;
 import org.opentrafficsim.core.DynamicSpatialObject;
 import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
 import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.NearestSearch;
 
 /**
  * SpatialTree.java.
@@ -38,6 +46,66 @@ public interface SpatialTree
      */
     <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(I object);
 
+    /**
+     * Update the position of a spatial object in the spatial tree after its shape has changed, e.g., after a move of a GTU.
+     * When the object is not in the tree, it is added. The default implementation removes the object and adds it again;
+     * implementations override this method to update the object in place where possible.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(I object)
+    {
+        remove(object);
+        add(object);
+    }
+
+    /**
+     * Store a collection of spatial objects in the spatial tree. Implementations override this method to build the tree from
+     * the objects in one pass where possible, e.g., by packing nearby objects into full nodes when the tree is empty, which
+     * takes less time than adding the objects one by one, and gives a tree that is faster to search. The objects end up in the
+     * tree as if they were added one by one. The default implementation adds the objects one by one.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        for (I object : objects)
+        {
+            add(object);
+        }
+    }
+
+    /**
+     * Return a read-only, thread-safe view of the tree as it is now, that other threads can search while this tree keeps
+     * changing, see {@link SpatialTreeSnapshot}. Implementations make the snapshot as cheap as possible for the thread that
+     * changes the tree: a persistent tree shares its current version, and a tree in arrays shares its arrays and copies them
+     * before its next change. The default implementation throws an UnsupportedOperationException.
+     * @return a read-only, thread-safe view of the tree as it is now
+     * @throws UnsupportedOperationException when the tree does not support snapshots
+     */
+    default SpatialTree snapshot()
+    {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support snapshots");
+    }
+
+    /**
+     * Return a view of a frozen tree, a tree that nobody changes anymore such as the tree of a {@link SpatialTreeSnapshot}. The
+     * view shares the data of the tree and has its own search state, so every thread that searches a frozen tree that is not
+     * thread-safe can search its own view. Unlike {@link #snapshot()}, asking for a view does not write to this tree, so
+     * several threads can ask for a view at the same time. A view of a tree that is still changed is not valid. The default
+     * implementation throws an UnsupportedOperationException.
+     * @return a read-only view of this frozen tree with its own search state
+     * @throws UnsupportedOperationException when the tree does not support views
+     */
+    default SpatialTree view()
+    {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support views");
+    }
+
     /**
      * Return all objects with the right type (or subtype) and class (or subclass) that have an overlap with the given shape.
      * @param <T> the hierarchical type of the spatial object
@@ -64,4 +132,135 @@ public interface SpatialTree
     <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(T type,
             OtsShape shape, Class<I> searchClass, Time time);
 
+    /**
+     * Pass all objects with the right type (or subtype) and class (or subclass) that have an overlap with the given shape to a
+     * visitor, until the visitor stops the search. Implementations do not allocate for this search, other than what an
+     * underlying library allocates; the default implementation visits the set of the find method.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param visitor the visitor that receives the objects; it should not search or change this tree
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(T type,
+            OtsShape shape, Class<I> searchClass, SpatialVisitor<? super I> visitor)
+    {
+        for (I object : find(type, shape, searchClass))
+        {
+            if (!visitor.visit(object))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pass all dynamic objects with the right type (or subtype) and class (or subclass) that have an overlap with the given
+     * shape at the given time to a visitor, until the visitor stops the search.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the dynamic spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param time the time for which we need to evaluate the positions of the dynamic objects
+     * @param visitor the visitor that receives the objects; it should not search or change this tree
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(T type,
+            OtsShape shape, Class<I> searchClass, Time time, SpatialVisitor<? super I> visitor)
+    {
+        for (I object : find(type, shape, searchClass, time))
+        {
+            if (!visitor.visit(object))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add all objects with the right type (or subtype) and class (or subclass) that have an overlap with the given shape to a
+     * collection, e.g., a list that the caller clears and reuses for every search.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param result the collection to which the objects are added
+     * @return the number of objects that were found
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(T type,
+            OtsShape shape, Class<I> searchClass, Collection<? super I> result)
+    {
+        Set<I> found = find(type, shape, searchClass);
+        result.addAll(found);
+        return found.size();
+    }
+
+    /**
+     * Add all dynamic objects with the right type (or subtype) and class (or subclass) that have an overlap with the given
+     * shape at the given time to a collection, e.g., a list that the caller clears and reuses for every search.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the dynamic spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param time the time for which we need to evaluate the positions of the dynamic objects
+     * @param result the collection to which the objects are added
+     * @return the number of objects that were found
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(T type,
+            OtsShape shape, Class<I> searchClass, Time time, Collection<? super I> result)
+    {
+        Set<I> found = find(type, shape, searchClass, time);
+        result.addAll(found);
+        return found.size();
+    }
+
+    /**
+     * Return the k objects with the right type (or subtype) and class (or subclass) that are nearest to a point, nearest
+     * first, e.g., the leaders and followers of a GTU within the perception range. The distance of an object is the smallest
+     * 2D distance between the point and the shape of the object, which is 0 when the point lies within the shape.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify); null for all types
+     * @param point the point to which the distance is measured
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param k the maximum number of objects to return
+     * @param maxDistance the maximum distance of the objects; use Length.POSITIVE_INFINITY for no maximum
+     * @return the at most k nearest objects within the maximum distance, nearest first
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> List<I> findNearest(
+            T type, OtsPoint3d point, Class<I> searchClass, int k, Length maxDistance)
+    {
+        List<I> result = new ArrayList<>();
+        findNearest(type, point, searchClass, k, maxDistance, result);
+        return result;
+    }
+
+    /**
+     * Add the k objects with the right type (or subtype) and class (or subclass) that are nearest to a point to a collection,
+     * nearest first. The default implementation searches boxes of a growing size around the point, see
+     * {@link NearestSearch#expand}; implementations that are trees override it with a best-first traversal of the tree.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify); null for all types
+     * @param point the point to which the distance is measured
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param k the maximum number of objects to add
+     * @param maxDistance the maximum distance of the objects; use Length.POSITIVE_INFINITY for no maximum
+     * @param result the collection to which the objects are added, nearest first
+     * @return the number of objects that were found
+     */
+    default <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(T type,
+            OtsPoint3d point, Class<I> searchClass, int k, Length maxDistance, Collection<? super I> result)
+    {
+        Throw.whenNull(point, "point in findNearest cannot be null");
+        Throw.whenNull(searchClass, "searchClass in findNearest cannot be null");
+        Throw.whenNull(maxDistance, "maxDistance in findNearest cannot be null");
+        Throw.whenNull(result, "result in findNearest cannot be null");
+        Throw.when(k < 0, IllegalArgumentException.class, "k in findNearest cannot be negative");
+        return NearestSearch.expand(this, type, point, searchClass, k, maxDistance.si, result);
+    }
+
 }
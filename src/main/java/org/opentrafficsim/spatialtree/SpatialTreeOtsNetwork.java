@@ -1,10 +1,39 @@
 package org.opentrafficsim.spatialtree;
 
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.event.Event;
+import org.djutils.event.EventListener;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
 import org.opentrafficsim.core.dsol.OtsSimulatorInterface;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.core.gtu.Gtu;
+import org.opentrafficsim.core.network.Link;
+import org.opentrafficsim.core.network.NetworkException;
+import org.opentrafficsim.core.object.LocatedObject;
 import org.opentrafficsim.road.network.RoadNetwork;
+import org.opentrafficsim.road.network.lane.CrossSectionLink;
+import org.opentrafficsim.road.network.lane.Lane;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
 
 /**
- * SpatialTreeOtsNetwork.java.
+ * Road network that keeps a spatial tree of its links, lanes, objects and GTUs up to date, so a model gets a spatial index
+ * without wiring any listeners. The links are indexed when they are added to the network, and the lanes when they are added
+ * to their link. Objects are indexed when they are a typed SpatialObject. A GTU is indexed at its first move, when it has a
+ * shape, and is updated at every move by a listener that holds the GTU itself, so a move does not look up the GTU by its id.
+ * The tree is pluggable; by default it is a SpatialTreeNative. The find methods of this network search the tree.
  * <p>
  * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
  * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
@@ -18,14 +47,326 @@ public class SpatialTreeOtsNetwork extends RoadNetwork
     /** */
     private static final long serialVersionUID = 1L;
 
+    /** the spatial tree of the network. */
+    private final SpatialTree tree;
+
+    /** the listeners that update the GTUs in the tree when they move. */
+    private final Map<Gtu, GtuHook> gtuHooks = new IdentityHashMap<>();
+
+    /** the listeners that keep the lanes of the links in the tree. */
+    private final Map<CrossSectionLink, LinkHook> linkHooks = new IdentityHashMap<>();
+
     /**
-     * Construction of an empty network.
+     * Construction of an empty network with a SpatialTreeNative as its spatial tree.
      * @param id the network id.
      * @param simulator the DSOL simulator engine
      */
     public SpatialTreeOtsNetwork(final String id, final OtsSimulatorInterface simulator)
+    {
+        this(id, simulator, new SpatialTreeNative());
+    }
+
+    /**
+     * Construction of an empty network with a given spatial tree.
+     * @param id the network id.
+     * @param simulator the DSOL simulator engine
+     * @param tree the empty spatial tree that the network keeps up to date
+     */
+    public SpatialTreeOtsNetwork(final String id, final OtsSimulatorInterface simulator, final SpatialTree tree)
     {
         super(id, simulator);
+        Throw.whenNull(tree, "tree cannot be null");
+        this.tree = tree;
+    }
+
+    /**
+     * Return the spatial tree of the network, e.g., for a batch search with ParallelSearch. The tree should only be changed by
+     * the network.
+     * @return the spatial tree of the network
+     */
+    public SpatialTree getSpatialTree()
+    {
+        return this.tree;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addLink(final Link link) throws NetworkException
+    {
+        super.addLink(link);
+        this.tree.add(link);
+        if (link instanceof CrossSectionLink)
+        {
+            CrossSectionLink csl = (CrossSectionLink) link;
+            LinkHook hook = new LinkHook(csl, this.tree);
+            this.linkHooks.put(csl, hook);
+            csl.addListener(hook, CrossSectionLink.LANE_ADD_EVENT);
+            csl.addListener(hook, CrossSectionLink.LANE_REMOVE_EVENT);
+            hook.synchronize();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeLink(final Link link) throws NetworkException
+    {
+        super.removeLink(link);
+        this.tree.remove(link);
+        LinkHook hook = this.linkHooks.remove(link);
+        if (hook != null)
+        {
+            hook.link.removeListener(hook, CrossSectionLink.LANE_ADD_EVENT);
+            hook.link.removeListener(hook, CrossSectionLink.LANE_REMOVE_EVENT);
+            hook.clear();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addObject(final LocatedObject object) throws NetworkException
+    {
+        super.addObject(object);
+        if (object instanceof SpatialObject && object instanceof HierarchicallyTyped)
+        {
+            addToTree(object);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeObject(final LocatedObject object) throws NetworkException
+    {
+        super.removeObject(object);
+        if (object instanceof SpatialObject && object instanceof HierarchicallyTyped)
+        {
+            removeFromTree(object);
+        }
+    }
+
+    /**
+     * Add an object that has been checked to be a typed SpatialObject to the tree.
+     * @param object the object to add
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addToTree(
+            final Object object)
+    {
+        this.tree.<T, I>add((I) object);
+    }
+
+    /**
+     * Remove an object that has been checked to be a typed SpatialObject from the tree.
+     * @param object the object to remove
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are removing
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void removeFromTree(
+            final Object object)
+    {
+        this.tree.<T, I>remove((I) object);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addGTU(final Gtu gtu)
+    {
+        super.addGTU(gtu);
+        GtuHook hook = new GtuHook(gtu, this.tree);
+        this.gtuHooks.put(gtu, hook);
+        gtu.addListener(hook, Gtu.MOVE_EVENT);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeGTU(final Gtu gtu)
+    {
+        super.removeGTU(gtu);
+        GtuHook hook = this.gtuHooks.remove(gtu);
+        if (hook != null)
+        {
+            gtu.removeListener(hook, Gtu.MOVE_EVENT);
+        }
+        this.tree.remove(gtu);
+    }
+
+    /**
+     * Return all objects with the right type (or subtype) and class (or subclass) that have an overlap with the given shape.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @return the set of spatial objects that have an overlap with the given shape
+     */
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        return this.tree.find(type, shape, searchClass);
+    }
+
+    /**
+     * Return all dynamic objects with the right type (or subtype) and class (or subclass) that have an overlap with the given
+     * shape at the given time.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the dynamic spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param time the time for which we need to evaluate the positions of the dynamic objects
+     * @return the set of dynamic spatial objects that have an overlap with the given shape at the given time
+     */
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        return this.tree.find(type, shape, searchClass, time);
+    }
+
+    /**
+     * Pass all objects with the right type (or subtype) and class (or subclass) that have an overlap with the given shape to a
+     * visitor, until the visitor stops the search.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param visitor the visitor that receives the objects; it should not change the network
+     */
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        this.tree.find(type, shape, searchClass, visitor);
+    }
+
+    /**
+     * Return the k objects with the right type (or subtype) and class (or subclass) that are nearest to a point, nearest
+     * first.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify); null for all types
+     * @param point the point to which the distance is measured
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param k the maximum number of objects to return
+     * @param maxDistance the maximum distance of the objects; use Length.POSITIVE_INFINITY for no maximum
+     * @return the at most k nearest objects within the maximum distance, nearest first
+     */
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> List<I> findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance)
+    {
+        return this.tree.findNearest(type, point, searchClass, k, maxDistance);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeOtsNetwork [id=" + getId() + ", tree=" + this.tree.getClass().getSimpleName() + "]";
+    }
+
+    /**
+     * Listener of one GTU, that updates the GTU in the tree when it moves. The GTU is added to the tree at its first move.
+     */
+    private static class GtuHook implements EventListener
+    {
+        /** */
+        private static final long serialVersionUID = 20240101L;
+
+        /** the GTU. */
+        private final Gtu gtu;
+
+        /** the tree. */
+        private final SpatialTree tree;
+
+        /**
+         * Create the listener of a GTU.
+         * @param gtu the GTU
+         * @param tree the tree
+         */
+        GtuHook(final Gtu gtu, final SpatialTree tree)
+        {
+            this.gtu = gtu;
+            this.tree = tree;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void notify(final Event event) throws RemoteException
+        {
+            this.tree.update(this.gtu);
+        }
+    }
+
+    /**
+     * Listener of one link, that keeps the lanes of the link in the tree when lanes are added to or removed from the link.
+     */
+    private static class LinkHook implements EventListener
+    {
+        /** */
+        private static final long serialVersionUID = 20240101L;
+
+        /** the link. */
+        private final CrossSectionLink link;
+
+        /** the tree. */
+        private final SpatialTree tree;
+
+        /** the lanes of the link that are in the tree. */
+        private final List<Lane> lanes = new ArrayList<>();
+
+        /**
+         * Create the listener of a link.
+         * @param link the link
+         * @param tree the tree
+         */
+        LinkHook(final CrossSectionLink link, final SpatialTree tree)
+        {
+            this.link = link;
+            this.tree = tree;
+        }
+
+        /**
+         * Add the lanes of the link that are not in the tree, and remove the lanes that are no longer on the link.
+         */
+        void synchronize()
+        {
+            List<Lane> current = this.link.getLanes();
+            for (int i = this.lanes.size() - 1; i >= 0; i--)
+            {
+                if (!current.contains(this.lanes.get(i)))
+                {
+                    this.tree.remove(this.lanes.remove(i));
+                }
+            }
+            for (Lane lane : current)
+            {
+                if (!this.lanes.contains(lane))
+                {
+                    this.lanes.add(lane);
+                    this.tree.add(lane);
+                }
+            }
+        }
+
+        /**
+         * Remove all lanes of the link from the tree.
+         */
+        void clear()
+        {
+            for (Lane lane : this.lanes)
+            {
+                this.tree.remove(lane);
+            }
+            this.lanes.clear();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void notify(final Event event) throws RemoteException
+        {
+            synchronize();
+        }
     }
 
 }
@@ -0,0 +1,26 @@
+package org.opentrafficsim.spatialtree;
+
+/**
+ * Receives the objects that a search of a SpatialTree finds, one at a time, without the tree collecting them in a set. A visitor
+ * can be reused for many searches, so a search with a visitor does not have to allocate. The visitor should not search or
+ * change the tree from which it receives the objects.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ * @param <I> the spatial object type that is visited
+ */
+@FunctionalInterface
+public interface SpatialVisitor<I>
+{
+    /**
+     * Visit an object that has an overlap with the search shape, and has the right type and class.
+     * @param object the object that was found
+     * @return whether the search should continue; false to stop it
+     */
+    boolean visit(I object);
+
+}
@@ -0,0 +1,147 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.geometry.OtsGeometryException;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+
+/**
+ * Synthetic rectangular object with roughly the size of a vehicle, that can be moved around without a simulator. The shape is
+ * cached, so the time to construct it does not end up in the measurements of the spatial trees.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class BenchmarkObject implements HierarchicallyTyped<BenchmarkType, BenchmarkObject>, DynamicSpatialObject
+{
+    /** the type. */
+    private final BenchmarkType type;
+
+    /** the half length (x-direction) of the object. */
+    private final double halfLength;
+
+    /** the half width (y-direction) of the object. */
+    private final double halfWidth;
+
+    /** the x-coordinate of the center. */
+    private double x;
+
+    /** the y-coordinate of the center. */
+    private double y;
+
+    /** the cached shape at the current position. */
+    private OtsShape shape;
+
+    /**
+     * Create a benchmark object.
+     * @param type the type
+     * @param x the x-coordinate of the center
+     * @param y the y-coordinate of the center
+     * @param length the length (x-direction) of the object
+     * @param width the width (y-direction) of the object
+     */
+    public BenchmarkObject(final BenchmarkType type, final double x, final double y, final double length, final double width)
+    {
+        this.type = type;
+        this.halfLength = 0.5 * length;
+        this.halfWidth = 0.5 * width;
+        moveTo(x, y);
+    }
+
+    /**
+     * Move the center of the object to a new position, and recalculate the shape.
+     * @param newX the new x-coordinate of the center
+     * @param newY the new y-coordinate of the center
+     */
+    public void moveTo(final double newX, final double newY)
+    {
+        this.x = newX;
+        this.y = newY;
+        this.shape = createRectangle(newX - this.halfLength, newY - this.halfWidth, newX + this.halfLength,
+                newY + this.halfWidth);
+    }
+
+    /**
+     * Move the center of the object over the given distance.
+     * @param dx the distance to move in x-direction
+     * @param dy the distance to move in y-direction
+     */
+    public void moveBy(final double dx, final double dy)
+    {
+        moveTo(this.x + dx, this.y + dy);
+    }
+
+    /**
+     * Return the x-coordinate of the center.
+     * @return the x-coordinate of the center
+     */
+    public double getX()
+    {
+        return this.x;
+    }
+
+    /**
+     * Return the y-coordinate of the center.
+     * @return the y-coordinate of the center
+     */
+    public double getY()
+    {
+        return this.y;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public BenchmarkType getType()
+    {
+        return this.type;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OtsShape getShape()
+    {
+        return this.shape;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OtsShape getShape(final Time time)
+    {
+        return this.shape;
+    }
+
+    /**
+     * Create an axis-aligned rectangular shape.
+     * @param minX the minimum x-coordinate
+     * @param minY the minimum y-coordinate
+     * @param maxX the maximum x-coordinate
+     * @param maxY the maximum y-coordinate
+     * @return a closed rectangular shape
+     */
+    public static OtsShape createRectangle(final double minX, final double minY, final double maxX, final double maxY)
+    {
+        try
+        {
+            return new OtsShape(new OtsPoint3d(minX, minY, 0.0), new OtsPoint3d(maxX, minY, 0.0),
+                    new OtsPoint3d(maxX, maxY, 0.0), new OtsPoint3d(minX, maxY, 0.0), new OtsPoint3d(minX, minY, 0.0));
+        }
+        catch (OtsGeometryException exception)
+        {
+            throw new IllegalArgumentException("Cannot create rectangle", exception);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "BenchmarkObject [x=" + this.x + ", y=" + this.y + "]";
+    }
+
+}
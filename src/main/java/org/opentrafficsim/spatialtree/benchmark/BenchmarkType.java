@@ -0,0 +1,52 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import org.opentrafficsim.base.HierarchicalType;
+
+/**
+ * Type of the synthetic objects that are used in the spatial tree benchmarks.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class BenchmarkType extends HierarchicalType<BenchmarkType, BenchmarkObject>
+{
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    /** the root type of all benchmark objects. */
+    public static final BenchmarkType OBJECT = new BenchmarkType("OBJECT");
+
+    /** the type of the moving benchmark objects. */
+    public static final BenchmarkType VEHICLE = new BenchmarkType("VEHICLE", OBJECT);
+
+    /**
+     * Create a root type.
+     * @param id the id of the type
+     */
+    public BenchmarkType(final String id)
+    {
+        super(id);
+    }
+
+    /**
+     * Create a sub type.
+     * @param id the id of the type
+     * @param parent the parent type
+     */
+    public BenchmarkType(final String id, final BenchmarkType parent)
+    {
+        super(id, parent);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "BenchmarkType [id=" + getId() + "]";
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+
+/**
+ * Reproducible set of synthetic objects and query shapes for the spatial tree benchmarks. The objects have the size of a car
+ * and are spread uniformly over a square area whose size grows with the number of objects, so the density of the objects (and
+ * therefore the expected number of results per query) is the same for every object count.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class BenchmarkWorld
+{
+    /** the area per object in m2. */
+    public static final double AREA_PER_OBJECT = 200.0;
+
+    /** the length of an object in m. */
+    public static final double OBJECT_LENGTH = 4.5;
+
+    /** the width of an object in m. */
+    public static final double OBJECT_WIDTH = 2.0;
+
+    /** the length of a query shape in m; a part of a lane. */
+    public static final double QUERY_LENGTH = 200.0;
+
+    /** the width of a query shape in m; a part of a lane. */
+    public static final double QUERY_WIDTH = 3.5;
+
+    /** the size of the (square) area. */
+    private final double size;
+
+    /** the random generator. */
+    private final Random random;
+
+    /**
+     * Create a world for the given number of objects.
+     * @param count the number of objects that will be placed in the world
+     * @param seed the seed of the random generator
+     */
+    public BenchmarkWorld(final int count, final long seed)
+    {
+        this.size = Math.sqrt(count * AREA_PER_OBJECT);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Create objects at random positions in the world.
+     * @param count the number of objects to create
+     * @return an array with the created objects
+     */
+    public BenchmarkObject[] createObjects(final int count)
+    {
+        BenchmarkObject[] objects = new BenchmarkObject[count];
+        for (int i = 0; i < count; i++)
+        {
+            objects[i] = new BenchmarkObject(BenchmarkType.VEHICLE, this.random.nextDouble() * this.size,
+                    this.random.nextDouble() * this.size, OBJECT_LENGTH, OBJECT_WIDTH);
+        }
+        return objects;
+    }
+
+    /**
+     * Create lane-like static objects of the size of the query shapes at random positions in the world, e.g., for joins of
+     * lanes and vehicles.
+     * @param count the number of lanes to create
+     * @return an array with the created lanes
+     */
+    public BenchmarkObject[] createLanes(final int count)
+    {
+        BenchmarkObject[] lanes = new BenchmarkObject[count];
+        for (int i = 0; i < count; i++)
+        {
+            double x = this.random.nextDouble() * (this.size - QUERY_LENGTH);
+            double y = this.random.nextDouble() * (this.size - QUERY_WIDTH);
+            lanes[i] = new BenchmarkObject(BenchmarkType.OBJECT, x + 0.5 * QUERY_LENGTH, y + 0.5 * QUERY_WIDTH, QUERY_LENGTH,
+                    QUERY_WIDTH);
+        }
+        return lanes;
+    }
+
+    /**
+     * Create lane-like query shapes at random positions in the world.
+     * @param count the number of query shapes to create
+     * @return an array with the created query shapes
+     */
+    public OtsShape[] createQueries(final int count)
+    {
+        OtsShape[] queries = new OtsShape[count];
+        for (int i = 0; i < count; i++)
+        {
+            double x = this.random.nextDouble() * (this.size - QUERY_LENGTH);
+            double y = this.random.nextDouble() * (this.size - QUERY_WIDTH);
+            queries[i] = BenchmarkObject.createRectangle(x, y, x + QUERY_LENGTH, y + QUERY_WIDTH);
+        }
+        return queries;
+    }
+
+    /**
+     * Create query points at random positions in the world, e.g., for nearest-neighbour searches.
+     * @param count the number of query points to create
+     * @return an array with the created query points
+     */
+    public OtsPoint3d[] createPoints(final int count)
+    {
+        OtsPoint3d[] points = new OtsPoint3d[count];
+        for (int i = 0; i < count; i++)
+        {
+            points[i] = new OtsPoint3d(this.random.nextDouble() * this.size, this.random.nextDouble() * this.size, 0.0);
+        }
+        return points;
+    }
+
+    /**
+     * Return the size of the (square) area.
+     * @return the size of the (square) area
+     */
+    public double getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * Return the extent of the area.
+     * @return the extent of the area
+     */
+    public Rectangle2D getExtent()
+    {
+        return new Rectangle2D.Double(0.0, 0.0, this.size, this.size);
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.parallel.ParallelSearch;
+
+/**
+ * JMH benchmark for a scan of many shapes at once, such as all lanes and detector zones of a network in every time step: one
+ * find per shape in a loop on one thread, and one batch search with {@link ParallelSearch} on the common fork-join pool,
+ * either of the tree or of one snapshot of the tree for all scans. The tree does not change between the scans.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialTreeBatchBenchmark
+{
+    /** the implementation to test. */
+    @Param({"NATIVE", "TPR", "RTREE2", "CONCURRENT", "NATIVE_PARTITIONED"})
+    public String implementation;
+
+    /** the number of objects in the tree. */
+    @Param({"10000", "100000"})
+    public int count;
+
+    /** the number of shapes in a scan. */
+    @Param({"1000", "10000"})
+    public int shapeCount;
+
+    /** the tree. */
+    private SpatialTree tree;
+
+    /** the shapes of a scan. */
+    private List<OtsShape> shapes;
+
+    /** the snapshot of the tree that is reused for all scans. */
+    private SpatialTree snapshot;
+
+    /** the batch search on the common pool. */
+    private final ParallelSearch parallelSearch = new ParallelSearch();
+
+    /**
+     * Fill the tree and create the shapes.
+     */
+    @Setup(Level.Trial)
+    public void setupTree()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(this.count, 1L);
+        this.tree = TreeImplementation.valueOf(this.implementation).create(world.getExtent());
+        this.tree.addAll(Arrays.asList(world.createObjects(this.count)));
+        this.shapes = Arrays.asList(world.createQueries(this.shapeCount));
+        this.snapshot = this.tree.snapshot();
+    }
+
+    /**
+     * Search the shapes one by one.
+     * @return the number of objects found, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int sequential()
+    {
+        List<Set<BenchmarkObject>> results = new ArrayList<>(this.shapes.size());
+        for (OtsShape shape : this.shapes)
+        {
+            results.add(this.tree.find(BenchmarkType.VEHICLE, shape, BenchmarkObject.class));
+        }
+        return count(results);
+    }
+
+    /**
+     * Search the shapes in one batch on the common pool.
+     * @return the number of objects found, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int parallel()
+    {
+        return count(this.parallelSearch.findAll(this.tree, BenchmarkType.VEHICLE, this.shapes, BenchmarkObject.class));
+    }
+
+    /**
+     * Search the shapes in one batch on the common pool, in the snapshot that is reused for all scans.
+     * @return the number of objects found, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int parallelSnapshot()
+    {
+        return count(this.parallelSearch.findAll(this.snapshot, BenchmarkType.VEHICLE, this.shapes, BenchmarkObject.class));
+    }
+
+    /**
+     * Return the total number of objects in the results of a scan.
+     * @param results the results of a scan
+     * @return the total number of objects in the results
+     */
+    private static int count(final List<Set<BenchmarkObject>> results)
+    {
+        int total = 0;
+        for (Set<BenchmarkObject> result : results)
+        {
+            total += result.size();
+        }
+        return total;
+    }
+
+}
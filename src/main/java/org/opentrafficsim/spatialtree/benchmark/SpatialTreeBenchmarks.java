@@ -0,0 +1,51 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the spatial tree benchmarks with the GC profiler, so the allocation rate per operation is reported next to the
+ * throughput and the latency percentiles. The standard JMH command line options can be used to select benchmarks or parameter
+ * values, e.g., <code>SpatialTreeQueryBenchmark -p implementation=JSI,H2 -p count=10000</code>.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class SpatialTreeBenchmarks
+{
+    /**
+     * Do not create instance.
+     */
+    private SpatialTreeBenchmarks()
+    {
+        //
+    }
+
+    /**
+     * Run the benchmarks.
+     * @param args JMH command line options; when no benchmarks are selected, all spatial tree benchmarks are run
+     * @throws RunnerException when a benchmark fails
+     * @throws CommandLineOptionException when the command line options cannot be parsed
+     */
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException
+    {
+        Options commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine).addProfiler(GCProfiler.class);
+        if (args.length == 0)
+        {
+            builder.include(SpatialTreeBenchmarks.class.getPackageName() + ".*Benchmark");
+        }
+        new Runner(builder.build()).run();
+    }
+
+}
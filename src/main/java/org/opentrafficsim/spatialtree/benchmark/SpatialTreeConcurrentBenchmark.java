@@ -0,0 +1,196 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.concurrent.SpatialTreeConcurrent;
+
+/**
+ * Multi-threaded JMH benchmark for parallel searches in one tree, which is shared by all threads of a trial.
+ * SpatialTreeConcurrent is searched without a lock; the other implementations are not thread-safe, and are searched and changed
+ * while holding the lock of the tree, as a baseline of what a global lock gives.
+ * <ul>
+ * <li>{@code find}: searches only. Run it with a growing number of threads, e.g., {@code -t 1}, {@code -t 2}, {@code -t 4}
+ * and {@code -t 8}, to see how the total throughput scales with the cores.</li>
+ * <li>{@code readWrite}: {@value #READERS} threads search while one thread moves objects, the way the simulator thread moves
+ * GTUs while their perception runs in parallel. The number of searching threads can be changed with, e.g.,
+ * {@code -tg 7,1}.</li>
+ * </ul>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialTreeConcurrentBenchmark
+{
+    /** the number of searching threads in the readWrite group. */
+    public static final int READERS = 3;
+
+    /** the number of different query shapes; a power of 2. */
+    public static final int QUERIES = 1024;
+
+    /** the distance over which an object moves in a move operation; a vehicle at 30 m/s during 0.5 s. */
+    public static final double MOVE_DISTANCE = 15.0;
+
+    /** the implementation to test. */
+    @Param({"CONCURRENT", "NATIVE", "RTREE2"})
+    public String implementation;
+
+    /** the number of objects in the tree. */
+    @Param({"10000", "100000"})
+    public int count;
+
+    /** the tree, shared by all threads. */
+    private SpatialTree tree;
+
+    /** whether the tree can be used by several threads without a lock. */
+    private boolean threadSafe;
+
+    /** the objects in the tree. */
+    private BenchmarkObject[] objects;
+
+    /** the query shapes. */
+    private OtsShape[] queries;
+
+    /**
+     * Search state of one thread.
+     */
+    @State(Scope.Thread)
+    public static class Reader
+    {
+        /** the index of the next query shape. */
+        int queryIndex = 0;
+
+        /** the list that is reused for the results. */
+        final List<BenchmarkObject> result = new ArrayList<>();
+    }
+
+    /**
+     * Move state of the writing thread.
+     */
+    @State(Scope.Thread)
+    public static class Writer
+    {
+        /** the index of the next object to move. */
+        int objectIndex = 0;
+
+        /** direction of the next move, alternating to keep the objects in the world. */
+        double direction = 1.0;
+    }
+
+    /**
+     * Fill the tree and create the query shapes.
+     */
+    @Setup(Level.Trial)
+    public void setupTree()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(this.count, 1L);
+        this.tree = TreeImplementation.valueOf(this.implementation).create(world.getExtent());
+        this.threadSafe = this.tree instanceof SpatialTreeConcurrent;
+        this.objects = world.createObjects(this.count);
+        for (BenchmarkObject object : this.objects)
+        {
+            this.tree.add(object);
+        }
+        this.queries = world.createQueries(QUERIES);
+    }
+
+    /**
+     * Search the tree with the next query shape of a thread.
+     * @param reader the search state of the thread
+     * @return the number of objects found, to prevent dead-code elimination
+     */
+    private int search(final Reader reader)
+    {
+        OtsShape query = this.queries[reader.queryIndex++ & (QUERIES - 1)];
+        reader.result.clear();
+        if (this.threadSafe)
+        {
+            return this.tree.find(BenchmarkType.VEHICLE, query, BenchmarkObject.class, reader.result);
+        }
+        synchronized (this.tree)
+        {
+            return this.tree.find(BenchmarkType.VEHICLE, query, BenchmarkObject.class, reader.result);
+        }
+    }
+
+    /**
+     * Search the tree, on as many threads as JMH runs.
+     * @param reader the search state of the thread
+     * @return the number of objects found, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int find(final Reader reader)
+    {
+        return search(reader);
+    }
+
+    /**
+     * Search the tree while another thread moves objects.
+     * @param reader the search state of the thread
+     * @return the number of objects found, to prevent dead-code elimination
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(READERS)
+    public int readWriteFind(final Reader reader)
+    {
+        return search(reader);
+    }
+
+    /**
+     * Move the next object, while other threads search the tree.
+     * @param writer the move state of the thread
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void readWriteMove(final Writer writer)
+    {
+        BenchmarkObject object = this.objects[writer.objectIndex];
+        object.moveBy(writer.direction * MOVE_DISTANCE, 0.0);
+        if (this.threadSafe)
+        {
+            this.tree.update(object);
+        }
+        else
+        {
+            synchronized (this.tree)
+            {
+                this.tree.update(object);
+            }
+        }
+        if (++writer.objectIndex == this.objects.length)
+        {
+            writer.objectIndex = 0;
+            writer.direction = -writer.direction;
+        }
+    }
+
+}
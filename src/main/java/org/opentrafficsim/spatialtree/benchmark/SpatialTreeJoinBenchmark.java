@@ -0,0 +1,129 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentrafficsim.spatialtree.SpatialJoinVisitor;
+import org.opentrafficsim.spatialtree.join.SpatialJoin;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
+
+/**
+ * JMH benchmark for the occupancy of all lanes, i.e., all overlapping pairs of a lane and a vehicle: one search of the vehicle
+ * tree per lane, the synchronized traversal of a lane tree and a vehicle tree with {@code SpatialTreeNative.join}, and the
+ * plane sweep of {@link SpatialJoin} over the lanes and the vehicles.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialTreeJoinBenchmark
+{
+    /** the number of vehicles. */
+    @Param({"10000", "100000"})
+    public int count;
+
+    /** the number of vehicles per lane. */
+    @Param({"10"})
+    public int vehiclesPerLane;
+
+    /** the lanes. */
+    private List<BenchmarkObject> lanes;
+
+    /** the vehicles. */
+    private List<BenchmarkObject> vehicles;
+
+    /** the tree with the lanes. */
+    private SpatialTreeNative laneTree;
+
+    /** the tree with the vehicles. */
+    private SpatialTreeNative vehicleTree;
+
+    /** the list that is reused for the vehicles on a lane. */
+    private final List<BenchmarkObject> result = new ArrayList<>();
+
+    /** the visitor that accepts all pairs; the join counts them. */
+    private final SpatialJoinVisitor<BenchmarkObject, BenchmarkObject> pairVisitor =
+            new SpatialJoinVisitor<BenchmarkObject, BenchmarkObject>()
+            {
+                @Override
+                public boolean visit(final BenchmarkObject lane, final BenchmarkObject vehicle)
+                {
+                    return true;
+                }
+            };
+
+    /**
+     * Create the lanes and the vehicles, and fill the trees.
+     */
+    @Setup(Level.Trial)
+    public void setupTrees()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(this.count, 1L);
+        this.vehicles = Arrays.asList(world.createObjects(this.count));
+        this.lanes = Arrays.asList(world.createLanes(this.count / this.vehiclesPerLane));
+        this.laneTree = new SpatialTreeNative();
+        this.laneTree.addAll(this.lanes);
+        this.vehicleTree = new SpatialTreeNative();
+        this.vehicleTree.addAll(this.vehicles);
+    }
+
+    /**
+     * Search the vehicle tree once per lane.
+     * @return the number of pairs, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int findPerLane()
+    {
+        int pairs = 0;
+        for (BenchmarkObject lane : this.lanes)
+        {
+            this.result.clear();
+            pairs += this.vehicleTree.find(BenchmarkType.VEHICLE, lane.getShape(), BenchmarkObject.class, this.result);
+        }
+        return pairs;
+    }
+
+    /**
+     * Join the lane tree and the vehicle tree.
+     * @return the number of pairs, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int treeJoin()
+    {
+        return this.laneTree.join(BenchmarkObject.class, this.vehicleTree, BenchmarkObject.class, this.pairVisitor);
+    }
+
+    /**
+     * Join the lanes and the vehicles with a plane sweep.
+     * @return the number of pairs, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int planeSweep()
+    {
+        return SpatialJoin.join(this.lanes, BenchmarkObject.class, this.vehicles, BenchmarkObject.class, this.pairVisitor);
+    }
+
+}
@@ -0,0 +1,108 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+
+/**
+ * JMH benchmark for loading all objects into an empty spatial tree, one by one with add, and at once with addAll. Both
+ * benchmarks end with one query, so trees that are built at the first query, such as the JTS trees, include the build. Every
+ * invocation loads a new tree, which is created outside of the measurement.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialTreeLoadBenchmark
+{
+    /** the implementation to test. */
+    @Param({"JSI", "RTREE2", "H2", "NATIVE", "GRID", "TPR", "JSI_LOOSE", "RTREE2_LOOSE", "H2_LOOSE", "NATIVE_PARTITIONED",
+            "JSI_PARTITIONED", "CONCURRENT", "JTS_STR", "JTS_HPR", "OFF_HEAP", "COMPACT"})
+    public String implementation;
+
+    /** the number of objects to load. */
+    @Param({"10000", "100000"})
+    public int count;
+
+    /** the world of the objects. */
+    private BenchmarkWorld world;
+
+    /** the objects to load. */
+    private List<BenchmarkObject> objects;
+
+    /** the query after the load. */
+    private OtsShape query;
+
+    /** the empty tree of the next invocation. */
+    private SpatialTree tree;
+
+    /**
+     * Create the objects and the query.
+     */
+    @Setup(Level.Trial)
+    public void setupObjects()
+    {
+        this.world = new BenchmarkWorld(this.count, 1L);
+        this.objects = Arrays.asList(this.world.createObjects(this.count));
+        this.query = this.world.createQueries(1)[0];
+    }
+
+    /**
+     * Create an empty tree.
+     */
+    @Setup(Level.Invocation)
+    public void setupTree()
+    {
+        this.tree = TreeImplementation.valueOf(this.implementation).create(this.world.getExtent());
+    }
+
+    /**
+     * Load the objects one by one.
+     * @return the number of objects that the query finds, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int add()
+    {
+        for (BenchmarkObject object : this.objects)
+        {
+            this.tree.add(object);
+        }
+        return this.tree.find(BenchmarkType.VEHICLE, this.query, BenchmarkObject.class).size();
+    }
+
+    /**
+     * Load the objects at once.
+     * @return the number of objects that the query finds, to prevent dead-code elimination
+     */
+    @Benchmark
+    public int addAll()
+    {
+        this.tree.addAll(this.objects);
+        return this.tree.find(BenchmarkType.VEHICLE, this.query, BenchmarkObject.class).size();
+    }
+
+}
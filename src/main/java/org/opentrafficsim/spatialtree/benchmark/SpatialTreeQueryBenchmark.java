@@ -0,0 +1,195 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+
+/**
+ * JMH benchmark for the find operations of all spatial tree implementations: into a new set, into a reused list, and to a
+ * reused visitor. The queries are lane-like rectangles of
+ * {@value BenchmarkWorld#QUERY_LENGTH} x {@value BenchmarkWorld#QUERY_WIDTH} m at random positions in the world. The
+ * nearest-neighbour queries look for the {@value #NEAREST_K} nearest objects within {@value #NEAREST_DISTANCE} m of a random
+ * point.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialTreeQueryBenchmark
+{
+    /** the number of different query shapes; a power of 2. */
+    public static final int QUERIES = 1024;
+
+    /** the number of objects of a nearest-neighbour query. */
+    public static final int NEAREST_K = 8;
+
+    /** the maximum distance of a nearest-neighbour query in m, the perception range of the GTUs in the demo models. */
+    public static final double NEAREST_DISTANCE = 250.0;
+
+    /** the implementation to test. */
+    @Param({"JSI", "RTREE2", "H2", "NATIVE", "GRID", "TPR", "JSI_LOOSE", "RTREE2_LOOSE", "H2_LOOSE", "NATIVE_PARTITIONED",
+            "JSI_PARTITIONED", "CONCURRENT", "JTS_STR", "JTS_HPR", "OFF_HEAP", "COMPACT"})
+    public String implementation;
+
+    /** the number of objects in the tree. */
+    @Param({"1000", "10000", "100000"})
+    public int count;
+
+    /** how the tree is filled: with add for every object, or with one addAll. */
+    @Param({"add", "addAll"})
+    public String load;
+
+    /** the tree. */
+    private SpatialTree tree;
+
+    /** the query shapes. */
+    private OtsShape[] queries;
+
+    /** the index of the next query shape. */
+    private int queryIndex = 0;
+
+    /** the query points of the nearest-neighbour queries. */
+    private OtsPoint3d[] points;
+
+    /** the maximum distance of the nearest-neighbour queries. */
+    private final Length nearestDistance = Length.instantiateSI(NEAREST_DISTANCE);
+
+    /** the list that is reused for the searches into a collection. */
+    private final List<BenchmarkObject> result = new ArrayList<>();
+
+    /** the number of objects that the visitor received in the last search. */
+    private int visited;
+
+    /** the visitor that is reused for the searches with a visitor; it counts the objects. */
+    private final SpatialVisitor<BenchmarkObject> visitor = new SpatialVisitor<BenchmarkObject>()
+    {
+        @Override
+        public boolean visit(final BenchmarkObject object)
+        {
+            SpatialTreeQueryBenchmark.this.visited++;
+            return true;
+        }
+    };
+
+    /**
+     * Fill the tree and create the query shapes.
+     */
+    @Setup(Level.Trial)
+    public void setupTree()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(this.count, 1L);
+        this.tree = TreeImplementation.valueOf(this.implementation).create(world.getExtent());
+        BenchmarkObject[] objects = world.createObjects(this.count);
+        if ("addAll".equals(this.load))
+        {
+            this.tree.addAll(Arrays.asList(objects));
+        }
+        else
+        {
+            for (BenchmarkObject object : objects)
+            {
+                this.tree.add(object);
+            }
+        }
+        this.queries = world.createQueries(QUERIES);
+        this.points = world.createPoints(QUERIES);
+    }
+
+    /**
+     * Return the next query shape.
+     * @return the next query shape
+     */
+    private OtsShape nextQuery()
+    {
+        this.queryIndex = (this.queryIndex + 1) & (QUERIES - 1);
+        return this.queries[this.queryIndex];
+    }
+
+    /**
+     * Find the objects that overlap with a shape.
+     * @return the objects that overlap with the shape
+     */
+    @Benchmark
+    public Set<BenchmarkObject> find()
+    {
+        return this.tree.find(BenchmarkType.OBJECT, nextQuery(), BenchmarkObject.class);
+    }
+
+    /**
+     * Find the dynamic objects that overlap with a shape at a given time.
+     * @return the objects that overlap with the shape
+     */
+    @Benchmark
+    public Set<BenchmarkObject> findTime()
+    {
+        return this.tree.find(BenchmarkType.OBJECT, nextQuery(), BenchmarkObject.class, Time.ZERO);
+    }
+
+    /**
+     * Pass the objects that overlap with a shape to a reused visitor; the allocation per operation shows what the search itself
+     * allocates.
+     * @return the number of objects that overlap with the shape
+     */
+    @Benchmark
+    public int findVisitor()
+    {
+        this.visited = 0;
+        this.tree.find(BenchmarkType.OBJECT, nextQuery(), BenchmarkObject.class, this.visitor);
+        return this.visited;
+    }
+
+    /**
+     * Add the objects that overlap with a shape to a reused list.
+     * @return the number of objects that overlap with the shape
+     */
+    @Benchmark
+    public int findCollection()
+    {
+        this.result.clear();
+        return this.tree.find(BenchmarkType.OBJECT, nextQuery(), BenchmarkObject.class, this.result);
+    }
+
+    /**
+     * Add the nearest objects to a point to a reused list.
+     * @return the number of objects that were found
+     */
+    @Benchmark
+    public int findNearest()
+    {
+        this.result.clear();
+        this.queryIndex = (this.queryIndex + 1) & (QUERIES - 1);
+        return this.tree.findNearest(BenchmarkType.OBJECT, this.points[this.queryIndex], BenchmarkObject.class, NEAREST_K,
+                this.nearestDistance, this.result);
+    }
+
+}
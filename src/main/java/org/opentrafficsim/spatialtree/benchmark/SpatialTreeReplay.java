@@ -0,0 +1,90 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.trace.TraceReplay;
+
+/**
+ * Replays a recorded trace into one or more of the implementations of {@link TreeImplementation}, and prints the statistics of
+ * every replay. The checksums of the search results should be equal for all implementations.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class SpatialTreeReplay
+{
+    /**
+     * Do not create instance.
+     */
+    private SpatialTreeReplay()
+    {
+        //
+    }
+
+    /**
+     * Return a factory that creates a tree of an implementation for the extent in the header of a trace.
+     * @param implementation the implementation
+     * @return a factory that creates a tree of the implementation for an extent
+     */
+    public static Function<Rectangle2D, SpatialTree> factory(final TreeImplementation implementation)
+    {
+        return new Function<Rectangle2D, SpatialTree>()
+        {
+            @Override
+            public SpatialTree apply(final Rectangle2D extent)
+            {
+                return implementation.create(extent);
+            }
+        };
+    }
+
+    /**
+     * Replay a trace into one or more implementations, and print the statistics of every replay.
+     * @param args the trace file, followed by the names of the implementations of {@link TreeImplementation}; when no
+     *            implementations are given, all mutable implementations are used
+     * @throws IOException when the trace cannot be read
+     */
+    public static void main(final String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: SpatialTreeReplay <trace file> [implementation...]");
+            System.exit(-1);
+        }
+        Path file = Paths.get(args[0]);
+        List<TreeImplementation> implementations = new ArrayList<>();
+        for (int i = 1; i < args.length; i++)
+        {
+            implementations.add(TreeImplementation.valueOf(args[i]));
+        }
+        if (implementations.isEmpty())
+        {
+            for (TreeImplementation implementation : TreeImplementation.values())
+            {
+                if (implementation.isMutable())
+                {
+                    implementations.add(implementation);
+                }
+            }
+        }
+        for (TreeImplementation implementation : implementations)
+        {
+            long t0 = System.nanoTime();
+            TraceReplay replay = TraceReplay.replay(file, factory(implementation));
+            long total = (System.nanoTime() - t0) / 1000000L;
+            System.out.println(implementation + ": " + replay + ", total=" + total + " ms");
+        }
+    }
+
+}
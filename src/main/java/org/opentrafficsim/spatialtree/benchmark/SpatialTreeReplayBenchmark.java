@@ -0,0 +1,89 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.trace.TraceReplay;
+
+/**
+ * JMH benchmark that replays the recorded traces of the shortMerge and shortWeave networks into the mutable spatial tree
+ * implementations. Unlike the synthetic benchmarks, the objects are distributed along the lanes of a real network and the
+ * searches are the lane searches of ShortMergePrintTree. Every invocation is a complete replay into a new tree. The traces
+ * have to be recorded first with ShortMergeRecordTrace, e.g., {@code ShortMergeRecordTrace shortWeave 3600 shortWeave.trace};
+ * the directory with the traces can be set with the system property {@code trace.dir}.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SpatialTreeReplayBenchmark
+{
+    /** the network of which the trace is replayed. */
+    @Param({"shortMerge", "shortWeave"})
+    public String network;
+
+    /** the implementation to test; only implementations that can be changed after querying. */
+    @Param({"JSI", "RTREE2", "H2", "NATIVE", "GRID", "TPR", "JSI_LOOSE", "RTREE2_LOOSE", "H2_LOOSE", "NATIVE_PARTITIONED",
+            "JSI_PARTITIONED", "CONCURRENT"})
+    public String implementation;
+
+    /** the trace file. */
+    private Path file;
+
+    /** creates a tree of the implementation for the extent of the trace. */
+    private Function<Rectangle2D, SpatialTree> treeFactory;
+
+    /**
+     * Check that the trace exists.
+     */
+    @Setup(Level.Trial)
+    public void setupTrace()
+    {
+        this.file = Paths.get(System.getProperty("trace.dir", "."), this.network + ".trace");
+        if (!Files.isRegularFile(this.file))
+        {
+            throw new IllegalStateException("Trace " + this.file.toAbsolutePath() + " not found; record it with "
+                    + "ShortMergeRecordTrace " + this.network + " <seconds> " + this.file);
+        }
+        this.treeFactory = SpatialTreeReplay.factory(TreeImplementation.valueOf(this.implementation));
+    }
+
+    /**
+     * Replay the trace into a new tree.
+     * @return the checksum of the search results
+     * @throws IOException when the trace cannot be read
+     */
+    @Benchmark
+    public long replay() throws IOException
+    {
+        return TraceReplay.replay(this.file, this.treeFactory).getChecksum();
+    }
+
+}
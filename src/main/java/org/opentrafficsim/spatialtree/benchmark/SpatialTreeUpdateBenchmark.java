@@ -0,0 +1,229 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentrafficsim.spatialtree.SpatialTree;
+
+/**
+ * JMH benchmark for the add, remove and move (update, or remove + add for comparison) operations of the mutable spatial tree implementations. Every
+ * invocation operates on a batch of {@value #BATCH} objects, and the preparation of the batch (e.g., adding the objects that
+ * will be removed) takes place outside of the measurement.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialTreeUpdateBenchmark
+{
+    /** the number of objects that is added, removed or moved per invocation. */
+    public static final int BATCH = 100;
+
+    /** the distance over which an object moves in a move operation; a vehicle at 30 m/s during 0.5 s. */
+    public static final double MOVE_DISTANCE = 15.0;
+
+    /**
+     * Tree filled with a given number of objects, plus a batch of extra objects to add, remove or move.
+     */
+    @State(Scope.Thread)
+    public static class TreeState
+    {
+        /** the implementation to test; only implementations that can be changed after querying. */
+        @Param({"JSI", "RTREE2", "H2", "NATIVE", "GRID", "TPR", "JSI_LOOSE", "RTREE2_LOOSE", "H2_LOOSE", "NATIVE_PARTITIONED",
+                "JSI_PARTITIONED", "CONCURRENT"})
+        public String implementation;
+
+        /** the number of objects in the tree. */
+        @Param({"1000", "10000", "100000"})
+        public int count;
+
+        /** the tree. */
+        SpatialTree tree;
+
+        /** the objects to add, remove or move. */
+        BenchmarkObject[] batch;
+
+        /** whether the batch is currently present in the tree. */
+        boolean batchInTree;
+
+        /** direction of the next move, alternating to keep the objects in the world. */
+        double direction = 1.0;
+
+        /**
+         * Fill the tree.
+         */
+        @Setup(Level.Trial)
+        public void setupTree()
+        {
+            BenchmarkWorld world = new BenchmarkWorld(this.count, 1L);
+            this.tree = TreeImplementation.valueOf(this.implementation).create(world.getExtent());
+            for (BenchmarkObject object : world.createObjects(this.count))
+            {
+                this.tree.add(object);
+            }
+            this.batch = world.createObjects(BATCH);
+            this.batchInTree = false;
+        }
+
+        /**
+         * Make sure the batch is in the tree.
+         */
+        void ensureBatchPresent()
+        {
+            if (!this.batchInTree)
+            {
+                for (BenchmarkObject object : this.batch)
+                {
+                    this.tree.add(object);
+                }
+                this.batchInTree = true;
+            }
+        }
+
+        /**
+         * Make sure the batch is not in the tree.
+         */
+        void ensureBatchAbsent()
+        {
+            if (this.batchInTree)
+            {
+                for (BenchmarkObject object : this.batch)
+                {
+                    this.tree.remove(object);
+                }
+                this.batchInTree = false;
+            }
+        }
+    }
+
+    /**
+     * State for the add benchmark; the batch is removed before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class AddState extends TreeState
+    {
+        /** Remove the batch before the invocation. */
+        @Setup(Level.Invocation)
+        public void prepare()
+        {
+            ensureBatchAbsent();
+        }
+    }
+
+    /**
+     * State for the remove benchmark; the batch is added before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class RemoveState extends TreeState
+    {
+        /** Add the batch before the invocation. */
+        @Setup(Level.Invocation)
+        public void prepare()
+        {
+            ensureBatchPresent();
+        }
+    }
+
+    /**
+     * State for the move benchmark; the batch stays in the tree.
+     */
+    @State(Scope.Thread)
+    public static class MoveState extends TreeState
+    {
+        /** Add the batch once. */
+        @Setup(Level.Iteration)
+        public void prepare()
+        {
+            ensureBatchPresent();
+        }
+    }
+
+    /**
+     * Add a batch of objects to the tree.
+     * @param state the tree state
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void add(final AddState state)
+    {
+        for (BenchmarkObject object : state.batch)
+        {
+            state.tree.add(object);
+        }
+        state.batchInTree = true;
+    }
+
+    /**
+     * Remove a batch of objects from the tree.
+     * @param state the tree state
+     * @param blackhole sink for the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void remove(final RemoveState state, final Blackhole blackhole)
+    {
+        for (BenchmarkObject object : state.batch)
+        {
+            blackhole.consume(state.tree.remove(object));
+        }
+        state.batchInTree = false;
+    }
+
+    /**
+     * Move a batch of objects in the tree, the way ShortMergePrintTree handles a Gtu.MOVE_EVENT. The position change of the
+     * object itself is part of the measurement, but only consists of creating a new rectangular shape.
+     * @param state the tree state
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void move(final MoveState state)
+    {
+        double dx = state.direction * MOVE_DISTANCE;
+        for (BenchmarkObject object : state.batch)
+        {
+            object.moveBy(dx, 0.0);
+            state.tree.update(object);
+        }
+        state.direction = -state.direction;
+    }
+
+    /**
+     * Move a batch of objects in the tree by removing and adding them, as was done before the tree had an update operation.
+     * @param state the tree state
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void moveRemoveAdd(final MoveState state)
+    {
+        double dx = state.direction * MOVE_DISTANCE;
+        for (BenchmarkObject object : state.batch)
+        {
+            state.tree.remove(object);
+            object.moveBy(dx, 0.0);
+            state.tree.add(object);
+        }
+        state.direction = -state.direction;
+    }
+
+}
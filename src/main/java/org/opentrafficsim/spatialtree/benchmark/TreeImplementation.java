@@ -0,0 +1,254 @@
+package org.opentrafficsim.spatialtree.benchmark;
+
+import java.awt.geom.Rectangle2D;
+import java.util.function.Supplier;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.compact.SpatialTreeCompact;
+import org.opentrafficsim.spatialtree.concurrent.SpatialTreeConcurrent;
+import org.opentrafficsim.spatialtree.grid.SpatialTreeGrid;
+import org.opentrafficsim.spatialtree.h2.SpatialTreeH2;
+import org.opentrafficsim.spatialtree.jsi.SpatialTreeJsi;
+import org.opentrafficsim.spatialtree.jts.SpatialTreeJtsHprTree;
+import org.opentrafficsim.spatialtree.jts.SpatialTreeJtsStrTree;
+import org.opentrafficsim.spatialtree.loose.SpatialTreeLoose;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
+import org.opentrafficsim.spatialtree.offheap.SpatialTreeOffHeap;
+import org.opentrafficsim.spatialtree.partition.SpatialTreePartitioned;
+import org.opentrafficsim.spatialtree.rtree2.SpatialTreeRTree2;
+import org.opentrafficsim.spatialtree.tpr.SpatialTreeTpr;
+
+/**
+ * The spatial tree implementations that can be benchmarked. The names of the constants are used as JMH parameter values.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public enum TreeImplementation
+{
+    /** SpatialTreeJsi. */
+    JSI(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeJsi();
+        }
+    },
+
+    /** SpatialTreeRTree2. */
+    RTREE2(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeRTree2();
+        }
+    },
+
+    /** SpatialTreeH2. */
+    H2(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeH2();
+        }
+    },
+
+    /** SpatialTreeNative. */
+    NATIVE(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeNative();
+        }
+    },
+
+    /** SpatialTreeGrid, with a cell size for car-sized objects. */
+    GRID(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return create(new Rectangle2D.Double(0.0, 0.0, 1000.0, 1000.0));
+        }
+
+        @Override
+        public SpatialTree create(final Rectangle2D extent)
+        {
+            return SpatialTreeGrid.create(extent, BenchmarkWorld.OBJECT_LENGTH);
+        }
+    },
+
+    /** SpatialTreeTpr; objects that are not a GTU with an operational plan are stored with velocity 0. */
+    TPR(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeTpr();
+        }
+    },
+
+    /** SpatialTreeLoose around a SpatialTreeJsi, with a slack of LOOSE_SLACK. */
+    JSI_LOOSE(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeLoose(new SpatialTreeJsi(), Length.instantiateSI(LOOSE_SLACK));
+        }
+    },
+
+    /** SpatialTreeLoose around a SpatialTreeRTree2, with a slack of LOOSE_SLACK. */
+    RTREE2_LOOSE(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeLoose(new SpatialTreeRTree2(), Length.instantiateSI(LOOSE_SLACK));
+        }
+    },
+
+    /** SpatialTreeLoose around a SpatialTreeH2, with a slack of LOOSE_SLACK. */
+    H2_LOOSE(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeLoose(new SpatialTreeH2(), Length.instantiateSI(LOOSE_SLACK));
+        }
+    },
+
+    /** SpatialTreePartitioned with a SpatialTreeNative per partition. */
+    NATIVE_PARTITIONED(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreePartitioned(new Supplier<SpatialTree>()
+            {
+                @Override
+                public SpatialTree get()
+                {
+                    return new SpatialTreeNative();
+                }
+            });
+        }
+    },
+
+    /** SpatialTreePartitioned with a SpatialTreeJsi per partition. */
+    JSI_PARTITIONED(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreePartitioned(new Supplier<SpatialTree>()
+            {
+                @Override
+                public SpatialTree get()
+                {
+                    return new SpatialTreeJsi();
+                }
+            });
+        }
+    },
+
+    /** SpatialTreeConcurrent, for parallel searches alongside a writer. */
+    CONCURRENT(true)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeConcurrent();
+        }
+    },
+
+    /** SpatialTreeJtsStrTree; a change after the first query rebuilds the packed tree at the next query. */
+    JTS_STR(false)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeJtsStrTree();
+        }
+    },
+
+    /** SpatialTreeJtsHprTree; a change after the first query rebuilds the packed tree at the next query. */
+    JTS_HPR(false)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeJtsHprTree();
+        }
+    },
+
+    /** SpatialTreeOffHeap; a change after the first query packs the tree again at the next query. */
+    OFF_HEAP(false)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeOffHeap();
+        }
+    },
+
+    /** SpatialTreeCompact; a change after the first query packs the tree again at the next query. */
+    COMPACT(false)
+    {
+        @Override
+        public SpatialTree create()
+        {
+            return new SpatialTreeCompact();
+        }
+    };
+
+    /** the slack of the loose implementations in m; a few time steps of a vehicle in a simulation. */
+    public static final double LOOSE_SLACK = 10.0;
+
+    /** whether objects can be added and removed efficiently after the tree has been queried. */
+    private final boolean mutable;
+
+    /**
+     * @param mutable whether objects can be added and removed efficiently after the tree has been queried
+     */
+    TreeImplementation(final boolean mutable)
+    {
+        this.mutable = mutable;
+    }
+
+    /**
+     * Create a new, empty, spatial tree of this implementation.
+     * @return a new, empty, spatial tree
+     */
+    public abstract SpatialTree create();
+
+    /**
+     * Create a new, empty, spatial tree of this implementation for objects that are mostly within the given extent. Only
+     * implementations that are laid out over an area use the extent; the others ignore it.
+     * @param extent the area that contains most of the objects
+     * @return a new, empty, spatial tree
+     */
+    public SpatialTree create(final Rectangle2D extent)
+    {
+        return create();
+    }
+
+    /**
+     * Return whether objects can be added and removed efficiently after the tree has been queried.
+     * @return whether objects can be added and removed efficiently after the tree has been queried
+     */
+    public boolean isMutable()
+    {
+        return this.mutable;
+    }
+
+}
@@ -0,0 +1,833 @@
+package org.opentrafficsim.spatialtree.compact;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.BulkLoad;
+import org.opentrafficsim.spatialtree.util.IdentityIntMap;
+import org.opentrafficsim.spatialtree.util.NearestSearch;
+import org.opentrafficsim.spatialtree.util.Quantization;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+/**
+ * Packed R-tree of which the boxes of the nodes and entries are quantized to 16 bits relative to the box of their parent
+ * node, for static objects such as the lanes of a network. A box takes 8 bytes instead of the 32 bytes of 4 doubles, so the
+ * {@value #NODE_SIZE} children of a node fit in two cache lines, and the precision is relative to the size of the parent
+ * node rather than to the size of the coordinates: unlike float coordinates, the boxes keep their precision on national grid
+ * coordinates. Only the box of the root is stored as doubles.
+ * <p>
+ * The quantized boxes are rounded outward (see {@link Quantization}), so they contain the exact boxes, and a search never
+ * misses a candidate. The boxes are decoded relative to the decoded box of the parent while the tree is traversed; a box
+ * that grew by the rounding only gives a few more candidates for the exact test of the filter.
+ * </p>
+ * <p>
+ * The tree is packed bottom-up from the objects in the order of a Hilbert curve through the centers of their boxes, and laid
+ * out like SpatialTreeOffHeap: first the leaf entries, then the nodes of each level up to the root. The tree is packed at
+ * the first query and packed again at the next query when objects were added or moved; objects are removed in place. The
+ * exact boxes of the objects are kept to pack the tree. This makes the tree suitable for objects that do not change, e.g., as
+ * the static part of a SpatialTreeHybrid, and not for objects that move.
+ * </p>
+ * <p>
+ * A snapshot is a read-only view that shares the packed arrays and the objects, without copying them; every thread that
+ * searches the snapshot has its own view with its own search state. The tree packs into new arrays and copies the array of
+ * objects before its next change, once per snapshot, so the views keep the tree as it was.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeCompact implements SpatialTree
+{
+    /** the number of children of a node of the packed tree. */
+    public static final int NODE_SIZE = 16;
+
+    /** kind of an item in the queue of a nearest-neighbour search: a node, of which the item holds the slot. */
+    private static final int NEAREST_NODE = 0;
+
+    /** kind of an item in the queue of a nearest-neighbour search: a leaf entry, queued by the distance of its box. */
+    private static final int NEAREST_ENTRY = 1;
+
+    /** kind of an item in the queue of a nearest-neighbour search: an object, queued by its exact distance. */
+    private static final int NEAREST_OBJECT = 2;
+
+    /** the objects by handle; null for a free handle. */
+    private Object[] objects;
+
+    /** the exact bounding boxes of the objects by handle, as minX, minY, maxX, maxY at 4 * handle. */
+    private double[] entryBoxes;
+
+    /** the number of handles that have ever been used. */
+    private int handleTop = 0;
+
+    /** the free handles. */
+    private int[] freeHandles;
+
+    /** the number of free handles. */
+    private int freeHandleCount = 0;
+
+    /** the handles of the objects; null for a snapshot. */
+    private final IdentityIntMap handles;
+
+    /** the number of objects in the tree. */
+    private int size = 0;
+
+    /** the quantized boxes of the positions of the packed tree, relative to their parent, at 4 * position. */
+    private char[] treeBoxes = new char[0];
+
+    /** per position of the packed tree: the handle of a leaf entry, or the position of the first child of a node. */
+    private int[] treeIndex = new int[0];
+
+    /** the exact box of the root, as minX, minY, maxX, maxY. */
+    private final double[] rootBox = new double[4];
+
+    /** the first position of each level of the packed tree, followed by the number of positions; level 0 is the leaves. */
+    private int[] levelStart = new int[] {0, 0};
+
+    /** whether objects were added or moved since the tree was packed. */
+    private boolean dirty = false;
+
+    /** whether the array of objects is shared with a snapshot, and has to be copied before the next change. */
+    private boolean shared = false;
+
+    /** whether the arrays of the packed tree are shared with a snapshot, so the next pack needs new arrays. */
+    private boolean treeShared = false;
+
+    /** position stack for the traversal of the tree. */
+    private int[] stack = new int[4 * NODE_SIZE];
+
+    /** the decoded boxes of the positions on the stack, at 4 * index in the stack. */
+    private double[] boxStack = new double[16 * NODE_SIZE];
+
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /** the state of the nearest-neighbour searches. */
+    private final NearestSearch nearestSearch = new NearestSearch();
+
+    /** the positions of the nodes that were queued in the running nearest-neighbour search, by slot. */
+    private int[] nearestPositions = new int[64];
+
+    /** the decoded boxes of the nodes that were queued in the running nearest-neighbour search, at 4 * slot. */
+    private double[] nearestBoxes = new double[4 * 64];
+
+    /** the number of slots that are used in the running nearest-neighbour search. */
+    private int nearestSlots = 0;
+
+    /**
+     * Constructor; initialize the spatial index.
+     */
+    public SpatialTreeCompact()
+    {
+        this(1024);
+    }
+
+    /**
+     * Constructor; initialize the spatial index with room for the given number of objects before the storage has to grow.
+     * @param initialCapacity the expected number of objects
+     */
+    public SpatialTreeCompact(final int initialCapacity)
+    {
+        int capacity = Math.max(16, initialCapacity);
+        this.objects = new Object[capacity];
+        this.entryBoxes = new double[4 * capacity];
+        this.freeHandles = new int[16];
+        this.handles = new IdentityIntMap(capacity);
+    }
+
+    /**
+     * Constructor for a snapshot; share the packed arrays and the objects of a packed tree. The snapshot only searches, so it
+     * has no boxes to pack from, no handles and no free list.
+     * @param source the packed tree of which to make a snapshot
+     */
+    private SpatialTreeCompact(final SpatialTreeCompact source)
+    {
+        this.objects = source.objects;
+        this.entryBoxes = new double[0];
+        this.handleTop = source.handleTop;
+        this.freeHandles = null;
+        this.handles = null;
+        this.size = source.size;
+        this.treeBoxes = source.treeBoxes;
+        this.treeIndex = source.treeIndex;
+        System.arraycopy(source.rootBox, 0, this.rootBox, 0, 4);
+        this.levelStart = source.levelStart;
+    }
+
+    /**
+     * Add an object to the tree. When the object is already in the tree, its bounding box is updated.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        unshare();
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            handle = allocateHandle();
+            this.objects[handle] = object;
+            this.handles.put(object, handle);
+            this.size++;
+        }
+        setEntryBox(handle, object.getShape().getEnvelope());
+        this.dirty = true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(
+            final I object)
+    {
+        int handle = this.handles.remove(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            return false;
+        }
+        // the entry stays in the packed tree until it is packed again, and is skipped in the searches
+        unshare();
+        this.objects[handle] = null;
+        if (this.freeHandleCount == this.freeHandles.length)
+        {
+            this.freeHandles = Arrays.copyOf(this.freeHandles, 2 * this.freeHandles.length);
+        }
+        this.freeHandles[this.freeHandleCount++] = handle;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Update the bounding box of an object; the tree is packed again at the next query when the box has changed. When the
+     * object is not in the tree, it is added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object that may have moved
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(
+            final I object)
+    {
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            add(object);
+            return;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        int b = 4 * handle;
+        if (this.entryBoxes[b] != bb.getMinX() || this.entryBoxes[b + 1] != bb.getMinY()
+                || this.entryBoxes[b + 2] != bb.getMaxX() || this.entryBoxes[b + 3] != bb.getMaxY())
+        {
+            setEntryBox(handle, bb);
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Copy the array of objects when it is shared with a snapshot, so the snapshot keeps the objects as they were. The packed
+     * tree is replaced by new arrays at the next pack.
+     */
+    private void unshare()
+    {
+        if (this.shared)
+        {
+            this.objects = this.objects.clone();
+            this.shared = false;
+        }
+    }
+
+    /**
+     * Return a free handle, and grow the storage when all handles are in use.
+     * @return a free handle
+     */
+    private int allocateHandle()
+    {
+        if (this.freeHandleCount > 0)
+        {
+            return this.freeHandles[--this.freeHandleCount];
+        }
+        if (this.handleTop == this.objects.length)
+        {
+            int capacity = 2 * this.objects.length;
+            this.objects = Arrays.copyOf(this.objects, capacity);
+            this.entryBoxes = Arrays.copyOf(this.entryBoxes, 4 * capacity);
+        }
+        return this.handleTop++;
+    }
+
+    /**
+     * Store the exact bounding box of an object.
+     * @param handle the handle of the object
+     * @param bb the bounding box of the object
+     */
+    private void setEntryBox(final int handle, final Bounds bb)
+    {
+        int b = 4 * handle;
+        this.entryBoxes[b] = bb.getMinX();
+        this.entryBoxes[b + 1] = bb.getMinY();
+        this.entryBoxes[b + 2] = bb.getMaxX();
+        this.entryBoxes[b + 3] = bb.getMaxY();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        Throw.whenNull(point, "point in findNearest cannot be null");
+        Throw.whenNull(searchClass, "searchClass in findNearest cannot be null");
+        Throw.whenNull(maxDistance, "maxDistance in findNearest cannot be null");
+        Throw.whenNull(result, "result in findNearest cannot be null");
+        Throw.when(k < 0, IllegalArgumentException.class, "k in findNearest cannot be negative");
+        NearestSearch search = this.nearestSearch.start(type, point, searchClass, k, maxDistance.si, result);
+        try
+        {
+            if (this.dirty)
+            {
+                pack();
+            }
+            if (k > 0 && this.size > 0)
+            {
+                nearest(search);
+            }
+        }
+        finally
+        {
+            search.finish();
+        }
+        return search.getCount();
+    }
+
+    /**
+     * Best-first traversal of the packed tree for a nearest-neighbour search. The queue holds nodes and leaf entries by the
+     * distance of their decoded box, which is a lower bound for the distance of the objects in them, and objects by their
+     * exact distance. The kind of an item is stored in the lowest two bits of the item; the rest is the slot of a node, of
+     * which the position and decoded box are kept for the decoding of its children, or the handle of a leaf entry or object.
+     * @param search the started search
+     */
+    private void nearest(final NearestSearch search)
+    {
+        int root = this.levelStart[this.levelStart.length - 1] - 1;
+        int leaves = this.levelStart[1];
+        double rootDistance = search.boxDistance(this.rootBox[0], this.rootBox[1], this.rootBox[2], this.rootBox[3]);
+        this.nearestSlots = 0;
+        if (root < leaves)
+        {
+            // a single object, of which the box is the exact box of the root
+            Object object = this.objects[this.treeIndex[root]];
+            if (object != null && search.accepts(object))
+            {
+                search.push(rootDistance, this.treeIndex[root] << 2 | NEAREST_ENTRY);
+            }
+        }
+        else
+        {
+            search.push(rootDistance, slot(root, this.rootBox[0], this.rootBox[1], this.rootBox[2], this.rootBox[3]) << 2
+                    | NEAREST_NODE);
+        }
+        while (!search.isEmpty())
+        {
+            int item = search.pop();
+            int index = item >>> 2;
+            int kind = item & 3;
+            if (kind == NEAREST_OBJECT)
+            {
+                if (!search.add(this.objects[index]))
+                {
+                    return;
+                }
+            }
+            else if (kind == NEAREST_ENTRY)
+            {
+                search.push(search.distance(this.objects[index]), index << 2 | NEAREST_OBJECT);
+            }
+            else
+            {
+                int s = 4 * index;
+                double nodeMinX = this.nearestBoxes[s];
+                double nodeMinY = this.nearestBoxes[s + 1];
+                double nodeMaxX = this.nearestBoxes[s + 2];
+                double nodeMaxY = this.nearestBoxes[s + 3];
+                double stepX = Quantization.step(nodeMinX, nodeMaxX);
+                double stepY = Quantization.step(nodeMinY, nodeMaxY);
+                int first = this.treeIndex[this.nearestPositions[index]];
+                int end = Math.min(first + NODE_SIZE, levelEnd(first));
+                for (int child = first; child < end; child++)
+                {
+                    int c = 4 * child;
+                    double childMinX = Quantization.decode(this.treeBoxes[c], nodeMinX, stepX, nodeMaxX);
+                    double childMinY = Quantization.decode(this.treeBoxes[c + 1], nodeMinY, stepY, nodeMaxY);
+                    double childMaxX = Quantization.decode(this.treeBoxes[c + 2], nodeMinX, stepX, nodeMaxX);
+                    double childMaxY = Quantization.decode(this.treeBoxes[c + 3], nodeMinY, stepY, nodeMaxY);
+                    double distance = search.boxDistance(childMinX, childMinY, childMaxX, childMaxY);
+                    if (first < leaves)
+                    {
+                        int handle = this.treeIndex[child];
+                        Object object = this.objects[handle];
+                        if (object != null && search.accepts(object))
+                        {
+                            search.push(distance, handle << 2 | NEAREST_ENTRY);
+                        }
+                    }
+                    else
+                    {
+                        search.push(distance, slot(child, childMinX, childMinY, childMaxX, childMaxY) << 2 | NEAREST_NODE);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the position and decoded box of a node that is queued in the running nearest-neighbour search.
+     * @param position the position of the node
+     * @param minX minimum x of the decoded box
+     * @param minY minimum y of the decoded box
+     * @param maxX maximum x of the decoded box
+     * @param maxY maximum y of the decoded box
+     * @return the slot of the node
+     */
+    private int slot(final int position, final double minX, final double minY, final double maxX, final double maxY)
+    {
+        if (this.nearestSlots == this.nearestPositions.length)
+        {
+            this.nearestPositions = Arrays.copyOf(this.nearestPositions, 2 * this.nearestSlots);
+            this.nearestBoxes = Arrays.copyOf(this.nearestBoxes, 8 * this.nearestSlots);
+        }
+        int slot = this.nearestSlots++;
+        this.nearestPositions[slot] = position;
+        int s = 4 * slot;
+        this.nearestBoxes[s] = minX;
+        this.nearestBoxes[s + 1] = minY;
+        this.nearestBoxes[s + 2] = maxX;
+        this.nearestBoxes[s + 3] = maxY;
+        return slot;
+    }
+
+    /**
+     * Return a snapshot that shares the packed arrays and the objects, which takes constant time once the tree is packed. The
+     * tree is packed first when objects were added or moved since it was packed. Every thread that searches the snapshot has
+     * its own view, with its own search state.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        if (this.dirty)
+        {
+            pack();
+        }
+        this.shared = true;
+        this.treeShared = true;
+        return new SpatialTreeSnapshot(new SpatialTreeCompact(this), false);
+    }
+
+    /**
+     * Return a view of this frozen tree that shares its packed arrays and objects and has its own search state.
+     * @return a read-only view of this frozen tree with its own search state
+     */
+    @Override
+    public SpatialTree view()
+    {
+        return new SpatialTreeCompact(this);
+    }
+
+    /**
+     * Offer the objects of which the decoded bounding box intersects with the bounding box of the search shape to a started
+     * filter, and finish the filter. The tree is packed first when objects were added or moved since it was packed.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            if (this.dirty)
+            {
+                pack();
+            }
+            int root = this.levelStart[this.levelStart.length - 1] - 1;
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            double minX = bb.getMinX();
+            double minY = bb.getMinY();
+            double maxX = bb.getMaxX();
+            double maxY = bb.getMaxY();
+            if (root < 0 || this.rootBox[0] > maxX || this.rootBox[1] > maxY || this.rootBox[2] < minX
+                    || this.rootBox[3] < minY)
+            {
+                return 0;
+            }
+            int leaves = this.levelStart[1];
+            int top = 0;
+            if (root < leaves)
+            {
+                // a single object, of which the box is the exact box of the root
+                Object object = this.objects[this.treeIndex[root]];
+                if (object != null)
+                {
+                    searchFilter.offer(object);
+                }
+            }
+            else
+            {
+                this.stack[top++] = root;
+                System.arraycopy(this.rootBox, 0, this.boxStack, 0, 4);
+            }
+            while (top > 0)
+            {
+                top--;
+                int position = this.stack[top];
+                int s = 4 * top;
+                double nodeMinX = this.boxStack[s];
+                double nodeMinY = this.boxStack[s + 1];
+                double nodeMaxX = this.boxStack[s + 2];
+                double nodeMaxY = this.boxStack[s + 3];
+                double stepX = Quantization.step(nodeMinX, nodeMaxX);
+                double stepY = Quantization.step(nodeMinY, nodeMaxY);
+                int first = this.treeIndex[position];
+                int end = Math.min(first + NODE_SIZE, levelEnd(first));
+                if (first < leaves)
+                {
+                    for (int child = first; child < end; child++)
+                    {
+                        int c = 4 * child;
+                        if (Quantization.decode(this.treeBoxes[c], nodeMinX, stepX, nodeMaxX) <= maxX
+                                && Quantization.decode(this.treeBoxes[c + 1], nodeMinY, stepY, nodeMaxY) <= maxY
+                                && Quantization.decode(this.treeBoxes[c + 2], nodeMinX, stepX, nodeMaxX) >= minX
+                                && Quantization.decode(this.treeBoxes[c + 3], nodeMinY, stepY, nodeMaxY) >= minY)
+                        {
+                            Object object = this.objects[this.treeIndex[child]];
+                            if (object != null && !searchFilter.offer(object))
+                            {
+                                top = 0;
+                                break;
+                            }
+                        }
+                    }
+                    continue;
+                }
+                if (top + NODE_SIZE > this.stack.length)
+                {
+                    this.stack = Arrays.copyOf(this.stack, 2 * this.stack.length);
+                    this.boxStack = Arrays.copyOf(this.boxStack, 4 * this.stack.length);
+                }
+                // push the children in reverse, so they are visited in the order of the Hilbert curve
+                for (int child = end - 1; child >= first; child--)
+                {
+                    int c = 4 * child;
+                    double childMinX = Quantization.decode(this.treeBoxes[c], nodeMinX, stepX, nodeMaxX);
+                    double childMinY = Quantization.decode(this.treeBoxes[c + 1], nodeMinY, stepY, nodeMaxY);
+                    double childMaxX = Quantization.decode(this.treeBoxes[c + 2], nodeMinX, stepX, nodeMaxX);
+                    double childMaxY = Quantization.decode(this.treeBoxes[c + 3], nodeMinY, stepY, nodeMaxY);
+                    if (childMinX <= maxX && childMinY <= maxY && childMaxX >= minX && childMaxY >= minY)
+                    {
+                        this.stack[top] = child;
+                        int t = 4 * top;
+                        this.boxStack[t] = childMinX;
+                        this.boxStack[t + 1] = childMinY;
+                        this.boxStack[t + 2] = childMaxX;
+                        this.boxStack[t + 3] = childMaxY;
+                        top++;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Return the end of the level of a position.
+     * @param position the position
+     * @return the first position after the level of the position
+     */
+    private int levelEnd(final int position)
+    {
+        int level = 1;
+        while (this.levelStart[level] <= position)
+        {
+            level++;
+        }
+        return this.levelStart[level];
+    }
+
+    /**
+     * Pack the objects into the tree, in the order of a Hilbert curve through the centers of their boxes. The exact boxes of
+     * the nodes are computed bottom-up in a temporary array; then the boxes of the children of each node are quantized
+     * top-down, relative to the decoded box of the node.
+     */
+    private void pack()
+    {
+        int n = this.size;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int handle = 0; handle < this.handleTop; handle++)
+        {
+            if (this.objects[handle] != null)
+            {
+                int b = 4 * handle;
+                double cx = 0.5 * (this.entryBoxes[b] + this.entryBoxes[b + 2]);
+                double cy = 0.5 * (this.entryBoxes[b + 1] + this.entryBoxes[b + 3]);
+                minX = Math.min(minX, cx);
+                minY = Math.min(minY, cy);
+                maxX = Math.max(maxX, cx);
+                maxY = Math.max(maxY, cy);
+            }
+        }
+        int cells = 1 << BulkLoad.HILBERT_BITS;
+        double scaleX = maxX > minX ? (cells - 1) / (maxX - minX) : 0.0;
+        double scaleY = maxY > minY ? (cells - 1) / (maxY - minY) : 0.0;
+        // the Hilbert index (2 * HILBERT_BITS bits) in the high bits and the handle in the low 31 bits
+        long[] keys = new long[n];
+        int k = 0;
+        for (int handle = 0; handle < this.handleTop; handle++)
+        {
+            if (this.objects[handle] != null)
+            {
+                int b = 4 * handle;
+                double cx = 0.5 * (this.entryBoxes[b] + this.entryBoxes[b + 2]);
+                double cy = 0.5 * (this.entryBoxes[b + 1] + this.entryBoxes[b + 3]);
+                keys[k++] = BulkLoad.hilbertIndex((int) ((cx - minX) * scaleX), (int) ((cy - minY) * scaleY)) << 31 | handle;
+            }
+        }
+        Arrays.sort(keys);
+
+        // the number of positions of all levels
+        int levels = 1;
+        int positions = n;
+        for (int count = n; count > 1; count = (count + NODE_SIZE - 1) / NODE_SIZE)
+        {
+            positions += (count + NODE_SIZE - 1) / NODE_SIZE;
+            levels++;
+        }
+        if (this.treeIndex.length < positions || this.treeShared)
+        {
+            // new arrays when the packed tree is shared with a snapshot, which keeps the old ones
+            this.treeShared = false;
+            int capacity = positions + positions / 4;
+            this.treeBoxes = new char[4 * capacity];
+            this.treeIndex = new int[capacity];
+        }
+        this.levelStart = new int[levels + 1];
+        double[] boxes = new double[4 * positions];
+
+        // the leaves
+        for (int i = 0; i < n; i++)
+        {
+            int handle = (int) (keys[i] & Integer.MAX_VALUE);
+            System.arraycopy(this.entryBoxes, 4 * handle, boxes, 4 * i, 4);
+            this.treeIndex[i] = handle;
+        }
+
+        // the exact boxes of the nodes of the levels above the leaves
+        int level = 0;
+        int from = 0;
+        int to = n;
+        this.levelStart[0] = 0;
+        while (to - from > 1)
+        {
+            this.levelStart[++level] = to;
+            int position = to;
+            for (int first = from; first < to; first += NODE_SIZE)
+            {
+                int end = Math.min(first + NODE_SIZE, to);
+                int p = 4 * position;
+                boxes[p] = Double.POSITIVE_INFINITY;
+                boxes[p + 1] = Double.POSITIVE_INFINITY;
+                boxes[p + 2] = Double.NEGATIVE_INFINITY;
+                boxes[p + 3] = Double.NEGATIVE_INFINITY;
+                for (int child = first; child < end; child++)
+                {
+                    int c = 4 * child;
+                    boxes[p] = Math.min(boxes[p], boxes[c]);
+                    boxes[p + 1] = Math.min(boxes[p + 1], boxes[c + 1]);
+                    boxes[p + 2] = Math.max(boxes[p + 2], boxes[c + 2]);
+                    boxes[p + 3] = Math.max(boxes[p + 3], boxes[c + 3]);
+                }
+                this.treeIndex[position] = first;
+                position++;
+            }
+            from = to;
+            to = position;
+        }
+        // with 0 or 1 objects, the leaf level is also the root level
+        this.levelStart[level + 1] = to;
+        if (to > 0)
+        {
+            System.arraycopy(boxes, 4 * (to - 1), this.rootBox, 0, 4);
+        }
+
+        // quantize the children of each node relative to the decoded box of the node, from the root down; the exact box of a
+        // child is replaced by its decoded box, relative to which its own children are quantized
+        for (int node = to - 1; node >= this.levelStart[1]; node--)
+        {
+            int p = 4 * node;
+            double nodeMinX = boxes[p];
+            double nodeMinY = boxes[p + 1];
+            double nodeMaxX = boxes[p + 2];
+            double nodeMaxY = boxes[p + 3];
+            double stepX = Quantization.step(nodeMinX, nodeMaxX);
+            double stepY = Quantization.step(nodeMinY, nodeMaxY);
+            int first = this.treeIndex[node];
+            int end = Math.min(first + NODE_SIZE, levelEnd(first));
+            for (int child = first; child < end; child++)
+            {
+                int c = 4 * child;
+                int qMinX = Quantization.encodeDown(boxes[c], nodeMinX, stepX, nodeMaxX);
+                int qMinY = Quantization.encodeDown(boxes[c + 1], nodeMinY, stepY, nodeMaxY);
+                int qMaxX = Quantization.encodeUp(boxes[c + 2], nodeMinX, stepX, nodeMaxX);
+                int qMaxY = Quantization.encodeUp(boxes[c + 3], nodeMinY, stepY, nodeMaxY);
+                this.treeBoxes[c] = (char) qMinX;
+                this.treeBoxes[c + 1] = (char) qMinY;
+                this.treeBoxes[c + 2] = (char) qMaxX;
+                this.treeBoxes[c + 3] = (char) qMaxY;
+                boxes[c] = Quantization.decode(qMinX, nodeMinX, stepX, nodeMaxX);
+                boxes[c + 1] = Quantization.decode(qMinY, nodeMinY, stepY, nodeMaxY);
+                boxes[c + 2] = Quantization.decode(qMaxX, nodeMinX, stepX, nodeMaxX);
+                boxes[c + 3] = Quantization.decode(qMaxY, nodeMinY, stepY, nodeMaxY);
+            }
+        }
+        this.dirty = false;
+    }
+
+    /**
+     * Remove all objects from the tree, and release the packed tree.
+     */
+    public void clear()
+    {
+        if (this.shared)
+        {
+            this.objects = new Object[this.objects.length];
+            this.shared = false;
+        }
+        Arrays.fill(this.objects, 0, this.handleTop, null);
+        this.handles.clear();
+        this.handleTop = 0;
+        this.freeHandleCount = 0;
+        this.size = 0;
+        this.treeBoxes = new char[0];
+        this.treeIndex = new int[0];
+        this.treeShared = false;
+        this.levelStart = new int[] {0, 0};
+        this.dirty = false;
+    }
+
+    /**
+     * Return the number of objects in the tree.
+     * @return the number of objects in the tree
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Return the number of bytes of the packed tree: 8 bytes for the quantized box and 4 bytes for the index per position.
+     * @return the number of bytes of the packed tree
+     */
+    public long getTreeBytes()
+    {
+        return 2L * this.treeBoxes.length + 4L * this.treeIndex.length;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeCompact [size=" + this.size + ", treeBytes=" + getTreeBytes() + "]";
+    }
+
+}
@@ -0,0 +1,313 @@
+package org.opentrafficsim.spatialtree.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+import com.github.davidmoten.rtree2.Entries;
+import com.github.davidmoten.rtree2.Entry;
+import com.github.davidmoten.rtree2.RTree;
+import com.github.davidmoten.rtree2.geometry.Geometries;
+import com.github.davidmoten.rtree2.geometry.Geometry;
+import com.github.davidmoten.rtree2.geometry.Rectangle;
+
+/**
+ * Thread-safe spatial tree for many parallel readers alongside a writer, such as perception queries of GTUs on several cores
+ * while the simulator thread moves the GTUs. The tree is the immutable R-tree of rtree2, see
+ * https://github.com/davidmoten/rtree2: every change creates a new version of the tree that copies the nodes on the path to the
+ * changed leaf and shares all other nodes, and publishes it in a volatile field. A search takes the published version at its
+ * start and searches it without any lock, so readers never wait for each other or for the writer, and never see a partial
+ * change. Changes are serialized on the tree; they are meant to come from one thread, but are safe from several threads.
+ * <p>
+ * A search returns the objects of the version of the tree at the start of the search. The exact overlap of an object with the
+ * search shape is tested with the shape of the object at the time of the test, so a reader that runs while the writer moves
+ * objects sees each object at its old or its new position. Every thread has its own search state, so searches do not allocate
+ * for their state, apart from what rtree2 allocates internally. The other implementations are not thread-safe.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeConcurrent implements SpatialTree
+{
+    /** the published version of the tree. */
+    private volatile RTree<SpatialObject, Geometry> tree = RTree.create();
+
+    /** the rectangles of the objects in the tree; only used by the writer. */
+    private final Map<SpatialObject, Geometry> bboxMap = new IdentityHashMap<>();
+
+    /** the filter for the searches of each thread. */
+    private final ThreadLocal<SpatialFilter> filters = new ThreadLocal<SpatialFilter>()
+    {
+        @Override
+        protected SpatialFilter initialValue()
+        {
+            return new SpatialFilter();
+        }
+    };
+
+    /**
+     * Create an empty tree.
+     */
+    public SpatialTreeConcurrent()
+    {
+        // empty tree
+    }
+
+    /**
+     * Constructor for a snapshot; search a version of the immutable tree.
+     * @param tree the version of the tree
+     */
+    private SpatialTreeConcurrent(final RTree<SpatialObject, Geometry> tree)
+    {
+        this.tree = tree;
+    }
+
+    /**
+     * Add an object to the tree. When the object is already in the tree, it is updated.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
+    @Override
+    public synchronized <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        if (this.bboxMap.containsKey(object))
+        {
+            update(object);
+            return;
+        }
+        Geometry geometry = rectangle(object);
+        this.bboxMap.put(object, geometry);
+        this.tree = this.tree.add(object, geometry);
+    }
+
+    /**
+     * Add objects to the tree. When the tree is empty, it is created from all objects at once with the bulk load of rtree2, and
+     * published when complete; otherwise the objects are added one by one, and objects that are already in the tree are
+     * updated.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public synchronized <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        if (!this.bboxMap.isEmpty())
+        {
+            for (I object : objects)
+            {
+                update(object);
+            }
+            return;
+        }
+        List<Entry<SpatialObject, Geometry>> entries = new ArrayList<>(objects.size());
+        for (I object : objects)
+        {
+            if (!this.bboxMap.containsKey(object))
+            {
+                Geometry geometry = rectangle(object);
+                this.bboxMap.put(object, geometry);
+                entries.add(Entries.entry(object, geometry));
+            }
+        }
+        this.tree = RTree.create(entries);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        Geometry geometry = this.bboxMap.remove(object);
+        if (geometry == null)
+        {
+            return false;
+        }
+        this.tree = this.tree.delete(object, geometry);
+        return true;
+    }
+
+    /**
+     * Update the position of an object with one new version of the tree, in which the object is deleted and added again.
+     * Nothing changes when the rectangle of the object is the same. When the object is not in the tree, it is added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    @Override
+    public synchronized <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        Geometry oldGeometry = this.bboxMap.get(object);
+        if (oldGeometry == null)
+        {
+            add(object);
+            return;
+        }
+        Geometry geometry = rectangle(object);
+        if (geometry.equals(oldGeometry))
+        {
+            return;
+        }
+        this.bboxMap.put(object, geometry);
+        this.tree = this.tree.delete(object, oldGeometry).add(object, geometry);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filters.get().start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filters.get().start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filters.get().start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filters.get().start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Return a snapshot of the published version of the tree, which takes constant time and no lock. The snapshot is searched
+     * without a lock, like the tree itself.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        return new SpatialTreeSnapshot(new SpatialTreeConcurrent(this.tree), true);
+    }
+
+    /**
+     * Offer the objects of which the rectangle intersects with the bounding box of the search shape, in the published version
+     * of the tree, to a started filter of the current thread, until the filter stops the search, and finish the filter.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            Rectangle rectangle = Geometries.rectangle(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+            for (Entry<SpatialObject, Geometry> item : this.tree.search(rectangle))
+            {
+                if (!searchFilter.offer(item.value()))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Return the rectangle of the current bounding box of an object.
+     * @param object the object
+     * @return the rectangle of the bounding box of the object
+     */
+    private static Geometry rectangle(final SpatialObject object)
+    {
+        Bounds bb = object.getShape().getEnvelope();
+        return Geometries.rectangle(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+    }
+
+    /**
+     * Return the number of objects in the published version of the tree.
+     * @return the number of objects in the published version of the tree
+     */
+    public int size()
+    {
+        return this.tree.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeConcurrent [size=" + size() + "]";
+    }
+
+}
@@ -0,0 +1,632 @@
+package org.opentrafficsim.spatialtree.grid;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.core.network.Network;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.IdentityIntMap;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+/**
+ * Uniform grid over the extent of a network. Every object is stored, as an int handle, in the cells that its bounding box
+ * overlaps. GTUs are small compared to the cells, so they are in one to four cells, and an update that keeps an object in the
+ * same cells only writes its new bounding box. Objects outside of the extent are stored in the nearest edge cells, so the
+ * extent does not have to be exact. Objects that overlap more than {@value #MAX_OBJECT_CELLS} cells, such as long lanes, are
+ * kept in a separate list that is checked for every search.
+ * <p>
+ * A search visits the cells that the bounding box of the search shape overlaps. An object that is in several of these cells
+ * is only reported in the first of them (its reference cell), so no object is reported twice without a set of reported
+ * objects. The grid is not thread-safe, not even when it is not changed: a search uses the candidate array and the filter of
+ * the grid. Use a {@link #snapshot()} for searches on other threads, or for parallel searches.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeGrid implements SpatialTree
+{
+    /** the maximum number of cells of the grid. */
+    public static final int MAX_CELLS = 1 << 20;
+
+    /** the maximum number of cells an object is stored in; larger objects are kept in a separate list. */
+    public static final int MAX_OBJECT_CELLS = 64;
+
+    /** the cell size relative to the typical object size. */
+    public static final double CELL_SIZE_FACTOR = 4.0;
+
+    /** column of objects in the large object list. */
+    private static final int LARGE = -1;
+
+    /** minimum x of the grid. */
+    private final double minX;
+
+    /** minimum y of the grid. */
+    private final double minY;
+
+    /** size of the cells. */
+    private final double cellSize;
+
+    /** number of columns. */
+    private final int columns;
+
+    /** number of rows. */
+    private final int rows;
+
+    /** the handles in each cell, at row * columns + column; null for a cell that has never been used. */
+    private final int[][] cells;
+
+    /** the number of handles in each cell. */
+    private final int[] cellCount;
+
+    /** the handles of large objects. */
+    private int[] large = new int[16];
+
+    /** the number of large objects. */
+    private int largeCount = 0;
+
+    /** bounding boxes of the entries, as minX, minY, maxX, maxY at 4 * handle. */
+    private double[] entryBox;
+
+    /** cell range of the entries, as minColumn, minRow, maxColumn, maxRow at 4 * handle; minColumn LARGE for large objects. */
+    private int[] entryCells;
+
+    /** the objects of the entries. */
+    private Object[] entryObject;
+
+    /** the number of handles that have ever been used. */
+    private int entryTop = 0;
+
+    /** the free handles. */
+    private int[] freeEntries;
+
+    /** the number of free handles. */
+    private int freeEntryCount = 0;
+
+    /** the handles of the objects. */
+    private final IdentityIntMap handles;
+
+    /** handles of the candidates of the last search. */
+    private int[] candidates = new int[64];
+
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /**
+     * Constructor; initialize the grid with a given extent and cell size.
+     * @param extent the extent of the grid, typically the extent of the network
+     * @param cellSize the size of the cells, which is increased when the extent would need more than {@value #MAX_CELLS}
+     *            cells
+     */
+    public SpatialTreeGrid(final Rectangle2D extent, final double cellSize)
+    {
+        Throw.whenNull(extent, "extent cannot be null");
+        Throw.when(!(cellSize > 0.0), IllegalArgumentException.class, "cellSize must be positive");
+        double width = Math.max(extent.getWidth(), cellSize);
+        double height = Math.max(extent.getHeight(), cellSize);
+        double size = Math.max(cellSize, Math.sqrt(width * height / MAX_CELLS));
+        while (Math.ceil(width / size) * Math.ceil(height / size) > MAX_CELLS)
+        {
+            size *= 1.1;
+        }
+        this.minX = extent.getMinX();
+        this.minY = extent.getMinY();
+        this.cellSize = size;
+        this.columns = (int) Math.ceil(width / size);
+        this.rows = (int) Math.ceil(height / size);
+        this.cells = new int[this.columns * this.rows][];
+        this.cellCount = new int[this.columns * this.rows];
+        this.entryBox = new double[4 * 256];
+        this.entryCells = new int[4 * 256];
+        this.entryObject = new Object[256];
+        this.freeEntries = new int[256];
+        this.handles = new IdentityIntMap(256);
+    }
+
+    /**
+     * Create a grid for a network, with a cell size of {@value #CELL_SIZE_FACTOR} times the typical object size.
+     * @param network the network, with all infrastructure constructed
+     * @param objectSize the typical size (e.g., the length of a car) of the dynamic objects
+     * @return a grid for the network
+     */
+    public static SpatialTreeGrid create(final Network network, final double objectSize)
+    {
+        Throw.whenNull(network, "network cannot be null");
+        return create(network.getExtent(), objectSize);
+    }
+
+    /**
+     * Create a grid for an extent, with a cell size of {@value #CELL_SIZE_FACTOR} times the typical object size.
+     * @param extent the extent of the grid
+     * @param objectSize the typical size (e.g., the length of a car) of the dynamic objects
+     * @return a grid for the extent
+     */
+    public static SpatialTreeGrid create(final Rectangle2D extent, final double objectSize)
+    {
+        return new SpatialTreeGrid(extent, CELL_SIZE_FACTOR * objectSize);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        Bounds bb = object.getShape().getEnvelope();
+        int handle = this.handles.get(object);
+        if (handle != IdentityIntMap.ABSENT)
+        {
+            updateEntry(handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+            return;
+        }
+        handle = allocateEntry();
+        this.entryObject[handle] = object;
+        this.handles.put(object, handle);
+        setBox(handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+        setCells(handle);
+        insert(handle);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        int handle = this.handles.remove(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            return false;
+        }
+        delete(handle);
+        this.entryObject[handle] = null;
+        this.freeEntries[this.freeEntryCount++] = handle;
+        return true;
+    }
+
+    /**
+     * Update the bounding box of an object in the grid after its shape has changed. When the object stays in the same cells,
+     * only its bounding box is written. When the object is not in the grid, it is added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            add(object);
+            return;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        updateEntry(handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Return a snapshot with a copy of the objects and of their bounding boxes, from which a tree is built at the first search
+     * of the snapshot.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        Object[] objects = new Object[size()];
+        double[] boxes = new double[4 * objects.length];
+        int i = 0;
+        for (int handle = 0; handle < this.entryTop; handle++)
+        {
+            if (this.entryObject[handle] != null)
+            {
+                objects[i] = this.entryObject[handle];
+                System.arraycopy(this.entryBox, 4 * handle, boxes, 4 * i, 4);
+                i++;
+            }
+        }
+        return new SpatialTreeSnapshot(objects, boxes);
+    }
+
+    /**
+     * Offer the objects of which the bounding box intersects with the bounding box of the search shape to a started filter,
+     * until the filter stops the search, and finish the filter.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            int n = search(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+            for (int i = 0; i < n; i++)
+            {
+                if (!searchFilter.offer(this.entryObject[this.candidates[i]]))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Return the number of objects in the grid.
+     * @return the number of objects in the grid
+     */
+    public int size()
+    {
+        return this.handles.size();
+    }
+
+    /**
+     * Return the size of the cells.
+     * @return the size of the cells
+     */
+    public double getCellSize()
+    {
+        return this.cellSize;
+    }
+
+    /**
+     * Collect the handles of the entries of which the bounding box intersects with the search box in the candidates array.
+     * @param qMinX minimum x of the search box
+     * @param qMinY minimum y of the search box
+     * @param qMaxX maximum x of the search box
+     * @param qMaxY maximum y of the search box
+     * @return the number of candidates
+     */
+    private int search(final double qMinX, final double qMinY, final double qMaxX, final double qMaxY)
+    {
+        int n = 0;
+        for (int i = 0; i < this.largeCount; i++)
+        {
+            int handle = this.large[i];
+            if (intersects(handle, qMinX, qMinY, qMaxX, qMaxY))
+            {
+                n = addCandidate(n, handle);
+            }
+        }
+        int c0 = column(qMinX);
+        int c1 = column(qMaxX);
+        int r0 = row(qMinY);
+        int r1 = row(qMaxY);
+        for (int r = r0; r <= r1; r++)
+        {
+            for (int c = c0; c <= c1; c++)
+            {
+                int cell = r * this.columns + c;
+                int count = this.cellCount[cell];
+                if (count == 0)
+                {
+                    continue;
+                }
+                int[] handlesInCell = this.cells[cell];
+                for (int i = 0; i < count; i++)
+                {
+                    int handle = handlesInCell[i];
+                    int e = 4 * handle;
+                    // report the object only in the first cell of the search that it is in
+                    if (c == Math.max(c0, this.entryCells[e]) && r == Math.max(r0, this.entryCells[e + 1])
+                            && intersects(handle, qMinX, qMinY, qMaxX, qMaxY))
+                    {
+                        n = addCandidate(n, handle);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Add a handle to the candidates.
+     * @param n the number of candidates
+     * @param handle the handle to add
+     * @return the new number of candidates
+     */
+    private int addCandidate(final int n, final int handle)
+    {
+        if (n == this.candidates.length)
+        {
+            this.candidates = Arrays.copyOf(this.candidates, 2 * n);
+        }
+        this.candidates[n] = handle;
+        return n + 1;
+    }
+
+    /**
+     * Give an entry that is in the grid a new bounding box, and move it to other cells when needed.
+     * @param handle the handle of the entry
+     * @param bMinX new minimum x
+     * @param bMinY new minimum y
+     * @param bMaxX new maximum x
+     * @param bMaxY new maximum y
+     */
+    private void updateEntry(final int handle, final double bMinX, final double bMinY, final double bMaxX, final double bMaxY)
+    {
+        setBox(handle, bMinX, bMinY, bMaxX, bMaxY);
+        int e = 4 * handle;
+        int c0 = this.entryCells[e];
+        int r0 = this.entryCells[e + 1];
+        int c1 = this.entryCells[e + 2];
+        int r1 = this.entryCells[e + 3];
+        if (c0 != LARGE && c0 == column(bMinX) && r0 == row(bMinY) && c1 == column(bMaxX) && r1 == row(bMaxY))
+        {
+            return;
+        }
+        delete(handle);
+        setCells(handle);
+        insert(handle);
+    }
+
+    /**
+     * Store an entry, of which the bounding box and cell range have been set, in its cells or in the large object list.
+     * @param handle the handle of the entry
+     */
+    private void insert(final int handle)
+    {
+        int e = 4 * handle;
+        if (this.entryCells[e] == LARGE)
+        {
+            if (this.largeCount == this.large.length)
+            {
+                this.large = Arrays.copyOf(this.large, 2 * this.largeCount);
+            }
+            this.large[this.largeCount++] = handle;
+            return;
+        }
+        for (int r = this.entryCells[e + 1]; r <= this.entryCells[e + 3]; r++)
+        {
+            for (int c = this.entryCells[e]; c <= this.entryCells[e + 2]; c++)
+            {
+                int cell = r * this.columns + c;
+                int[] handlesInCell = this.cells[cell];
+                if (handlesInCell == null)
+                {
+                    handlesInCell = new int[4];
+                    this.cells[cell] = handlesInCell;
+                }
+                else if (this.cellCount[cell] == handlesInCell.length)
+                {
+                    handlesInCell = Arrays.copyOf(handlesInCell, 2 * handlesInCell.length);
+                    this.cells[cell] = handlesInCell;
+                }
+                handlesInCell[this.cellCount[cell]++] = handle;
+            }
+        }
+    }
+
+    /**
+     * Remove an entry from its cells or from the large object list; the last handle of a cell takes its place.
+     * @param handle the handle of the entry
+     */
+    private void delete(final int handle)
+    {
+        int e = 4 * handle;
+        if (this.entryCells[e] == LARGE)
+        {
+            this.largeCount = removeHandle(this.large, this.largeCount, handle);
+            return;
+        }
+        for (int r = this.entryCells[e + 1]; r <= this.entryCells[e + 3]; r++)
+        {
+            for (int c = this.entryCells[e]; c <= this.entryCells[e + 2]; c++)
+            {
+                int cell = r * this.columns + c;
+                this.cellCount[cell] = removeHandle(this.cells[cell], this.cellCount[cell], handle);
+            }
+        }
+    }
+
+    /**
+     * Remove a handle from an array; the last handle takes its place.
+     * @param array the array
+     * @param count the number of handles in the array
+     * @param handle the handle to remove
+     * @return the new number of handles in the array
+     */
+    private static int removeHandle(final int[] array, final int count, final int handle)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            if (array[i] == handle)
+            {
+                array[i] = array[count - 1];
+                return count - 1;
+            }
+        }
+        throw new IllegalStateException("handle " + handle + " not found");
+    }
+
+    /**
+     * Compute the cell range of an entry from its bounding box.
+     * @param handle the handle of the entry
+     */
+    private void setCells(final int handle)
+    {
+        int b = 4 * handle;
+        int c0 = column(this.entryBox[b]);
+        int r0 = row(this.entryBox[b + 1]);
+        int c1 = column(this.entryBox[b + 2]);
+        int r1 = row(this.entryBox[b + 3]);
+        if ((long) (c1 - c0 + 1) * (r1 - r0 + 1) > MAX_OBJECT_CELLS)
+        {
+            c0 = LARGE;
+        }
+        this.entryCells[b] = c0;
+        this.entryCells[b + 1] = r0;
+        this.entryCells[b + 2] = c1;
+        this.entryCells[b + 3] = r1;
+    }
+
+    /**
+     * Return the column of an x coordinate, clamped to the grid.
+     * @param x the x coordinate
+     * @return the column of the x coordinate
+     */
+    private int column(final double x)
+    {
+        int c = (int) ((x - this.minX) / this.cellSize);
+        return c < 0 ? 0 : (c >= this.columns ? this.columns - 1 : c);
+    }
+
+    /**
+     * Return the row of a y coordinate, clamped to the grid.
+     * @param y the y coordinate
+     * @return the row of the y coordinate
+     */
+    private int row(final double y)
+    {
+        int r = (int) ((y - this.minY) / this.cellSize);
+        return r < 0 ? 0 : (r >= this.rows ? this.rows - 1 : r);
+    }
+
+    /**
+     * Return whether the bounding box of an entry intersects with a search box. Boxes that touch intersect.
+     * @param handle the handle of the entry
+     * @param qMinX minimum x of the search box
+     * @param qMinY minimum y of the search box
+     * @param qMaxX maximum x of the search box
+     * @param qMaxY maximum y of the search box
+     * @return whether the boxes intersect
+     */
+    private boolean intersects(final int handle, final double qMinX, final double qMinY, final double qMaxX,
+            final double qMaxY)
+    {
+        int b = 4 * handle;
+        return this.entryBox[b] <= qMaxX && this.entryBox[b + 2] >= qMinX && this.entryBox[b + 1] <= qMaxY
+                && this.entryBox[b + 3] >= qMinY;
+    }
+
+    /**
+     * Write the bounding box of an entry.
+     * @param handle the handle of the entry
+     * @param bMinX minimum x
+     * @param bMinY minimum y
+     * @param bMaxX maximum x
+     * @param bMaxY maximum y
+     */
+    private void setBox(final int handle, final double bMinX, final double bMinY, final double bMaxX, final double bMaxY)
+    {
+        int b = 4 * handle;
+        this.entryBox[b] = bMinX;
+        this.entryBox[b + 1] = bMinY;
+        this.entryBox[b + 2] = bMaxX;
+        this.entryBox[b + 3] = bMaxY;
+    }
+
+    /**
+     * Return a free handle, growing the entry arrays when needed.
+     * @return the handle
+     */
+    private int allocateEntry()
+    {
+        if (this.freeEntryCount > 0)
+        {
+            return this.freeEntries[--this.freeEntryCount];
+        }
+        if (this.entryTop == this.entryObject.length)
+        {
+            int capacity = 2 * this.entryObject.length;
+            this.entryBox = Arrays.copyOf(this.entryBox, 4 * capacity);
+            this.entryCells = Arrays.copyOf(this.entryCells, 4 * capacity);
+            this.entryObject = Arrays.copyOf(this.entryObject, capacity);
+            this.freeEntries = Arrays.copyOf(this.freeEntries, capacity);
+        }
+        return this.entryTop++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeGrid [size=" + size() + ", cellSize=" + this.cellSize + ", columns=" + this.columns + ", rows="
+                + this.rows + ", large=" + this.largeCount + "]";
+    }
+
+}
@@ -1,18 +1,21 @@
 package org.opentrafficsim.spatialtree.h2;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Consumer;
 
 import org.djunits.value.vdouble.scalar.Time;
 import org.djutils.exceptions.Throw;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.db.SpatialKey;
 import org.h2.mvstore.rtree.MVRTreeMap;
 import org.h2.mvstore.rtree.MVRTreeMap.RTreeCursor;
-import org.h2.mvstore.rtree.Spatial;
 import org.h2.mvstore.type.ObjectDataType;
 import org.opentrafficsim.base.HierarchicalType;
 import org.opentrafficsim.base.HierarchicallyTyped;
@@ -20,11 +23,35 @@ import org.opentrafficsim.core.DynamicSpatialObject;
 import org.opentrafficsim.core.SpatialObject;
 import org.opentrafficsim.core.geometry.Bounds;
 import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialObjectIdentifier;
 import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.BulkLoad;
+import org.opentrafficsim.spatialtree.util.Quantization;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
 
 /**
  * SpatialTreeH2 based on MVRTreeMap.
  * <p>
+ * By default the map is kept in an in-memory store, with the objects as values. A tree that is opened on a file keeps the map
+ * of the static infrastructure of a network in the file instead, memory-mapped, with the ids of the objects as values and a
+ * second map from these ids to their keys. The index can then be built in one run with {@link #addToFile(SpatialObject)},
+ * committed, and reopened in later runs and replications: adding an object of which the id is in the file with the same
+ * bounding box only binds the object to its id, without a change of the file, and the store only reads the pages of the tree
+ * that a search touches. Candidates of which the id has not been bound in this run are skipped.
+ * </p>
+ * <p>
+ * All other objects of a tree on a file, such as the GTUs, and the objects that are bound to the file but move or are removed,
+ * are kept in a map in memory, the overlay, that the searches visit after the map of the file. Only {@link #addToFile} writes
+ * to the file, so the file does not collect the objects of a run, and a file that is opened read-only, which can be shared by
+ * several processes, accepts all changes of the run. A tree on a file should be closed.
+ * </p>
+ * <p>
+ * The keys store the boxes as floats. The boxes of the objects and the searches are rounded outward, so a search does not
+ * miss objects of which the box is only a fraction of a float step away, as happens on large (national grid) coordinates.
+ * </p>
+ * <p>
  * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
  * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
  * </p>
@@ -34,51 +61,312 @@ import org.opentrafficsim.spatialtree.SpatialTree;
  */
 public class SpatialTreeH2 implements SpatialTree
 {
-    /** the tree object. */
+    /** the key of the id counter in the meta map of a file. */
+    private static final String COUNTER = "counter";
+
+    /** the store of the tree. */
+    private final MVStore store;
+
+    /** the tree object; the values are the objects, or their ids when the tree is kept in a file. */
     private final MVRTreeMap<Object> tree;
 
+    /** the in-memory store of the overlay; null when the tree is in memory. */
+    private final MVStore overlayStore;
+
+    /** the overlay with the objects that are not bound to the file as values; null when the tree is in memory. */
+    private final MVRTreeMap<Object> overlay;
+
+    /** the objects that are bound to their key in the file; null when the tree is in memory. */
+    private final Set<SpatialObject> bound;
+
+    /** per object id, the id and bounds of its key, as id, minX, maxX, minY, maxY; null when the tree is in memory. */
+    private final MVMap<String, double[]> keys;
+
+    /** the meta data of the file, with the id counter; null when the tree is in memory. */
+    private final MVMap<String, Object> meta;
+
+    /** the ids of the objects when the tree is kept in a file; null when the tree is in memory. */
+    private final SpatialObjectIdentifier identifier;
+
+    /** the objects of this run by id when the tree is kept in a file; null when the tree is in memory. */
+    private final Map<String, SpatialObject> objectsById;
+
+    /** whether the file is opened read-only. */
+    private final boolean readOnly;
+
     /** object counter. */
     private long counter = 1L; // 0 reserved for search key
 
-    /** the bounding boxes of the dynamic objects at the time of insertion. */
+    /** the keys of all objects, in the map of the file or of the overlay for a tree on a file. */
     final Map<SpatialObject, SpatialKey> bboxMap = new LinkedHashMap<>();
 
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /** the key for the searches, with id 0. */
+    private final SpatialKey searchKey = new SpatialKey(0L, 0.0f, 0.0f, 0.0f, 0.0f);
+
     /**
      * Constructor; initialize the spatial index.
      */
     public SpatialTreeH2()
     {
-        MVStore s = MVStore.open(null);
+        this.store = MVStore.open(null);
         MVRTreeMap.Builder<Object> builder = new MVRTreeMap.Builder<>().dimensions(2);
         builder.setValueType(new ObjectDataType());
-        this.tree = s.openMap("data", builder);
+        this.tree = this.store.openMap("data", builder);
+        this.overlayStore = null;
+        this.overlay = null;
+        this.bound = null;
+        this.keys = null;
+        this.meta = null;
+        this.identifier = null;
+        this.objectsById = null;
+        this.readOnly = false;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Constructor; open the spatial index in a file, which is created when it does not exist. The file is memory-mapped, and
+     * the objects that are added to the file are only written to the file by {@link #commit()} and {@link #close()}.
+     * @param fileName the name of the file
+     * @param identifier gives the objects an id that is the same in every run
+     * @param readOnly whether the file is opened read-only, so no objects can be added to the file; all objects that are not
+     *            in the file are kept in the overlay
+     */
+    public SpatialTreeH2(final String fileName, final SpatialObjectIdentifier identifier, final boolean readOnly)
+    {
+        Throw.whenNull(fileName, "fileName cannot be null");
+        Throw.whenNull(identifier, "identifier cannot be null");
+        MVStore.Builder storeBuilder = new MVStore.Builder().fileName("nioMapped:" + fileName).autoCommitDisabled();
+        this.store = readOnly ? storeBuilder.readOnly().open() : storeBuilder.open();
+        MVRTreeMap.Builder<Object> builder = new MVRTreeMap.Builder<>().dimensions(2);
+        builder.setValueType(new ObjectDataType());
+        this.tree = this.store.openMap("data", builder);
+        this.overlayStore = MVStore.open(null);
+        MVRTreeMap.Builder<Object> overlayBuilder = new MVRTreeMap.Builder<>().dimensions(2);
+        overlayBuilder.setValueType(new ObjectDataType());
+        this.overlay = this.overlayStore.openMap("data", overlayBuilder);
+        this.bound = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.keys = this.store.openMap("keys");
+        this.meta = this.store.openMap("meta");
+        this.identifier = identifier;
+        this.objectsById = new HashMap<>();
+        this.readOnly = readOnly;
+        Object storedCounter = this.meta.get(COUNTER);
+        if (storedCounter != null)
+        {
+            this.counter = (Long) storedCounter;
+        }
+    }
+
+    /**
+     * Add an object to the tree. In a tree on a file, an object of which the id is in the file with the same bounding box is
+     * bound to its key in the file, and other objects are added to the overlay; the file is not changed.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
     {
+        if (this.identifier != null && bind(object))
+        {
+            return;
+        }
         Bounds bb = object.getShape().getEnvelope();
-        SpatialKey key = new SpatialKey(this.counter, (float) bb.getMinX(), (float) bb.getMaxX(), (float) bb.getMinY(),
-                (float) bb.getMaxY());
-        this.tree.add(key, object);
+        SpatialKey key = new SpatialKey(this.counter, Quantization.floatDown(bb.getMinX()),
+                Quantization.floatUp(bb.getMaxX()), Quantization.floatDown(bb.getMinY()), Quantization.floatUp(bb.getMaxY()));
+        memoryMap().add(key, object);
         this.bboxMap.put(object, key);
         this.counter++;
     }
 
-    /** {@inheritDoc} */
-    @SuppressWarnings("unlikely-arg-type")
+    /**
+     * Add a static object, such as a lane, to the file of a tree on a file, so later runs can bind it. When the file has the
+     * id of the object with the same bounding box, the object is only bound to its key; when it has the id with another
+     * bounding box, the key is moved. The change is written to the file at the next {@link #commit()}. Dynamic objects, such
+     * as GTUs, should be added with {@link #add(HierarchicallyTyped)}, which keeps them in the overlay.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the static object to store in the file
+     * @throws IllegalStateException when the tree is not on a file, or when the object is not in a file that is opened
+     *             read-only with its current bounding box
+     */
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addToFile(
+            final I object)
+    {
+        Throw.whenNull(object, "object in addToFile cannot be null");
+        Throw.when(this.identifier == null, IllegalStateException.class, "a tree in memory has no file");
+        SpatialKey overlayKey = this.bound.contains(object) ? null : this.bboxMap.get(object);
+        if (overlayKey != null)
+        {
+            this.overlay.remove(overlayKey, object);
+            this.bboxMap.remove(object);
+        }
+        if (bind(object))
+        {
+            return;
+        }
+        String id = this.identifier.getId(object);
+        Throw.when(this.readOnly, IllegalStateException.class,
+                "object %s cannot be added to the read-only index with its current bounds", id);
+        Bounds bb = object.getShape().getEnvelope();
+        float minX = Quantization.floatDown(bb.getMinX());
+        float minY = Quantization.floatDown(bb.getMinY());
+        float maxX = Quantization.floatUp(bb.getMaxX());
+        float maxY = Quantization.floatUp(bb.getMaxY());
+        double[] stored = this.keys.get(id);
+        long keyId;
+        if (stored != null)
+        {
+            keyId = (long) stored[0];
+            this.tree.remove(new SpatialKey(keyId, (float) stored[1], (float) stored[2], (float) stored[3],
+                    (float) stored[4]), id);
+        }
+        else
+        {
+            keyId = this.counter++;
+            this.meta.put(COUNTER, this.counter);
+        }
+        SpatialKey key = new SpatialKey(keyId, minX, maxX, minY, maxY);
+        this.tree.add(key, id);
+        this.keys.put(id, new double[] {keyId, minX, maxX, minY, maxY});
+        this.bboxMap.put(object, key);
+        this.objectsById.put(id, object);
+        this.bound.add(object);
+    }
+
+    /**
+     * Bind an object to its key in the file, when the file has the id of the object with the same bounding box.
+     * @param object the object to bind
+     * @return whether the object was bound to its key in the file
+     */
+    private boolean bind(final SpatialObject object)
+    {
+        String id = this.identifier.getId(object);
+        double[] stored = this.keys.get(id);
+        if (stored == null)
+        {
+            return false;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        float minX = Quantization.floatDown(bb.getMinX());
+        float minY = Quantization.floatDown(bb.getMinY());
+        float maxX = Quantization.floatUp(bb.getMaxX());
+        float maxY = Quantization.floatUp(bb.getMaxY());
+        if (stored[1] != minX || stored[2] != maxX || stored[3] != minY || stored[4] != maxY)
+        {
+            return false;
+        }
+        this.bboxMap.put(object, new SpatialKey((long) stored[0], minX, maxX, minY, maxY));
+        this.objectsById.put(id, object);
+        this.bound.add(object);
+        return true;
+    }
+
+    /**
+     * Unbind an object from its key in the file, which stays in the file, and is skipped by the searches of this run.
+     * @param object the object to unbind
+     */
+    private void unbind(final SpatialObject object)
+    {
+        this.bound.remove(object);
+        this.objectsById.remove(this.identifier.getId(object));
+        this.bboxMap.remove(object);
+    }
+
+    /**
+     * Return the map in memory with the objects as values: the map of the tree for a tree in memory, and the overlay for a
+     * tree on a file.
+     * @return the map in memory with the objects as values
+     */
+    private MVRTreeMap<Object> memoryMap()
+    {
+        return this.overlay == null ? this.tree : this.overlay;
+    }
+
+    /**
+     * Add objects to the map in Hilbert order. The MVRTreeMap has no bulk load, but keys that are inserted one after the other
+     * end up in the same pages when they are close to each other, which gives smaller pages than inserting them in arbitrary
+     * order.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        for (I object : BulkLoad.hilbertSorted(objects))
+        {
+            add(object);
+        }
+    }
+
+    /**
+     * Remove an object from the tree. In a tree on a file, an object that is bound to its key in the file is unbound, and its
+     * key stays in the file.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are removing
+     * @param object the object to remove
+     * @return whether the object was in the tree
+     */
     @Override
     public <T extends HierarchicalType<T, I>,
             I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
     {
         SpatialKey key = this.bboxMap.get(object);
-        if (key != null)
+        if (key == null)
         {
-            this.bboxMap.remove(object);
-            return this.tree.remove(key, object);
+            return false;
+        }
+        if (this.bound != null && this.bound.contains(object))
+        {
+            unbind(object);
+            return true;
         }
-        return false;
+        this.bboxMap.remove(object);
+        return memoryMap().remove(key, object);
+    }
+
+    /**
+     * Update the position of an object; the new key gets the id of the old key, so no new id is used. Nothing changes in the
+     * tree when the bounding box is the same. In a tree on a file, an object that is bound to its key in the file and moves is
+     * unbound and added to the overlay, so the file is not changed.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    @Override
+    @SuppressWarnings("unlikely-arg-type")
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        SpatialKey oldKey = this.bboxMap.get(object);
+        if (oldKey == null)
+        {
+            add(object);
+            return;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        float minX = Quantization.floatDown(bb.getMinX());
+        float minY = Quantization.floatDown(bb.getMinY());
+        float maxX = Quantization.floatUp(bb.getMaxX());
+        float maxY = Quantization.floatUp(bb.getMaxY());
+        if (oldKey.min(0) == minX && oldKey.max(0) == maxX && oldKey.min(1) == minY && oldKey.max(1) == maxY)
+        {
+            return;
+        }
+        if (this.bound != null && this.bound.contains(object))
+        {
+            unbind(object);
+            add(object);
+            return;
+        }
+        SpatialKey key = new SpatialKey(oldKey.getId(), minX, maxX, minY, maxY);
+        memoryMap().remove(oldKey, object);
+        memoryMap().add(key, object);
+        this.bboxMap.put(object, key);
     }
 
     /** {@inheritDoc} */
@@ -86,31 +374,8 @@ public class SpatialTreeH2 implements SpatialTree
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
             final OtsShape shape, final Class<I> searchClass)
     {
-        Throw.whenNull(shape, "shape in find cannot be null");
-        Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        SpatialKey searchKey = new SpatialKey(this.counter, (float) bb.getMinX(), (float) bb.getMaxX(), (float) bb.getMinY(),
-                (float) bb.getMaxY());
         final Set<I> returnSet = new LinkedHashSet<>();
-        RTreeCursor<Object> it = this.tree.findIntersectingKeys(searchKey);
-        it.forEachRemaining(new Consumer<Spatial>()
-        {
-            @Override
-            public void accept(final Spatial t)
-            {
-                SpatialObject so = (SpatialObject) SpatialTreeH2.this.tree.get(t);
-                if (searchClass.isAssignableFrom(so.getClass()))
-                {
-                    @SuppressWarnings("unchecked")
-                    I cso = (I) so;
-                    if (type == null || cso.isOfType(type))
-                    {
-                        if (so.getShape().intersects(shape))
-                            returnSet.add(cso);
-                    }
-                }
-            }
-        });
+        find(type, shape, searchClass, returnSet);
         return returnSet;
     }
 
@@ -118,36 +383,174 @@ public class SpatialTreeH2 implements SpatialTree
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
             final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
     {
         Throw.whenNull(shape, "shape in find cannot be null");
         Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        SpatialKey searchKey = new SpatialKey(this.counter, (float) bb.getMinX(), (float) bb.getMaxX(), (float) bb.getMinY(),
-                (float) bb.getMaxY());
-        final Set<I> returnSet = new LinkedHashSet<>();
-        RTreeCursor<Object> it = this.tree.findIntersectingKeys(searchKey);
-        it.forEachRemaining(new Consumer<Spatial>()
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Return a snapshot with a copy of the objects and of their keys, from which a tree is built at the first search of the
+     * snapshot. The keys are rounded outward, so the snapshot does not miss objects.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        Object[] objects = new Object[this.bboxMap.size()];
+        double[] boxes = new double[4 * objects.length];
+        int i = 0;
+        for (Map.Entry<SpatialObject, SpatialKey> entry : this.bboxMap.entrySet())
+        {
+            SpatialKey key = entry.getValue();
+            objects[i] = entry.getKey();
+            boxes[4 * i] = key.min(0);
+            boxes[4 * i + 1] = key.min(1);
+            boxes[4 * i + 2] = key.max(0);
+            boxes[4 * i + 3] = key.max(1);
+            i++;
+        }
+        return new SpatialTreeSnapshot(objects, boxes);
+    }
+
+    /**
+     * Write the objects that were added to the file to the file. Nothing happens for a tree in memory or a file that is opened
+     * read-only; the overlay is never written.
+     */
+    public void commit()
+    {
+        if (this.identifier != null && !this.readOnly)
         {
-            @Override
-            public void accept(final Spatial t)
+            this.store.commit();
+        }
+    }
+
+    /**
+     * Write the changes of a tree that is kept in a file to the file, and close the file. The tree cannot be used after it has
+     * been closed.
+     */
+    public void close()
+    {
+        this.store.close();
+        if (this.overlayStore != null)
+        {
+            this.overlayStore.close();
+        }
+    }
+
+    /**
+     * Return whether the tree is kept in a file.
+     * @return whether the tree is kept in a file
+     */
+    public boolean isPersistent()
+    {
+        return this.identifier != null;
+    }
+
+    /**
+     * Offer the objects of which the key intersects with the bounding box of the search shape to a started filter, until the
+     * filter stops the search, and finish the filter. The cursor of the tree is the only object that is created. In a tree
+     * that is kept in a file, the values are ids, which are resolved to the objects of this run, and the overlay is searched
+     * after the file.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            this.searchKey.setMin(0, Quantization.floatDown(bb.getMinX()));
+            this.searchKey.setMax(0, Quantization.floatUp(bb.getMaxX()));
+            this.searchKey.setMin(1, Quantization.floatDown(bb.getMinY()));
+            this.searchKey.setMax(1, Quantization.floatUp(bb.getMaxY()));
+            if (offer(this.tree, this.objectsById != null, searchFilter) && this.overlay != null)
+            {
+                offer(this.overlay, false, searchFilter);
+            }
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Offer the objects of a map of which the key intersects with the search key to a started filter, until the filter stops
+     * the search.
+     * @param map the map to search
+     * @param resolve whether the values are ids, which are resolved to the objects of this run
+     * @param searchFilter the started filter
+     * @return whether the filter did not stop the search
+     */
+    private boolean offer(final MVRTreeMap<Object> map, final boolean resolve, final SpatialFilter searchFilter)
+    {
+        RTreeCursor<Object> it = map.findIntersectingKeys(this.searchKey);
+        while (it.hasNext())
+        {
+            Object value = map.get(it.next());
+            if (resolve)
             {
-                SpatialObject so = (SpatialObject) SpatialTreeH2.this.tree.get(t);
-                if (searchClass.isAssignableFrom(so.getClass()))
+                value = this.objectsById.get(value);
+                if (value == null)
                 {
-                    @SuppressWarnings("unchecked")
-                    I dso = (I) so;
-                    if (type == null || dso.isOfType(type))
-                    {
-                        // find the current shape of the dynamic spatial object
-                        // if (shape.intersects(dso.getShape(time)))
-                        // returnSet.add(dso);
-                        if (dso.getShape(time).intersects(shape))
-                            returnSet.add(dso);
-                    }
+                    continue; // in the file, but not bound in this run
                 }
             }
-        });
-        return returnSet;
+            if (!searchFilter.offer(value))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
 }
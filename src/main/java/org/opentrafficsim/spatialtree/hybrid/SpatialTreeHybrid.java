@@ -0,0 +1,351 @@
+package org.opentrafficsim.spatialtree.hybrid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.NearestSearch;
+
+/**
+ * Spatial tree that combines a tree for the static objects with a tree for the dynamic objects. Objects that are not a
+ * DynamicSpatialObject, such as lanes, go into the static tree, which can be a packed tree that is built once, e.g.,
+ * SpatialTreeJtsStrTree or SpatialTreeJtsHprTree. DynamicSpatialObjects, such as GTUs, go into the dynamic tree, which should
+ * be a mutable tree such as SpatialTreeNative. The infrastructure is typically added when the network is built, before the
+ * first query, so the packed tree is built once and infrastructure queries run at the speed of a packed tree, while the GTUs
+ * move in a tree that only holds GTUs.
+ * <p>
+ * The find methods search both trees, and skip the static tree when the search class is a DynamicSpatialObject, which holds
+ * for the find methods with a time.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeHybrid implements SpatialTree
+{
+    /** the tree for the static objects. */
+    private final SpatialTree staticTree;
+
+    /** the tree for the dynamic objects. */
+    private final SpatialTree dynamicTree;
+
+    /** the visitor of the running search; null when no search is running. */
+    private SpatialVisitor<Object> target = null;
+
+    /** whether the visitor of the running search has stopped the search. */
+    private boolean stopped;
+
+    /** the visitor that is passed to the trees, and that forwards the objects to the visitor of the running search. */
+    private final SpatialVisitor<Object> forward = new SpatialVisitor<Object>()
+    {
+        @Override
+        public boolean visit(final Object object)
+        {
+            SpatialTreeHybrid hybrid = SpatialTreeHybrid.this;
+            hybrid.stopped = !hybrid.target.visit(object);
+            return !hybrid.stopped;
+        }
+    };
+
+    /** the nearest objects of both trees, in the last nearest-neighbour search. */
+    private final List<Object> nearestCandidates = new ArrayList<>();
+
+    /** the state of the nearest-neighbour searches, to merge the nearest objects of both trees. */
+    private final NearestSearch nearestSearch = new NearestSearch();
+
+    /**
+     * Constructor; combine a tree for the static objects with a tree for the dynamic objects.
+     * @param staticTree the empty tree for the objects that are not a DynamicSpatialObject, e.g., a packed tree
+     * @param dynamicTree the empty tree for the DynamicSpatialObjects, a mutable tree
+     */
+    public SpatialTreeHybrid(final SpatialTree staticTree, final SpatialTree dynamicTree)
+    {
+        Throw.whenNull(staticTree, "staticTree cannot be null");
+        Throw.whenNull(dynamicTree, "dynamicTree cannot be null");
+        this.staticTree = staticTree;
+        this.dynamicTree = dynamicTree;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        treeOf(object).add(object);
+    }
+
+    /**
+     * Add objects to the tree. The objects are split into the static and the dynamic objects, and each tree gets its objects
+     * in one call, so a packed static tree is built once from all static objects.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        List<I> staticObjects = new ArrayList<>();
+        List<I> dynamicObjects = new ArrayList<>();
+        for (I object : objects)
+        {
+            if (object instanceof DynamicSpatialObject)
+            {
+                dynamicObjects.add(object);
+            }
+            else
+            {
+                staticObjects.add(object);
+            }
+        }
+        this.staticTree.addAll(staticObjects);
+        this.dynamicTree.addAll(dynamicObjects);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        return treeOf(object).remove(object);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        treeOf(object).update(object);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        start(visitor);
+        try
+        {
+            if (mayBeStatic(searchClass))
+            {
+                this.staticTree.find(type, shape, searchClass, this.forward);
+            }
+            if (!this.stopped)
+            {
+                this.dynamicTree.find(type, shape, searchClass, this.forward);
+            }
+        }
+        finally
+        {
+            this.target = null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        this.dynamicTree.find(type, shape, searchClass, time, visitor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        int count = mayBeStatic(searchClass) ? this.staticTree.find(type, shape, searchClass, result) : 0;
+        return count + this.dynamicTree.find(type, shape, searchClass, result);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        return this.dynamicTree.find(type, shape, searchClass, time, result);
+    }
+
+    /**
+     * Add the k nearest objects to a collection, nearest first. When the search class can be a static object, the k nearest
+     * objects of both trees are merged by their distance.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify); null for all types
+     * @param point the point to which the distance is measured
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param k the maximum number of objects to add
+     * @param maxDistance the maximum distance of the objects; use Length.POSITIVE_INFINITY for no maximum
+     * @param result the collection to which the objects are added, nearest first
+     * @return the number of objects that were found
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        Throw.whenNull(searchClass, "searchClass in findNearest cannot be null");
+        if (!mayBeStatic(searchClass))
+        {
+            return this.dynamicTree.findNearest(type, point, searchClass, k, maxDistance, result);
+        }
+        Throw.whenNull(point, "point in findNearest cannot be null");
+        Throw.whenNull(maxDistance, "maxDistance in findNearest cannot be null");
+        Throw.whenNull(result, "result in findNearest cannot be null");
+        Throw.when(k < 0, IllegalArgumentException.class, "k in findNearest cannot be negative");
+        NearestSearch search = this.nearestSearch.start(type, point, searchClass, k, maxDistance.si, result);
+        try
+        {
+            if (k > 0)
+            {
+                this.staticTree.findNearest(type, point, searchClass, k, maxDistance, this.nearestCandidates);
+                this.dynamicTree.findNearest(type, point, searchClass, k, maxDistance, this.nearestCandidates);
+            }
+            for (int i = 0; i < this.nearestCandidates.size(); i++)
+            {
+                search.push(search.distance(this.nearestCandidates.get(i)), i);
+            }
+            while (!search.isEmpty())
+            {
+                if (!search.add(this.nearestCandidates.get(search.pop())))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            search.finish();
+            this.nearestCandidates.clear();
+        }
+        return search.getCount();
+    }
+
+    /**
+     * Return a snapshot that combines the snapshots of the static and the dynamic tree.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        return new SpatialTreeSnapshot(new SpatialTreeHybrid(this.staticTree.snapshot(), this.dynamicTree.snapshot()), false);
+    }
+
+    /**
+     * Return a view of this frozen tree that shares its sub-trees, which are thread-safe snapshots, and has its own search
+     * state.
+     * @return a read-only view of this frozen tree with its own search state
+     */
+    @Override
+    public SpatialTree view()
+    {
+        return new SpatialTreeHybrid(this.staticTree, this.dynamicTree);
+    }
+
+    /**
+     * Start a search with a visitor.
+     * @param visitor the visitor of the search
+     * @throws IllegalStateException when a search is already running
+     */
+    @SuppressWarnings("unchecked")
+    private void start(final SpatialVisitor<?> visitor)
+    {
+        if (this.target != null)
+        {
+            throw new IllegalStateException("A spatial tree cannot be searched from within a search of the same tree");
+        }
+        this.target = (SpatialVisitor<Object>) visitor;
+        this.stopped = false;
+    }
+
+    /**
+     * Return the tree for an object.
+     * @param object the object
+     * @return the dynamic tree for a DynamicSpatialObject, the static tree otherwise
+     */
+    private SpatialTree treeOf(final SpatialObject object)
+    {
+        return object instanceof DynamicSpatialObject ? this.dynamicTree : this.staticTree;
+    }
+
+    /**
+     * Return whether objects of a search class can be in the static tree, i.e., whether the search class is not a
+     * DynamicSpatialObject.
+     * @param searchClass the class we are looking for
+     * @return whether objects of the search class can be in the static tree
+     */
+    private static boolean mayBeStatic(final Class<?> searchClass)
+    {
+        return !DynamicSpatialObject.class.isAssignableFrom(searchClass);
+    }
+
+    /**
+     * Return the tree for the static objects.
+     * @return the tree for the static objects
+     */
+    public SpatialTree getStaticTree()
+    {
+        return this.staticTree;
+    }
+
+    /**
+     * Return the tree for the dynamic objects.
+     * @return the tree for the dynamic objects
+     */
+    public SpatialTree getDynamicTree()
+    {
+        return this.dynamicTree;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeHybrid [staticTree=" + this.staticTree + ", dynamicTree=" + this.dynamicTree + "]";
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.opentrafficsim.spatialtree.instrumented;
+
+/**
+ * The operations of a spatial tree for which SpatialTreeInstrumented keeps statistics.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public enum Operation
+{
+    /** add of one object. */
+    ADD,
+
+    /** remove of one object; the result size is 1 when the object was in the tree. */
+    REMOVE,
+
+    /** update of one object. */
+    UPDATE,
+
+    /** add of a collection of objects; the result size is the number of objects. */
+    ADD_ALL,
+
+    /** any of the find methods with a search shape; the result size is the number of objects found. */
+    FIND,
+
+    /** any of the findNearest methods; the result size is the number of objects found. */
+    FIND_NEAREST;
+}
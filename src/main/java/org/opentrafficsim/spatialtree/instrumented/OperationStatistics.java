@@ -0,0 +1,250 @@
+package org.opentrafficsim.spatialtree.instrumented;
+
+import org.djutils.exceptions.Throw;
+
+/**
+ * Statistics of one operation of an instrumented tree, summed over all threads: the number of operations, a histogram of
+ * their latencies, their result sizes, and, for the searches, the candidates that the index offered and why candidates were
+ * rejected. The histogram has four buckets per power of 2 of the latency in ns, so a percentile is known within 25%.
+ * <p>
+ * A candidate is an object of which the bounding box overlaps with the bounding box of the search shape. The false positives
+ * are the candidates that do not qualify: they do not have the class or the type of the search, or their exact shape does not
+ * overlap with the search shape. Many class or type rejects point at a tree that should be partitioned; many shape rejects at
+ * long, diagonal or curved objects or search shapes, of which the bounding box is much larger than the shape.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class OperationStatistics
+{
+    /** the number of buckets of the histogram, enough for any non-negative long. */
+    static final int BUCKETS = 248;
+
+    /** the operation. */
+    private final Operation operation;
+
+    /** the number of operations. */
+    private final long count;
+
+    /** the sum of the latencies, in ns. */
+    private final long totalNanos;
+
+    /** the sum of the result sizes. */
+    private final long results;
+
+    /** the number of candidates that the index offered to the filter of the searches. */
+    private final long candidates;
+
+    /** the number of candidates that did not have the class of the search. */
+    private final long classRejects;
+
+    /** the number of candidates that did not have the type of the search. */
+    private final long typeRejects;
+
+    /** the number of candidates of which the shape did not overlap with the search shape. */
+    private final long shapeRejects;
+
+    /** the number of operations per latency bucket. */
+    private final long[] histogram;
+
+    /**
+     * Create the statistics of an operation.
+     * @param operation the operation
+     * @param counters the number of operations, the sum of the latencies in ns, the sum of the result sizes, the candidates,
+     *            the class rejects, the type rejects and the shape rejects, in this order
+     * @param histogram the number of operations per latency bucket, which is not copied
+     */
+    OperationStatistics(final Operation operation, final long[] counters, final long[] histogram)
+    {
+        this.operation = operation;
+        this.count = counters[0];
+        this.totalNanos = counters[1];
+        this.results = counters[2];
+        this.candidates = counters[3];
+        this.classRejects = counters[4];
+        this.typeRejects = counters[5];
+        this.shapeRejects = counters[6];
+        this.histogram = histogram;
+    }
+
+    /**
+     * Return the operation.
+     * @return the operation
+     */
+    public Operation getOperation()
+    {
+        return this.operation;
+    }
+
+    /**
+     * Return the number of operations.
+     * @return the number of operations
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Return the total latency of the operations.
+     * @return the total latency of the operations, in ns
+     */
+    public long getTotalNanos()
+    {
+        return this.totalNanos;
+    }
+
+    /**
+     * Return the mean latency of the operations.
+     * @return the mean latency of the operations, in ns; NaN when there were no operations
+     */
+    public double getMeanNanos()
+    {
+        return this.count == 0 ? Double.NaN : (double) this.totalNanos / this.count;
+    }
+
+    /**
+     * Return a percentile of the latency of the operations, as the smallest latency of the bucket of the histogram in which
+     * the percentile falls.
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile of the latency, in ns; NaN when there were no operations
+     * @throws IllegalArgumentException when the percentile is not between 0 and 100
+     */
+    public double getPercentileNanos(final double percentile)
+    {
+        Throw.when(percentile < 0.0 || percentile > 100.0, IllegalArgumentException.class,
+                "percentile %f not between 0 and 100", percentile);
+        if (this.count == 0)
+        {
+            return Double.NaN;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * this.count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += this.histogram[i];
+            if (seen >= rank)
+            {
+                return lowerBound(i);
+            }
+        }
+        return lowerBound(BUCKETS - 1);
+    }
+
+    /**
+     * Return the sum of the result sizes of the operations.
+     * @return the sum of the result sizes of the operations
+     */
+    public long getResults()
+    {
+        return this.results;
+    }
+
+    /**
+     * Return the mean result size of the operations.
+     * @return the mean result size of the operations; NaN when there were no operations
+     */
+    public double getMeanResultSize()
+    {
+        return this.count == 0 ? Double.NaN : (double) this.results / this.count;
+    }
+
+    /**
+     * Return the number of candidates that the index offered for the searches.
+     * @return the number of candidates that the index offered for the searches
+     */
+    public long getCandidates()
+    {
+        return this.candidates;
+    }
+
+    /**
+     * Return the mean number of candidates per search.
+     * @return the mean number of candidates per search; NaN when there were no operations
+     */
+    public double getMeanCandidates()
+    {
+        return this.count == 0 ? Double.NaN : (double) this.candidates / this.count;
+    }
+
+    /**
+     * Return the number of candidates that did not have the class of the search.
+     * @return the number of candidates that did not have the class of the search
+     */
+    public long getClassRejects()
+    {
+        return this.classRejects;
+    }
+
+    /**
+     * Return the number of candidates that did not have the type of the search.
+     * @return the number of candidates that did not have the type of the search
+     */
+    public long getTypeRejects()
+    {
+        return this.typeRejects;
+    }
+
+    /**
+     * Return the number of candidates of which the exact shape did not overlap with the search shape.
+     * @return the number of candidates of which the exact shape did not overlap with the search shape
+     */
+    public long getShapeRejects()
+    {
+        return this.shapeRejects;
+    }
+
+    /**
+     * Return the fraction of the candidates that did not qualify.
+     * @return the fraction of the candidates that did not qualify; NaN when there were no candidates
+     */
+    public double getFalsePositiveRatio()
+    {
+        return this.candidates == 0 ? Double.NaN
+                : (double) (this.classRejects + this.typeRejects + this.shapeRejects) / this.candidates;
+    }
+
+    /**
+     * Return the bucket of a latency: the latency itself below 4 ns, and above that 4 buckets per power of 2.
+     * @param nanos the latency, in ns
+     * @return the bucket of the latency
+     */
+    static int bucket(final long nanos)
+    {
+        if (nanos < 4)
+        {
+            return (int) Math.max(nanos, 0);
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        return 4 * (msb - 1) + (int) ((nanos >>> (msb - 2)) & 3);
+    }
+
+    /**
+     * Return the smallest latency of a bucket.
+     * @param bucket the bucket
+     * @return the smallest latency of the bucket, in ns
+     */
+    static long lowerBound(final int bucket)
+    {
+        if (bucket < 4)
+        {
+            return bucket;
+        }
+        return (4L + bucket % 4) << (bucket / 4 - 1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return String.format("%s [count=%d, mean=%.0f ns, p50=%.0f ns, p99=%.0f ns, results=%.2f, candidates=%.2f, "
+                + "falsePositives=%.3f]", this.operation, this.count, getMeanNanos(), getPercentileNanos(50.0),
+                getPercentileNanos(99.0), getMeanResultSize(), getMeanCandidates(), getFalsePositiveRatio());
+    }
+
+}
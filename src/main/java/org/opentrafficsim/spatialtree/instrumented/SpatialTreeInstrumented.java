@@ -0,0 +1,559 @@
+package org.opentrafficsim.spatialtree.instrumented;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.util.SearchProbe;
+
+/**
+ * Decorator of a spatial tree that keeps statistics of its operations: the number of operations, a histogram of their
+ * latencies and their result sizes, and, for the searches, the number of candidates that the index offered and how many of
+ * them were rejected on their class, their type or their exact shape. The candidates are counted by the SpatialFilter of the
+ * tree, see {@link SearchProbe}, so they are only known for implementations that use a filter, which all implementations in
+ * this project do.
+ * <p>
+ * Every thread records into its own counters, without locks or shared writes, and {@link #getStatistics()} sums the
+ * counters of all threads into a snapshot; the snapshot can lag a little behind operations that are running on other
+ * threads. The overhead is two calls of System.nanoTime and a few increments per operation. The statistics are also
+ * exposed through JMX after {@link #registerMBean(String)}.
+ * </p>
+ * <p>
+ * The decorator is as thread-safe as the tree that it decorates.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeInstrumented implements SpatialTree, SpatialTreeInstrumentedMXBean
+{
+    /** the number of counters per operation. */
+    private static final int COUNTERS = 7;
+
+    /** the tree that is decorated. */
+    private final SpatialTree tree;
+
+    /** the counters of all threads that have used the tree. */
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+
+    /** the counters of each thread. */
+    private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>()
+    {
+        @Override
+        protected Recorder initialValue()
+        {
+            Recorder threadRecorder = new Recorder();
+            SpatialTreeInstrumented.this.recorders.add(threadRecorder);
+            return threadRecorder;
+        }
+    };
+
+    /** the sums of the counters at the last reset, which are subtracted from the statistics. */
+    private volatile Recorder baseline = new Recorder();
+
+    /** the name under which the tree is registered in JMX; null when it is not registered. */
+    private ObjectName objectName;
+
+    /**
+     * Decorate a tree with statistics.
+     * @param tree the tree to decorate
+     */
+    public SpatialTreeInstrumented(final SpatialTree tree)
+    {
+        Throw.whenNull(tree, "tree cannot be null");
+        this.tree = tree;
+        SearchProbe.enable();
+    }
+
+    /**
+     * Return the tree that is decorated.
+     * @return the tree that is decorated
+     */
+    public SpatialTree getTree()
+    {
+        return this.tree;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        long start = System.nanoTime();
+        this.tree.add(object);
+        this.recorder.get().record(Operation.ADD, System.nanoTime() - start, 0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(
+            final I object)
+    {
+        long start = System.nanoTime();
+        boolean removed = this.tree.remove(object);
+        this.recorder.get().record(Operation.REMOVE, System.nanoTime() - start, removed ? 1 : 0);
+        return removed;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(
+            final I object)
+    {
+        long start = System.nanoTime();
+        this.tree.update(object);
+        this.recorder.get().record(Operation.UPDATE, System.nanoTime() - start, 0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        long start = System.nanoTime();
+        this.tree.addAll(objects);
+        this.recorder.get().record(Operation.ADD_ALL, System.nanoTime() - start, objects.size());
+    }
+
+    /**
+     * Return a snapshot of the decorated tree; searches of the snapshot are not recorded.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        return this.tree.snapshot();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        SearchProbe probe = SearchProbe.open();
+        long start = System.nanoTime();
+        try
+        {
+            Set<I> result = this.tree.find(type, shape, searchClass);
+            this.recorder.get().recordFind(System.nanoTime() - start, result.size(), probe);
+            return result;
+        }
+        finally
+        {
+            probe.close();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        SearchProbe probe = SearchProbe.open();
+        long start = System.nanoTime();
+        try
+        {
+            Set<I> result = this.tree.find(type, shape, searchClass, time);
+            this.recorder.get().recordFind(System.nanoTime() - start, result.size(), probe);
+            return result;
+        }
+        finally
+        {
+            probe.close();
+        }
+    }
+
+    /**
+     * Pass the objects to a visitor; the result size is the number of objects that the filter of the tree passed on.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param visitor the visitor that receives the objects; it should not search or change this tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        SearchProbe probe = SearchProbe.open();
+        long start = System.nanoTime();
+        try
+        {
+            this.tree.find(type, shape, searchClass, visitor);
+            this.recorder.get().recordFind(System.nanoTime() - start, probe.getResults(), probe);
+        }
+        finally
+        {
+            probe.close();
+        }
+    }
+
+    /**
+     * Pass the dynamic objects to a visitor; the result size is the number of objects that the filter of the tree passed on.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the dynamic spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param time the time for which we need to evaluate the positions of the dynamic objects
+     * @param visitor the visitor that receives the objects; it should not search or change this tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        SearchProbe probe = SearchProbe.open();
+        long start = System.nanoTime();
+        try
+        {
+            this.tree.find(type, shape, searchClass, time, visitor);
+            this.recorder.get().recordFind(System.nanoTime() - start, probe.getResults(), probe);
+        }
+        finally
+        {
+            probe.close();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        SearchProbe probe = SearchProbe.open();
+        long start = System.nanoTime();
+        try
+        {
+            int count = this.tree.find(type, shape, searchClass, result);
+            this.recorder.get().recordFind(System.nanoTime() - start, count, probe);
+            return count;
+        }
+        finally
+        {
+            probe.close();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final Collection<? super I> result)
+    {
+        SearchProbe probe = SearchProbe.open();
+        long start = System.nanoTime();
+        try
+        {
+            int count = this.tree.find(type, shape, searchClass, time, result);
+            this.recorder.get().recordFind(System.nanoTime() - start, count, probe);
+            return count;
+        }
+        finally
+        {
+            probe.close();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> List<I> findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance)
+    {
+        long start = System.nanoTime();
+        List<I> result = this.tree.findNearest(type, point, searchClass, k, maxDistance);
+        this.recorder.get().record(Operation.FIND_NEAREST, System.nanoTime() - start, result.size());
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        long start = System.nanoTime();
+        int count = this.tree.findNearest(type, point, searchClass, k, maxDistance, result);
+        this.recorder.get().record(Operation.FIND_NEAREST, System.nanoTime() - start, count);
+        return count;
+    }
+
+    /**
+     * Return a snapshot of the statistics of all operations since the creation of the tree or the last reset, summed over all
+     * threads.
+     * @return the statistics per operation
+     */
+    public Map<Operation, OperationStatistics> getStatistics()
+    {
+        Recorder sum = sum();
+        Recorder base = this.baseline;
+        Map<Operation, OperationStatistics> statistics = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values())
+        {
+            int op = operation.ordinal();
+            long[] counters = new long[COUNTERS];
+            for (int i = 0; i < COUNTERS; i++)
+            {
+                counters[i] = sum.counters[op][i] - base.counters[op][i];
+            }
+            long[] histogram = new long[OperationStatistics.BUCKETS];
+            for (int i = 0; i < OperationStatistics.BUCKETS; i++)
+            {
+                histogram[i] = sum.histograms[op][i] - base.histograms[op][i];
+            }
+            statistics.put(operation, new OperationStatistics(operation, counters, histogram));
+        }
+        return statistics;
+    }
+
+    /**
+     * Return a snapshot of the statistics of one operation.
+     * @param operation the operation
+     * @return the statistics of the operation
+     */
+    public OperationStatistics getStatistics(final Operation operation)
+    {
+        Throw.whenNull(operation, "operation cannot be null");
+        return getStatistics().get(operation);
+    }
+
+    /**
+     * Sum the counters of all threads.
+     * @return the sums of the counters of all threads
+     */
+    private Recorder sum()
+    {
+        Recorder sum = new Recorder();
+        for (Recorder threadRecorder : this.recorders)
+        {
+            for (int op = 0; op < sum.counters.length; op++)
+            {
+                for (int i = 0; i < COUNTERS; i++)
+                {
+                    sum.counters[op][i] += threadRecorder.counters[op][i];
+                }
+                for (int i = 0; i < OperationStatistics.BUCKETS; i++)
+                {
+                    sum.histograms[op][i] += threadRecorder.histograms[op][i];
+                }
+            }
+        }
+        return sum;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void resetStatistics()
+    {
+        this.baseline = sum();
+    }
+
+    /**
+     * Register the statistics of the tree in the platform MBean server, under the name
+     * {@code org.opentrafficsim.spatialtree:type=SpatialTreeInstrumented,name=<name>}.
+     * @param name the name of the tree in JMX, e.g., the id of the network
+     * @throws JMException when the name is invalid or already registered
+     */
+    public synchronized void registerMBean(final String name) throws JMException
+    {
+        Throw.whenNull(name, "name cannot be null");
+        Throw.when(this.objectName != null, IllegalStateException.class, "tree is already registered as %s",
+                this.objectName);
+        ObjectName newName = new ObjectName("org.opentrafficsim.spatialtree:type=SpatialTreeInstrumented,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        this.objectName = newName;
+    }
+
+    /**
+     * Remove the registration of the statistics of the tree from the platform MBean server, when it is registered.
+     * @throws JMException when the registration cannot be removed
+     */
+    public synchronized void unregisterMBean() throws JMException
+    {
+        if (this.objectName != null)
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            this.objectName = null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getTreeClass()
+    {
+        return this.tree.getClass().getSimpleName();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAddCount()
+    {
+        Map<Operation, OperationStatistics> statistics = getStatistics();
+        return statistics.get(Operation.ADD).getCount() + statistics.get(Operation.ADD_ALL).getResults();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getRemoveCount()
+    {
+        return getStatistics(Operation.REMOVE).getCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getUpdateCount()
+    {
+        return getStatistics(Operation.UPDATE).getCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getUpdateMeanNanos()
+    {
+        return getStatistics(Operation.UPDATE).getMeanNanos();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getUpdateP99Nanos()
+    {
+        return getStatistics(Operation.UPDATE).getPercentileNanos(99.0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFindCount()
+    {
+        return getStatistics(Operation.FIND).getCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getFindMeanNanos()
+    {
+        return getStatistics(Operation.FIND).getMeanNanos();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getFindP50Nanos()
+    {
+        return getStatistics(Operation.FIND).getPercentileNanos(50.0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getFindP99Nanos()
+    {
+        return getStatistics(Operation.FIND).getPercentileNanos(99.0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getFindMeanResultSize()
+    {
+        return getStatistics(Operation.FIND).getMeanResultSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getFindMeanCandidates()
+    {
+        return getStatistics(Operation.FIND).getMeanCandidates();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getFindFalsePositiveRatio()
+    {
+        return getStatistics(Operation.FIND).getFalsePositiveRatio();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFindNearestCount()
+    {
+        return getStatistics(Operation.FIND_NEAREST).getCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getFindNearestMeanNanos()
+    {
+        return getStatistics(Operation.FIND_NEAREST).getMeanNanos();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeInstrumented [tree=" + this.tree + "]";
+    }
+
+    /**
+     * The counters of one thread, or the sums of the counters of all threads.
+     */
+    private static final class Recorder
+    {
+        /** per operation: count, total latency in ns, results, candidates, class, type and shape rejects. */
+        private final long[][] counters = new long[Operation.values().length][COUNTERS];
+
+        /** per operation: the number of operations per latency bucket. */
+        private final long[][] histograms = new long[Operation.values().length][OperationStatistics.BUCKETS];
+
+        /**
+         * Record an operation.
+         * @param operation the operation
+         * @param nanos the latency of the operation, in ns
+         * @param resultSize the result size of the operation
+         */
+        void record(final Operation operation, final long nanos, final long resultSize)
+        {
+            int op = operation.ordinal();
+            this.counters[op][0]++;
+            this.counters[op][1] += nanos;
+            this.counters[op][2] += resultSize;
+            this.histograms[op][OperationStatistics.bucket(nanos)]++;
+        }
+
+        /**
+         * Record a search with a shape, with the candidates that the filters of the tree counted.
+         * @param nanos the latency of the search, in ns
+         * @param resultSize the number of objects found
+         * @param probe the probe with the counts of the filters
+         */
+        void recordFind(final long nanos, final long resultSize, final SearchProbe probe)
+        {
+            record(Operation.FIND, nanos, resultSize);
+            int op = Operation.FIND.ordinal();
+            this.counters[op][3] += probe.getCandidates();
+            this.counters[op][4] += probe.getClassRejects();
+            this.counters[op][5] += probe.getTypeRejects();
+            this.counters[op][6] += probe.getShapeRejects();
+        }
+    }
+
+}
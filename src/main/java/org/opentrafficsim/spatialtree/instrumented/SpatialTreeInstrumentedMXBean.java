@@ -0,0 +1,112 @@
+package org.opentrafficsim.spatialtree.instrumented;
+
+/**
+ * Management interface of SpatialTreeInstrumented, that exposes the main statistics of the tree through JMX, e.g., to watch
+ * the efficiency of the index in JConsole during a long run. Every attribute is computed from a new snapshot of the
+ * statistics.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public interface SpatialTreeInstrumentedMXBean
+{
+    /**
+     * Return the name of the class of the instrumented tree.
+     * @return the name of the class of the instrumented tree
+     */
+    String getTreeClass();
+
+    /**
+     * Return the number of adds, including the objects of addAll.
+     * @return the number of adds
+     */
+    long getAddCount();
+
+    /**
+     * Return the number of removes.
+     * @return the number of removes
+     */
+    long getRemoveCount();
+
+    /**
+     * Return the number of updates.
+     * @return the number of updates
+     */
+    long getUpdateCount();
+
+    /**
+     * Return the mean latency of an update.
+     * @return the mean latency of an update, in ns
+     */
+    double getUpdateMeanNanos();
+
+    /**
+     * Return the 99th percentile of the latency of an update.
+     * @return the 99th percentile of the latency of an update, in ns
+     */
+    double getUpdateP99Nanos();
+
+    /**
+     * Return the number of searches with a shape.
+     * @return the number of searches with a shape
+     */
+    long getFindCount();
+
+    /**
+     * Return the mean latency of a search with a shape.
+     * @return the mean latency of a search with a shape, in ns
+     */
+    double getFindMeanNanos();
+
+    /**
+     * Return the median latency of a search with a shape.
+     * @return the median latency of a search with a shape, in ns
+     */
+    double getFindP50Nanos();
+
+    /**
+     * Return the 99th percentile of the latency of a search with a shape.
+     * @return the 99th percentile of the latency of a search with a shape, in ns
+     */
+    double getFindP99Nanos();
+
+    /**
+     * Return the mean number of objects found by a search with a shape.
+     * @return the mean number of objects found by a search with a shape
+     */
+    double getFindMeanResultSize();
+
+    /**
+     * Return the mean number of candidates of a search with a shape.
+     * @return the mean number of candidates of a search with a shape
+     */
+    double getFindMeanCandidates();
+
+    /**
+     * Return the fraction of the candidates of the searches with a shape that did not qualify.
+     * @return the fraction of the candidates of the searches with a shape that did not qualify
+     */
+    double getFindFalsePositiveRatio();
+
+    /**
+     * Return the number of nearest-neighbor searches.
+     * @return the number of nearest-neighbor searches
+     */
+    long getFindNearestCount();
+
+    /**
+     * Return the mean latency of a nearest-neighbor search.
+     * @return the mean latency of a nearest-neighbor search, in ns
+     */
+    double getFindNearestMeanNanos();
+
+    /**
+     * Start the statistics again from zero.
+     */
+    void resetStatistics();
+
+}
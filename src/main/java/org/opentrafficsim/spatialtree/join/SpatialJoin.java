@@ -0,0 +1,233 @@
+package org.opentrafficsim.spatialtree.join;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.spatialtree.SpatialJoinVisitor;
+
+/**
+ * Spatial join of two collections of objects with a plane sweep: all pairs of an object of one class and an object of another
+ * class of which the shapes overlap, e.g., the lanes of a network and the GTUs, in one pass instead of one search per lane.
+ * Both sides are sorted on the minimum x of their bounding boxes, and a line sweeps over them in that order; an object that
+ * the line reaches is compared with the objects of the other side of which the bounding box starts before the bounding box of
+ * the object ends, so every overlapping pair is found once. The join does not need an index, so it works for the objects of any
+ * tree; {@code SpatialTreeNative.join} joins two native trees, or two classes in one native tree, by traversing the trees.
+ * <p>
+ * The overlap of the bounding boxes is confirmed with the current shapes of the objects. An object that is in both collections
+ * is not paired with itself.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class SpatialJoin
+{
+    /**
+     * Utility class.
+     */
+    private SpatialJoin()
+    {
+        // utility class
+    }
+
+    /**
+     * Pass all pairs of an object of class A and an object of class B of which the shapes overlap to a visitor, until the
+     * visitor stops the join.
+     * @param <A> the type of the first object of a pair
+     * @param <B> the type of the second object of a pair
+     * @param objectsA the objects of which those of class A are joined; other objects are skipped
+     * @param classA the class of the first object of a pair (subclasses also qualify)
+     * @param objectsB the objects of which those of class B are joined; other objects are skipped
+     * @param classB the class of the second object of a pair (subclasses also qualify)
+     * @param visitor the visitor that receives the pairs
+     * @return the number of pairs that were passed to the visitor
+     */
+    public static <A extends SpatialObject, B extends SpatialObject> int join(final Collection<?> objectsA,
+            final Class<A> classA, final Collection<?> objectsB, final Class<B> classB,
+            final SpatialJoinVisitor<? super A, ? super B> visitor)
+    {
+        Throw.whenNull(objectsA, "objectsA in join cannot be null");
+        Throw.whenNull(classA, "classA in join cannot be null");
+        Throw.whenNull(objectsB, "objectsB in join cannot be null");
+        Throw.whenNull(classB, "classB in join cannot be null");
+        Throw.whenNull(visitor, "visitor in join cannot be null");
+        Side sideA = new Side(objectsA, classA);
+        Side sideB = new Side(objectsB, classB);
+        int count = 0;
+        int a = 0;
+        int b = 0;
+        while (a < sideA.size && b < sideB.size)
+        {
+            if (sideA.boxes[4 * a] <= sideB.boxes[4 * b])
+            {
+                for (int k = b; k < sideB.size && sideB.boxes[4 * k] <= sideA.boxes[4 * a + 2]; k++)
+                {
+                    if (overlap(sideA, a, sideB, k))
+                    {
+                        count++;
+                        if (!visit(visitor, sideA.objects[a], sideB.objects[k]))
+                        {
+                            return count;
+                        }
+                    }
+                }
+                a++;
+            }
+            else
+            {
+                for (int k = a; k < sideA.size && sideA.boxes[4 * k] <= sideB.boxes[4 * b + 2]; k++)
+                {
+                    if (overlap(sideA, k, sideB, b))
+                    {
+                        count++;
+                        if (!visit(visitor, sideA.objects[k], sideB.objects[b]))
+                        {
+                            return count;
+                        }
+                    }
+                }
+                b++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return, for every object of class A that overlaps with at least one object of class B, the objects of class B that it
+     * overlaps with, e.g., the GTUs on each lane.
+     * @param <A> the type of the first object of a pair
+     * @param <B> the type of the second object of a pair
+     * @param objectsA the objects of which those of class A are joined; other objects are skipped
+     * @param classA the class of the first object of a pair (subclasses also qualify)
+     * @param objectsB the objects of which those of class B are joined; other objects are skipped
+     * @param classB the class of the second object of a pair (subclasses also qualify)
+     * @return a map from the objects of class A to the objects of class B that they overlap with
+     */
+    public static <A extends SpatialObject, B extends SpatialObject> Map<A, Set<B>> join(final Collection<?> objectsA,
+            final Class<A> classA, final Collection<?> objectsB, final Class<B> classB)
+    {
+        final Map<A, Set<B>> pairs = new LinkedHashMap<>();
+        join(objectsA, classA, objectsB, classB, new SpatialJoinVisitor<A, B>()
+        {
+            @Override
+            public boolean visit(final A objectA, final B objectB)
+            {
+                Set<B> set = pairs.get(objectA);
+                if (set == null)
+                {
+                    set = new LinkedHashSet<>();
+                    pairs.put(objectA, set);
+                }
+                set.add(objectB);
+                return true;
+            }
+        });
+        return pairs;
+    }
+
+    /**
+     * Return whether two objects, of which the bounding boxes overlap in x, form a pair: they are different objects, their
+     * bounding boxes also overlap in y, and their shapes overlap.
+     * @param sideA the first side
+     * @param a the index of the object of the first side
+     * @param sideB the second side
+     * @param b the index of the object of the second side
+     * @return whether the objects form a pair
+     */
+    private static boolean overlap(final Side sideA, final int a, final Side sideB, final int b)
+    {
+        return sideA.boxes[4 * a + 1] <= sideB.boxes[4 * b + 3] && sideB.boxes[4 * b + 1] <= sideA.boxes[4 * a + 3]
+                && sideA.objects[a] != sideB.objects[b]
+                && sideA.objects[a].getShape().intersects(sideB.objects[b].getShape());
+    }
+
+    /**
+     * Pass a pair to the visitor. The sides only hold objects of their class.
+     * @param <A> the type of the first object of a pair
+     * @param <B> the type of the second object of a pair
+     * @param visitor the visitor
+     * @param objectA the first object of the pair
+     * @param objectB the second object of the pair
+     * @return whether the join should continue
+     */
+    @SuppressWarnings("unchecked")
+    private static <A, B> boolean visit(final SpatialJoinVisitor<? super A, ? super B> visitor, final SpatialObject objectA,
+            final SpatialObject objectB)
+    {
+        return visitor.visit((A) objectA, (B) objectB);
+    }
+
+    /**
+     * The objects of one class of one side of the join, with their bounding boxes, sorted on the minimum x.
+     */
+    private static class Side
+    {
+        /** the number of objects. */
+        private final int size;
+
+        /** the objects, sorted on the minimum x of their bounding box. */
+        private final SpatialObject[] objects;
+
+        /** the bounding boxes of the objects, as minX, minY, maxX, maxY at 4 * index. */
+        private final double[] boxes;
+
+        /**
+         * Collect, sort and box the objects of a class.
+         * @param objects the objects of which those of the class are collected
+         * @param cls the class of the objects (subclasses also qualify)
+         */
+        Side(final Collection<?> objects, final Class<?> cls)
+        {
+            SpatialObject[] selected = new SpatialObject[objects.size()];
+            final double[] minX = new double[selected.length];
+            int n = 0;
+            for (Object object : objects)
+            {
+                if (cls.isInstance(object))
+                {
+                    selected[n] = (SpatialObject) object;
+                    minX[n] = selected[n].getShape().getEnvelope().getMinX();
+                    n++;
+                }
+            }
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++)
+            {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(final Integer item1, final Integer item2)
+                {
+                    return Double.compare(minX[item1], minX[item2]);
+                }
+            });
+            this.size = n;
+            this.objects = new SpatialObject[n];
+            this.boxes = new double[4 * n];
+            for (int i = 0; i < n; i++)
+            {
+                this.objects[i] = selected[order[i]];
+                Bounds bb = this.objects[i].getShape().getEnvelope();
+                this.boxes[4 * i] = bb.getMinX();
+                this.boxes[4 * i + 1] = bb.getMinY();
+                this.boxes[4 * i + 2] = bb.getMaxX();
+                this.boxes[4 * i + 3] = bb.getMaxY();
+            }
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package org.opentrafficsim.spatialtree.jsi;
 
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -14,15 +15,25 @@ import org.opentrafficsim.core.SpatialObject;
 import org.opentrafficsim.core.geometry.Bounds;
 import org.opentrafficsim.core.geometry.OtsShape;
 import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.BulkLoad;
+import org.opentrafficsim.spatialtree.util.Quantization;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
 
 import com.infomatiq.jsi.Rectangle;
 import com.infomatiq.jsi.rtree.RTree;
 
+import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TIntProcedure;
 
 /**
  * SpatialTreeJsi.java.
  * <p>
+ * JSI stores the boxes as floats. The boxes of the objects and the searches are rounded outward, so a search does not miss
+ * objects of which the box is only a fraction of a float step away, as happens on large (national grid) coordinates.
+ * </p>
+ * <p>
  * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
  * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
  * </p>
@@ -36,7 +47,7 @@ public class SpatialTreeJsi implements SpatialTree
     final RTree tree = new RTree();
 
     /** the objects. */
-    final Map<Integer, SpatialObject> objectMap = new LinkedHashMap<>();
+    final TIntObjectHashMap<SpatialObject> objectMap = new TIntObjectHashMap<>();
 
     /** the bounding boxes of the objects at the time of insertion. */
     final Map<Integer, Rectangle> bboxMap = new LinkedHashMap<>();
@@ -47,6 +58,22 @@ public class SpatialTreeJsi implements SpatialTree
     /** object counter. */
     int counter = 0;
 
+    /** the filter for the searches. */
+    final SpatialFilter filter = new SpatialFilter();
+
+    /** the rectangle for the searches. */
+    final Rectangle searchRectangle = new Rectangle();
+
+    /** the procedure that offers the objects that the tree finds to the filter; it stops the tree when the filter stops. */
+    final TIntProcedure procedure = new TIntProcedure()
+    {
+        @Override
+        public boolean execute(final int value)
+        {
+            return SpatialTreeJsi.this.filter.offer(SpatialTreeJsi.this.objectMap.get(value));
+        }
+    };
+
     /**
      * Constructor; initialize the spatial index.
      */
@@ -60,7 +87,8 @@ public class SpatialTreeJsi implements SpatialTree
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
     {
         Bounds bb = object.getShape().getEnvelope();
-        Rectangle r = new Rectangle((float) bb.getMinX(), (float) bb.getMinY(), (float) bb.getMaxX(), (float) bb.getMaxY());
+        Rectangle r = new Rectangle(Quantization.floatDown(bb.getMinX()), Quantization.floatDown(bb.getMinY()),
+                Quantization.floatUp(bb.getMaxX()), Quantization.floatUp(bb.getMaxY()));
         this.objectMap.put(this.counter, object);
         this.bboxMap.put(this.counter, r);
         this.reverseObjectMap.put(object, this.counter);
@@ -68,6 +96,24 @@ public class SpatialTreeJsi implements SpatialTree
         this.counter++;
     }
 
+    /**
+     * Add objects to the tree in Hilbert order. JSI has no bulk load, but objects that are inserted one after the other end up
+     * in the same nodes when they are close to each other, which gives smaller nodes than inserting them in arbitrary order.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        for (I object : BulkLoad.hilbertSorted(objects))
+        {
+            add(object);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public <T extends HierarchicalType<T, I>,
@@ -78,44 +124,53 @@ public class SpatialTreeJsi implements SpatialTree
         if (nr != null)
         {
             Rectangle r = this.bboxMap.get(nr);
-            this.objectMap.remove(nr, object);
-            this.reverseObjectMap.remove(nr, object);
+            this.objectMap.remove(nr);
+            this.reverseObjectMap.remove(object);
             this.bboxMap.remove(nr);
             return this.tree.delete(r, nr);
         }
         return false;
     }
 
+    /**
+     * Update the position of an object; the object keeps its number, and its rectangle is reused. Nothing changes in the tree
+     * when the rectangle is the same.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        @SuppressWarnings("unlikely-arg-type")
+        Integer nr = this.reverseObjectMap.get(object);
+        if (nr == null)
+        {
+            add(object);
+            return;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        float minX = Quantization.floatDown(bb.getMinX());
+        float minY = Quantization.floatDown(bb.getMinY());
+        float maxX = Quantization.floatUp(bb.getMaxX());
+        float maxY = Quantization.floatUp(bb.getMaxY());
+        Rectangle r = this.bboxMap.get(nr);
+        if (r.minX == minX && r.minY == minY && r.maxX == maxX && r.maxY == maxY)
+        {
+            return;
+        }
+        this.tree.delete(r, nr);
+        r.set(minX, minY, maxX, maxY); // the tree copies the coordinates, so the rectangle can be reused
+        this.tree.add(r, nr);
+    }
+
     /** {@inheritDoc} */
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
             final OtsShape shape, final Class<I> searchClass)
     {
-        Throw.whenNull(shape, "shape in find cannot be null");
-        Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        Rectangle r = new Rectangle((float) bb.getMinX(), (float) bb.getMinY(), (float) bb.getMaxX(), (float) bb.getMaxY());
         final Set<I> returnSet = new LinkedHashSet<>();
-        this.tree.intersects(r, new TIntProcedure()
-        {
-            @Override
-            public boolean execute(final int value)
-            {
-                SpatialObject so = SpatialTreeJsi.this.objectMap.get(value);
-                if (searchClass.isAssignableFrom(so.getClass()))
-                {
-                    @SuppressWarnings("unchecked")
-                    I cso = (I) so;
-                    if (type == null || cso.isOfType(type))
-                    {
-                        if (so.getShape().intersects(shape))
-                            returnSet.add(cso);
-                        return true;
-                    }
-                }
-                return false;
-            }
-        });
+        find(type, shape, searchClass, returnSet);
         return returnSet;
     }
 
@@ -123,34 +178,103 @@ public class SpatialTreeJsi implements SpatialTree
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
             final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
     {
         Throw.whenNull(shape, "shape in find cannot be null");
         Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        Rectangle r = new Rectangle((float) bb.getMinX(), (float) bb.getMinY(), (float) bb.getMaxX(), (float) bb.getMaxY());
-        final Set<I> returnSet = new LinkedHashSet<>();
-        this.tree.intersects(r, new TIntProcedure()
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Return a snapshot with a copy of the objects and of their rectangles, from which a tree is built at the first search of
+     * the snapshot. The rectangles are rounded outward, so the snapshot does not miss objects.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        Object[] objects = new Object[this.reverseObjectMap.size()];
+        double[] boxes = new double[4 * objects.length];
+        int i = 0;
+        for (Map.Entry<SpatialObject, Integer> entry : this.reverseObjectMap.entrySet())
         {
-            @Override
-            public boolean execute(final int value)
-            {
-                SpatialObject so = SpatialTreeJsi.this.objectMap.get(value);
-                if (searchClass.isAssignableFrom(so.getClass()))
-                {
-                    @SuppressWarnings("unchecked")
-                    I dso = (I) so;
-                    if (type == null || dso.isOfType(type))
-                    {
-                        // find the current shape of the dynamic spatial object
-                        if (shape.intersects(dso.getShape(time)))
-                            returnSet.add(dso);
-                        return true;
-                    }
-                }
-                return false;
-            }
-        });
-        return returnSet;
+            Rectangle r = this.bboxMap.get(entry.getValue());
+            objects[i] = entry.getKey();
+            boxes[4 * i] = r.minX;
+            boxes[4 * i + 1] = r.minY;
+            boxes[4 * i + 2] = r.maxX;
+            boxes[4 * i + 3] = r.maxY;
+            i++;
+        }
+        return new SpatialTreeSnapshot(objects, boxes);
+    }
+
+    /**
+     * Offer the objects of which the rectangle intersects with the bounding box of the search shape to a started filter, until
+     * the filter stops the search, and finish the filter.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            this.searchRectangle.set(Quantization.floatDown(bb.getMinX()), Quantization.floatDown(bb.getMinY()),
+                    Quantization.floatUp(bb.getMaxX()), Quantization.floatUp(bb.getMaxY()));
+            this.tree.intersects(this.searchRectangle, this.procedure);
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
     }
 
 }
@@ -1,6 +1,9 @@
 package org.opentrafficsim.spatialtree.jts;
 
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.djunits.value.vdouble.scalar.Time;
@@ -15,9 +18,16 @@ import org.opentrafficsim.core.SpatialObject;
 import org.opentrafficsim.core.geometry.Bounds;
 import org.opentrafficsim.core.geometry.OtsShape;
 import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
 
 /**
- * SpatialTreeJtsHprTree.java.
+ * Spatial index with the packed Hilbert R-tree of JTS. The tree is built at the first query, after which no objects can be
+ * inserted or removed, so the envelopes of the objects are kept as well: when objects are added or removed after the first
+ * query, the tree is rebuilt from these envelopes at the next query. This makes the tree suitable for objects that do not
+ * change, such as the lanes of a network, e.g., as the static part of a SpatialTreeHybrid; for objects that move, almost every
+ * query would rebuild the tree.
  * <p>
  * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
  * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
@@ -28,8 +38,33 @@ import org.opentrafficsim.spatialtree.SpatialTree;
  */
 public class SpatialTreeJtsHprTree implements SpatialTree
 {
-    /** the tree object. */
-    final HPRtree tree;
+    /** the tree object; replaced by a new tree when it has to be rebuilt. */
+    HPRtree tree;
+
+    /** the envelopes of the objects in the tree, to rebuild the tree. */
+    final Map<SpatialObject, Envelope> envelopes = new IdentityHashMap<>();
+
+    /** whether the tree has been built, which happens at the first query. */
+    boolean built = false;
+
+    /** whether the tree has to be rebuilt before the next query. */
+    boolean dirty = false;
+
+    /** the filter for the searches. */
+    final SpatialFilter filter = new SpatialFilter();
+
+    /** the envelope for the searches. */
+    final Envelope searchEnvelope = new Envelope();
+
+    /** the visitor that offers the objects that the tree finds to the filter. */
+    final ItemVisitor itemVisitor = new ItemVisitor()
+    {
+        @Override
+        public void visitItem(final Object item)
+        {
+            SpatialTreeJtsHprTree.this.filter.offer(item);
+        }
+    };
 
     /**
      * Constructor; initialize the spatial index.
@@ -44,8 +79,15 @@ public class SpatialTreeJtsHprTree implements SpatialTree
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
     {
         Bounds bb = object.getShape().getEnvelope();
-        Envelope envelope = new Envelope(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
-        this.tree.insert(envelope, object);
+        Envelope envelope = new Envelope(bb.getMinX(), bb.getMaxX(), bb.getMinY(), bb.getMaxY());
+        if (this.envelopes.put(object, envelope) != null || this.built)
+        {
+            this.dirty = true;
+        }
+        else
+        {
+            this.tree.insert(envelope, object);
+        }
     }
 
     /** {@inheritDoc} */
@@ -53,9 +95,12 @@ public class SpatialTreeJtsHprTree implements SpatialTree
     public <T extends HierarchicalType<T, I>,
             I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
     {
-        Bounds bb = object.getShape().getEnvelope();
-        Envelope envelope = new Envelope(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
-        return this.tree.remove(envelope, object);
+        if (this.envelopes.remove(object) == null)
+        {
+            return false;
+        }
+        this.dirty = true; // the tree cannot remove objects
+        return true;
     }
 
     /** {@inheritDoc} */
@@ -63,29 +108,8 @@ public class SpatialTreeJtsHprTree implements SpatialTree
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
             final OtsShape shape, final Class<I> searchClass)
     {
-        Throw.whenNull(shape, "shape in find cannot be null");
-        Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        Envelope searchEnv = new Envelope(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
         final Set<I> returnSet = new LinkedHashSet<>();
-        this.tree.query(searchEnv, new ItemVisitor()
-        {
-            @Override
-            public void visitItem(final Object item)
-            {
-                SpatialObject so = (SpatialObject) item;
-                if (searchClass.isAssignableFrom(so.getClass()))
-                {
-                    @SuppressWarnings("unchecked")
-                    I cso = (I) so;
-                    if (type == null || cso.isOfType(type))
-                    {
-                        if (so.getShape().intersects(shape))
-                            returnSet.add(cso);
-                    }
-                }
-            }
-        });
+        find(type, shape, searchClass, returnSet);
         return returnSet;
     }
 
@@ -93,31 +117,130 @@ public class SpatialTreeJtsHprTree implements SpatialTree
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
             final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
     {
         Throw.whenNull(shape, "shape in find cannot be null");
         Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        Envelope searchEnv = new Envelope(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
-        final Set<I> returnSet = new LinkedHashSet<>();
-        this.tree.query(searchEnv, new ItemVisitor()
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Return a snapshot with a copy of the objects and of their envelopes, from which a tree is built at the first search of
+     * the snapshot.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        Object[] objects = new Object[this.envelopes.size()];
+        double[] boxes = new double[4 * objects.length];
+        int i = 0;
+        for (Map.Entry<SpatialObject, Envelope> entry : this.envelopes.entrySet())
+        {
+            Envelope envelope = entry.getValue();
+            objects[i] = entry.getKey();
+            boxes[4 * i] = envelope.getMinX();
+            boxes[4 * i + 1] = envelope.getMinY();
+            boxes[4 * i + 2] = envelope.getMaxX();
+            boxes[4 * i + 3] = envelope.getMaxY();
+            i++;
+        }
+        return new SpatialTreeSnapshot(objects, boxes);
+    }
+
+    /**
+     * Offer the objects of which the envelope intersects with the bounding box of the search shape to a started filter, and
+     * finish the filter. The tree is rebuilt first when objects were added or removed after it was built. The tree cannot be
+     * stopped; once the filter has stopped the search, it ignores the other objects.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
         {
-            @Override
-            public void visitItem(final Object item)
+            if (this.dirty)
             {
-                SpatialObject so = (SpatialObject) item;
-                if (searchClass.isAssignableFrom(so.getClass()))
-                {
-                    @SuppressWarnings("unchecked")
-                    I dso = (I) so;
-                    if (type == null || dso.isOfType(type))
-                    {
-                        if (shape.intersects(dso.getShape(time)))
-                            returnSet.add(dso);
-                    }
-                }
+                rebuild();
             }
-        });
-        return returnSet;
+            this.built = true;
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            this.searchEnvelope.init(bb.getMinX(), bb.getMaxX(), bb.getMinY(), bb.getMaxY());
+            this.tree.query(this.searchEnvelope, this.itemVisitor);
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Replace the tree by a new tree with the objects and their envelopes.
+     */
+    private void rebuild()
+    {
+        this.tree = new HPRtree();
+        for (Map.Entry<SpatialObject, Envelope> entry : this.envelopes.entrySet())
+        {
+            this.tree.insert(entry.getValue(), entry.getKey());
+        }
+        this.dirty = false;
+    }
+
+    /**
+     * Return the number of objects in the tree.
+     * @return the number of objects in the tree
+     */
+    public int size()
+    {
+        return this.envelopes.size();
     }
 
 }
@@ -0,0 +1,328 @@
+package org.opentrafficsim.spatialtree.lane;
+
+import java.util.Arrays;
+
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.road.network.lane.Lane;
+
+/**
+ * The GTUs on one lane, as handles in an array that is sorted by the position of the GTUs on the lane, together with the
+ * geometry of the lane: the bounding box of every segment of the center line, the range of lane positions of the segment, and
+ * half the width of the lane over the segment. The geometry is used to find the range of positions on the lane that can have
+ * GTUs that overlap with a search box. The margin of the lane is the largest distance between the reference point and the
+ * shape of the GTUs that are on the lane now, so it shrinks again when a long vehicle leaves the lane.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+class LaneIndex
+{
+    /** the lane. */
+    private final Lane lane;
+
+    /** the length of the lane. */
+    private final double length;
+
+    /** the number of segments of the center line. */
+    private final int segments;
+
+    /** bounding boxes of the segments of the center line, as minX, minY, maxX, maxY at 4 * segment. */
+    private final double[] segmentBox;
+
+    /** lane position of the start of each segment, and of the end of the lane at the last index. */
+    private final double[] segmentStart;
+
+    /** half the width of the lane over each segment. */
+    private final double[] segmentHalfWidth;
+
+    /** bounding box of the lane, as minX, minY, maxX, maxY. */
+    private final double[] envelope = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.NEGATIVE_INFINITY};
+
+    /** positions of the GTUs, sorted. */
+    private double[] positions = new double[16];
+
+    /** handles of the GTUs, in the order of the positions. */
+    private int[] handles = new int[16];
+
+    /** the maximum distance between the reference point and the shape of the GTUs, in the order of the positions. */
+    private double[] extents = new double[16];
+
+    /** the largest extent of the GTUs on the lane; 0 when there are none. */
+    private double margin = 0.0;
+
+    /** the number of GTUs on the lane. */
+    private int count = 0;
+
+    /**
+     * Create the index of a lane, without GTUs.
+     * @param lane the lane
+     */
+    LaneIndex(final Lane lane)
+    {
+        this.lane = lane;
+        this.length = lane.getLength().si;
+        OtsPoint3d[] points = lane.getCenterLine().getPoints();
+        this.segments = points.length - 1;
+        this.segmentBox = new double[4 * this.segments];
+        this.segmentStart = new double[this.segments + 1];
+        this.segmentHalfWidth = new double[this.segments];
+        double[] cumulative = new double[points.length];
+        for (int i = 1; i < points.length; i++)
+        {
+            cumulative[i] = cumulative[i - 1] + Math.hypot(points[i].x - points[i - 1].x, points[i].y - points[i - 1].y);
+        }
+        double lineLength = cumulative[points.length - 1];
+        // the center line can be a little longer or shorter than the lane; positions are scaled to the lane length
+        double scale = lineLength > 0.0 ? this.length / lineLength : 1.0;
+        for (int i = 0; i < this.segments; i++)
+        {
+            double f0 = lineLength > 0.0 ? cumulative[i] / lineLength : 0.0;
+            double f1 = lineLength > 0.0 ? cumulative[i + 1] / lineLength : 1.0;
+            double halfWidth = 0.5 * Math.max(lane.getWidth(f0).si, lane.getWidth(f1).si);
+            int b = 4 * i;
+            this.segmentBox[b] = Math.min(points[i].x, points[i + 1].x);
+            this.segmentBox[b + 1] = Math.min(points[i].y, points[i + 1].y);
+            this.segmentBox[b + 2] = Math.max(points[i].x, points[i + 1].x);
+            this.segmentBox[b + 3] = Math.max(points[i].y, points[i + 1].y);
+            this.segmentStart[i] = cumulative[i] * scale;
+            this.segmentHalfWidth[i] = halfWidth;
+            this.envelope[0] = Math.min(this.envelope[0], this.segmentBox[b] - halfWidth);
+            this.envelope[1] = Math.min(this.envelope[1], this.segmentBox[b + 1] - halfWidth);
+            this.envelope[2] = Math.max(this.envelope[2], this.segmentBox[b + 2] + halfWidth);
+            this.envelope[3] = Math.max(this.envelope[3], this.segmentBox[b + 3] + halfWidth);
+        }
+        this.segmentStart[this.segments] = this.length;
+    }
+
+    /**
+     * Return the lane.
+     * @return the lane
+     */
+    Lane getLane()
+    {
+        return this.lane;
+    }
+
+    /**
+     * Return the length of the lane.
+     * @return the length of the lane
+     */
+    double getLength()
+    {
+        return this.length;
+    }
+
+    /**
+     * Return the largest distance between the reference point and the shape of the GTUs on the lane.
+     * @return the largest distance between the reference point and the shape of the GTUs on the lane; 0 when there are none
+     */
+    double getMargin()
+    {
+        return this.margin;
+    }
+
+    /**
+     * Return the number of GTUs on the lane.
+     * @return the number of GTUs on the lane
+     */
+    int size()
+    {
+        return this.count;
+    }
+
+    /**
+     * Return the position of the GTU at an index.
+     * @param index the index
+     * @return the position of the GTU at the index
+     */
+    double positionAt(final int index)
+    {
+        return this.positions[index];
+    }
+
+    /**
+     * Return the handle of the GTU at an index.
+     * @param index the index
+     * @return the handle of the GTU at the index
+     */
+    int handleAt(final int index)
+    {
+        return this.handles[index];
+    }
+
+    /**
+     * Compute the range of lane positions of the GTUs that can overlap with a search box. A GTU can only overlap when its
+     * reference point is within the margin of the lane of the search box, and the reference point is within half the lane
+     * width of the center line at its position.
+     * @param minX minimum x of the search box
+     * @param minY minimum y of the search box
+     * @param maxX maximum x of the search box
+     * @param maxY maximum y of the search box
+     * @param range array in which the first and last position of the range are stored
+     * @return whether any part of the lane is within the margin of the search box
+     */
+    boolean range(final double minX, final double minY, final double maxX, final double maxY, final double[] range)
+    {
+        double margin = this.margin;
+        if (this.envelope[0] - margin > maxX || this.envelope[2] + margin < minX || this.envelope[1] - margin > maxY
+                || this.envelope[3] + margin < minY)
+        {
+            return false;
+        }
+        double from = Double.POSITIVE_INFINITY;
+        double to = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.segments; i++)
+        {
+            int b = 4 * i;
+            double d = this.segmentHalfWidth[i] + margin;
+            if (this.segmentBox[b] - d <= maxX && this.segmentBox[b + 2] + d >= minX && this.segmentBox[b + 1] - d <= maxY
+                    && this.segmentBox[b + 3] + d >= minY)
+            {
+                from = Math.min(from, this.segmentStart[i]);
+                to = Math.max(to, this.segmentStart[i + 1]);
+            }
+        }
+        range[0] = from;
+        range[1] = to;
+        return from <= to;
+    }
+
+    /**
+     * Return the index of the first GTU at or after a position.
+     * @param position the position
+     * @return the index of the first GTU at or after the position; the number of GTUs when there is none
+     */
+    int lowerBound(final double position)
+    {
+        int low = 0;
+        int high = this.count;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (this.positions[mid] < position)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Add a GTU.
+     * @param handle the handle of the GTU
+     * @param position the position of the GTU
+     * @param extent the maximum distance between the reference point and the shape of the GTU
+     */
+    void insert(final int handle, final double position, final double extent)
+    {
+        if (this.count == this.positions.length)
+        {
+            this.positions = Arrays.copyOf(this.positions, 2 * this.count);
+            this.handles = Arrays.copyOf(this.handles, 2 * this.count);
+            this.extents = Arrays.copyOf(this.extents, 2 * this.count);
+        }
+        int index = lowerBound(position);
+        System.arraycopy(this.positions, index, this.positions, index + 1, this.count - index);
+        System.arraycopy(this.handles, index, this.handles, index + 1, this.count - index);
+        System.arraycopy(this.extents, index, this.extents, index + 1, this.count - index);
+        this.positions[index] = position;
+        this.handles[index] = handle;
+        this.extents[index] = extent;
+        this.count++;
+        this.margin = Math.max(this.margin, extent);
+    }
+
+    /**
+     * Remove a GTU. When it was the GTU with the largest extent, the margin is computed again from the other GTUs.
+     * @param handle the handle of the GTU
+     * @param position the position at which the GTU was stored
+     * @return whether the margin of the lane became smaller
+     */
+    boolean remove(final int handle, final double position)
+    {
+        int index = indexOf(handle, position);
+        double extent = this.extents[index];
+        System.arraycopy(this.positions, index + 1, this.positions, index, this.count - index - 1);
+        System.arraycopy(this.handles, index + 1, this.handles, index, this.count - index - 1);
+        System.arraycopy(this.extents, index + 1, this.extents, index, this.count - index - 1);
+        this.count--;
+        if (extent < this.margin)
+        {
+            return false;
+        }
+        double oldMargin = this.margin;
+        this.margin = 0.0;
+        for (int i = 0; i < this.count; i++)
+        {
+            this.margin = Math.max(this.margin, this.extents[i]);
+        }
+        return this.margin < oldMargin;
+    }
+
+    /**
+     * Move a GTU to a new position on the lane. Only the GTUs between the old and the new position are shifted, which is
+     * usually none or a few, as GTUs rarely overtake each other on the same lane.
+     * @param handle the handle of the GTU
+     * @param oldPosition the position at which the GTU was stored
+     * @param newPosition the new position of the GTU
+     */
+    void move(final int handle, final double oldPosition, final double newPosition)
+    {
+        int index = indexOf(handle, oldPosition);
+        double extent = this.extents[index];
+        while (index + 1 < this.count && this.positions[index + 1] < newPosition)
+        {
+            this.positions[index] = this.positions[index + 1];
+            this.handles[index] = this.handles[index + 1];
+            this.extents[index] = this.extents[index + 1];
+            index++;
+        }
+        while (index > 0 && this.positions[index - 1] > newPosition)
+        {
+            this.positions[index] = this.positions[index - 1];
+            this.handles[index] = this.handles[index - 1];
+            this.extents[index] = this.extents[index - 1];
+            index--;
+        }
+        this.positions[index] = newPosition;
+        this.handles[index] = handle;
+        this.extents[index] = extent;
+    }
+
+    /**
+     * Return the index of a GTU.
+     * @param handle the handle of the GTU
+     * @param position the position at which the GTU was stored
+     * @return the index of the GTU
+     */
+    private int indexOf(final int handle, final double position)
+    {
+        for (int i = lowerBound(position); i < this.count && this.positions[i] == position; i++)
+        {
+            if (this.handles[i] == handle)
+            {
+                return i;
+            }
+        }
+        throw new IllegalStateException("GTU with handle " + handle + " not found at position " + position + " on lane "
+                + this.lane.getFullId());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "LaneIndex [lane=" + this.lane.getFullId() + ", segments=" + this.segments + ", gtus=" + this.count
+                + ", margin=" + this.margin + "]";
+    }
+
+}
@@ -0,0 +1,579 @@
+package org.opentrafficsim.spatialtree.lane;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.core.gtu.GtuException;
+import org.opentrafficsim.road.gtu.lane.LaneBasedGtu;
+import org.opentrafficsim.road.network.lane.Lane;
+import org.opentrafficsim.road.network.lane.LanePosition;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.IdentityIntMap;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+/**
+ * Spatial index that uses the lane positions of GTUs rather than their 2D shapes. Every LaneBasedGtu is stored on its
+ * reference lane in an array that is sorted by position. The lanes are kept in a static {@link SpatialTreeNative}, so a search
+ * only looks at the lanes near the search shape. For each of these lanes, the bounding box of the search shape is mapped to a
+ * range of positions with the segment boxes of the center line of the lane (see {@link LaneIndex}), and the GTUs in that
+ * range are scanned after a binary search. As GTUs mostly move forward on the same lane, an update usually only overwrites
+ * the position of the GTU.
+ * <p>
+ * The range is conservative: it is widened by half the lane width and by the margin of the lane, the largest distance
+ * between the reference point and the shape of the GTUs on the lane. The lanes are selected with the largest margin of all
+ * lanes. The candidates are checked against the search shape, as in the other implementations.
+ * All other objects (e.g., lanes), and GTUs that are not on a lane or have a position outside of their lane, are stored in a
+ * {@link SpatialTreeNative}.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeLaneLinear implements SpatialTree
+{
+    /** the index for the objects that are not stored on a lane. */
+    private final SpatialTreeNative other = new SpatialTreeNative();
+
+    /** the lane indexes, by lane. */
+    private final Map<Lane, LaneIndex> laneMap = new IdentityHashMap<>();
+
+    /** the lanes of the lane indexes, by their bounding box. */
+    private final SpatialTreeNative laneTree = new SpatialTreeNative();
+
+    /** the lanes that are not yet in the lane tree during an addAll, so they can be packed at once; null otherwise. */
+    private List<Lane> pendingLanes = null;
+
+    /** the lane indexes, for iteration. */
+    private LaneIndex[] lanes = new LaneIndex[16];
+
+    /** the number of lane indexes. */
+    private int laneCount = 0;
+
+    /** the handles of the objects. */
+    private final IdentityIntMap handles = new IdentityIntMap(256);
+
+    /** the objects, by handle. */
+    private Object[] handleObject = new Object[256];
+
+    /** the lane of the objects, by handle; null for objects in the other index. */
+    private LaneIndex[] handleLane = new LaneIndex[256];
+
+    /** the position of the objects on their lane, by handle. */
+    private double[] handlePosition = new double[256];
+
+    /** the number of handles that have ever been used. */
+    private int handleTop = 0;
+
+    /** the free handles. */
+    private int[] freeHandles = new int[256];
+
+    /** the number of free handles. */
+    private int freeHandleCount = 0;
+
+    /** the largest margin of the lanes; an upper bound when the margin of a lane became smaller since it was computed. */
+    private double margin = 0.0;
+
+    /** whether the margin of a lane became smaller since the largest margin was computed. */
+    private boolean marginStale = false;
+
+    /** the bounding box of the search shape of the current search, as minX, minY, maxX, maxY. */
+    private final double[] searchBox = new double[4];
+
+    /** the number of candidates of the current search. */
+    private int candidateCount = 0;
+
+    /** the visitor of the lanes near the search box, which collects the GTUs on the lane that can overlap. */
+    private final SpatialVisitor<Object> laneVisitor = new SpatialVisitor<Object>()
+    {
+        @Override
+        public boolean visit(final Object lane)
+        {
+            collect(SpatialTreeLaneLinear.this.laneMap.get(lane));
+            return true;
+        }
+    };
+
+    /** the position range of the last lane in a search. */
+    private final double[] range = new double[2];
+
+    /** handles of the candidates of the last search. */
+    private int[] candidates = new int[64];
+
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        if (this.handles.get(object) != IdentityIntMap.ABSENT)
+        {
+            update(object);
+            return;
+        }
+        if (!store(object))
+        {
+            this.other.add(object);
+        }
+    }
+
+    /**
+     * Add objects to the tree. The objects that are not stored on a lane, such as the lanes themselves, are added to the other
+     * index in one call, so the other index can build its tree from all of them at once.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        List<I> others = new ArrayList<>();
+        this.pendingLanes = new ArrayList<>();
+        try
+        {
+            for (I object : objects)
+            {
+                if (this.handles.get(object) != IdentityIntMap.ABSENT)
+                {
+                    update(object);
+                }
+                else if (!store(object))
+                {
+                    others.add(object);
+                }
+            }
+        }
+        finally
+        {
+            this.laneTree.addAll(this.pendingLanes);
+            this.pendingLanes = null;
+        }
+        this.other.addAll(others);
+    }
+
+    /**
+     * Give an object that is not in the tree a handle, and store it on its lane when it has a lane position.
+     * @param object the object
+     * @return whether the object was stored on a lane; when false, the object has to be added to the other index
+     */
+    private boolean store(final SpatialObject object)
+    {
+        if (object instanceof Lane)
+        {
+            laneIndex((Lane) object);
+        }
+        int handle = allocateHandle();
+        this.handles.put(object, handle);
+        this.handleObject[handle] = object;
+        LanePosition position = lanePosition(object);
+        if (position == null)
+        {
+            this.handleLane[handle] = null;
+            return false;
+        }
+        storeOnLane(handle, laneIndex(position.getLane()), position.getPosition().si);
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        int handle = this.handles.remove(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            return false;
+        }
+        LaneIndex laneIndex = this.handleLane[handle];
+        if (laneIndex == null)
+        {
+            this.other.remove(object);
+        }
+        else
+        {
+            removeFromLane(handle, laneIndex);
+        }
+        this.handleObject[handle] = null;
+        this.handleLane[handle] = null;
+        this.freeHandles[this.freeHandleCount++] = handle;
+        return true;
+    }
+
+    /**
+     * Update the position of an object after it has moved. When the GTU is still on the same lane, it only moves in the array
+     * of the lane past the GTUs it overtook, if any. When the object is not in the index, it is added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object that has moved
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            add(object);
+            return;
+        }
+        LaneIndex oldLane = this.handleLane[handle];
+        LanePosition position = lanePosition(object);
+        LaneIndex newLane = position == null ? null : laneIndex(position.getLane());
+        if (oldLane == null && newLane == null)
+        {
+            this.other.update(object);
+        }
+        else if (oldLane == newLane)
+        {
+            double newPosition = position.getPosition().si;
+            oldLane.move(handle, this.handlePosition[handle], newPosition);
+            this.handlePosition[handle] = newPosition;
+        }
+        else
+        {
+            if (oldLane == null)
+            {
+                this.other.remove(object);
+            }
+            else
+            {
+                removeFromLane(handle, oldLane);
+            }
+            if (newLane == null)
+            {
+                this.handleLane[handle] = null;
+                this.other.add(object);
+            }
+            else
+            {
+                storeOnLane(handle, newLane, position.getPosition().si);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Return a snapshot with a copy of the objects and of their bounding boxes, from which a tree is built at the first search
+     * of the snapshot. The GTUs on the lanes are indexed by their position rather than by a box, so the boxes are taken from
+     * the shapes of the objects now, on the thread that changes the tree.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        Object[] objects = new Object[size()];
+        double[] boxes = new double[4 * objects.length];
+        int i = 0;
+        for (int handle = 0; handle < this.handleTop; handle++)
+        {
+            if (this.handleObject[handle] != null)
+            {
+                Bounds bb = ((SpatialObject) this.handleObject[handle]).getShape().getEnvelope();
+                objects[i] = this.handleObject[handle];
+                boxes[4 * i] = bb.getMinX();
+                boxes[4 * i + 1] = bb.getMinY();
+                boxes[4 * i + 2] = bb.getMaxX();
+                boxes[4 * i + 3] = bb.getMaxY();
+                i++;
+            }
+        }
+        return new SpatialTreeSnapshot(objects, boxes);
+    }
+
+    /**
+     * Offer the other objects, and the GTUs on the lanes that can overlap with the bounding box of the search shape, to a
+     * started filter, until the filter stops the search, and finish the filter.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            if (this.other.offerCandidates(searchFilter))
+            {
+                Bounds bb = searchFilter.getShape().getEnvelope();
+                int n = search(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+                for (int i = 0; i < n; i++)
+                {
+                    if (!searchFilter.offer(this.handleObject[this.candidates[i]]))
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Return the number of objects in the index.
+     * @return the number of objects in the index
+     */
+    public int size()
+    {
+        return this.handles.size();
+    }
+
+    /**
+     * Collect the handles of the GTUs on the lanes that can overlap with the search box in the candidates array. The lanes
+     * are selected in the lane tree with the search box widened by the largest margin of the lanes.
+     * @param minX minimum x of the search box
+     * @param minY minimum y of the search box
+     * @param maxX maximum x of the search box
+     * @param maxY maximum y of the search box
+     * @return the number of candidates
+     */
+    private int search(final double minX, final double minY, final double maxX, final double maxY)
+    {
+        if (this.marginStale)
+        {
+            this.margin = 0.0;
+            for (int l = 0; l < this.laneCount; l++)
+            {
+                this.margin = Math.max(this.margin, this.lanes[l].getMargin());
+            }
+            this.marginStale = false;
+        }
+        this.searchBox[0] = minX;
+        this.searchBox[1] = minY;
+        this.searchBox[2] = maxX;
+        this.searchBox[3] = maxY;
+        this.candidateCount = 0;
+        double m = this.margin;
+        this.laneTree.findBoxes(minX - m, minY - m, maxX + m, maxY + m, this.laneVisitor);
+        return this.candidateCount;
+    }
+
+    /**
+     * Add the handles of the GTUs on a lane that can overlap with the search box to the candidates.
+     * @param laneIndex the lane index
+     */
+    private void collect(final LaneIndex laneIndex)
+    {
+        int count = laneIndex.size();
+        if (count == 0 || !laneIndex.range(this.searchBox[0], this.searchBox[1], this.searchBox[2], this.searchBox[3],
+                this.range))
+        {
+            return;
+        }
+        int n = this.candidateCount;
+        double to = this.range[1];
+        for (int i = laneIndex.lowerBound(this.range[0]); i < count && laneIndex.positionAt(i) <= to; i++)
+        {
+            if (n == this.candidates.length)
+            {
+                this.candidates = Arrays.copyOf(this.candidates, 2 * n);
+            }
+            this.candidates[n++] = laneIndex.handleAt(i);
+        }
+        this.candidateCount = n;
+    }
+
+    /**
+     * Store a GTU on a lane, and widen the largest margin for the size of the GTU when needed.
+     * @param handle the handle of the GTU
+     * @param laneIndex the lane index
+     * @param position the position of the GTU on the lane
+     */
+    private void storeOnLane(final int handle, final LaneIndex laneIndex, final double position)
+    {
+        LaneBasedGtu gtu = (LaneBasedGtu) this.handleObject[handle];
+        double extent = Math.hypot(gtu.getLength().si, gtu.getWidth().si);
+        this.margin = Math.max(this.margin, extent);
+        this.handleLane[handle] = laneIndex;
+        this.handlePosition[handle] = position;
+        laneIndex.insert(handle, position, extent);
+    }
+
+    /**
+     * Remove a GTU from its lane. When the margin of the lane becomes smaller, the largest margin is computed again at the
+     * next search.
+     * @param handle the handle of the GTU
+     * @param laneIndex the lane index
+     */
+    private void removeFromLane(final int handle, final LaneIndex laneIndex)
+    {
+        if (laneIndex.remove(handle, this.handlePosition[handle]))
+        {
+            this.marginStale = true;
+        }
+    }
+
+    /**
+     * Return the reference position of a GTU when it can be stored on a lane.
+     * @param object the object
+     * @return the reference position of the GTU, or null when the object is not a GTU, is not on a lane or is beyond the
+     *         start or end of its lane
+     */
+    private static LanePosition lanePosition(final Object object)
+    {
+        if (!(object instanceof LaneBasedGtu))
+        {
+            return null;
+        }
+        try
+        {
+            LanePosition position = ((LaneBasedGtu) object).getReferencePosition();
+            double s = position.getPosition().si;
+            return s >= 0.0 && s <= position.getLane().getLength().si ? position : null;
+        }
+        catch (GtuException exception)
+        {
+            // not (yet) on a lane
+            return null;
+        }
+    }
+
+    /**
+     * Return the index of a lane, and create it when this is the first time the lane is used.
+     * @param lane the lane
+     * @return the index of the lane
+     */
+    private LaneIndex laneIndex(final Lane lane)
+    {
+        LaneIndex laneIndex = this.laneMap.get(lane);
+        if (laneIndex == null)
+        {
+            laneIndex = new LaneIndex(lane);
+            this.laneMap.put(lane, laneIndex);
+            if (this.laneCount == this.lanes.length)
+            {
+                this.lanes = Arrays.copyOf(this.lanes, 2 * this.laneCount);
+            }
+            this.lanes[this.laneCount++] = laneIndex;
+            if (this.pendingLanes != null)
+            {
+                this.pendingLanes.add(lane);
+            }
+            else
+            {
+                this.laneTree.add(lane);
+            }
+        }
+        return laneIndex;
+    }
+
+    /**
+     * Return a free handle, growing the handle arrays when needed.
+     * @return the handle
+     */
+    private int allocateHandle()
+    {
+        if (this.freeHandleCount > 0)
+        {
+            return this.freeHandles[--this.freeHandleCount];
+        }
+        if (this.handleTop == this.handleObject.length)
+        {
+            int capacity = 2 * this.handleObject.length;
+            this.handleObject = Arrays.copyOf(this.handleObject, capacity);
+            this.handleLane = Arrays.copyOf(this.handleLane, capacity);
+            this.handlePosition = Arrays.copyOf(this.handlePosition, capacity);
+            this.freeHandles = Arrays.copyOf(this.freeHandles, capacity);
+        }
+        return this.handleTop++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeLaneLinear [size=" + size() + ", lanes=" + this.laneCount + ", other=" + this.other.size()
+                + ", margin=" + this.margin + "]";
+    }
+
+}
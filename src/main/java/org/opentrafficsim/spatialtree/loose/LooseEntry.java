@@ -0,0 +1,154 @@
+package org.opentrafficsim.spatialtree.loose;
+
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsGeometryException;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.util.SpatialBox;
+
+/**
+ * Entry of SpatialTreeLoose in the underlying tree: an object together with the inflated bounding box under which it is
+ * stored. The box is kept as plain values; as a {@link SpatialBox}, the entry is tested with the box against the bounding box
+ * of the search shape. The shape of the entry, from which the underlying tree takes the box to index the entry, is only made
+ * when it is asked for, and is at least MIN_SIZE wide and high, so point and line boxes (e.g., a margin of 0 around a point
+ * object) give a valid polygon. Entries are compared by identity.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+final class LooseEntry implements HierarchicallyTyped<LooseType, LooseEntry>, SpatialBox
+{
+    /** the minimum width and height of the shape of an entry. */
+    private static final double MIN_SIZE = 1.0E-3;
+
+    /** the stored object. */
+    private final SpatialObject object;
+
+    /** minimum x of the inflated box. */
+    private double minX;
+
+    /** minimum y of the inflated box. */
+    private double minY;
+
+    /** maximum x of the inflated box. */
+    private double maxX;
+
+    /** maximum y of the inflated box. */
+    private double maxY;
+
+    /** the inflated box as a shape; null until it is asked for after the box was set. */
+    private OtsShape shape;
+
+    /**
+     * Create an entry.
+     * @param object the stored object
+     */
+    LooseEntry(final SpatialObject object)
+    {
+        this.object = object;
+    }
+
+    /**
+     * Return the stored object.
+     * @return the stored object
+     */
+    SpatialObject getObject()
+    {
+        return this.object;
+    }
+
+    /**
+     * Copy the inflated box to an array of boxes.
+     * @param boxes the array of boxes
+     * @param offset the index in the array of the minimum x, followed by minimum y, maximum x and maximum y
+     */
+    void copyBox(final double[] boxes, final int offset)
+    {
+        boxes[offset] = this.minX;
+        boxes[offset + 1] = this.minY;
+        boxes[offset + 2] = this.maxX;
+        boxes[offset + 3] = this.maxY;
+    }
+
+    /**
+     * Return whether a bounding box is within the inflated box.
+     * @param boxMinX minimum x of the bounding box
+     * @param boxMinY minimum y of the bounding box
+     * @param boxMaxX maximum x of the bounding box
+     * @param boxMaxY maximum y of the bounding box
+     * @return whether the bounding box is within the inflated box
+     */
+    boolean contains(final double boxMinX, final double boxMinY, final double boxMaxX, final double boxMaxY)
+    {
+        return boxMinX >= this.minX && boxMinY >= this.minY && boxMaxX <= this.maxX && boxMaxY <= this.maxY;
+    }
+
+    /**
+     * Set the inflated box.
+     * @param newMinX minimum x of the inflated box
+     * @param newMinY minimum y of the inflated box
+     * @param newMaxX maximum x of the inflated box
+     * @param newMaxY maximum y of the inflated box
+     */
+    void setBox(final double newMinX, final double newMinY, final double newMaxX, final double newMaxY)
+    {
+        this.minX = newMinX;
+        this.minY = newMinY;
+        this.maxX = newMaxX;
+        this.maxY = newMaxY;
+        this.shape = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean intersects(final double boxMinX, final double boxMinY, final double boxMaxX, final double boxMaxY)
+    {
+        return this.minX <= boxMaxX && this.maxX >= boxMinX && this.minY <= boxMaxY && this.maxY >= boxMinY;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public LooseType getType()
+    {
+        return LooseType.ENTRY;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OtsShape getShape()
+    {
+        if (this.shape == null)
+        {
+            double dx = Math.max(0.0, MIN_SIZE - (this.maxX - this.minX)) / 2.0;
+            double dy = Math.max(0.0, MIN_SIZE - (this.maxY - this.minY)) / 2.0;
+            double x0 = this.minX - dx;
+            double y0 = this.minY - dy;
+            double x1 = this.maxX + dx;
+            double y1 = this.maxY + dy;
+            try
+            {
+                this.shape = new OtsShape(new OtsPoint3d(x0, y0, 0.0), new OtsPoint3d(x1, y0, 0.0),
+                        new OtsPoint3d(x1, y1, 0.0), new OtsPoint3d(x0, y1, 0.0), new OtsPoint3d(x0, y0, 0.0));
+            }
+            catch (OtsGeometryException exception)
+            {
+                throw new IllegalArgumentException("Cannot create box for " + this.object, exception);
+            }
+        }
+        return this.shape;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "LooseEntry [object=" + this.object + ", minX=" + this.minX + ", minY=" + this.minY + ", maxX=" + this.maxX
+                + ", maxY=" + this.maxY + "]";
+    }
+
+}
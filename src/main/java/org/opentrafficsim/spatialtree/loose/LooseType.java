@@ -0,0 +1,40 @@
+package org.opentrafficsim.spatialtree.loose;
+
+import org.opentrafficsim.base.HierarchicalType;
+
+/**
+ * Type of the entries that SpatialTreeLoose stores in the underlying tree. There is only one type, as the underlying tree is
+ * searched for all entries, and the type of the stored objects is checked by SpatialTreeLoose itself.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+final class LooseType extends HierarchicalType<LooseType, LooseEntry>
+{
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    /** the type of all entries. */
+    static final LooseType ENTRY = new LooseType("ENTRY");
+
+    /**
+     * Create a root type.
+     * @param id the id of the type
+     */
+    private LooseType(final String id)
+    {
+        super(id);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "LooseType [id=" + getId() + "]";
+    }
+
+}
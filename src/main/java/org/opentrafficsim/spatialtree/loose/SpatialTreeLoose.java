@@ -0,0 +1,380 @@
+package org.opentrafficsim.spatialtree.loose;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Duration;
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.core.gtu.Gtu;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+/**
+ * Wrapper around a mutable spatial tree that stores dynamic objects with a loose bounding box: the bounding box of the object,
+ * inflated with a slack distance, plus the speed of the object times a horizon for a GTU. An update only changes the
+ * underlying tree when the bounding box of the object has left its loose box, so most moves of a GTU do not touch the tree.
+ * The find methods test the candidates of the underlying tree against the exact shape of the objects, which removes the
+ * extra candidates of the loose boxes. Objects that are not a DynamicSpatialObject, such as lanes, are stored with their
+ * exact bounding box.
+ * <p>
+ * Any implementation of which the objects can be changed after querying can be wrapped, e.g., SpatialTreeJsi,
+ * SpatialTreeRTree2 or SpatialTreeH2. The underlying tree indexes entries of which the shape is the loose box.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeLoose implements SpatialTree
+{
+    /** the underlying tree. */
+    private final SpatialTree tree;
+
+    /** the distance with which the bounding box of a dynamic object is inflated, in m. */
+    private final double slack;
+
+    /** the time horizon with which the speed of a GTU inflates its bounding box, in s. */
+    private final double horizon;
+
+    /** the entries of the objects. */
+    private final Map<SpatialObject, LooseEntry> entryMap = new IdentityHashMap<>();
+
+    /** the number of updates. */
+    private long updateCount = 0;
+
+    /** the number of updates for which the object left its loose box. */
+    private long escapeCount = 0;
+
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /** the visitor of the entries that the underlying tree finds, that offers their objects to the filter. */
+    private final SpatialVisitor<LooseEntry> entryVisitor = new SpatialVisitor<LooseEntry>()
+    {
+        @Override
+        public boolean visit(final LooseEntry entry)
+        {
+            return SpatialTreeLoose.this.filter.offer(entry.getObject());
+        }
+    };
+
+    /**
+     * Constructor; wrap a tree, inflating the bounding box of dynamic objects with a fixed distance.
+     * @param tree the underlying tree, which should be empty
+     * @param slack the distance with which the bounding box of dynamic objects is inflated
+     */
+    public SpatialTreeLoose(final SpatialTree tree, final Length slack)
+    {
+        this(tree, slack, Duration.ZERO);
+    }
+
+    /**
+     * Constructor; wrap a tree, inflating the bounding box of dynamic objects with a fixed distance, plus the speed times a
+     * horizon for GTUs.
+     * @param tree the underlying tree, which should be empty
+     * @param slack the distance with which the bounding box of dynamic objects is inflated
+     * @param horizon the time over which the speed of a GTU is added to the slack
+     */
+    public SpatialTreeLoose(final SpatialTree tree, final Length slack, final Duration horizon)
+    {
+        Throw.whenNull(tree, "tree cannot be null");
+        Throw.whenNull(slack, "slack cannot be null");
+        Throw.whenNull(horizon, "horizon cannot be null");
+        Throw.when(slack.si < 0.0 || horizon.si < 0.0, IllegalArgumentException.class,
+                "slack and horizon cannot be negative");
+        this.tree = tree;
+        this.slack = slack.si;
+        this.horizon = horizon.si;
+    }
+
+    /**
+     * Add an object to the tree. When the object is already in the tree, it is updated.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        if (this.entryMap.containsKey(object))
+        {
+            update(object);
+            return;
+        }
+        LooseEntry entry = new LooseEntry(object);
+        setLooseBox(entry, object.getShape().getEnvelope());
+        this.entryMap.put(object, entry);
+        this.tree.add(entry);
+    }
+
+    /**
+     * Add objects to the tree. The loose boxes of the new objects are added to the underlying tree in one call, so the
+     * underlying tree can build its tree from all of them at once. Objects that are already in the tree are updated.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        List<LooseEntry> entries = new ArrayList<>(objects.size());
+        for (I object : objects)
+        {
+            if (this.entryMap.containsKey(object))
+            {
+                update(object);
+                continue;
+            }
+            LooseEntry entry = new LooseEntry(object);
+            setLooseBox(entry, object.getShape().getEnvelope());
+            this.entryMap.put(object, entry);
+            entries.add(entry);
+        }
+        this.tree.addAll(entries);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        LooseEntry entry = this.entryMap.remove(object);
+        if (entry == null)
+        {
+            return false;
+        }
+        return this.tree.remove(entry);
+    }
+
+    /**
+     * Update an object. The underlying tree is only updated when the bounding box of the object is no longer within its loose
+     * box; the object then gets a new loose box around its current bounding box. When the object is not in the tree, it is
+     * added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        LooseEntry entry = this.entryMap.get(object);
+        if (entry == null)
+        {
+            add(object);
+            return;
+        }
+        this.updateCount++;
+        Bounds bb = object.getShape().getEnvelope();
+        if (entry.contains(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY()))
+        {
+            return;
+        }
+        this.escapeCount++;
+        setLooseBox(entry, bb);
+        this.tree.update(entry); // the underlying tree finds the entry by its stored box, not by its new shape
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /**
+     * Return all objects with the right type (or subtype) and class (or subclass) that have an overlap with the given shape at
+     * the given time. The loose boxes hold the shapes of the objects at the time of their last update, so the time should not
+     * differ much from that.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param time the time for which we want to evaluate the shape
+     * @return the set of spatial objects that have an overlap with the given shape at the given time
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Return a snapshot with a copy of the objects and of their loose boxes, from which a tree is built at the first search of
+     * the snapshot. The loose boxes change with the objects, so a snapshot of the underlying tree would not keep the tree as
+     * it was. A loose box contains the bounding box of its object, so the snapshot does not miss objects.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        Object[] objects = new Object[this.entryMap.size()];
+        double[] boxes = new double[4 * objects.length];
+        int i = 0;
+        for (LooseEntry entry : this.entryMap.values())
+        {
+            objects[i] = entry.getObject();
+            entry.copyBox(boxes, 4 * i);
+            i++;
+        }
+        return new SpatialTreeSnapshot(objects, boxes);
+    }
+
+    /**
+     * Offer the objects of the entries of which the loose box intersects with the bounding box of the search shape to a started
+     * filter, until the filter stops the search, and finish the filter. The filter of the underlying tree only compares the
+     * boxes, as the entries are a SpatialBox; the filter of this tree tests the exact shapes of the objects.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            this.tree.find((LooseType) null, searchFilter.getShape(), LooseEntry.class, this.entryVisitor);
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Set the loose box of an entry around a bounding box of its object.
+     * @param entry the entry
+     * @param bb the bounding box of the object
+     */
+    private void setLooseBox(final LooseEntry entry, final Bounds bb)
+    {
+        double margin = 0.0;
+        SpatialObject object = entry.getObject();
+        if (object instanceof DynamicSpatialObject)
+        {
+            margin = this.slack;
+            if (object instanceof Gtu && this.horizon > 0.0)
+            {
+                margin += ((Gtu) object).getSpeed().si * this.horizon;
+            }
+        }
+        entry.setBox(bb.getMinX() - margin, bb.getMinY() - margin, bb.getMaxX() + margin, bb.getMaxY() + margin);
+    }
+
+    /**
+     * Return the underlying tree.
+     * @return the underlying tree
+     */
+    public SpatialTree getTree()
+    {
+        return this.tree;
+    }
+
+    /**
+     * Return the number of objects in the tree.
+     * @return the number of objects in the tree
+     */
+    public int size()
+    {
+        return this.entryMap.size();
+    }
+
+    /**
+     * Return the number of updates of objects that were already in the tree.
+     * @return the number of updates
+     */
+    public long getUpdateCount()
+    {
+        return this.updateCount;
+    }
+
+    /**
+     * Return the number of updates for which the object had left its loose box, and the underlying tree was changed.
+     * @return the number of updates that changed the underlying tree
+     */
+    public long getEscapeCount()
+    {
+        return this.escapeCount;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeLoose [tree=" + this.tree + ", slack=" + this.slack + ", horizon=" + this.horizon + ", size="
+                + size() + ", updates=" + this.updateCount + ", escapes=" + this.escapeCount + "]";
+    }
+
+}
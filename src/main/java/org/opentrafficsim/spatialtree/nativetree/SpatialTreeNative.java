@@ -0,0 +1,1664 @@
+package org.opentrafficsim.spatialtree.nativetree;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialJoinVisitor;
+import org.opentrafficsim.spatialtree.SpatialObjectIdentifier;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.BulkLoad;
+import org.opentrafficsim.spatialtree.util.IdentityIntMap;
+import org.opentrafficsim.spatialtree.util.IndexFile;
+import org.opentrafficsim.spatialtree.util.NearestSearch;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+/**
+ * Mutable R-tree (Guttman, quadratic split) of which the nodes and entries are stored in primitive arrays rather than in node
+ * objects. A node is an int index into the node arrays, and an object in the tree is an int handle into the entry arrays.
+ * Freed nodes and handles are recycled, and the objects are mapped to their handles with an {@link IdentityIntMap}, so adding,
+ * removing and updating objects does not create any objects, except when the arrays have to grow.
+ * <p>
+ * An update only writes the new bounding box of the object when it still fits in the bounding box of its leaf, which is the
+ * common case for objects that move a small distance. Otherwise the object is removed and inserted again.
+ * </p>
+ * <p>
+ * A tree with static objects, such as the lanes of a network, can be saved to an index file and loaded in later runs and
+ * replications, which skips building the tree; the objects are stored by an id that maps them to the objects of the network.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeNative implements SpatialTree
+{
+    /** the maximum number of children of a node. */
+    public static final int MAX_ENTRIES = 16;
+
+    /** the minimum number of children of a node other than the root. */
+    public static final int MIN_ENTRIES = 6;
+
+    /** no node or entry. */
+    private static final int NONE = -1;
+
+    /** kind of an item in the queue of a nearest-neighbour search: a node. */
+    private static final int NEAREST_NODE = 0;
+
+    /** kind of an item in the queue of a nearest-neighbour search: an entry, queued by the distance of its bounding box. */
+    private static final int NEAREST_ENTRY = 1;
+
+    /** kind of an item in the queue of a nearest-neighbour search: an object, queued by its exact distance. */
+    private static final int NEAREST_OBJECT = 2;
+
+    /** bounding boxes of the nodes, as minX, minY, maxX, maxY at 4 * node. */
+    private double[] nodeBox;
+
+    /** children of the nodes, entry handles for a leaf and node indexes otherwise, at MAX_ENTRIES * node. */
+    private int[] nodeChild;
+
+    /** the number of children of the nodes. */
+    private int[] nodeCount;
+
+    /** the level of the nodes; 0 for a leaf. */
+    private int[] nodeLevel;
+
+    /** the parent of the nodes; NONE for the root. */
+    private int[] nodeParent;
+
+    /** the number of node indexes that have ever been used. */
+    private int nodeTop = 0;
+
+    /** the free node indexes. */
+    private int[] freeNodes;
+
+    /** the number of free node indexes. */
+    private int freeNodeCount = 0;
+
+    /** bounding boxes of the entries, as minX, minY, maxX, maxY at 4 * handle. */
+    private double[] entryBox;
+
+    /** the objects of the entries. */
+    private Object[] entryObject;
+
+    /** the leaf of the entries; NONE when the entry is not in the tree. */
+    private int[] entryNode;
+
+    /** the number of handles that have ever been used. */
+    private int entryTop = 0;
+
+    /** the free handles. */
+    private int[] freeEntries;
+
+    /** the number of free handles. */
+    private int freeEntryCount = 0;
+
+    /** the handles of the objects. */
+    private final IdentityIntMap handles;
+
+    /** the root node. */
+    private int root;
+
+    /** the number of objects in the tree. */
+    private int size = 0;
+
+    /** whether the arrays of the tree are shared with a snapshot, and have to be copied before the next change. */
+    private boolean shared = false;
+
+    /** node stack for the traversal of the tree. */
+    private int[] stack = new int[4 * MAX_ENTRIES];
+
+    /** handles of the candidates of the last search. */
+    private int[] candidates = new int[64];
+
+    /** handles of the entries of eliminated nodes, that have to be inserted again. */
+    private int[] reinsert = new int[4 * MAX_ENTRIES];
+
+    /** the number of handles to insert again. */
+    private int reinsertCount = 0;
+
+    /** the items (handles or nodes) of a node that is split. */
+    private final int[] splitItems = new int[MAX_ENTRIES + 1];
+
+    /** the bounding boxes of the items of a node that is split. */
+    private final double[] splitBox = new double[4 * (MAX_ENTRIES + 1)];
+
+    /** the group of the items of a node that is split; 0 when not yet assigned. */
+    private final int[] splitGroup = new int[MAX_ENTRIES + 1];
+
+    /** the bounding box of the first group of a split. */
+    private final double[] groupBox1 = new double[4];
+
+    /** the bounding box of the second group of a split. */
+    private final double[] groupBox2 = new double[4];
+
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /** the state of the nearest-neighbour searches. */
+    private final NearestSearch nearestSearch = new NearestSearch();
+
+    /** pairs of nodes of this tree and the other tree of a join, at 2 * pair. */
+    private int[] joinStack = new int[4 * MAX_ENTRIES];
+
+    /** whether a join of this tree is running. */
+    private boolean joining = false;
+
+    /**
+     * Constructor; initialize the spatial index.
+     */
+    public SpatialTreeNative()
+    {
+        this(256);
+    }
+
+    /**
+     * Constructor; initialize the spatial index with room for the given number of objects before the arrays have to grow.
+     * @param initialCapacity the expected number of objects
+     */
+    public SpatialTreeNative(final int initialCapacity)
+    {
+        int entryCapacity = Math.max(16, initialCapacity);
+        int nodeCapacity = Math.max(4, 2 * entryCapacity / MIN_ENTRIES);
+        this.nodeBox = new double[4 * nodeCapacity];
+        this.nodeChild = new int[MAX_ENTRIES * nodeCapacity];
+        this.nodeCount = new int[nodeCapacity];
+        this.nodeLevel = new int[nodeCapacity];
+        this.nodeParent = new int[nodeCapacity];
+        this.freeNodes = new int[nodeCapacity];
+        this.entryBox = new double[4 * entryCapacity];
+        this.entryObject = new Object[entryCapacity];
+        this.entryNode = new int[entryCapacity];
+        this.freeEntries = new int[entryCapacity];
+        this.handles = new IdentityIntMap(entryCapacity);
+        this.root = allocateNode(0);
+    }
+
+    /**
+     * Constructor for a snapshot; share the arrays of a tree, which copies them before its next change. The snapshot only
+     * searches, so it has no handles and free lists.
+     * @param source the tree of which to make a snapshot
+     */
+    private SpatialTreeNative(final SpatialTreeNative source)
+    {
+        this.nodeBox = source.nodeBox;
+        this.nodeChild = source.nodeChild;
+        this.nodeCount = source.nodeCount;
+        this.nodeLevel = source.nodeLevel;
+        this.nodeParent = source.nodeParent;
+        this.entryBox = source.entryBox;
+        this.entryObject = source.entryObject;
+        this.entryNode = source.entryNode;
+        this.freeNodes = null;
+        this.freeEntries = null;
+        this.handles = null;
+        this.nodeTop = source.nodeTop;
+        this.freeNodeCount = source.freeNodeCount;
+        this.entryTop = source.entryTop;
+        this.root = source.root;
+        this.size = source.size;
+    }
+
+    /**
+     * Build a tree bottom-up from objects of which the bounding boxes are given, e.g., the boxes that another tree indexed at
+     * the time of a snapshot. The shapes of the objects are not used, so the tree can be built on another thread than the one
+     * that changes the objects.
+     * @param objects the objects, which are all different
+     * @param boxes the bounding boxes of the objects, as minX, minY, maxX, maxY at 4 * index of the object
+     * @return the tree
+     */
+    public static SpatialTreeNative build(final Object[] objects, final double[] boxes)
+    {
+        Throw.whenNull(objects, "objects cannot be null");
+        Throw.whenNull(boxes, "boxes cannot be null");
+        Throw.when(boxes.length != 4 * objects.length, IllegalArgumentException.class, "boxes should have 4 values per object");
+        SpatialTreeNative tree = new SpatialTreeNative(objects.length);
+        if (objects.length == 0)
+        {
+            return tree;
+        }
+        int[] items = new int[objects.length];
+        for (int i = 0; i < objects.length; i++)
+        {
+            int handle = tree.allocateEntry();
+            tree.entryObject[handle] = objects[i];
+            System.arraycopy(boxes, 4 * i, tree.entryBox, 4 * handle, 4);
+            tree.handles.put(objects[i], handle);
+            items[i] = handle;
+        }
+        tree.freeNode(tree.root);
+        tree.root = tree.pack(items, objects.length);
+        tree.size = objects.length;
+        return tree;
+    }
+
+    /**
+     * Add an object to the tree. When the object is already in the tree, its bounding box is updated.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        unshare();
+        Bounds bb = object.getShape().getEnvelope();
+        int handle = this.handles.get(object);
+        if (handle != IdentityIntMap.ABSENT)
+        {
+            updateEntry(handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+            return;
+        }
+        handle = allocateEntry();
+        this.entryObject[handle] = object;
+        setBox(this.entryBox, handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+        this.handles.put(object, handle);
+        insert(handle);
+        this.size++;
+    }
+
+    /**
+     * Add objects to the tree. When the tree is empty, it is built bottom-up from the objects: the objects are grouped into
+     * full leaves in sort-tile-recursive order, and the leaves into full nodes in the same way, up to the root. Otherwise the
+     * objects are added one by one in Hilbert order, so that objects that are added one after the other are close to each
+     * other. Objects that are already in the tree are updated.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        unshare();
+        if (this.size > 0 || objects.size() <= MAX_ENTRIES)
+        {
+            for (I object : BulkLoad.hilbertSorted(objects))
+            {
+                add(object);
+            }
+            return;
+        }
+        int[] items = new int[objects.size()];
+        int n = 0;
+        for (I object : objects)
+        {
+            Bounds bb = object.getShape().getEnvelope();
+            int handle = this.handles.get(object);
+            if (handle == IdentityIntMap.ABSENT)
+            {
+                handle = allocateEntry();
+                this.entryObject[handle] = object;
+                this.handles.put(object, handle);
+                items[n++] = handle;
+            }
+            setBox(this.entryBox, handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+        }
+        freeNode(this.root);
+        this.root = pack(items, n);
+        this.size = n;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        unshare();
+        int handle = this.handles.remove(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            return false;
+        }
+        delete(handle);
+        this.entryObject[handle] = null;
+        freeEntry(handle);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Update the bounding box of an object in the tree after its shape has changed. When the new bounding box still fits in the
+     * bounding box of the leaf of the object, only the bounding box of the object is written. When the object is not in the
+     * tree, it is added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        unshare();
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            add(object);
+            return;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        updateEntry(handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Offer the candidates of a search to a started filter, and finish the filter.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            offerCandidates(searchFilter);
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Offer the objects of which the bounding box intersects with the bounding box of the search shape to a filter, until the
+     * filter stops the search. An index that combines several trees uses this to search them all with its own filter.
+     * @param searchFilter the started filter
+     * @return whether the search should continue
+     */
+    public boolean offerCandidates(final SpatialFilter searchFilter)
+    {
+        Bounds bb = searchFilter.getShape().getEnvelope();
+        int n = search(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+        for (int i = 0; i < n; i++)
+        {
+            if (!searchFilter.offer(this.entryObject[this.candidates[i]]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visit the objects of which the bounding box intersects with a box, without checking their class, type or shape, until
+     * the visitor stops the search. An index that keeps its own geometry per object, such as SpatialTreeLaneLinear for its
+     * lanes, uses this to select the objects that are worth a closer look. The visitor should not search this tree.
+     * @param minX minimum x of the box
+     * @param minY minimum y of the box
+     * @param maxX maximum x of the box
+     * @param maxY maximum y of the box
+     * @param visitor the visitor of the objects
+     * @return whether the search should continue
+     */
+    public boolean findBoxes(final double minX, final double minY, final double maxX, final double maxY,
+            final SpatialVisitor<Object> visitor)
+    {
+        int n = search(minX, minY, maxX, maxY);
+        for (int i = 0; i < n; i++)
+        {
+            if (!visitor.visit(this.entryObject[this.candidates[i]]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        Throw.whenNull(point, "point in findNearest cannot be null");
+        Throw.whenNull(searchClass, "searchClass in findNearest cannot be null");
+        Throw.whenNull(maxDistance, "maxDistance in findNearest cannot be null");
+        Throw.whenNull(result, "result in findNearest cannot be null");
+        Throw.when(k < 0, IllegalArgumentException.class, "k in findNearest cannot be negative");
+        NearestSearch search = this.nearestSearch.start(type, point, searchClass, k, maxDistance.si, result);
+        try
+        {
+            if (k > 0 && this.size > 0)
+            {
+                nearest(search);
+            }
+        }
+        finally
+        {
+            search.finish();
+        }
+        return search.getCount();
+    }
+
+    /**
+     * Best-first traversal of the tree for a nearest-neighbour search. The queue holds nodes and entries by the distance of
+     * their bounding box, which is a lower bound for the distance of the objects in them, and objects by their exact distance.
+     * An object that comes out of the queue is therefore nearer than anything that is still queued. The kind of an item is
+     * stored in the lowest two bits of the item.
+     * @param search the started search
+     */
+    private void nearest(final NearestSearch search)
+    {
+        search.push(boxDistance(search, this.nodeBox, this.root), this.root << 2 | NEAREST_NODE);
+        while (!search.isEmpty())
+        {
+            int item = search.pop();
+            int index = item >>> 2;
+            int kind = item & 3;
+            if (kind == NEAREST_OBJECT)
+            {
+                if (!search.add(this.entryObject[index]))
+                {
+                    return;
+                }
+            }
+            else if (kind == NEAREST_ENTRY)
+            {
+                search.push(search.distance(this.entryObject[index]), index << 2 | NEAREST_OBJECT);
+            }
+            else
+            {
+                int first = index * MAX_ENTRIES;
+                int last = first + this.nodeCount[index];
+                boolean leaf = this.nodeLevel[index] == 0;
+                for (int c = first; c < last; c++)
+                {
+                    int child = this.nodeChild[c];
+                    if (!leaf)
+                    {
+                        search.push(boxDistance(search, this.nodeBox, child), child << 2 | NEAREST_NODE);
+                    }
+                    else if (search.accepts(this.entryObject[child]))
+                    {
+                        search.push(boxDistance(search, this.entryBox, child), child << 2 | NEAREST_ENTRY);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass all pairs of an object of class A in this tree and an object of class B in the other tree of which the shapes
+     * overlap to a visitor, until the visitor stops the join, e.g., the lanes and the GTUs on them. The other tree can be this
+     * tree, to join two classes of objects in one tree; an object is not paired with itself. Both trees are traversed at once,
+     * from their roots down to the pairs of leaves of which the bounding boxes intersect, so every node is visited once for
+     * each node of the other tree that it overlaps with, instead of once for each search. The overlap of the bounding boxes of
+     * the entries is confirmed with the current shapes of the objects. The visitor can search the trees, but should not change
+     * them, or start another join of this tree.
+     * @param <A> the type of the first object of a pair
+     * @param <B> the type of the second object of a pair
+     * @param classA the class of the objects of this tree that are joined (subclasses also qualify)
+     * @param other the other tree, which can be this tree
+     * @param classB the class of the objects of the other tree that are joined (subclasses also qualify)
+     * @param visitor the visitor that receives the pairs
+     * @return the number of pairs that were passed to the visitor
+     * @throws IllegalStateException when a join of this tree is already running
+     */
+    public <A extends SpatialObject, B extends SpatialObject> int join(final Class<A> classA, final SpatialTreeNative other,
+            final Class<B> classB, final SpatialJoinVisitor<? super A, ? super B> visitor)
+    {
+        Throw.whenNull(classA, "classA in join cannot be null");
+        Throw.whenNull(other, "other in join cannot be null");
+        Throw.whenNull(classB, "classB in join cannot be null");
+        Throw.whenNull(visitor, "visitor in join cannot be null");
+        Throw.when(this.joining, IllegalStateException.class,
+                "A spatial tree cannot be joined from within a join of the same tree");
+        this.joining = true;
+        try
+        {
+            return joinNodes(classA, other, classB, visitor);
+        }
+        finally
+        {
+            this.joining = false;
+        }
+    }
+
+    /**
+     * Synchronized traversal of this tree and the other tree for a join. The stack holds pairs of a node of this tree and a
+     * node of the other tree of which the bounding boxes intersect. The node with the highest level of a pair is replaced by
+     * its children that intersect with the other node, until both nodes are leaves, of which the entries are compared.
+     * @param <A> the type of the first object of a pair
+     * @param <B> the type of the second object of a pair
+     * @param classA the class of the objects of this tree that are joined
+     * @param other the other tree
+     * @param classB the class of the objects of the other tree that are joined
+     * @param visitor the visitor that receives the pairs
+     * @return the number of pairs that were passed to the visitor
+     */
+    @SuppressWarnings("unchecked")
+    private <A, B> int joinNodes(final Class<A> classA, final SpatialTreeNative other, final Class<B> classB,
+            final SpatialJoinVisitor<? super A, ? super B> visitor)
+    {
+        if (this.size == 0 || other.size == 0 || !intersects(this.nodeBox, this.root, other.nodeBox, other.root))
+        {
+            return 0;
+        }
+        int count = 0;
+        int sp = 0;
+        this.joinStack[sp++] = this.root;
+        this.joinStack[sp++] = other.root;
+        while (sp > 0)
+        {
+            int nodeB = this.joinStack[--sp];
+            int nodeA = this.joinStack[--sp];
+            int firstA = nodeA * MAX_ENTRIES;
+            int lastA = firstA + this.nodeCount[nodeA];
+            int firstB = nodeB * MAX_ENTRIES;
+            int lastB = firstB + other.nodeCount[nodeB];
+            int levelA = this.nodeLevel[nodeA];
+            int levelB = other.nodeLevel[nodeB];
+            if (sp + 2 * MAX_ENTRIES > this.joinStack.length)
+            {
+                this.joinStack = Arrays.copyOf(this.joinStack, 2 * this.joinStack.length);
+            }
+            if (levelA == 0 && levelB == 0)
+            {
+                for (int c = firstA; c < lastA; c++)
+                {
+                    int handleA = this.nodeChild[c];
+                    Object objectA = this.entryObject[handleA];
+                    if (!classA.isInstance(objectA))
+                    {
+                        continue;
+                    }
+                    for (int d = firstB; d < lastB; d++)
+                    {
+                        int handleB = other.nodeChild[d];
+                        Object objectB = other.entryObject[handleB];
+                        if (objectA != objectB && classB.isInstance(objectB)
+                                && intersects(this.entryBox, handleA, other.entryBox, handleB)
+                                && ((SpatialObject) objectA).getShape().intersects(((SpatialObject) objectB).getShape()))
+                        {
+                            count++;
+                            if (!visitor.visit((A) objectA, (B) objectB))
+                            {
+                                return count;
+                            }
+                        }
+                    }
+                }
+            }
+            else if (levelA >= levelB)
+            {
+                for (int c = firstA; c < lastA; c++)
+                {
+                    int child = this.nodeChild[c];
+                    if (intersects(this.nodeBox, child, other.nodeBox, nodeB))
+                    {
+                        this.joinStack[sp++] = child;
+                        this.joinStack[sp++] = nodeB;
+                    }
+                }
+            }
+            else
+            {
+                for (int d = firstB; d < lastB; d++)
+                {
+                    int child = other.nodeChild[d];
+                    if (intersects(this.nodeBox, nodeA, other.nodeBox, child))
+                    {
+                        this.joinStack[sp++] = nodeA;
+                        this.joinStack[sp++] = child;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return a snapshot that shares the arrays of the tree, which takes constant time. The tree copies its arrays before its
+     * next change, once per snapshot, so the snapshot keeps the tree as it was.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        this.shared = true;
+        return new SpatialTreeSnapshot(new SpatialTreeNative(this), false);
+    }
+
+    /**
+     * Return a view of this frozen tree that shares its arrays and has its own search state.
+     * @return a read-only view of this frozen tree with its own search state
+     */
+    @Override
+    public SpatialTree view()
+    {
+        return new SpatialTreeNative(this);
+    }
+
+    /**
+     * Return the number of objects in the tree.
+     * @return the number of objects in the tree
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Return the height of the tree; 1 when the root is a leaf.
+     * @return the height of the tree
+     */
+    public int getHeight()
+    {
+        return this.nodeLevel[this.root] + 1;
+    }
+
+    /**
+     * Remove all objects from the tree. The arrays keep their capacity.
+     */
+    public void clear()
+    {
+        unshare();
+        Arrays.fill(this.entryObject, 0, this.entryTop, null);
+        this.handles.clear();
+        this.nodeTop = 0;
+        this.freeNodeCount = 0;
+        this.entryTop = 0;
+        this.freeEntryCount = 0;
+        this.size = 0;
+        this.root = allocateNode(0);
+    }
+
+    /**
+     * Save the tree to an index file, from which later runs can load it with {@link #load(Path, Map)} instead of building it.
+     * After the object table, the file contains the arrays of the tree as they are: <code>int</code> nodeTop, entryTop, root
+     * and size; per node its bounding box as 4 <code>double</code>s and <code>int</code> level, parent, number of children
+     * and children; <code>int</code> number of free nodes and the free nodes; per handle the <code>int</code> index of its
+     * object in the object table, or -1 for a free handle, followed for an object by its bounding box and <code>int</code>
+     * leaf; and <code>int</code> number of free handles and the free handles. The tree should only hold objects that are
+     * rebuilt the same in a later run, such as the lanes of a network.
+     * @param file the file
+     * @param identifier the identifier of the objects, e.g., {@link SpatialObjectIdentifier#OTS}
+     * @throws IOException when the file cannot be written
+     * @throws IllegalArgumentException when two objects have the same id
+     */
+    public void save(final Path file, final SpatialObjectIdentifier identifier) throws IOException
+    {
+        Throw.when(this.handles == null, IllegalStateException.class, "a snapshot cannot be saved");
+        List<SpatialObject> table = new ArrayList<>(this.size);
+        int[] objectIndex = new int[this.entryTop];
+        for (int handle = 0; handle < this.entryTop; handle++)
+        {
+            if (this.entryObject[handle] == null)
+            {
+                objectIndex[handle] = NONE;
+            }
+            else
+            {
+                objectIndex[handle] = table.size();
+                table.add((SpatialObject) this.entryObject[handle]);
+            }
+        }
+        try (DataOutputStream out = IndexFile.create(file, IndexFile.NATIVE))
+        {
+            IndexFile.writeObjects(out, table, identifier);
+            out.writeInt(this.nodeTop);
+            out.writeInt(this.entryTop);
+            out.writeInt(this.root);
+            out.writeInt(this.size);
+            for (int node = 0; node < this.nodeTop; node++)
+            {
+                for (int i = 4 * node; i < 4 * node + 4; i++)
+                {
+                    out.writeDouble(this.nodeBox[i]);
+                }
+                out.writeInt(this.nodeLevel[node]);
+                out.writeInt(this.nodeParent[node]);
+                out.writeInt(this.nodeCount[node]);
+                for (int i = MAX_ENTRIES * node; i < MAX_ENTRIES * node + this.nodeCount[node]; i++)
+                {
+                    out.writeInt(this.nodeChild[i]);
+                }
+            }
+            out.writeInt(this.freeNodeCount);
+            for (int i = 0; i < this.freeNodeCount; i++)
+            {
+                out.writeInt(this.freeNodes[i]);
+            }
+            for (int handle = 0; handle < this.entryTop; handle++)
+            {
+                out.writeInt(objectIndex[handle]);
+                if (objectIndex[handle] != NONE)
+                {
+                    for (int i = 4 * handle; i < 4 * handle + 4; i++)
+                    {
+                        out.writeDouble(this.entryBox[i]);
+                    }
+                    out.writeInt(this.entryNode[handle]);
+                }
+            }
+            out.writeInt(this.freeEntryCount);
+            for (int i = 0; i < this.freeEntryCount; i++)
+            {
+                out.writeInt(this.freeEntries[i]);
+            }
+        }
+    }
+
+    /**
+     * Load a tree from an index file that was written by {@link #save(Path, SpatialObjectIdentifier)}. The arrays of the tree
+     * are read as they were saved, so the tree is not built again; the bounding boxes of the objects are only computed for the
+     * checksum of the object table, which rejects a file of which the objects changed since it was saved. The loaded tree can
+     * be changed like any other tree.
+     * @param file the file
+     * @param objects the objects of the network by their id, e.g., from
+     *            {@link IndexFile#objectsById(Collection, SpatialObjectIdentifier)}
+     * @return the tree
+     * @throws IOException when the file cannot be read, is not an index file of a native tree, has an id that is not in the
+     *             objects, or when the bounding boxes of the objects differ from those of the saved objects
+     */
+    public static SpatialTreeNative load(final Path file, final Map<String, ? extends SpatialObject> objects)
+            throws IOException
+    {
+        try (DataInputStream in = IndexFile.open(file, IndexFile.NATIVE))
+        {
+            SpatialObject[] table = IndexFile.readObjects(in, objects);
+            int nodeTop = in.readInt();
+            int entryTop = in.readInt();
+            SpatialTreeNative tree = new SpatialTreeNative(entryTop);
+            if (nodeTop > tree.nodeCount.length)
+            {
+                tree.nodeBox = new double[4 * nodeTop];
+                tree.nodeChild = new int[MAX_ENTRIES * nodeTop];
+                tree.nodeCount = new int[nodeTop];
+                tree.nodeLevel = new int[nodeTop];
+                tree.nodeParent = new int[nodeTop];
+                tree.freeNodes = new int[nodeTop];
+            }
+            tree.nodeTop = nodeTop;
+            tree.entryTop = entryTop;
+            tree.root = in.readInt();
+            tree.size = in.readInt();
+            for (int node = 0; node < nodeTop; node++)
+            {
+                for (int i = 4 * node; i < 4 * node + 4; i++)
+                {
+                    tree.nodeBox[i] = in.readDouble();
+                }
+                tree.nodeLevel[node] = in.readInt();
+                tree.nodeParent[node] = in.readInt();
+                tree.nodeCount[node] = in.readInt();
+                for (int i = MAX_ENTRIES * node; i < MAX_ENTRIES * node + tree.nodeCount[node]; i++)
+                {
+                    tree.nodeChild[i] = in.readInt();
+                }
+            }
+            tree.freeNodeCount = in.readInt();
+            for (int i = 0; i < tree.freeNodeCount; i++)
+            {
+                tree.freeNodes[i] = in.readInt();
+            }
+            for (int handle = 0; handle < entryTop; handle++)
+            {
+                int index = in.readInt();
+                if (index == NONE)
+                {
+                    tree.entryNode[handle] = NONE;
+                }
+                else
+                {
+                    for (int i = 4 * handle; i < 4 * handle + 4; i++)
+                    {
+                        tree.entryBox[i] = in.readDouble();
+                    }
+                    tree.entryNode[handle] = in.readInt();
+                    tree.entryObject[handle] = table[index];
+                    tree.handles.put(table[index], handle);
+                }
+            }
+            tree.freeEntryCount = in.readInt();
+            for (int i = 0; i < tree.freeEntryCount; i++)
+            {
+                tree.freeEntries[i] = in.readInt();
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Collect the handles of the entries of which the bounding box intersects with the search box in the candidates array.
+     * @param minX minimum x of the search box
+     * @param minY minimum y of the search box
+     * @param maxX maximum x of the search box
+     * @param maxY maximum y of the search box
+     * @return the number of candidates
+     */
+    private int search(final double minX, final double minY, final double maxX, final double maxY)
+    {
+        if (this.size == 0 || !intersects(this.nodeBox, this.root, minX, minY, maxX, maxY))
+        {
+            return 0;
+        }
+        int n = 0;
+        int sp = 0;
+        this.stack[sp++] = this.root;
+        while (sp > 0)
+        {
+            int node = this.stack[--sp];
+            int first = node * MAX_ENTRIES;
+            int last = first + this.nodeCount[node];
+            if (this.nodeLevel[node] == 0)
+            {
+                for (int c = first; c < last; c++)
+                {
+                    int handle = this.nodeChild[c];
+                    if (intersects(this.entryBox, handle, minX, minY, maxX, maxY))
+                    {
+                        if (n == this.candidates.length)
+                        {
+                            this.candidates = Arrays.copyOf(this.candidates, 2 * n);
+                        }
+                        this.candidates[n++] = handle;
+                    }
+                }
+            }
+            else
+            {
+                if (sp + MAX_ENTRIES > this.stack.length)
+                {
+                    this.stack = Arrays.copyOf(this.stack, 2 * this.stack.length);
+                }
+                for (int c = first; c < last; c++)
+                {
+                    int child = this.nodeChild[c];
+                    if (intersects(this.nodeBox, child, minX, minY, maxX, maxY))
+                    {
+                        this.stack[sp++] = child;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Give an entry that is in the tree a new bounding box.
+     * @param handle the handle of the entry
+     * @param minX new minimum x
+     * @param minY new minimum y
+     * @param maxX new maximum x
+     * @param maxY new maximum y
+     */
+    private void updateEntry(final int handle, final double minX, final double minY, final double maxX, final double maxY)
+    {
+        int leaf = this.entryNode[handle];
+        int b = 4 * leaf;
+        if (minX >= this.nodeBox[b] && minY >= this.nodeBox[b + 1] && maxX <= this.nodeBox[b + 2]
+                && maxY <= this.nodeBox[b + 3])
+        {
+            // in place: the boxes of the leaf and its ancestors still contain the entry
+            setBox(this.entryBox, handle, minX, minY, maxX, maxY);
+            return;
+        }
+        delete(handle);
+        setBox(this.entryBox, handle, minX, minY, maxX, maxY);
+        insert(handle);
+    }
+
+    /**
+     * Build a tree bottom-up from entries. The items of a level, first the entries and then the nodes of the level below, are
+     * grouped into nodes of at most MAX_ENTRIES children in sort-tile-recursive order, until one node is left.
+     * @param handles the handles of the entries; the array is reused for the items of the levels
+     * @param count the number of entries
+     * @return the root of the tree
+     */
+    private int pack(final int[] handles, final int count)
+    {
+        int[] items = handles;
+        int n = count;
+        int level = 0;
+        while (true)
+        {
+            int[] starts = BulkLoad.strGroups(items, n, level == 0 ? this.entryBox : this.nodeBox, MAX_ENTRIES);
+            int groups = starts.length - 1;
+            int[] nodes = new int[groups];
+            for (int g = 0; g < groups; g++)
+            {
+                int node = allocateNode(level);
+                int first = node * MAX_ENTRIES;
+                for (int i = starts[g]; i < starts[g + 1]; i++)
+                {
+                    this.nodeChild[first + this.nodeCount[node]++] = items[i];
+                    setParent(node, items[i]);
+                }
+                recomputeBox(node);
+                nodes[g] = node;
+            }
+            if (groups == 1)
+            {
+                return nodes[0];
+            }
+            items = nodes;
+            n = groups;
+            level++;
+        }
+    }
+
+    /**
+     * Insert an entry, of which the bounding box has been set, in the tree.
+     * @param handle the handle of the entry
+     */
+    private void insert(final int handle)
+    {
+        int b = 4 * handle;
+        double minX = this.entryBox[b];
+        double minY = this.entryBox[b + 1];
+        double maxX = this.entryBox[b + 2];
+        double maxY = this.entryBox[b + 3];
+        int node = this.root;
+        while (this.nodeLevel[node] > 0)
+        {
+            node = chooseChild(node, minX, minY, maxX, maxY);
+        }
+        addChild(node, handle);
+    }
+
+    /**
+     * Return the child of a node that needs the least enlargement to include a bounding box, resolving ties by the smallest
+     * area.
+     * @param node the node
+     * @param minX minimum x of the bounding box
+     * @param minY minimum y of the bounding box
+     * @param maxX maximum x of the bounding box
+     * @param maxY maximum y of the bounding box
+     * @return the child that needs the least enlargement
+     */
+    private int chooseChild(final int node, final double minX, final double minY, final double maxX, final double maxY)
+    {
+        int best = NONE;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        int first = node * MAX_ENTRIES;
+        int last = first + this.nodeCount[node];
+        for (int c = first; c < last; c++)
+        {
+            int child = this.nodeChild[c];
+            int b = 4 * child;
+            double area = (this.nodeBox[b + 2] - this.nodeBox[b]) * (this.nodeBox[b + 3] - this.nodeBox[b + 1]);
+            double enlarged = (Math.max(maxX, this.nodeBox[b + 2]) - Math.min(minX, this.nodeBox[b]))
+                    * (Math.max(maxY, this.nodeBox[b + 3]) - Math.min(minY, this.nodeBox[b + 1]));
+            double enlargement = enlarged - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea))
+            {
+                best = child;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Add a child (a handle for a leaf, a node otherwise) to a node, splitting the node when it is full.
+     * @param node the node
+     * @param child the child
+     */
+    private void addChild(final int node, final int child)
+    {
+        if (this.nodeCount[node] < MAX_ENTRIES)
+        {
+            this.nodeChild[node * MAX_ENTRIES + this.nodeCount[node]++] = child;
+            setParent(node, child);
+            double[] boxes = this.nodeLevel[node] == 0 ? this.entryBox : this.nodeBox;
+            int b = 4 * child;
+            expandUpward(node, boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+            return;
+        }
+        int sibling = split(node, child);
+        if (node == this.root)
+        {
+            int newRoot = allocateNode(this.nodeLevel[node] + 1);
+            this.nodeChild[newRoot * MAX_ENTRIES] = node;
+            this.nodeChild[newRoot * MAX_ENTRIES + 1] = sibling;
+            this.nodeCount[newRoot] = 2;
+            this.nodeParent[node] = newRoot;
+            this.nodeParent[sibling] = newRoot;
+            recomputeBox(newRoot);
+            this.root = newRoot;
+        }
+        else
+        {
+            addChild(this.nodeParent[node], sibling);
+            // the child may have ended up in the node rather than in the sibling; the parents may have been split as well
+            refitUpward(this.nodeParent[node]);
+            refitUpward(this.nodeParent[sibling]);
+        }
+    }
+
+    /**
+     * Split a full node over the node and a new sibling with the quadratic algorithm of Guttman.
+     * @param node the full node
+     * @param extra the child that has to be added to the node
+     * @return the new sibling
+     */
+    private int split(final int node, final int extra)
+    {
+        int sibling = allocateNode(this.nodeLevel[node]); // first, as allocating can replace the node arrays
+        double[] boxes = this.nodeLevel[node] == 0 ? this.entryBox : this.nodeBox;
+        int n = MAX_ENTRIES + 1;
+        System.arraycopy(this.nodeChild, node * MAX_ENTRIES, this.splitItems, 0, MAX_ENTRIES);
+        this.splitItems[MAX_ENTRIES] = extra;
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(boxes, 4 * this.splitItems[i], this.splitBox, 4 * i, 4);
+            this.splitGroup[i] = 0;
+        }
+
+        // pick the seeds: the pair that wastes the most area when put together
+        int seed1 = 0;
+        int seed2 = 1;
+        double worst = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n - 1; i++)
+        {
+            for (int j = i + 1; j < n; j++)
+            {
+                double waste = unionArea(i, j) - area(i) - area(j);
+                if (waste > worst)
+                {
+                    worst = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        this.splitGroup[seed1] = 1;
+        this.splitGroup[seed2] = 2;
+        double[] box1 = this.groupBox1;
+        double[] box2 = this.groupBox2;
+        System.arraycopy(this.splitBox, 4 * seed1, box1, 0, 4);
+        System.arraycopy(this.splitBox, 4 * seed2, box2, 0, 4);
+        int count1 = 1;
+        int count2 = 1;
+        int remaining = n - 2;
+
+        // assign the other items, one at a time, the one with the strongest preference first
+        while (remaining > 0)
+        {
+            int group = 0;
+            if (count1 + remaining == MIN_ENTRIES)
+            {
+                group = 1;
+            }
+            else if (count2 + remaining == MIN_ENTRIES)
+            {
+                group = 2;
+            }
+            if (group != 0)
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    if (this.splitGroup[i] == 0)
+                    {
+                        this.splitGroup[i] = group;
+                        include(group == 1 ? box1 : box2, i);
+                    }
+                }
+                break;
+            }
+            int next = NONE;
+            double maxDiff = Double.NEGATIVE_INFINITY;
+            double next1 = 0.0;
+            double next2 = 0.0;
+            for (int i = 0; i < n; i++)
+            {
+                if (this.splitGroup[i] == 0)
+                {
+                    double d1 = enlargement(box1, i);
+                    double d2 = enlargement(box2, i);
+                    double diff = Math.abs(d1 - d2);
+                    if (diff > maxDiff)
+                    {
+                        maxDiff = diff;
+                        next = i;
+                        next1 = d1;
+                        next2 = d2;
+                    }
+                }
+            }
+            if (next1 < next2 || (next1 == next2 && (boxArea(box1) < boxArea(box2)
+                    || (boxArea(box1) == boxArea(box2) && count1 <= count2))))
+            {
+                this.splitGroup[next] = 1;
+                include(box1, next);
+                count1++;
+            }
+            else
+            {
+                this.splitGroup[next] = 2;
+                include(box2, next);
+                count2++;
+            }
+            remaining--;
+        }
+
+        // write the groups to the node and the sibling
+        int c1 = 0;
+        int c2 = 0;
+        for (int i = 0; i < n; i++)
+        {
+            int item = this.splitItems[i];
+            if (this.splitGroup[i] == 1)
+            {
+                this.nodeChild[node * MAX_ENTRIES + c1++] = item;
+                setParent(node, item);
+            }
+            else
+            {
+                this.nodeChild[sibling * MAX_ENTRIES + c2++] = item;
+                setParent(sibling, item);
+            }
+        }
+        this.nodeCount[node] = c1;
+        this.nodeCount[sibling] = c2;
+        setBox(this.nodeBox, node, box1[0], box1[1], box1[2], box1[3]);
+        setBox(this.nodeBox, sibling, box2[0], box2[1], box2[2], box2[3]);
+        return sibling;
+    }
+
+    /**
+     * Remove an entry from the tree, and condense the tree. The entry keeps its handle and bounding box.
+     * @param handle the handle of the entry
+     */
+    private void delete(final int handle)
+    {
+        int leaf = this.entryNode[handle];
+        removeChild(leaf, handle);
+        this.entryNode[handle] = NONE;
+
+        // condense: eliminate nodes with too few children and collect their entries to insert them again
+        this.reinsertCount = 0;
+        int node = leaf;
+        while (node != this.root)
+        {
+            int parent = this.nodeParent[node];
+            if (this.nodeCount[node] < MIN_ENTRIES)
+            {
+                removeChild(parent, node);
+                collectEntries(node);
+            }
+            else
+            {
+                recomputeBox(node);
+            }
+            node = parent;
+        }
+        recomputeBox(this.root);
+        while (this.nodeLevel[this.root] > 0 && this.nodeCount[this.root] == 1)
+        {
+            int child = this.nodeChild[this.root * MAX_ENTRIES];
+            freeNode(this.root);
+            this.root = child;
+            this.nodeParent[child] = NONE;
+        }
+        if (this.nodeLevel[this.root] > 0 && this.nodeCount[this.root] == 0)
+        {
+            freeNode(this.root);
+            this.root = allocateNode(0);
+        }
+        for (int i = 0; i < this.reinsertCount; i++)
+        {
+            insert(this.reinsert[i]);
+        }
+        this.reinsertCount = 0;
+    }
+
+    /**
+     * Collect the entries of the subtree of a node that has been removed from the tree, and free the nodes of the subtree.
+     * @param subtree the root node of the subtree
+     */
+    private void collectEntries(final int subtree)
+    {
+        int sp = 0;
+        this.stack[sp++] = subtree;
+        while (sp > 0)
+        {
+            int node = this.stack[--sp];
+            int first = node * MAX_ENTRIES;
+            int count = this.nodeCount[node];
+            if (this.nodeLevel[node] == 0)
+            {
+                if (this.reinsertCount + count > this.reinsert.length)
+                {
+                    this.reinsert = Arrays.copyOf(this.reinsert, 2 * (this.reinsertCount + count));
+                }
+                System.arraycopy(this.nodeChild, first, this.reinsert, this.reinsertCount, count);
+                this.reinsertCount += count;
+            }
+            else
+            {
+                if (sp + count > this.stack.length)
+                {
+                    this.stack = Arrays.copyOf(this.stack, 2 * (sp + count));
+                }
+                System.arraycopy(this.nodeChild, first, this.stack, sp, count);
+                sp += count;
+            }
+            freeNode(node);
+        }
+    }
+
+    /**
+     * Remove a child from a node; the last child takes its place.
+     * @param node the node
+     * @param child the child to remove
+     */
+    private void removeChild(final int node, final int child)
+    {
+        int first = node * MAX_ENTRIES;
+        int last = first + this.nodeCount[node] - 1;
+        for (int c = first; c <= last; c++)
+        {
+            if (this.nodeChild[c] == child)
+            {
+                this.nodeChild[c] = this.nodeChild[last];
+                this.nodeCount[node]--;
+                return;
+            }
+        }
+        throw new IllegalStateException("child " + child + " not found in node " + node);
+    }
+
+    /**
+     * Set the parent of a child, which is an entry for a leaf and a node otherwise.
+     * @param node the parent node
+     * @param child the child
+     */
+    private void setParent(final int node, final int child)
+    {
+        if (this.nodeLevel[node] == 0)
+        {
+            this.entryNode[child] = node;
+        }
+        else
+        {
+            this.nodeParent[child] = node;
+        }
+    }
+
+    /**
+     * Expand the bounding boxes of a node and its ancestors to include a bounding box, until a box already contains it.
+     * @param start the first node to expand
+     * @param minX minimum x of the bounding box
+     * @param minY minimum y of the bounding box
+     * @param maxX maximum x of the bounding box
+     * @param maxY maximum y of the bounding box
+     */
+    private void expandUpward(final int start, final double minX, final double minY, final double maxX, final double maxY)
+    {
+        int node = start;
+        while (node != NONE)
+        {
+            int b = 4 * node;
+            if (minX >= this.nodeBox[b] && minY >= this.nodeBox[b + 1] && maxX <= this.nodeBox[b + 2]
+                    && maxY <= this.nodeBox[b + 3])
+            {
+                return;
+            }
+            this.nodeBox[b] = Math.min(this.nodeBox[b], minX);
+            this.nodeBox[b + 1] = Math.min(this.nodeBox[b + 1], minY);
+            this.nodeBox[b + 2] = Math.max(this.nodeBox[b + 2], maxX);
+            this.nodeBox[b + 3] = Math.max(this.nodeBox[b + 3], maxY);
+            node = this.nodeParent[node];
+        }
+    }
+
+    /**
+     * Recompute the bounding boxes of a node and all its ancestors from their children.
+     * @param start the first node to recompute
+     */
+    private void refitUpward(final int start)
+    {
+        int node = start;
+        while (node != NONE)
+        {
+            recomputeBox(node);
+            node = this.nodeParent[node];
+        }
+    }
+
+    /**
+     * Recompute the bounding box of a node from its children.
+     * @param node the node
+     */
+    private void recomputeBox(final int node)
+    {
+        double[] boxes = this.nodeLevel[node] == 0 ? this.entryBox : this.nodeBox;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        int first = node * MAX_ENTRIES;
+        int last = first + this.nodeCount[node];
+        for (int c = first; c < last; c++)
+        {
+            int b = 4 * this.nodeChild[c];
+            minX = Math.min(minX, boxes[b]);
+            minY = Math.min(minY, boxes[b + 1]);
+            maxX = Math.max(maxX, boxes[b + 2]);
+            maxY = Math.max(maxY, boxes[b + 3]);
+        }
+        setBox(this.nodeBox, node, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Return the area of an item of a split.
+     * @param i the index of the item
+     * @return the area of the item
+     */
+    private double area(final int i)
+    {
+        int b = 4 * i;
+        return (this.splitBox[b + 2] - this.splitBox[b]) * (this.splitBox[b + 3] - this.splitBox[b + 1]);
+    }
+
+    /**
+     * Return the area of the bounding box of two items of a split.
+     * @param i the index of the first item
+     * @param j the index of the second item
+     * @return the area of the bounding box of the two items
+     */
+    private double unionArea(final int i, final int j)
+    {
+        int a = 4 * i;
+        int b = 4 * j;
+        return (Math.max(this.splitBox[a + 2], this.splitBox[b + 2]) - Math.min(this.splitBox[a], this.splitBox[b]))
+                * (Math.max(this.splitBox[a + 3], this.splitBox[b + 3]) - Math.min(this.splitBox[a + 1], this.splitBox[b + 1]));
+    }
+
+    /**
+     * Return the enlargement of a group box to include an item of a split.
+     * @param box the group box
+     * @param i the index of the item
+     * @return the enlargement of the area of the group box
+     */
+    private double enlargement(final double[] box, final int i)
+    {
+        int b = 4 * i;
+        return (Math.max(box[2], this.splitBox[b + 2]) - Math.min(box[0], this.splitBox[b]))
+                * (Math.max(box[3], this.splitBox[b + 3]) - Math.min(box[1], this.splitBox[b + 1])) - boxArea(box);
+    }
+
+    /**
+     * Expand a group box to include an item of a split.
+     * @param box the group box
+     * @param i the index of the item
+     */
+    private void include(final double[] box, final int i)
+    {
+        int b = 4 * i;
+        box[0] = Math.min(box[0], this.splitBox[b]);
+        box[1] = Math.min(box[1], this.splitBox[b + 1]);
+        box[2] = Math.max(box[2], this.splitBox[b + 2]);
+        box[3] = Math.max(box[3], this.splitBox[b + 3]);
+    }
+
+    /**
+     * Return the area of a group box.
+     * @param box the group box
+     * @return the area of the group box
+     */
+    private static double boxArea(final double[] box)
+    {
+        return (box[2] - box[0]) * (box[3] - box[1]);
+    }
+
+    /**
+     * Return whether the bounding box at an index intersects with a search box. Boxes that touch intersect.
+     * @param boxes the box array
+     * @param index the index of the box
+     * @param minX minimum x of the search box
+     * @param minY minimum y of the search box
+     * @param maxX maximum x of the search box
+     * @param maxY maximum y of the search box
+     * @return whether the boxes intersect
+     */
+    private static boolean intersects(final double[] boxes, final int index, final double minX, final double minY,
+            final double maxX, final double maxY)
+    {
+        int b = 4 * index;
+        return boxes[b] <= maxX && boxes[b + 2] >= minX && boxes[b + 1] <= maxY && boxes[b + 3] >= minY;
+    }
+
+    /**
+     * Return whether the bounding box at an index intersects with the bounding box at an index of another box array. Boxes
+     * that touch intersect.
+     * @param boxes the box array
+     * @param index the index of the box
+     * @param otherBoxes the other box array
+     * @param otherIndex the index of the box in the other box array
+     * @return whether the boxes intersect
+     */
+    private static boolean intersects(final double[] boxes, final int index, final double[] otherBoxes, final int otherIndex)
+    {
+        int b = 4 * otherIndex;
+        return intersects(boxes, index, otherBoxes[b], otherBoxes[b + 1], otherBoxes[b + 2], otherBoxes[b + 3]);
+    }
+
+    /**
+     * Return the distance between the point of a nearest-neighbour search and the bounding box at an index.
+     * @param search the started search
+     * @param boxes the box array
+     * @param index the index of the box
+     * @return the distance between the search point and the box
+     */
+    private static double boxDistance(final NearestSearch search, final double[] boxes, final int index)
+    {
+        int b = 4 * index;
+        return search.boxDistance(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+    }
+
+    /**
+     * Write a bounding box at an index.
+     * @param boxes the box array
+     * @param index the index of the box
+     * @param minX minimum x
+     * @param minY minimum y
+     * @param maxX maximum x
+     * @param maxY maximum y
+     */
+    private static void setBox(final double[] boxes, final int index, final double minX, final double minY, final double maxX,
+            final double maxY)
+    {
+        int b = 4 * index;
+        boxes[b] = minX;
+        boxes[b + 1] = minY;
+        boxes[b + 2] = maxX;
+        boxes[b + 3] = maxY;
+    }
+
+    /**
+     * Copy the arrays of the tree when they are shared with a snapshot, so the snapshot keeps the tree as it was.
+     */
+    private void unshare()
+    {
+        if (this.shared)
+        {
+            this.nodeBox = this.nodeBox.clone();
+            this.nodeChild = this.nodeChild.clone();
+            this.nodeCount = this.nodeCount.clone();
+            this.nodeLevel = this.nodeLevel.clone();
+            this.nodeParent = this.nodeParent.clone();
+            this.entryBox = this.entryBox.clone();
+            this.entryObject = this.entryObject.clone();
+            this.entryNode = this.entryNode.clone();
+            this.shared = false;
+        }
+    }
+
+    /**
+     * Return a free node with an empty bounding box and no children, growing the node arrays when needed.
+     * @param level the level of the node
+     * @return the node
+     */
+    private int allocateNode(final int level)
+    {
+        int node;
+        if (this.freeNodeCount > 0)
+        {
+            node = this.freeNodes[--this.freeNodeCount];
+        }
+        else
+        {
+            if (this.nodeTop == this.nodeCount.length)
+            {
+                int capacity = 2 * this.nodeCount.length;
+                this.nodeBox = Arrays.copyOf(this.nodeBox, 4 * capacity);
+                this.nodeChild = Arrays.copyOf(this.nodeChild, MAX_ENTRIES * capacity);
+                this.nodeCount = Arrays.copyOf(this.nodeCount, capacity);
+                this.nodeLevel = Arrays.copyOf(this.nodeLevel, capacity);
+                this.nodeParent = Arrays.copyOf(this.nodeParent, capacity);
+                this.freeNodes = Arrays.copyOf(this.freeNodes, capacity);
+            }
+            node = this.nodeTop++;
+        }
+        this.nodeCount[node] = 0;
+        this.nodeLevel[node] = level;
+        this.nodeParent[node] = NONE;
+        setBox(this.nodeBox, node, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.NEGATIVE_INFINITY);
+        return node;
+    }
+
+    /**
+     * Return a node to the free list.
+     * @param node the node
+     */
+    private void freeNode(final int node)
+    {
+        this.nodeCount[node] = 0;
+        this.freeNodes[this.freeNodeCount++] = node;
+    }
+
+    /**
+     * Return a free handle, growing the entry arrays when needed.
+     * @return the handle
+     */
+    private int allocateEntry()
+    {
+        if (this.freeEntryCount > 0)
+        {
+            return this.freeEntries[--this.freeEntryCount];
+        }
+        if (this.entryTop == this.entryNode.length)
+        {
+            int capacity = 2 * this.entryNode.length;
+            this.entryBox = Arrays.copyOf(this.entryBox, 4 * capacity);
+            this.entryObject = Arrays.copyOf(this.entryObject, capacity);
+            this.entryNode = Arrays.copyOf(this.entryNode, capacity);
+            this.freeEntries = Arrays.copyOf(this.freeEntries, capacity);
+        }
+        return this.entryTop++;
+    }
+
+    /**
+     * Return a handle to the free list.
+     * @param handle the handle
+     */
+    private void freeEntry(final int handle)
+    {
+        this.entryNode[handle] = NONE;
+        this.freeEntries[this.freeEntryCount++] = handle;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeNative [size=" + this.size + ", height=" + getHeight() + ", nodes="
+                + (this.nodeTop - this.freeNodeCount) + "]";
+    }
+
+}
@@ -0,0 +1,746 @@
+package org.opentrafficsim.spatialtree.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.BulkLoad;
+import org.opentrafficsim.spatialtree.util.IdentityIntMap;
+import org.opentrafficsim.spatialtree.util.NearestSearch;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+/**
+ * Packed R-tree for very large numbers of static objects, such as the lanes of a regional or national network, of which the
+ * bounding boxes and the handles of the objects are stored off-heap, in direct buffers. The heap only holds one array with the
+ * objects by handle and the map from the objects to their handles, which are both arrays of references without an object per
+ * entry, so the garbage collector has little to trace, however many objects the tree holds. The objects themselves are only
+ * looked up for the candidates of a search.
+ * <p>
+ * The tree is packed bottom-up from the objects in the order of a Hilbert curve through the centers of their boxes, with
+ * {@value #NODE_SIZE} children per node. The packed levels are stored one after the other: first the leaf entries (box and
+ * handle), then the nodes of each level up to the root (box and the position of the first child). Like the packed trees of
+ * JTS, the tree is built at the first query and rebuilt at the next query when objects were added or moved; objects are
+ * removed in place. This makes the tree suitable for objects that do not change, e.g., as the static part of a
+ * SpatialTreeHybrid, and not for objects that move.
+ * </p>
+ * <p>
+ * A snapshot is a read-only view that shares the packed tree and the objects, without copying them: every view has its own
+ * duplicates of the buffers, with their own positions, and its own search state. The tree packs into new buffers and copies
+ * the array of objects before its next change, once per snapshot, so the views keep the tree as it was.
+ * </p>
+ * <p>
+ * The memory of a direct buffer is released when the buffer is garbage collected; it does not count towards the heap, but it
+ * is limited by -XX:MaxDirectMemorySize. The off-heap footprint is 32 bytes per object for the boxes from which the tree is
+ * packed, plus about 38 bytes per object for the packed tree, see {@link #getOffHeapBytes()}.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeOffHeap implements SpatialTree
+{
+    /** the number of children of a node of the packed tree. */
+    public static final int NODE_SIZE = 16;
+
+    /** kind of an item in the queue of a nearest-neighbour search: a node. */
+    private static final int NEAREST_NODE = 0;
+
+    /** kind of an item in the queue of a nearest-neighbour search: a leaf entry, queued by the distance of its box. */
+    private static final int NEAREST_ENTRY = 1;
+
+    /** kind of an item in the queue of a nearest-neighbour search: an object, queued by its exact distance. */
+    private static final int NEAREST_OBJECT = 2;
+
+    /** the objects by handle; null for a free handle. */
+    private Object[] objects;
+
+    /** the bounding boxes of the objects by handle, as minX, minY, maxX, maxY at 4 * handle; off-heap. */
+    private DoubleBuffer entryBoxes;
+
+    /** the number of handles that have ever been used. */
+    private int handleTop = 0;
+
+    /** the free handles. */
+    private int[] freeHandles;
+
+    /** the number of free handles. */
+    private int freeHandleCount = 0;
+
+    /** the handles of the objects; null for a snapshot. */
+    private final IdentityIntMap handles;
+
+    /** the number of objects in the tree. */
+    private int size = 0;
+
+    /** the boxes of the positions of the packed tree, as minX, minY, maxX, maxY at 4 * position; off-heap. */
+    private DoubleBuffer treeBoxes;
+
+    /** per position of the packed tree: the handle of a leaf entry, or the position of the first child of a node; off-heap. */
+    private IntBuffer treeIndex;
+
+    /** the first position of each level of the packed tree, followed by the number of positions; level 0 is the leaves. */
+    private int[] levelStart = new int[] {0, 0};
+
+    /** whether objects were added or moved since the tree was packed. */
+    private boolean dirty = false;
+
+    /** whether the array of objects is shared with a snapshot, and has to be copied before the next change. */
+    private boolean shared = false;
+
+    /** whether the buffers of the packed tree are shared with a snapshot, so the next pack needs new buffers. */
+    private boolean treeShared = false;
+
+    /** position stack for the traversal of the tree. */
+    private int[] stack = new int[4 * NODE_SIZE];
+
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /** the state of the nearest-neighbour searches. */
+    private final NearestSearch nearestSearch = new NearestSearch();
+
+    /**
+     * Constructor; initialize the spatial index.
+     */
+    public SpatialTreeOffHeap()
+    {
+        this(1024);
+    }
+
+    /**
+     * Constructor; initialize the spatial index with room for the given number of objects before the storage has to grow.
+     * @param initialCapacity the expected number of objects
+     */
+    public SpatialTreeOffHeap(final int initialCapacity)
+    {
+        int capacity = Math.max(16, initialCapacity);
+        this.objects = new Object[capacity];
+        this.entryBoxes = allocateDoubles(4 * capacity);
+        this.freeHandles = new int[16];
+        this.handles = new IdentityIntMap(capacity);
+        this.treeBoxes = allocateDoubles(0);
+        this.treeIndex = allocateInts(0);
+    }
+
+    /**
+     * Constructor for a snapshot; share the packed tree and the objects of a packed tree, with duplicates of the buffers that
+     * have their own positions. The snapshot only searches, so it has no boxes to pack from, no handles and no free list.
+     * @param source the packed tree of which to make a snapshot
+     */
+    private SpatialTreeOffHeap(final SpatialTreeOffHeap source)
+    {
+        this.objects = source.objects;
+        this.entryBoxes = allocateDoubles(0);
+        this.handleTop = source.handleTop;
+        this.freeHandles = null;
+        this.handles = null;
+        this.size = source.size;
+        this.treeBoxes = source.treeBoxes.duplicate();
+        this.treeIndex = source.treeIndex.duplicate();
+        this.levelStart = source.levelStart;
+    }
+
+    /**
+     * Allocate an off-heap buffer of doubles in the native byte order.
+     * @param n the number of doubles
+     * @return the buffer
+     */
+    private static DoubleBuffer allocateDoubles(final int n)
+    {
+        return ByteBuffer.allocateDirect(8 * n).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    /**
+     * Allocate an off-heap buffer of ints in the native byte order.
+     * @param n the number of ints
+     * @return the buffer
+     */
+    private static IntBuffer allocateInts(final int n)
+    {
+        return ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Add an object to the tree. When the object is already in the tree, its bounding box is updated.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        unshare();
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            handle = allocateHandle();
+            this.objects[handle] = object;
+            this.handles.put(object, handle);
+            this.size++;
+        }
+        setEntryBox(handle, object.getShape().getEnvelope());
+        this.dirty = true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(
+            final I object)
+    {
+        int handle = this.handles.remove(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            return false;
+        }
+        // the entry stays in the packed tree until it is packed again, and is skipped in the searches
+        unshare();
+        this.objects[handle] = null;
+        if (this.freeHandleCount == this.freeHandles.length)
+        {
+            this.freeHandles = Arrays.copyOf(this.freeHandles, 2 * this.freeHandles.length);
+        }
+        this.freeHandles[this.freeHandleCount++] = handle;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Update the bounding box of an object; the tree is packed again at the next query when the box has changed. When the
+     * object is not in the tree, it is added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object that may have moved
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(
+            final I object)
+    {
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            add(object);
+            return;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        int b = 4 * handle;
+        if (this.entryBoxes.get(b) != bb.getMinX() || this.entryBoxes.get(b + 1) != bb.getMinY()
+                || this.entryBoxes.get(b + 2) != bb.getMaxX() || this.entryBoxes.get(b + 3) != bb.getMaxY())
+        {
+            setEntryBox(handle, bb);
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Copy the array of objects when it is shared with a snapshot, so the snapshot keeps the objects as they were. The packed
+     * tree is replaced by new buffers at the next pack.
+     */
+    private void unshare()
+    {
+        if (this.shared)
+        {
+            this.objects = this.objects.clone();
+            this.shared = false;
+        }
+    }
+
+    /**
+     * Return a free handle, and grow the storage when all handles are in use.
+     * @return a free handle
+     */
+    private int allocateHandle()
+    {
+        if (this.freeHandleCount > 0)
+        {
+            return this.freeHandles[--this.freeHandleCount];
+        }
+        if (this.handleTop == this.objects.length)
+        {
+            int capacity = 2 * this.objects.length;
+            this.objects = Arrays.copyOf(this.objects, capacity);
+            DoubleBuffer boxes = allocateDoubles(4 * capacity);
+            this.entryBoxes.clear();
+            boxes.put(this.entryBoxes);
+            this.entryBoxes = boxes;
+        }
+        return this.handleTop++;
+    }
+
+    /**
+     * Store the bounding box of an object.
+     * @param handle the handle of the object
+     * @param bb the bounding box of the object
+     */
+    private void setEntryBox(final int handle, final Bounds bb)
+    {
+        int b = 4 * handle;
+        this.entryBoxes.put(b, bb.getMinX());
+        this.entryBoxes.put(b + 1, bb.getMinY());
+        this.entryBoxes.put(b + 2, bb.getMaxX());
+        this.entryBoxes.put(b + 3, bb.getMaxY());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        Throw.whenNull(point, "point in findNearest cannot be null");
+        Throw.whenNull(searchClass, "searchClass in findNearest cannot be null");
+        Throw.whenNull(maxDistance, "maxDistance in findNearest cannot be null");
+        Throw.whenNull(result, "result in findNearest cannot be null");
+        Throw.when(k < 0, IllegalArgumentException.class, "k in findNearest cannot be negative");
+        NearestSearch search = this.nearestSearch.start(type, point, searchClass, k, maxDistance.si, result);
+        try
+        {
+            if (this.dirty)
+            {
+                pack();
+            }
+            if (k > 0 && this.size > 0)
+            {
+                nearest(search);
+            }
+        }
+        finally
+        {
+            search.finish();
+        }
+        return search.getCount();
+    }
+
+    /**
+     * Best-first traversal of the packed tree for a nearest-neighbour search. The queue holds nodes and leaf entries by the
+     * distance of their box, which is a lower bound for the distance of the objects in them, and objects by their exact
+     * distance. The kind of an item is stored in the lowest two bits of the item; the rest is the position of a node or leaf
+     * entry, or the handle of an object.
+     * @param search the started search
+     */
+    private void nearest(final NearestSearch search)
+    {
+        int root = this.levelStart[this.levelStart.length - 1] - 1;
+        int leaves = this.levelStart[1];
+        search.push(boxDistance(search, root), root << 2 | (root < leaves ? NEAREST_ENTRY : NEAREST_NODE));
+        while (!search.isEmpty())
+        {
+            int item = search.pop();
+            int index = item >>> 2;
+            int kind = item & 3;
+            if (kind == NEAREST_OBJECT)
+            {
+                if (!search.add(this.objects[index]))
+                {
+                    return;
+                }
+            }
+            else if (kind == NEAREST_ENTRY)
+            {
+                int handle = this.treeIndex.get(index);
+                Object object = this.objects[handle];
+                if (object != null && search.accepts(object))
+                {
+                    search.push(search.distance(object), handle << 2 | NEAREST_OBJECT);
+                }
+            }
+            else
+            {
+                int first = this.treeIndex.get(index);
+                int end = Math.min(first + NODE_SIZE, levelEnd(first));
+                int childKind = first < leaves ? NEAREST_ENTRY : NEAREST_NODE;
+                for (int child = first; child < end; child++)
+                {
+                    search.push(boxDistance(search, child), child << 2 | childKind);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the distance between the point of a nearest-neighbour search and the box of a position of the packed tree.
+     * @param search the started search
+     * @param position the position
+     * @return the distance between the search point and the box
+     */
+    private double boxDistance(final NearestSearch search, final int position)
+    {
+        int b = 4 * position;
+        return search.boxDistance(this.treeBoxes.get(b), this.treeBoxes.get(b + 1), this.treeBoxes.get(b + 2),
+                this.treeBoxes.get(b + 3));
+    }
+
+    /**
+     * Return a snapshot that shares the packed tree and the objects, which takes constant time once the tree is packed. The
+     * tree is packed first when objects were added or moved since it was packed. Every thread that searches the snapshot has
+     * its own view, with its own duplicates of the buffers.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        if (this.dirty)
+        {
+            pack();
+        }
+        this.shared = true;
+        this.treeShared = true;
+        return new SpatialTreeSnapshot(new SpatialTreeOffHeap(this), false);
+    }
+
+    /**
+     * Return a view of this frozen tree that shares its packed buffers, of which it searches its own duplicates, and has its
+     * own search state.
+     * @return a read-only view of this frozen tree with its own search state
+     */
+    @Override
+    public SpatialTree view()
+    {
+        return new SpatialTreeOffHeap(this);
+    }
+
+    /**
+     * Offer the objects of which the bounding box intersects with the bounding box of the search shape to a started filter,
+     * and finish the filter. The tree is packed first when objects were added or moved since it was packed.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            if (this.dirty)
+            {
+                pack();
+            }
+            int root = this.levelStart[this.levelStart.length - 1] - 1;
+            if (root < 0)
+            {
+                return 0;
+            }
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            double minX = bb.getMinX();
+            double minY = bb.getMinY();
+            double maxX = bb.getMaxX();
+            double maxY = bb.getMaxY();
+            int leaves = this.levelStart[1];
+            int top = 0;
+            this.stack[top++] = root;
+            while (top > 0)
+            {
+                int position = this.stack[--top];
+                if (!intersects(position, minX, minY, maxX, maxY))
+                {
+                    continue;
+                }
+                if (position < leaves)
+                {
+                    Object object = this.objects[this.treeIndex.get(position)];
+                    if (object != null && !searchFilter.offer(object))
+                    {
+                        break;
+                    }
+                    continue;
+                }
+                int first = this.treeIndex.get(position);
+                int end = Math.min(first + NODE_SIZE, levelEnd(first));
+                if (top + NODE_SIZE > this.stack.length)
+                {
+                    this.stack = Arrays.copyOf(this.stack, 2 * this.stack.length);
+                }
+                // push the children in reverse, so they are visited in the order of the Hilbert curve
+                for (int child = end - 1; child >= first; child--)
+                {
+                    this.stack[top++] = child;
+                }
+            }
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Return whether the box of a position of the packed tree intersects with a box.
+     * @param position the position
+     * @param minX the minimum x of the box
+     * @param minY the minimum y of the box
+     * @param maxX the maximum x of the box
+     * @param maxY the maximum y of the box
+     * @return whether the boxes intersect
+     */
+    private boolean intersects(final int position, final double minX, final double minY, final double maxX,
+            final double maxY)
+    {
+        int b = 4 * position;
+        return this.treeBoxes.get(b) <= maxX && this.treeBoxes.get(b + 1) <= maxY && this.treeBoxes.get(b + 2) >= minX
+                && this.treeBoxes.get(b + 3) >= minY;
+    }
+
+    /**
+     * Return the end of the level of a position.
+     * @param position the position
+     * @return the first position after the level of the position
+     */
+    private int levelEnd(final int position)
+    {
+        int level = 1;
+        while (this.levelStart[level] <= position)
+        {
+            level++;
+        }
+        return this.levelStart[level];
+    }
+
+    /**
+     * Pack the objects into the tree, in the order of a Hilbert curve through the centers of their boxes. The Hilbert keys
+     * are sorted in a temporary array; all other data is written off-heap.
+     */
+    private void pack()
+    {
+        int n = this.size;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int handle = 0; handle < this.handleTop; handle++)
+        {
+            if (this.objects[handle] != null)
+            {
+                int b = 4 * handle;
+                double cx = 0.5 * (this.entryBoxes.get(b) + this.entryBoxes.get(b + 2));
+                double cy = 0.5 * (this.entryBoxes.get(b + 1) + this.entryBoxes.get(b + 3));
+                minX = Math.min(minX, cx);
+                minY = Math.min(minY, cy);
+                maxX = Math.max(maxX, cx);
+                maxY = Math.max(maxY, cy);
+            }
+        }
+        int cells = 1 << BulkLoad.HILBERT_BITS;
+        double scaleX = maxX > minX ? (cells - 1) / (maxX - minX) : 0.0;
+        double scaleY = maxY > minY ? (cells - 1) / (maxY - minY) : 0.0;
+        // the Hilbert index (2 * HILBERT_BITS bits) in the high bits and the handle in the low 31 bits
+        long[] keys = new long[n];
+        int k = 0;
+        for (int handle = 0; handle < this.handleTop; handle++)
+        {
+            if (this.objects[handle] != null)
+            {
+                int b = 4 * handle;
+                double cx = 0.5 * (this.entryBoxes.get(b) + this.entryBoxes.get(b + 2));
+                double cy = 0.5 * (this.entryBoxes.get(b + 1) + this.entryBoxes.get(b + 3));
+                keys[k++] = BulkLoad.hilbertIndex((int) ((cx - minX) * scaleX), (int) ((cy - minY) * scaleY)) << 31 | handle;
+            }
+        }
+        Arrays.sort(keys);
+
+        // the number of positions of all levels
+        int levels = 1;
+        int positions = n;
+        for (int count = n; count > 1; count = (count + NODE_SIZE - 1) / NODE_SIZE)
+        {
+            positions += (count + NODE_SIZE - 1) / NODE_SIZE;
+            levels++;
+        }
+        if (this.treeIndex.capacity() < positions || this.treeShared)
+        {
+            // new buffers when the packed tree is shared with a snapshot, which keeps the old ones
+            this.treeShared = false;
+            int capacity = positions + positions / 4;
+            this.treeBoxes = allocateDoubles(4 * capacity);
+            this.treeIndex = allocateInts(capacity);
+        }
+        this.levelStart = new int[levels + 1];
+
+        // the leaves
+        for (int i = 0; i < n; i++)
+        {
+            int handle = (int) (keys[i] & Integer.MAX_VALUE);
+            int b = 4 * handle;
+            int p = 4 * i;
+            this.treeBoxes.put(p, this.entryBoxes.get(b));
+            this.treeBoxes.put(p + 1, this.entryBoxes.get(b + 1));
+            this.treeBoxes.put(p + 2, this.entryBoxes.get(b + 2));
+            this.treeBoxes.put(p + 3, this.entryBoxes.get(b + 3));
+            this.treeIndex.put(i, handle);
+        }
+
+        // the nodes of the levels above the leaves
+        int level = 0;
+        int from = 0;
+        int to = n;
+        this.levelStart[0] = 0;
+        while (to - from > 1)
+        {
+            this.levelStart[++level] = to;
+            int position = to;
+            for (int first = from; first < to; first += NODE_SIZE)
+            {
+                int end = Math.min(first + NODE_SIZE, to);
+                double nodeMinX = Double.POSITIVE_INFINITY;
+                double nodeMinY = Double.POSITIVE_INFINITY;
+                double nodeMaxX = Double.NEGATIVE_INFINITY;
+                double nodeMaxY = Double.NEGATIVE_INFINITY;
+                for (int child = first; child < end; child++)
+                {
+                    int c = 4 * child;
+                    nodeMinX = Math.min(nodeMinX, this.treeBoxes.get(c));
+                    nodeMinY = Math.min(nodeMinY, this.treeBoxes.get(c + 1));
+                    nodeMaxX = Math.max(nodeMaxX, this.treeBoxes.get(c + 2));
+                    nodeMaxY = Math.max(nodeMaxY, this.treeBoxes.get(c + 3));
+                }
+                int p = 4 * position;
+                this.treeBoxes.put(p, nodeMinX);
+                this.treeBoxes.put(p + 1, nodeMinY);
+                this.treeBoxes.put(p + 2, nodeMaxX);
+                this.treeBoxes.put(p + 3, nodeMaxY);
+                this.treeIndex.put(position, first);
+                position++;
+            }
+            from = to;
+            to = position;
+        }
+        // with 0 or 1 objects, the leaf level is also the root level
+        this.levelStart[level + 1] = to;
+        this.dirty = false;
+    }
+
+    /**
+     * Remove all objects from the tree, and replace the off-heap storage by empty buffers.
+     */
+    public void clear()
+    {
+        if (this.shared)
+        {
+            this.objects = new Object[this.objects.length];
+            this.shared = false;
+        }
+        Arrays.fill(this.objects, 0, this.handleTop, null);
+        this.handles.clear();
+        this.handleTop = 0;
+        this.freeHandleCount = 0;
+        this.size = 0;
+        this.entryBoxes = allocateDoubles(4 * this.objects.length);
+        this.treeBoxes = allocateDoubles(0);
+        this.treeIndex = allocateInts(0);
+        this.treeShared = false;
+        this.levelStart = new int[] {0, 0};
+        this.dirty = false;
+    }
+
+    /**
+     * Return the number of objects in the tree.
+     * @return the number of objects in the tree
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Return the number of bytes of off-heap storage of the tree.
+     * @return the number of bytes of off-heap storage of the tree
+     */
+    public long getOffHeapBytes()
+    {
+        return 8L * this.entryBoxes.capacity() + 8L * this.treeBoxes.capacity() + 4L * this.treeIndex.capacity();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeOffHeap [size=" + this.size + ", offHeapBytes=" + getOffHeapBytes() + "]";
+    }
+
+}
@@ -0,0 +1,277 @@
+package org.opentrafficsim.spatialtree.parallel;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.compact.SpatialTreeCompact;
+import org.opentrafficsim.spatialtree.concurrent.SpatialTreeConcurrent;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
+import org.opentrafficsim.spatialtree.offheap.SpatialTreeOffHeap;
+import org.opentrafficsim.spatialtree.rtree2.SpatialTreeRTree2;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.tpr.SpatialTreeTpr;
+
+/**
+ * Batch search of a spatial tree with many shapes at once, e.g., all lanes and detector zones of a network, on the threads of
+ * a fork-join pool. The shapes are split into halves until a part has at most {@link #BATCH_SIZE} shapes, and idle threads
+ * steal the parts of busy threads, so a scan of the whole network scales with the number of cores.
+ * <p>
+ * The threads search a snapshot of the tree, see {@link SpatialTree#snapshot()}, in which every thread has its own view of the
+ * tree with its own search state, that is reused for all shapes that the thread searches. A tree that several threads can
+ * already search at once, a {@link SpatialTreeSnapshot} or a {@link SpatialTreeConcurrent}, is searched directly. For the
+ * trees of which a snapshot takes constant time, the trees in arrays such as SpatialTreeNative and SpatialTreeTpr and the
+ * persistent SpatialTreeRTree2, the snapshot is taken at the start of the batch; the tree copies its arrays once at its next
+ * change. The other trees would copy all their objects for a snapshot, and build a tree of them on one thread while the
+ * other threads wait, which takes longer than the searches themselves; these trees are searched on the calling thread. A
+ * caller that searches a tree that does not change in several batches, e.g., in one time step, passes one snapshot of the
+ * tree to all batches: the snapshot is only made once, and the threads of the pool keep their view of it, with its search
+ * state, for as long as the snapshot is used. Batches of at most {@link #BATCH_SIZE} shapes are searched on the calling
+ * thread, in the tree itself. The type and class of the objects are the same for all shapes of a batch.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class ParallelSearch
+{
+    /** the largest number of shapes that one task searches without splitting them. */
+    public static final int BATCH_SIZE = 16;
+
+    /** the pool on which the searches run. */
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a batch search on the common fork-join pool.
+     */
+    public ParallelSearch()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a batch search on a fork-join pool.
+     * @param pool the pool on which the searches run
+     */
+    public ParallelSearch(final ForkJoinPool pool)
+    {
+        Throw.whenNull(pool, "pool cannot be null");
+        this.pool = pool;
+    }
+
+    /**
+     * Return the objects of a type and class that overlap with each of the shapes.
+     * @param tree the tree to search, which does not change during the search; pass a snapshot to reuse it across batches
+     * @param type the type we are looking for (subtypes also qualify); null when any type qualifies
+     * @param shapes the shapes to search
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @return a set of the objects that overlap for each shape, in the order of the shapes
+     */
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> List<Set<I>> findAll(
+            final SpatialTree tree, final T type, final List<? extends OtsShape> shapes, final Class<I> searchClass)
+    {
+        return search(tree, type, shapes, searchClass, null);
+    }
+
+    /**
+     * Return the dynamic objects of a type and class that overlap with each of the shapes at a given time.
+     * @param tree the tree to search, which does not change during the search; pass a snapshot to reuse it across batches
+     * @param type the type we are looking for (subtypes also qualify); null when any type qualifies
+     * @param shapes the shapes to search
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param time the time for which we want to know the shape of the dynamic objects
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @return a set of the objects that overlap for each shape, in the order of the shapes
+     */
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> List<Set<I>> findAll(
+            final SpatialTree tree, final T type, final List<? extends OtsShape> shapes, final Class<I> searchClass,
+            final Time time)
+    {
+        Throw.whenNull(time, "time in findAll cannot be null");
+        return search(tree, type, shapes, searchClass, time);
+    }
+
+    /**
+     * Search the tree for all shapes, on the pool when there are more than BATCH_SIZE shapes and the tree is thread-safe or
+     * has a snapshot that takes constant time. On the pool, a tree that is not thread-safe is searched in a snapshot.
+     * @param tree the tree to search
+     * @param type the type we are looking for; null when any type qualifies
+     * @param shapes the shapes to search
+     * @param searchClass the class we are looking for
+     * @param time the time for the shape of the dynamic objects; null for the current shape
+     * @param <I> the spatial object type we are looking for
+     * @return a set of the objects that overlap for each shape, in the order of the shapes
+     */
+    @SuppressWarnings("unchecked")
+    private <I> List<Set<I>> search(final SpatialTree tree, final HierarchicalType<?, ?> type,
+            final List<? extends OtsShape> shapes, final Class<I> searchClass, final Time time)
+    {
+        Throw.whenNull(tree, "tree in findAll cannot be null");
+        Throw.whenNull(shapes, "shapes in findAll cannot be null");
+        Throw.whenNull(searchClass, "searchClass in findAll cannot be null");
+        OtsShape[] shapeArray = shapes.toArray(new OtsShape[shapes.size()]);
+        Set<?>[] results = new Set<?>[shapeArray.length];
+        boolean threadSafe = isThreadSafe(tree);
+        boolean parallel = shapeArray.length > BATCH_SIZE && (threadSafe || hasCheapSnapshot(tree));
+        SearchTask task = new SearchTask(parallel && !threadSafe ? tree.snapshot() : tree, type, shapeArray, searchClass,
+                time, results, 0, shapeArray.length);
+        if (parallel)
+        {
+            this.pool.invoke(task);
+        }
+        else
+        {
+            task.compute();
+        }
+        return (List<Set<I>>) (List<?>) Arrays.asList(results);
+    }
+
+    /**
+     * Return whether several threads can search a tree at once, so the pool can search it without a snapshot.
+     * @param tree the tree
+     * @return whether several threads can search the tree at once
+     */
+    private static boolean isThreadSafe(final SpatialTree tree)
+    {
+        return tree instanceof SpatialTreeSnapshot || tree instanceof SpatialTreeConcurrent;
+    }
+
+    /**
+     * Return whether a snapshot of a tree takes constant time, because it shares the arrays or the version of the tree rather
+     * than copying the objects.
+     * @param tree the tree
+     * @return whether a snapshot of the tree takes constant time
+     */
+    private static boolean hasCheapSnapshot(final SpatialTree tree)
+    {
+        return tree instanceof SpatialTreeNative || tree instanceof SpatialTreeTpr || tree instanceof SpatialTreeCompact
+                || tree instanceof SpatialTreeOffHeap || tree instanceof SpatialTreeRTree2;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "ParallelSearch [parallelism=" + this.pool.getParallelism() + "]";
+    }
+
+    /**
+     * Task that searches a range of the shapes, or splits the range into two tasks.
+     */
+    private static class SearchTask extends RecursiveAction
+    {
+        /** */
+        private static final long serialVersionUID = 20240101L;
+
+        /** the tree to search. */
+        private final SpatialTree tree;
+
+        /** the type we are looking for; null when any type qualifies. */
+        private final HierarchicalType<?, ?> type;
+
+        /** all shapes of the batch. */
+        private final OtsShape[] shapes;
+
+        /** the class we are looking for. */
+        private final Class<?> searchClass;
+
+        /** the time for the shape of the dynamic objects; null for the current shape. */
+        private final Time time;
+
+        /** the results of all shapes of the batch. */
+        private final Set<?>[] results;
+
+        /** the index of the first shape of the range. */
+        private final int from;
+
+        /** the index after the last shape of the range. */
+        private final int to;
+
+        /**
+         * Create a task for a range of the shapes.
+         * @param tree the tree to search
+         * @param type the type we are looking for; null when any type qualifies
+         * @param shapes all shapes of the batch
+         * @param searchClass the class we are looking for
+         * @param time the time for the shape of the dynamic objects; null for the current shape
+         * @param results the results of all shapes of the batch
+         * @param from the index of the first shape of the range
+         * @param to the index after the last shape of the range
+         */
+        @SuppressWarnings("checkstyle:parameternumber")
+        SearchTask(final SpatialTree tree, final HierarchicalType<?, ?> type, final OtsShape[] shapes,
+                final Class<?> searchClass, final Time time, final Set<?>[] results, final int from, final int to)
+        {
+            this.tree = tree;
+            this.type = type;
+            this.shapes = shapes;
+            this.searchClass = searchClass;
+            this.time = time;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void compute()
+        {
+            if (this.to - this.from > BATCH_SIZE)
+            {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(
+                        new SearchTask(this.tree, this.type, this.shapes, this.searchClass, this.time, this.results,
+                                this.from, mid),
+                        new SearchTask(this.tree, this.type, this.shapes, this.searchClass, this.time, this.results, mid,
+                                this.to));
+                return;
+            }
+            for (int i = this.from; i < this.to; i++)
+            {
+                Set<Object> result = new LinkedHashSet<>();
+                find(this.shapes[i], result);
+                this.results[i] = result;
+            }
+        }
+
+        /**
+         * Search the tree with one shape. The public methods ensure that the type fits the class, so both can be cast here.
+         * @param shape the shape to search
+         * @param result the set to which the objects that overlap are added
+         * @param <T> the hierarchical type of the spatial object
+         * @param <I> the spatial object type we are looking for
+         */
+        @SuppressWarnings("unchecked")
+        private <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+                final OtsShape shape, final Set<Object> result)
+        {
+            if (this.time == null)
+            {
+                this.tree.<T, I>find((T) this.type, shape, (Class<I>) this.searchClass, result);
+            }
+            else
+            {
+                this.tree.<T, I>find((T) this.type, shape, (Class<I>) this.searchClass, this.time, result);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.opentrafficsim.spatialtree.partition;
+
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.spatialtree.SpatialTree;
+
+/**
+ * Partition of SpatialTreePartitioned: the sub-tree for the objects of one concrete class with types under one top-level type.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+class Partition
+{
+    /** the concrete class of the objects. */
+    private final Class<?> objectClass;
+
+    /** the top-level type of the objects; null for objects without a type. */
+    private final HierarchicalType<?, ?> rootType;
+
+    /** the sub-tree. */
+    private final SpatialTree tree;
+
+    /** the number of objects in the sub-tree. */
+    private int size = 0;
+
+    /**
+     * Create a partition.
+     * @param objectClass the concrete class of the objects
+     * @param rootType the top-level type of the objects; null for objects without a type
+     * @param tree the empty sub-tree
+     */
+    Partition(final Class<?> objectClass, final HierarchicalType<?, ?> rootType, final SpatialTree tree)
+    {
+        this.objectClass = objectClass;
+        this.rootType = rootType;
+        this.tree = tree;
+    }
+
+    /**
+     * Return whether this partition holds the objects of a concrete class and top-level type.
+     * @param cls the concrete class of the object
+     * @param root the top-level type of the object; null for an object without a type
+     * @return whether this partition holds the objects of the class and top-level type
+     */
+    boolean holds(final Class<?> cls, final HierarchicalType<?, ?> root)
+    {
+        return this.objectClass == cls && (this.rootType == null ? root == null : this.rootType.equals(root));
+    }
+
+    /**
+     * Return whether the objects of this partition can qualify for a search.
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param searchRoot the top-level type of the type we are looking for; null when any type qualifies
+     * @return whether the objects of this partition can qualify for the search
+     */
+    boolean serves(final Class<?> searchClass, final HierarchicalType<?, ?> searchRoot)
+    {
+        return this.size > 0 && searchClass.isAssignableFrom(this.objectClass)
+                && (searchRoot == null || searchRoot.equals(this.rootType));
+    }
+
+    /**
+     * Return a partition for the same objects with a snapshot of the sub-tree.
+     * @return a partition with a snapshot of the sub-tree
+     */
+    Partition snapshot()
+    {
+        Partition copy = new Partition(this.objectClass, this.rootType, this.tree.snapshot());
+        copy.size = this.size;
+        return copy;
+    }
+
+    /**
+     * Return the sub-tree.
+     * @return the sub-tree
+     */
+    SpatialTree getTree()
+    {
+        return this.tree;
+    }
+
+    /**
+     * Return the number of objects in the sub-tree.
+     * @return the number of objects in the sub-tree
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Change the number of objects in the sub-tree.
+     * @param delta the change of the number of objects
+     */
+    void changeSize(final int delta)
+    {
+        this.size += delta;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return this.objectClass.getSimpleName() + "/" + (this.rootType == null ? "-" : this.rootType.getId()) + "=" + this.size;
+    }
+
+}
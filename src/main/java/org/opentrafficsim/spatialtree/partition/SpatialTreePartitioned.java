@@ -0,0 +1,500 @@
+package org.opentrafficsim.spatialtree.partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.NearestSearch;
+
+/**
+ * Spatial tree that keeps a separate sub-tree (partition) for every combination of the concrete class of the objects and the
+ * top-level type of their type, e.g., one for the lanes and one for the GTUs. A search only visits the partitions of which the
+ * objects can qualify: the class of the objects should be the search class or a subclass of it, and their top-level type
+ * should be the top-level type of the search type. A search for vehicles therefore never sees a lane. As static objects and
+ * moving objects end up in different partitions, the partition with the moving objects stays small and shallow, and updates
+ * of the moving objects do not touch the partition with the static objects.
+ * <p>
+ * The partitions are created on demand with a factory, e.g., for SpatialTreeNative or SpatialTreeJsi; the tree that the
+ * factory creates should be mutable when objects are added after the first search. Partitions are kept when they become
+ * empty.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreePartitioned implements SpatialTree
+{
+    /** the factory for the sub-trees. */
+    private final Supplier<? extends SpatialTree> factory;
+
+    /** the partitions, in order of creation. */
+    private final List<Partition> partitions = new ArrayList<>();
+
+    /** the partitions of the objects. */
+    private final Map<SpatialObject, Partition> partitionMap = new IdentityHashMap<>();
+
+    /** the visitor of the running search; null when no search is running. */
+    private SpatialVisitor<Object> target = null;
+
+    /** whether the visitor of the running search has stopped the search. */
+    private boolean stopped;
+
+    /** the visitor that is passed to the partitions, and that forwards the objects to the visitor of the running search. */
+    private final SpatialVisitor<Object> forward = new SpatialVisitor<Object>()
+    {
+        @Override
+        public boolean visit(final Object object)
+        {
+            SpatialTreePartitioned partitioned = SpatialTreePartitioned.this;
+            partitioned.stopped = !partitioned.target.visit(object);
+            return !partitioned.stopped;
+        }
+    };
+
+    /** the nearest objects of the partitions, in the last nearest-neighbour search. */
+    private final List<Object> nearestCandidates = new ArrayList<>();
+
+    /** the distances of the nearest objects of the partitions. */
+    private double[] nearestDistances = new double[64];
+
+    /** the sorted distances of the nearest objects of the partitions, to find the distance of the k-th nearest object. */
+    private double[] sortedDistances = new double[64];
+
+    /** the state of the nearest-neighbour searches, to merge the nearest objects of the partitions. */
+    private final NearestSearch nearestSearch = new NearestSearch();
+
+    /**
+     * Constructor; create an empty tree.
+     * @param factory the factory for the sub-trees of the partitions
+     */
+    public SpatialTreePartitioned(final Supplier<? extends SpatialTree> factory)
+    {
+        Throw.whenNull(factory, "factory cannot be null");
+        this.factory = factory;
+    }
+
+    /**
+     * Add an object to the tree. When the object is already in the tree, it is updated.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        if (this.partitionMap.containsKey(object))
+        {
+            update(object);
+            return;
+        }
+        Partition partition = partition(object.getClass(), rootType(object.getType()));
+        this.partitionMap.put(object, partition);
+        partition.changeSize(1);
+        partition.getTree().add(object);
+    }
+
+    /**
+     * Add objects to the tree. The new objects are grouped by partition, and every partition gets its objects in one call, so
+     * the sub-tree can build its tree from all of them at once. Objects that are already in the tree are updated.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        Map<Partition, List<I>> groups = new LinkedHashMap<>();
+        for (I object : objects)
+        {
+            if (this.partitionMap.containsKey(object))
+            {
+                update(object);
+                continue;
+            }
+            Partition partition = partition(object.getClass(), rootType(object.getType()));
+            this.partitionMap.put(object, partition);
+            List<I> group = groups.get(partition);
+            if (group == null)
+            {
+                group = new ArrayList<>();
+                groups.put(partition, group);
+            }
+            group.add(object);
+        }
+        for (Map.Entry<Partition, List<I>> group : groups.entrySet())
+        {
+            group.getKey().changeSize(group.getValue().size());
+            group.getKey().getTree().addAll(group.getValue());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        Partition partition = this.partitionMap.remove(object);
+        if (partition == null)
+        {
+            return false;
+        }
+        partition.changeSize(-1);
+        return partition.getTree().remove(object);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        Partition partition = this.partitionMap.get(object);
+        if (partition == null)
+        {
+            add(object);
+            return;
+        }
+        partition.getTree().update(object);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        start(visitor);
+        try
+        {
+            HierarchicalType<?, ?> root = rootType(type);
+            for (int i = 0; i < this.partitions.size() && !this.stopped; i++)
+            {
+                Partition partition = this.partitions.get(i);
+                if (partition.serves(searchClass, root))
+                {
+                    partition.getTree().find(type, shape, searchClass, this.forward);
+                }
+            }
+        }
+        finally
+        {
+            this.target = null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        start(visitor);
+        try
+        {
+            HierarchicalType<?, ?> root = rootType(type);
+            for (int i = 0; i < this.partitions.size() && !this.stopped; i++)
+            {
+                Partition partition = this.partitions.get(i);
+                if (partition.serves(searchClass, root))
+                {
+                    partition.getTree().find(type, shape, searchClass, time, this.forward);
+                }
+            }
+        }
+        finally
+        {
+            this.target = null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        HierarchicalType<?, ?> root = rootType(type);
+        int count = 0;
+        for (int i = 0; i < this.partitions.size(); i++)
+        {
+            Partition partition = this.partitions.get(i);
+            if (partition.serves(searchClass, root))
+            {
+                count += partition.getTree().find(type, shape, searchClass, result);
+            }
+        }
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        HierarchicalType<?, ?> root = rootType(type);
+        int count = 0;
+        for (int i = 0; i < this.partitions.size(); i++)
+        {
+            Partition partition = this.partitions.get(i);
+            if (partition.serves(searchClass, root))
+            {
+                count += partition.getTree().find(type, shape, searchClass, time, result);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Add the k nearest objects to a collection, nearest first. Every partition that can hold qualifying objects is asked for
+     * its k nearest objects within the distance of the k-th nearest object of the partitions before it, and these are merged
+     * by their distance. The partitions are no longer asked when k objects have been found at distance 0.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify); null for all types
+     * @param point the point to which the distance is measured
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param k the maximum number of objects to add
+     * @param maxDistance the maximum distance of the objects; use Length.POSITIVE_INFINITY for no maximum
+     * @param result the collection to which the objects are added, nearest first
+     * @return the number of objects that were found
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        Throw.whenNull(point, "point in findNearest cannot be null");
+        Throw.whenNull(searchClass, "searchClass in findNearest cannot be null");
+        Throw.whenNull(maxDistance, "maxDistance in findNearest cannot be null");
+        Throw.whenNull(result, "result in findNearest cannot be null");
+        Throw.when(k < 0, IllegalArgumentException.class, "k in findNearest cannot be negative");
+        NearestSearch search = this.nearestSearch.start(type, point, searchClass, k, maxDistance.si, result);
+        try
+        {
+            HierarchicalType<?, ?> root = rootType(type);
+            Length bound = maxDistance;
+            boolean done = k == 0;
+            for (int i = 0; i < this.partitions.size() && !done; i++)
+            {
+                Partition partition = this.partitions.get(i);
+                if (partition.serves(searchClass, root))
+                {
+                    int first = this.nearestCandidates.size();
+                    partition.getTree().findNearest(type, point, searchClass, k, bound, this.nearestCandidates);
+                    int n = this.nearestCandidates.size();
+                    if (n > this.nearestDistances.length)
+                    {
+                        this.nearestDistances =
+                                Arrays.copyOf(this.nearestDistances, Math.max(n, 2 * this.nearestDistances.length));
+                    }
+                    for (int c = first; c < n; c++)
+                    {
+                        this.nearestDistances[c] = search.distance(this.nearestCandidates.get(c));
+                    }
+                    if (n >= k && n > first)
+                    {
+                        // objects beyond the k-th nearest object so far cannot be among the k nearest; at 0 none is nearer
+                        double kth = kthDistance(n, k);
+                        bound = Length.instantiateSI(kth);
+                        done = kth == 0.0;
+                    }
+                }
+            }
+            for (int i = 0; i < this.nearestCandidates.size(); i++)
+            {
+                search.push(this.nearestDistances[i], i);
+            }
+            while (!search.isEmpty())
+            {
+                if (!search.add(this.nearestCandidates.get(search.pop())))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            search.finish();
+            this.nearestCandidates.clear();
+        }
+        return search.getCount();
+    }
+
+    /**
+     * Return the distance of the k-th nearest of the nearest objects of the partitions.
+     * @param n the number of nearest objects of the partitions, at least k
+     * @param k the number of objects of the search
+     * @return the distance of the k-th nearest object
+     */
+    private double kthDistance(final int n, final int k)
+    {
+        if (n > this.sortedDistances.length)
+        {
+            this.sortedDistances = new double[Math.max(n, 2 * this.sortedDistances.length)];
+        }
+        System.arraycopy(this.nearestDistances, 0, this.sortedDistances, 0, n);
+        Arrays.sort(this.sortedDistances, 0, n);
+        return this.sortedDistances[k - 1];
+    }
+
+    /**
+     * Return a snapshot that combines the snapshots of the sub-trees.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        SpatialTreePartitioned copy = new SpatialTreePartitioned(this.factory);
+        for (Partition partition : this.partitions)
+        {
+            copy.partitions.add(partition.snapshot());
+        }
+        return new SpatialTreeSnapshot(copy, false);
+    }
+
+    /**
+     * Return a view of this frozen tree that shares its partitions, of which the sub-trees are thread-safe snapshots, and has
+     * its own search state.
+     * @return a read-only view of this frozen tree with its own search state
+     */
+    @Override
+    public SpatialTree view()
+    {
+        SpatialTreePartitioned copy = new SpatialTreePartitioned(this.factory);
+        copy.partitions.addAll(this.partitions);
+        return copy;
+    }
+
+    /**
+     * Start a search with a visitor.
+     * @param visitor the visitor of the search
+     * @throws IllegalStateException when a search is already running
+     */
+    @SuppressWarnings("unchecked")
+    private void start(final SpatialVisitor<?> visitor)
+    {
+        if (this.target != null)
+        {
+            throw new IllegalStateException("A spatial tree cannot be searched from within a search of the same tree");
+        }
+        this.target = (SpatialVisitor<Object>) visitor;
+        this.stopped = false;
+    }
+
+    /**
+     * Return the partition for a concrete class and top-level type, creating it when it does not exist yet.
+     * @param cls the concrete class of the object
+     * @param root the top-level type of the object; null for an object without a type
+     * @return the partition for the class and top-level type
+     */
+    private Partition partition(final Class<?> cls, final HierarchicalType<?, ?> root)
+    {
+        for (int i = 0; i < this.partitions.size(); i++)
+        {
+            Partition partition = this.partitions.get(i);
+            if (partition.holds(cls, root))
+            {
+                return partition;
+            }
+        }
+        Partition partition = new Partition(cls, root, this.factory.get());
+        this.partitions.add(partition);
+        return partition;
+    }
+
+    /**
+     * Return the top-level type of a type, i.e., the type itself or the ancestor without a parent.
+     * @param type the type; can be null
+     * @return the top-level type, or null when the type is null
+     */
+    private static HierarchicalType<?, ?> rootType(final HierarchicalType<?, ?> type)
+    {
+        HierarchicalType<?, ?> root = type;
+        while (root != null && root.getParent() != null)
+        {
+            root = root.getParent();
+        }
+        return root;
+    }
+
+    /**
+     * Return the number of objects in the tree.
+     * @return the number of objects in the tree
+     */
+    public int size()
+    {
+        return this.partitionMap.size();
+    }
+
+    /**
+     * Return the number of partitions.
+     * @return the number of partitions
+     */
+    public int getPartitionCount()
+    {
+        return this.partitions.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreePartitioned [size=" + size() + ", partitions=" + this.partitions + "]";
+    }
+
+}
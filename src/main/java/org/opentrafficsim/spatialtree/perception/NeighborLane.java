@@ -0,0 +1,23 @@
+package org.opentrafficsim.spatialtree.perception;
+
+/**
+ * The lane of a neighbor of a GTU, relative to the lane of the GTU.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public enum NeighborLane
+{
+    /** the adjacent lane on the left. */
+    LEFT,
+
+    /** the lane of the GTU. */
+    CURRENT,
+
+    /** the adjacent lane on the right. */
+    RIGHT;
+}
@@ -0,0 +1,208 @@
+package org.opentrafficsim.spatialtree.perception;
+
+import java.util.Arrays;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.road.gtu.lane.LaneBasedGtu;
+
+/**
+ * The leaders and followers of a GTU on its own lane and on the adjacent lanes, nearest first, as found by SpatialNeighbors.
+ * The distance of a neighbor is the distance between the reference points of the GTUs along the direction of the lane of the
+ * GTU. The result can be reused for the neighbors of many GTUs, so a lookup does not have to allocate once the arrays have
+ * grown to the largest number of neighbors.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class Neighbors
+{
+    /** the leaders per lane, in the order of NeighborLane. */
+    private final Group[] leaders = {new Group(), new Group(), new Group()};
+
+    /** the followers per lane, in the order of NeighborLane. */
+    private final Group[] followers = {new Group(), new Group(), new Group()};
+
+    /**
+     * Remove all neighbors.
+     */
+    void clear()
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            this.leaders[i].size = 0;
+            this.followers[i].size = 0;
+        }
+    }
+
+    /**
+     * Add a leader.
+     * @param lane the lane of the leader
+     * @param gtu the leader
+     * @param distance the distance to the leader, in m
+     */
+    void addLeader(final NeighborLane lane, final LaneBasedGtu gtu, final double distance)
+    {
+        this.leaders[lane.ordinal()].add(gtu, distance);
+    }
+
+    /**
+     * Add a follower.
+     * @param lane the lane of the follower
+     * @param gtu the follower
+     * @param distance the distance to the follower, in m
+     */
+    void addFollower(final NeighborLane lane, final LaneBasedGtu gtu, final double distance)
+    {
+        this.followers[lane.ordinal()].add(gtu, distance);
+    }
+
+    /**
+     * Return the number of leaders on a lane.
+     * @param lane the lane
+     * @return the number of leaders on the lane
+     */
+    public int getLeaderCount(final NeighborLane lane)
+    {
+        return this.leaders[lane.ordinal()].size;
+    }
+
+    /**
+     * Return a leader on a lane.
+     * @param lane the lane
+     * @param index the index of the leader, 0 for the nearest leader
+     * @return the leader
+     */
+    public LaneBasedGtu getLeader(final NeighborLane lane, final int index)
+    {
+        return this.leaders[lane.ordinal()].gtu(index);
+    }
+
+    /**
+     * Return the distance to a leader on a lane.
+     * @param lane the lane
+     * @param index the index of the leader, 0 for the nearest leader
+     * @return the distance to the leader
+     */
+    public Length getLeaderDistance(final NeighborLane lane, final int index)
+    {
+        return Length.instantiateSI(this.leaders[lane.ordinal()].distance(index));
+    }
+
+    /**
+     * Return the number of followers on a lane.
+     * @param lane the lane
+     * @return the number of followers on the lane
+     */
+    public int getFollowerCount(final NeighborLane lane)
+    {
+        return this.followers[lane.ordinal()].size;
+    }
+
+    /**
+     * Return a follower on a lane.
+     * @param lane the lane
+     * @param index the index of the follower, 0 for the nearest follower
+     * @return the follower
+     */
+    public LaneBasedGtu getFollower(final NeighborLane lane, final int index)
+    {
+        return this.followers[lane.ordinal()].gtu(index);
+    }
+
+    /**
+     * Return the distance to a follower on a lane.
+     * @param lane the lane
+     * @param index the index of the follower, 0 for the nearest follower
+     * @return the distance to the follower
+     */
+    public Length getFollowerDistance(final NeighborLane lane, final int index)
+    {
+        return Length.instantiateSI(this.followers[lane.ordinal()].distance(index));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "Neighbors [leaders=" + this.leaders[0].size + "/" + this.leaders[1].size + "/" + this.leaders[2].size
+                + ", followers=" + this.followers[0].size + "/" + this.followers[1].size + "/" + this.followers[2].size + "]";
+    }
+
+    /**
+     * The neighbors in one direction on one lane, sorted on their distance.
+     */
+    private static class Group
+    {
+        /** the neighbors, nearest first. */
+        private LaneBasedGtu[] gtus = new LaneBasedGtu[8];
+
+        /** the distances of the neighbors, in m. */
+        private double[] distances = new double[8];
+
+        /** the number of neighbors. */
+        private int size = 0;
+
+        /**
+         * Insert a neighbor at the index of its distance. There are few neighbors, so insertion is cheaper than sorting.
+         * @param gtu the neighbor
+         * @param distance the distance to the neighbor, in m
+         */
+        void add(final LaneBasedGtu gtu, final double distance)
+        {
+            if (this.size == this.gtus.length)
+            {
+                this.gtus = Arrays.copyOf(this.gtus, 2 * this.size);
+                this.distances = Arrays.copyOf(this.distances, 2 * this.size);
+            }
+            int index = this.size;
+            while (index > 0 && this.distances[index - 1] > distance)
+            {
+                this.gtus[index] = this.gtus[index - 1];
+                this.distances[index] = this.distances[index - 1];
+                index--;
+            }
+            this.gtus[index] = gtu;
+            this.distances[index] = distance;
+            this.size++;
+        }
+
+        /**
+         * Return the neighbor at an index.
+         * @param index the index
+         * @return the neighbor at the index
+         */
+        LaneBasedGtu gtu(final int index)
+        {
+            checkIndex(index);
+            return this.gtus[index];
+        }
+
+        /**
+         * Return the distance of the neighbor at an index.
+         * @param index the index
+         * @return the distance of the neighbor at the index, in m
+         */
+        double distance(final int index)
+        {
+            checkIndex(index);
+            return this.distances[index];
+        }
+
+        /**
+         * Check an index.
+         * @param index the index
+         * @throws IndexOutOfBoundsException when the index is negative or not smaller than the number of neighbors
+         */
+        private void checkIndex(final int index)
+        {
+            Throw.when(index < 0 || index >= this.size, IndexOutOfBoundsException.class,
+                    "index %d out of range for %d neighbors", index, this.size);
+        }
+    }
+
+}
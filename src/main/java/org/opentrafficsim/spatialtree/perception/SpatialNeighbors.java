@@ -0,0 +1,473 @@
+package org.opentrafficsim.spatialtree.perception;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.core.geometry.OtsGeometryException;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.core.gtu.Gtu;
+import org.opentrafficsim.core.gtu.GtuException;
+import org.opentrafficsim.core.gtu.GtuType;
+import org.opentrafficsim.core.network.LateralDirectionality;
+import org.opentrafficsim.road.gtu.lane.LaneBasedGtu;
+import org.opentrafficsim.road.network.lane.Lane;
+import org.opentrafficsim.road.network.lane.LanePosition;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+
+/**
+ * Neighbor lookup for the perception of a lane-based GTU with a spatial tree: the leaders and followers within the look-ahead
+ * and look-back distance on the lane of the GTU and on the adjacent lanes. Where the default perception walks the lane
+ * structure of every GTU over all upstream and downstream lanes, this lookup does one search of the tree with a rectangle
+ * along the lane of the GTU, three lanes wide, and classifies the GTUs that it finds by their reference point.
+ * <p>
+ * The reference point of a GTU is the point of the center line of its reference lane at its reference position. The distance
+ * of a neighbor is the distance between the reference points along the direction of the lane of the GTU at its reference
+ * point, and its lateral offset decides the lane: within half the width of the lane of the GTU it is on the same lane, and
+ * within one and a half lane widths further it is on the adjacent lane on that side. This is exact on straight roads, and an
+ * approximation on curved roads, that is good for the short distances of merges and weaves. Both are confirmed with the lane
+ * structure. A neighbor on another lane than the GTU is only on the same lane when its lane is one that follows or precedes
+ * the lane of the GTU within the look-ahead or look-back distance; otherwise, e.g., at the taper of an on-ramp, it is
+ * classified as a neighbor on the adjacent lane on the side of its lateral offset. A neighbor on an adjacent lane should be
+ * on a lane that the GTU can physically change to on that side, from its lane or from the lane before or after it, or a lane
+ * before or after such a lane. A neighbor of which the lane runs in the opposite direction (the directions of the lanes at
+ * the reference points have a negative dot product) is skipped, so GTUs on the other carriageway or on a crossing road are
+ * not found. GTUs that are not on a lane, or that are not in the tree, are not found either.
+ * </p>
+ * <p>
+ * The lookup reuses its search state, and can fill a reused Neighbors, so it does not allocate other than the search
+ * rectangle. It is not thread-safe; use a lookup per thread on a snapshot of the tree for parallel perception.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialNeighbors
+{
+    /** the tree with the GTUs. */
+    private final SpatialTree tree;
+
+    /** the type of the GTUs that are neighbors (subtypes also qualify). */
+    private final GtuType type;
+
+    /** the geometry of the center lines of the lanes that have been used. */
+    private final Map<Lane, LaneGeometry> geometries = new IdentityHashMap<>();
+
+    /** the reference point and direction of a GTU, as x, y, dx, dy. */
+    private final double[] point = new double[4];
+
+    /** the GTU of which the neighbors are searched. */
+    private LaneBasedGtu ego;
+
+    /** the lane of the GTU of which the neighbors are searched. */
+    private Lane egoLane;
+
+    /** the reference point and direction of the GTU of which the neighbors are searched, as x, y, dx, dy. */
+    private final double[] egoPoint = new double[4];
+
+    /** half the width of the lane of the GTU of which the neighbors are searched, in m. */
+    private double egoHalfWidth;
+
+    /** the position of the GTU of which the neighbors are searched on its lane, in m. */
+    private double egoPosition;
+
+    /**
+     * the lanes that follow the lane of the GTU within the look-ahead distance, and that precede it within the look-back
+     * distance, of the current search; collected for the first neighbor on another lane that needs them.
+     */
+    private final Set<Lane> alongLanes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** whether the lanes along the lane of the GTU have been collected for the current search. */
+    private boolean alongCollected = false;
+
+    /** the look-ahead distance of the current search, in m. */
+    private double lookAhead;
+
+    /** the look-back distance of the current search, in m. */
+    private double lookBack;
+
+    /** the result of the current search. */
+    private Neighbors result;
+
+    /** the visitor that classifies the GTUs that the tree finds. */
+    private final SpatialVisitor<Gtu> visitor = new SpatialVisitor<Gtu>()
+    {
+        @Override
+        public boolean visit(final Gtu gtu)
+        {
+            if (gtu != SpatialNeighbors.this.ego && gtu instanceof LaneBasedGtu)
+            {
+                classify((LaneBasedGtu) gtu);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Create a neighbor lookup in a tree.
+     * @param tree the tree with the GTUs, e.g., the tree of a SpatialTreeOtsNetwork
+     * @param type the type of the GTUs that are neighbors (subtypes also qualify), e.g., DefaultsNl.VEHICLE
+     */
+    public SpatialNeighbors(final SpatialTree tree, final GtuType type)
+    {
+        Throw.whenNull(tree, "tree cannot be null");
+        Throw.whenNull(type, "type cannot be null");
+        this.tree = tree;
+        this.type = type;
+    }
+
+    /**
+     * Return the leaders and followers of a GTU on its lane and on the adjacent lanes.
+     * @param gtu the GTU
+     * @param lookAhead the maximum distance to a leader
+     * @param lookBack the maximum distance to a follower
+     * @return the neighbors of the GTU
+     * @throws GtuException when the GTU is not on a lane
+     */
+    public Neighbors find(final LaneBasedGtu gtu, final Length lookAhead, final Length lookBack) throws GtuException
+    {
+        Neighbors neighbors = new Neighbors();
+        find(gtu, lookAhead, lookBack, neighbors);
+        return neighbors;
+    }
+
+    /**
+     * Fill a reused result with the leaders and followers of a GTU on its lane and on the adjacent lanes.
+     * @param gtu the GTU
+     * @param lookAhead the maximum distance to a leader
+     * @param lookBack the maximum distance to a follower
+     * @param neighbors the result, of which the previous neighbors are removed
+     * @throws GtuException when the GTU is not on a lane
+     */
+    public void find(final LaneBasedGtu gtu, final Length lookAhead, final Length lookBack, final Neighbors neighbors)
+            throws GtuException
+    {
+        Throw.whenNull(gtu, "gtu in find cannot be null");
+        Throw.whenNull(lookAhead, "lookAhead in find cannot be null");
+        Throw.whenNull(lookBack, "lookBack in find cannot be null");
+        Throw.whenNull(neighbors, "neighbors in find cannot be null");
+        Throw.when(this.ego != null, IllegalStateException.class, "nested neighbor lookup");
+        neighbors.clear();
+        LanePosition position = gtu.getReferencePosition();
+        Lane lane = position.getLane();
+        geometry(lane).locate(position.getPosition().si, this.egoPoint);
+        double fraction = Math.max(0.0, Math.min(1.0, position.getPosition().si / lane.getLength().si));
+        this.egoHalfWidth = 0.5 * lane.getWidth(fraction).si;
+        this.ego = gtu;
+        this.egoLane = lane;
+        this.egoPosition = position.getPosition().si;
+        this.alongCollected = false;
+        this.lookAhead = lookAhead.si;
+        this.lookBack = lookBack.si;
+        this.result = neighbors;
+        try
+        {
+            this.tree.find(this.type, searchShape(), Gtu.class, this.visitor);
+        }
+        finally
+        {
+            this.ego = null;
+            this.egoLane = null;
+            this.result = null;
+            this.alongLanes.clear();
+        }
+    }
+
+    /**
+     * Return the rectangle along the lane of the GTU from the look-back to the look-ahead distance, and wide enough for the
+     * reference points of GTUs on the adjacent lanes.
+     * @return the search rectangle
+     */
+    private OtsShape searchShape()
+    {
+        double x = this.egoPoint[0];
+        double y = this.egoPoint[1];
+        double dx = this.egoPoint[2];
+        double dy = this.egoPoint[3];
+        double w = 3.0 * this.egoHalfWidth;
+        double ax = x + dx * this.lookAhead;
+        double ay = y + dy * this.lookAhead;
+        double bx = x - dx * this.lookBack;
+        double by = y - dy * this.lookBack;
+        try
+        {
+            return new OtsShape(new OtsPoint3d(bx + dy * w, by - dx * w, 0.0), new OtsPoint3d(ax + dy * w, ay - dx * w, 0.0),
+                    new OtsPoint3d(ax - dy * w, ay + dx * w, 0.0), new OtsPoint3d(bx - dy * w, by + dx * w, 0.0),
+                    new OtsPoint3d(bx + dy * w, by - dx * w, 0.0));
+        }
+        catch (OtsGeometryException exception)
+        {
+            throw new IllegalArgumentException("Cannot create search shape for " + this.ego.getId(), exception);
+        }
+    }
+
+    /**
+     * Add a GTU that the tree found to the leaders or followers of the lane of its reference point, when it is within the
+     * look-ahead or look-back distance.
+     * @param gtu the GTU
+     */
+    private void classify(final LaneBasedGtu gtu)
+    {
+        LanePosition position;
+        try
+        {
+            position = gtu.getReferencePosition();
+        }
+        catch (GtuException exception)
+        {
+            // not (yet) on a lane
+            return;
+        }
+        geometry(position.getLane()).locate(position.getPosition().si, this.point);
+        if (this.point[2] * this.egoPoint[2] + this.point[3] * this.egoPoint[3] <= 0.0)
+        {
+            // opposite or crossing direction
+            return;
+        }
+        double rx = this.point[0] - this.egoPoint[0];
+        double ry = this.point[1] - this.egoPoint[1];
+        double longitudinal = rx * this.egoPoint[2] + ry * this.egoPoint[3];
+        double lateral = ry * this.egoPoint[2] - rx * this.egoPoint[3];
+        NeighborLane lane;
+        if (position.getLane() == this.egoLane
+                || Math.abs(lateral) <= this.egoHalfWidth && alongLanes().contains(position.getLane()))
+        {
+            lane = NeighborLane.CURRENT;
+        }
+        else if (Math.abs(lateral) <= 3.0 * this.egoHalfWidth)
+        {
+            lane = lateral > 0.0 ? NeighborLane.LEFT : NeighborLane.RIGHT;
+            if (!geometry(this.egoLane).sideLanes(lane, this.ego.getType()).contains(position.getLane()))
+            {
+                return;
+            }
+        }
+        else
+        {
+            return;
+        }
+        if (longitudinal > 0.0 && longitudinal <= this.lookAhead)
+        {
+            this.result.addLeader(lane, gtu, longitudinal);
+        }
+        else if (longitudinal <= 0.0 && -longitudinal <= this.lookBack)
+        {
+            this.result.addFollower(lane, gtu, -longitudinal);
+        }
+    }
+
+    /**
+     * Return the lanes that follow the lane of the GTU within the look-ahead distance, and that precede it within the
+     * look-back distance, and collect them when this is the first time that the current search needs them.
+     * @return the lanes along the lane of the GTU
+     */
+    private Set<Lane> alongLanes()
+    {
+        if (!this.alongCollected)
+        {
+            this.alongCollected = true;
+            collectAlong(this.egoLane, this.lookAhead - (this.egoLane.getLength().si - this.egoPosition), true);
+            collectAlong(this.egoLane, this.lookBack - this.egoPosition, false);
+        }
+        return this.alongLanes;
+    }
+
+    /**
+     * Collect the lanes after or before a lane, for as long as the distance is not covered by the lanes in between.
+     * @param lane the lane
+     * @param remaining the distance that remains after or before the lane, in m
+     * @param downstream whether the lanes after the lane are collected, rather than the lanes before it
+     */
+    private void collectAlong(final Lane lane, final double remaining, final boolean downstream)
+    {
+        if (remaining <= 0.0)
+        {
+            return;
+        }
+        for (Lane other : downstream ? lane.nextLanes(this.ego.getType()) : lane.prevLanes(this.ego.getType()))
+        {
+            if (this.alongLanes.add(other))
+            {
+                collectAlong(other, remaining - other.getLength().si, downstream);
+            }
+        }
+    }
+
+    /**
+     * Return the geometry of the center line of a lane, and create it when this is the first time the lane is used.
+     * @param lane the lane
+     * @return the geometry of the center line of the lane
+     */
+    private LaneGeometry geometry(final Lane lane)
+    {
+        LaneGeometry geometry = this.geometries.get(lane);
+        if (geometry == null)
+        {
+            geometry = new LaneGeometry(lane);
+            this.geometries.put(lane, geometry);
+        }
+        return geometry;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialNeighbors [tree=" + this.tree.getClass().getSimpleName() + ", type=" + this.type + ", lanes="
+                + this.geometries.size() + "]";
+    }
+
+    /**
+     * The points of the center line of a lane, with the lane position of every point, and the lanes on its left and right side
+     * for the last GTU type that asked for them.
+     */
+    private static class LaneGeometry
+    {
+        /** the lane. */
+        private final Lane lane;
+
+        /** the GTU type for which the lanes on the sides were collected; null when they have not been collected yet. */
+        private GtuType sideType;
+
+        /** the lanes on the left side, for the GTU type. */
+        private Set<Lane> leftLanes;
+
+        /** the lanes on the right side, for the GTU type. */
+        private Set<Lane> rightLanes;
+
+        /** the x of the points. */
+        private final double[] x;
+
+        /** the y of the points. */
+        private final double[] y;
+
+        /** the lane position of the points; the center line can be a little longer or shorter than the lane. */
+        private final double[] position;
+
+        /**
+         * Create the geometry of the center line of a lane.
+         * @param lane the lane
+         */
+        LaneGeometry(final Lane lane)
+        {
+            this.lane = lane;
+            OtsPoint3d[] points = lane.getCenterLine().getPoints();
+            this.x = new double[points.length];
+            this.y = new double[points.length];
+            this.position = new double[points.length];
+            for (int i = 0; i < points.length; i++)
+            {
+                this.x[i] = points[i].x;
+                this.y[i] = points[i].y;
+                this.position[i] = i == 0 ? 0.0 : this.position[i - 1] + Math.hypot(this.x[i] - this.x[i - 1],
+                        this.y[i] - this.y[i - 1]);
+            }
+            double lineLength = this.position[points.length - 1];
+            double scale = lineLength > 0.0 ? lane.getLength().si / lineLength : 1.0;
+            for (int i = 0; i < points.length; i++)
+            {
+                this.position[i] *= scale;
+            }
+        }
+
+        /**
+         * Return the lanes on a side of the lane for a GTU type: the lanes to which the GTU type can physically change from
+         * the lane, or from a lane before or after it, and the lanes before and after the lanes to which it can change from the
+         * lane. These are the lanes of the neighbors on the side near the lane boundaries of a link.
+         * @param side the side, LEFT or RIGHT
+         * @param gtuType the GTU type
+         * @return the lanes on the side of the lane
+         */
+        Set<Lane> sideLanes(final NeighborLane side, final GtuType gtuType)
+        {
+            if (gtuType != this.sideType)
+            {
+                this.leftLanes = collectSideLanes(LateralDirectionality.LEFT, gtuType);
+                this.rightLanes = collectSideLanes(LateralDirectionality.RIGHT, gtuType);
+                this.sideType = gtuType;
+            }
+            return side == NeighborLane.LEFT ? this.leftLanes : this.rightLanes;
+        }
+
+        /**
+         * Collect the lanes on a side of the lane for a GTU type.
+         * @param direction the side
+         * @param gtuType the GTU type
+         * @return the lanes on the side of the lane
+         */
+        private Set<Lane> collectSideLanes(final LateralDirectionality direction, final GtuType gtuType)
+        {
+            Set<Lane> lanes = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Lane adjacent : this.lane.accessibleAdjacentLanesPhysical(direction, gtuType))
+            {
+                lanes.add(adjacent);
+                for (Lane next : adjacent.nextLanes(gtuType))
+                {
+                    lanes.add(next);
+                }
+                for (Lane prev : adjacent.prevLanes(gtuType))
+                {
+                    lanes.add(prev);
+                }
+            }
+            for (Lane next : this.lane.nextLanes(gtuType))
+            {
+                for (Lane adjacent : next.accessibleAdjacentLanesPhysical(direction, gtuType))
+                {
+                    lanes.add(adjacent);
+                }
+            }
+            for (Lane prev : this.lane.prevLanes(gtuType))
+            {
+                for (Lane adjacent : prev.accessibleAdjacentLanesPhysical(direction, gtuType))
+                {
+                    lanes.add(adjacent);
+                }
+            }
+            return lanes;
+        }
+
+        /**
+         * Compute the point of the center line at a lane position, and the direction of the center line at that point.
+         * Positions before the start or beyond the end of the lane are extrapolated along the first or last segment.
+         * @param lanePosition the lane position
+         * @param result array in which x, y, dx and dy are stored, with (dx, dy) a unit vector
+         */
+        void locate(final double lanePosition, final double[] result)
+        {
+            int low = 0;
+            int high = this.position.length - 2;
+            while (low < high)
+            {
+                int mid = (low + high + 1) >>> 1;
+                if (this.position[mid] <= lanePosition)
+                {
+                    low = mid;
+                }
+                else
+                {
+                    high = mid - 1;
+                }
+            }
+            double dx = this.x[low + 1] - this.x[low];
+            double dy = this.y[low + 1] - this.y[low];
+            double segment = Math.hypot(dx, dy);
+            double length = this.position[low + 1] - this.position[low];
+            double f = length > 0.0 ? (lanePosition - this.position[low]) / length : 0.0;
+            result[0] = this.x[low] + f * dx;
+            result[1] = this.y[low] + f * dy;
+            result[2] = segment > 0.0 ? dx / segment : 1.0;
+            result[3] = segment > 0.0 ? dy / segment : 0.0;
+        }
+    }
+
+}
@@ -1,7 +1,10 @@
 package org.opentrafficsim.spatialtree.rtree2;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,7 +17,11 @@ import org.opentrafficsim.core.SpatialObject;
 import org.opentrafficsim.core.geometry.Bounds;
 import org.opentrafficsim.core.geometry.OtsShape;
 import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
 
+import com.github.davidmoten.rtree2.Entries;
 import com.github.davidmoten.rtree2.Entry;
 import com.github.davidmoten.rtree2.RTree;
 import com.github.davidmoten.rtree2.geometry.Geometries;
@@ -39,6 +46,9 @@ public class SpatialTreeRTree2 implements SpatialTree
     /** the bounding boxes of the dynamic objects at the time of insertion. */
     final Map<SpatialObject, Geometry> bboxMap = new LinkedHashMap<>();
 
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
     /**
      * Constructor; initialize the spatial index.
      */
@@ -47,6 +57,15 @@ public class SpatialTreeRTree2 implements SpatialTree
         this.tree = RTree.create();
     }
 
+    /**
+     * Constructor for a snapshot; search a version of the immutable tree.
+     * @param tree the version of the tree
+     */
+    private SpatialTreeRTree2(final RTree<SpatialObject, Geometry> tree)
+    {
+        this.tree = tree;
+    }
+
     /** {@inheritDoc} */
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
@@ -57,6 +76,41 @@ public class SpatialTreeRTree2 implements SpatialTree
         this.tree = this.tree.add(object, geometry); // note: tree is immutable; every add returns a copy (!)
     }
 
+    /**
+     * Add objects to the tree. When the tree is empty, it is created from all objects at once with the bulk load of RTree2,
+     * which packs the objects in sort-tile-recursive order; otherwise the objects are added one by one, and objects that are
+     * already in the tree are updated.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        if (!this.bboxMap.isEmpty())
+        {
+            for (I object : objects)
+            {
+                update(object);
+            }
+            return;
+        }
+        List<Entry<SpatialObject, Geometry>> entries = new ArrayList<>(objects.size());
+        for (I object : objects)
+        {
+            if (!this.bboxMap.containsKey(object))
+            {
+                Bounds bb = object.getShape().getEnvelope();
+                Geometry geometry = Geometries.rectangle(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+                this.bboxMap.put(object, geometry);
+                entries.add(Entries.entry(object, geometry));
+            }
+        }
+        this.tree = RTree.create(entries);
+    }
+
     /** {@inheritDoc} */
     @Override
     @SuppressWarnings("unlikely-arg-type")
@@ -73,31 +127,40 @@ public class SpatialTreeRTree2 implements SpatialTree
         return false;
     }
 
+    /**
+     * Update the position of an object. The tree is immutable, so a changed bounding box still results in a delete and an add
+     * that both copy the path to the leaf, but nothing changes when the bounding box is the same.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape has changed
+     */
+    @Override
+    @SuppressWarnings("unlikely-arg-type")
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        Geometry oldGeometry = this.bboxMap.get(object);
+        if (oldGeometry == null)
+        {
+            add(object);
+            return;
+        }
+        Bounds bb = object.getShape().getEnvelope();
+        Geometry geometry = Geometries.rectangle(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+        if (geometry.equals(oldGeometry))
+        {
+            return;
+        }
+        this.tree = this.tree.delete(object, oldGeometry).add(object, geometry);
+        this.bboxMap.put(object, geometry);
+    }
+
     /** {@inheritDoc} */
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
             final OtsShape shape, final Class<I> searchClass)
     {
-        Throw.whenNull(shape, "shape in find cannot be null");
-        Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        Rectangle rectangle = Geometries.rectangle(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
         final Set<I> returnSet = new LinkedHashSet<>();
-        Iterable<Entry<SpatialObject, Geometry>> results = this.tree.search(rectangle);
-        for (Entry<SpatialObject, Geometry> item : results)
-        {
-            SpatialObject so = item.value();
-            if (searchClass.isAssignableFrom(so.getClass()))
-            {
-                @SuppressWarnings("unchecked")
-                I cso = (I) so;
-                if (type == null || cso.isOfType(type))
-                {
-                    if (so.getShape().intersects(shape))
-                        returnSet.add(cso);
-                }
-            }
-        }
+        find(type, shape, searchClass, returnSet);
         return returnSet;
     }
 
@@ -105,28 +168,106 @@ public class SpatialTreeRTree2 implements SpatialTree
     @Override
     public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
             final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
     {
         Throw.whenNull(shape, "shape in find cannot be null");
         Throw.whenNull(searchClass, "searchClass in find cannot be null");
-        Bounds bb = shape.getEnvelope();
-        Rectangle rectangle = Geometries.rectangle(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
-        final Set<I> returnSet = new LinkedHashSet<>();
-        Iterable<Entry<SpatialObject, Geometry>> results = this.tree.search(rectangle);
-        for (Entry<SpatialObject, Geometry> item : results)
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Offer the objects of which the rectangle intersects with the bounding box of the search shape to a started filter, until
+     * the filter stops the search, and finish the filter. The search rectangle and the iteration over the immutable tree
+     * allocate in the library.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
         {
-            SpatialObject so = item.value();
-            if (searchClass.isAssignableFrom(so.getClass()))
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            Rectangle rectangle = Geometries.rectangle(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+            for (Entry<SpatialObject, Geometry> item : this.tree.search(rectangle))
             {
-                @SuppressWarnings("unchecked")
-                I dso = (I) so;
-                if (type == null || dso.isOfType(type))
+                if (!searchFilter.offer(item.value()))
                 {
-                    if (shape.intersects(dso.getShape(time)))
-                        returnSet.add(dso);
+                    break;
                 }
             }
         }
-        return returnSet;
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /**
+     * Return a snapshot of the current version of the immutable tree, which takes constant time, because the tree never
+     * changes; a change only creates a new version.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        return new SpatialTreeSnapshot(new SpatialTreeRTree2(this.tree), false);
+    }
+
+    /**
+     * Return a view of this frozen tree that shares its immutable tree and has its own search state.
+     * @return a read-only view of this frozen tree with its own search state
+     */
+    @Override
+    public SpatialTree view()
+    {
+        return new SpatialTreeRTree2(this.tree);
     }
 
     /**
@@ -0,0 +1,255 @@
+package org.opentrafficsim.spatialtree.snapshot;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
+
+/**
+ * Read-only, thread-safe view of a spatial tree as it was when {@link SpatialTree#snapshot()} was called, for consumers on
+ * other threads, such as KPI sampling, animation and logging, while the simulator thread keeps changing the tree. A snapshot
+ * holds a frozen tree that nobody changes anymore, e.g., a version of a persistent tree, or a tree of which the arrays are
+ * copied by the original tree before its next change. Trees that cannot be frozen cheaply give a snapshot with a copy of their
+ * objects and of the bounding boxes that they indexed for these objects, from which a SpatialTreeNative is built at the first
+ * search, on the thread of the consumer. The tree is built from the copied boxes, not from the shapes of the objects, so it
+ * prunes with the boxes as they were at the time of the snapshot, and the consumer does not read the shapes to build it.
+ * <p>
+ * A snapshot holds the objects of the tree at the time of the snapshot, and prunes with their bounding boxes at that time.
+ * The exact overlap with the search shape of the objects that remain is tested with the shape of the objects, or with their
+ * shape at the given time for the find methods with a time, so a consumer that wants the positions at the time of the
+ * snapshot uses the find methods with the time of the snapshot for dynamic objects. When the frozen tree is not thread-safe,
+ * every thread searches its own view of it (see {@link SpatialTree#view()}), that shares the data of the frozen tree and has
+ * its own search state, so the searches of several threads run in parallel without a lock, and never wait for the simulator
+ * thread. The methods that change the tree throw an UnsupportedOperationException.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class SpatialTreeSnapshot implements SpatialTree
+{
+    /** the frozen tree; null until it is built from the objects. */
+    private volatile SpatialTree tree;
+
+    /** the objects from which the frozen tree is built at the first search; null when the tree has been built or given. */
+    private Object[] objects;
+
+    /** the bounding boxes of the objects at the time of the snapshot, as minX, minY, maxX, maxY at 4 * index of the object. */
+    private double[] boxes;
+
+    /** whether the frozen tree can be searched by several threads at once, so the searches need no lock. */
+    private final boolean threadSafe;
+
+    /**
+     * the view of the frozen tree of each thread that searched the snapshot; only used when the frozen tree is not thread-safe.
+     * The views are kept by the snapshot rather than by the threads, so they are released with the snapshot, also by the
+     * threads of a pool that outlive it.
+     */
+    private final Map<Thread, SpatialTree> views = new ConcurrentHashMap<>();
+
+    /**
+     * Create a snapshot of a frozen tree.
+     * @param tree the frozen tree, that nobody changes anymore; when it is not thread-safe, it should support
+     *            {@link SpatialTree#view()}
+     * @param threadSafe whether the frozen tree can be searched by several threads at once
+     */
+    public SpatialTreeSnapshot(final SpatialTree tree, final boolean threadSafe)
+    {
+        Throw.whenNull(tree, "tree cannot be null");
+        this.tree = tree;
+        this.threadSafe = threadSafe;
+    }
+
+    /**
+     * Create a snapshot of the objects of a tree and the bounding boxes that the tree indexed for them. The tree is built from
+     * the boxes at the first search, without the shapes of the objects. The arrays are kept, so the caller gives copies that
+     * it does not change anymore.
+     * @param objects the objects in the tree, which are all different
+     * @param boxes the bounding boxes of the objects at the time of the snapshot, as minX, minY, maxX, maxY at 4 * index of the
+     *            object
+     */
+    public SpatialTreeSnapshot(final Object[] objects, final double[] boxes)
+    {
+        Throw.whenNull(objects, "objects cannot be null");
+        Throw.whenNull(boxes, "boxes cannot be null");
+        Throw.when(boxes.length != 4 * objects.length, IllegalArgumentException.class, "boxes should have 4 values per object");
+        this.objects = objects;
+        this.boxes = boxes;
+        this.threadSafe = false;
+    }
+
+    /**
+     * Return the frozen tree, and build it from the boxes when the snapshot was created from objects.
+     * @return the frozen tree
+     */
+    private SpatialTree frozen()
+    {
+        SpatialTree frozen = this.tree;
+        if (frozen == null)
+        {
+            synchronized (this)
+            {
+                if (this.tree == null)
+                {
+                    SpatialTree built = SpatialTreeNative.build(this.objects, this.boxes);
+                    this.objects = null;
+                    this.boxes = null;
+                    this.tree = built;
+                }
+                frozen = this.tree;
+            }
+        }
+        return frozen;
+    }
+
+    /**
+     * Return the tree that the current thread searches: the frozen tree when it is thread-safe, otherwise the view of the
+     * frozen tree of the thread.
+     * @return the tree that the current thread searches
+     */
+    private SpatialTree searchTree()
+    {
+        if (this.threadSafe)
+        {
+            return this.tree;
+        }
+        // only the current thread puts its own view, so the view cannot be put twice
+        Thread thread = Thread.currentThread();
+        SpatialTree view = this.views.get(thread);
+        if (view == null)
+        {
+            view = frozen().view();
+            this.views.put(thread, view);
+        }
+        return view;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        throw new UnsupportedOperationException("A snapshot of a spatial tree is read-only");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objectsToAdd)
+    {
+        throw new UnsupportedOperationException("A snapshot of a spatial tree is read-only");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        throw new UnsupportedOperationException("A snapshot of a spatial tree is read-only");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        throw new UnsupportedOperationException("A snapshot of a spatial tree is read-only");
+    }
+
+    /**
+     * Return this snapshot, which is already read-only.
+     * @return this snapshot
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        searchTree().find(type, shape, searchClass, visitor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        searchTree().find(type, shape, searchClass, time, visitor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        return searchTree().find(type, shape, searchClass, result);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        return searchTree().find(type, shape, searchClass, time, result);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        return searchTree().findNearest(type, point, searchClass, k, maxDistance, result);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized String toString()
+    {
+        return "SpatialTreeSnapshot [tree=" + (this.tree == null ? this.objects.length + " objects" : this.tree)
+                + ", threadSafe=" + this.threadSafe + "]";
+    }
+
+}
@@ -214,12 +214,25 @@ public class ShortMerge extends OtsSimulationApplication<ShortMergeModel>
         /** The network. */
         private RoadNetwork network;
 
+        /** The name of the network to load, shortMerge or shortWeave. */
+        private final String networkName;
+
         /**
          * @param simulator the simulator
          */
         public ShortMergeModel(final OtsSimulatorInterface simulator)
+        {
+            this(simulator, NETWORK);
+        }
+
+        /**
+         * @param simulator the simulator
+         * @param networkName the name of the network to load, shortMerge or shortWeave
+         */
+        public ShortMergeModel(final OtsSimulatorInterface simulator, final String networkName)
         {
             super(simulator);
+            this.networkName = networkName;
         }
 
         /**
@@ -236,8 +249,8 @@ public class ShortMerge extends OtsSimulationApplication<ShortMergeModel>
         {
             try
             {
-                URL xmlURL = URLResource.getResource("/resources/lmrs/" + NETWORK + ".xml");
-                this.network = new RoadNetwork("ShortMerge", getSimulator());
+                URL xmlURL = URLResource.getResource("/resources/lmrs/" + this.networkName + ".xml");
+                this.network = createNetwork("ShortMerge");
                 XmlNetworkLaneParser.build(xmlURL, this.network, false);
                 addGenerator();
 
@@ -248,6 +261,17 @@ public class ShortMerge extends OtsSimulationApplication<ShortMergeModel>
             }
         }
 
+        /**
+         * Create the empty network into which the model is loaded. Subclasses can return a subclass of RoadNetwork, e.g., a
+         * SpatialTreeOtsNetwork that indexes the network.
+         * @param id the network id
+         * @return the empty network
+         */
+        protected RoadNetwork createNetwork(final String id)
+        {
+            return new RoadNetwork(id, getSimulator());
+        }
+
         /** {@inheritDoc} */
         @Override
         public RoadNetwork getNetwork()
@@ -308,13 +332,13 @@ public class ShortMerge extends OtsSimulationApplication<ShortMergeModel>
             GtuType car = DefaultsNl.CAR;
             GtuType truck = DefaultsNl.TRUCK;
             Route routeAE = this.network.getShortestRouteBetween(car, this.network.getNode("A"), this.network.getNode("E"));
-            Route routeAG = !NETWORK.equals("shortWeave") ? null
+            Route routeAG = !this.networkName.equals("shortWeave") ? null
                     : this.network.getShortestRouteBetween(car, this.network.getNode("A"), this.network.getNode("G"));
             Route routeFE = this.network.getShortestRouteBetween(car, this.network.getNode("F"), this.network.getNode("E"));
-            Route routeFG = !NETWORK.equals("shortWeave") ? null
+            Route routeFG = !this.networkName.equals("shortWeave") ? null
                     : this.network.getShortestRouteBetween(car, this.network.getNode("F"), this.network.getNode("G"));
 
-            double leftFraction = NETWORK.equals("shortWeave") ? LEFT_FRACTION : 0.0;
+            double leftFraction = this.networkName.equals("shortWeave") ? LEFT_FRACTION : 0.0;
             List<FrequencyAndObject<Route>> routesA = new ArrayList<>();
             routesA.add(new FrequencyAndObject<>(1.0 - leftFraction, routeAE));
             routesA.add(new FrequencyAndObject<>(leftFraction, routeAG));
@@ -378,7 +402,7 @@ public class ShortMerge extends OtsSimulationApplication<ShortMergeModel>
             GtuColorer colorer = new LmrsSwitchableColorer(DefaultsNl.GTU_TYPE_COLORS.toMap());
             makeGenerator(getLane(linkA, "FORWARD1"), speedA, "gen1", idGenerator, gtuTypeAllCarA, headwaysA1, colorer,
                     roomChecker, bcFactory, tacticalFactory, SIMTIME, streams.get("gtuClass"));
-            if (NETWORK.equals("shortWeave"))
+            if (this.networkName.equals("shortWeave"))
             {
                 makeGenerator(getLane(linkA, "FORWARD2"), speedA, "gen2", idGenerator, gtuTypeAllCarA, headwaysA2, colorer,
                         roomChecker, bcFactory, tacticalFactory, SIMTIME, streams.get("gtuClass"));
@@ -0,0 +1,249 @@
+package org.opentrafficsim.spatialtree.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+
+import javax.naming.NamingException;
+
+import org.djunits.value.vdouble.scalar.Duration;
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.opentrafficsim.base.parameters.ParameterException;
+import org.opentrafficsim.base.parameters.ParameterTypes;
+import org.opentrafficsim.core.definitions.DefaultsNl;
+import org.opentrafficsim.core.dsol.OtsSimulator;
+import org.opentrafficsim.core.gtu.Gtu;
+import org.opentrafficsim.core.gtu.GtuException;
+import org.opentrafficsim.core.gtu.plan.operational.OperationalPlanException;
+import org.opentrafficsim.road.gtu.lane.LaneBasedGtu;
+import org.opentrafficsim.road.gtu.lane.perception.LanePerception;
+import org.opentrafficsim.road.gtu.lane.perception.PerceptionCollectable;
+import org.opentrafficsim.road.gtu.lane.perception.RelativeLane;
+import org.opentrafficsim.road.gtu.lane.perception.categories.neighbors.NeighborsPerception;
+import org.opentrafficsim.road.gtu.lane.perception.headway.HeadwayGtu;
+import org.opentrafficsim.road.network.RoadNetwork;
+import org.opentrafficsim.spatialtree.SpatialTreeOtsNetwork;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
+import org.opentrafficsim.spatialtree.perception.NeighborLane;
+import org.opentrafficsim.spatialtree.perception.Neighbors;
+import org.opentrafficsim.spatialtree.perception.SpatialNeighbors;
+import org.opentrafficsim.spatialtree.test.ShortMerge.ShortMergeModel;
+
+import nl.tudelft.simulation.dsol.SimRuntimeException;
+
+/**
+ * Runs the ShortMerge model (shortMerge or shortWeave network) in a SpatialTreeOtsNetwork, and compares the cost of the
+ * neighbor lookup of the default LMRS perception with that of SpatialNeighbors. Every second, the leaders and followers on
+ * the current and adjacent lanes of all GTUs are looked up within their look-ahead and look-back distance, first by the
+ * NeighborsPerception of the GTU and then in the tree of the network; the time of both per step is reported at the end.
+ * <p>
+ * The lookups are done between the operational plans of the GTUs, so the default perception computes its neighbors rather
+ * than returning the neighbors that it cached for the plan of the GTU.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class ShortMergeNeighbors
+{
+    /** the lanes of the default perception, in the order of NeighborLane. */
+    private static final RelativeLane[] RELATIVE_LANES = {RelativeLane.LEFT, RelativeLane.CURRENT, RelativeLane.RIGHT};
+
+    /** the network, which keeps the tree up to date. */
+    private SpatialTreeOtsNetwork network;
+
+    /** the neighbor lookup in the tree of the network. */
+    private SpatialNeighbors spatialNeighbors;
+
+    /** the reused result of the neighbor lookup in the tree. */
+    private final Neighbors neighbors = new Neighbors();
+
+    /** the number of steps. */
+    private int steps = 0;
+
+    /** the number of GTU lookups. */
+    private long lookups = 0;
+
+    /** the time of the default perception, in ns. */
+    private long defaultNanos = 0;
+
+    /** the time of the lookup in the tree, in ns. */
+    private long spatialNanos = 0;
+
+    /** the number of neighbors found by the default perception. */
+    private long defaultCount = 0;
+
+    /** the number of neighbors found in the tree. */
+    private long spatialCount = 0;
+
+    /** whether the run has finished. */
+    private volatile boolean finished = false;
+
+    /**
+     * Run the model and compare the neighbor lookups.
+     * @param networkName the name of the network, shortMerge or shortWeave
+     * @param duration the simulation duration
+     */
+    public ShortMergeNeighbors(final String networkName, final Duration duration)
+    {
+        try
+        {
+            OtsSimulator simulator = new OtsSimulator("ShortMerge");
+            final ShortMergeModel otsModel = new ShortMergeModel(simulator, networkName)
+            {
+                /** */
+                private static final long serialVersionUID = 1L;
+
+                /** {@inheritDoc} */
+                @Override
+                protected RoadNetwork createNetwork(final String id)
+                {
+                    return new SpatialTreeOtsNetwork(id, getSimulator(), new SpatialTreeNative());
+                }
+            };
+            simulator.initialize(Time.ZERO, Duration.ZERO, Duration.instantiateSI(duration.si + 1.0), otsModel);
+            this.network = (SpatialTreeOtsNetwork) otsModel.getNetwork();
+            this.spatialNeighbors = new SpatialNeighbors(this.network.getSpatialTree(), DefaultsNl.VEHICLE);
+            simulator.scheduleEventRel(Duration.instantiateSI(5.0001), this, this, "compare", new Object[] {});
+            simulator.scheduleEventRel(duration, this, this, "finish", new Object[] {});
+            simulator.start();
+            while (!this.finished)
+            {
+                Thread.sleep(100);
+            }
+        }
+        catch (SimRuntimeException | NamingException | InterruptedException exception)
+        {
+            exception.printStackTrace();
+        }
+        System.out.println(networkName + ": " + this.steps + " steps, " + this.lookups + " GTU lookups");
+        System.out.println(String.format("default perception: %10.1f us per step, %8d neighbors", 1.0E-3 * this.defaultNanos
+                / Math.max(1, this.steps), this.defaultCount));
+        System.out.println(String.format("spatial tree:       %10.1f us per step, %8d neighbors", 1.0E-3 * this.spatialNanos
+                / Math.max(1, this.steps), this.spatialCount));
+    }
+
+    /**
+     * Look up the neighbors of all GTUs with both methods.
+     */
+    protected void compare()
+    {
+        List<LaneBasedGtu> gtus = new ArrayList<>();
+        for (Gtu gtu : this.network.getGTUs())
+        {
+            if (gtu instanceof LaneBasedGtu)
+            {
+                gtus.add((LaneBasedGtu) gtu);
+            }
+        }
+        try
+        {
+            long start = System.nanoTime();
+            for (LaneBasedGtu gtu : gtus)
+            {
+                this.defaultCount += defaultLookup(gtu);
+            }
+            long mid = System.nanoTime();
+            for (LaneBasedGtu gtu : gtus)
+            {
+                this.spatialCount += spatialLookup(gtu);
+            }
+            long end = System.nanoTime();
+            this.defaultNanos += mid - start;
+            this.spatialNanos += end - mid;
+            this.lookups += gtus.size();
+            this.steps++;
+        }
+        catch (ParameterException | OperationalPlanException | GtuException exception)
+        {
+            exception.printStackTrace();
+        }
+        this.network.getSimulator().scheduleEventRel(Duration.instantiateSI(1.0), this, this, "compare", new Object[] {});
+    }
+
+    /**
+     * Look up the neighbors of a GTU with its NeighborsPerception.
+     * @param gtu the GTU
+     * @return the number of neighbors
+     * @throws ParameterException when the lane structure of the GTU cannot be built
+     * @throws OperationalPlanException when the GTU has no NeighborsPerception
+     */
+    private int defaultLookup(final LaneBasedGtu gtu) throws ParameterException, OperationalPlanException
+    {
+        LanePerception perception = gtu.getTacticalPlanner().getPerception();
+        NeighborsPerception neighborsPerception = perception.getPerceptionCategory(NeighborsPerception.class);
+        SortedSet<RelativeLane> crossSection = perception.getLaneStructure().getExtendedCrossSection();
+        int count = 0;
+        for (RelativeLane lane : RELATIVE_LANES)
+        {
+            if (crossSection.contains(lane))
+            {
+                count += size(neighborsPerception.getLeaders(lane));
+                count += size(neighborsPerception.getFollowers(lane));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of GTUs in a perceived set, which evaluates the set.
+     * @param gtus the perceived set
+     * @return the number of GTUs in the set
+     */
+    private static int size(final PerceptionCollectable<HeadwayGtu, LaneBasedGtu> gtus)
+    {
+        int count = 0;
+        for (@SuppressWarnings("unused")
+        HeadwayGtu gtu : gtus)
+        {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Look up the neighbors of a GTU in the tree of the network.
+     * @param gtu the GTU
+     * @return the number of neighbors
+     * @throws ParameterException when the GTU has no look-ahead or look-back parameter
+     * @throws GtuException when the GTU is not on a lane
+     */
+    private int spatialLookup(final LaneBasedGtu gtu) throws ParameterException, GtuException
+    {
+        Length lookAhead = gtu.getParameters().getParameter(ParameterTypes.LOOKAHEAD);
+        Length lookBack = gtu.getParameters().getParameter(ParameterTypes.LOOKBACK);
+        this.spatialNeighbors.find(gtu, lookAhead, lookBack, this.neighbors);
+        int count = 0;
+        for (NeighborLane lane : NeighborLane.values())
+        {
+            count += this.neighbors.getLeaderCount(lane) + this.neighbors.getFollowerCount(lane);
+        }
+        return count;
+    }
+
+    /**
+     * End the run on the simulator thread.
+     */
+    protected void finish()
+    {
+        this.finished = true;
+    }
+
+    /**
+     * Compare the neighbor lookups.
+     * @param args network name (shortMerge or shortWeave), simulation duration in seconds
+     */
+    public static void main(final String[] args)
+    {
+        String networkName = args.length > 0 ? args[0] : "shortMerge";
+        Duration duration = Duration.instantiateSI(args.length > 1 ? Double.parseDouble(args[1]) : 3600.0);
+        new ShortMergeNeighbors(networkName, duration);
+        System.exit(0);
+    }
+
+}
@@ -1,17 +1,17 @@
 package org.opentrafficsim.spatialtree.test;
 
-import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.naming.NamingException;
 
 import org.djunits.value.vdouble.scalar.Duration;
 import org.djunits.value.vdouble.scalar.Time;
-import org.djutils.event.Event;
-import org.djutils.event.EventListener;
 import org.opentrafficsim.core.definitions.DefaultsNl;
 import org.opentrafficsim.core.dsol.OtsSimulator;
+import org.opentrafficsim.core.geometry.OtsShape;
 import org.opentrafficsim.core.gtu.Gtu;
 import org.opentrafficsim.core.gtu.GtuType;
 import org.opentrafficsim.core.network.Link;
@@ -19,7 +19,9 @@ import org.opentrafficsim.road.network.RoadNetwork;
 import org.opentrafficsim.road.network.lane.CrossSectionLink;
 import org.opentrafficsim.road.network.lane.Lane;
 import org.opentrafficsim.spatialtree.SpatialTree;
-import org.opentrafficsim.spatialtree.h2.SpatialTreeH2;
+import org.opentrafficsim.spatialtree.SpatialTreeOtsNetwork;
+import org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative;
+import org.opentrafficsim.spatialtree.parallel.ParallelSearch;
 import org.opentrafficsim.spatialtree.test.ShortMerge.ShortMergeModel;
 
 import nl.tudelft.simulation.dsol.SimRuntimeException;
@@ -34,35 +36,50 @@ import nl.tudelft.simulation.dsol.SimRuntimeException;
  * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
  * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
  */
-public class ShortMergePrintTree implements EventListener
+public class ShortMergePrintTree
 {
-    /** */
-    private static final long serialVersionUID = 1L;
-
-    /** the network. */
-    private RoadNetwork network;
+    /** the network, which keeps the tree up to date. */
+    private SpatialTreeOtsNetwork network;
 
     /** the tree to use. */
     private SpatialTree tree;
 
+    /** the batch search of the lanes, on the cores of the machine. */
+    private final ParallelSearch parallelSearch = new ParallelSearch();
+
     /**
      * Create a class to compare the performance of different spatial tree implementations for a model.
      */
     public ShortMergePrintTree()
     {
-        this.tree = new SpatialTreeH2();
+        this.tree = new SpatialTreeNative(); // A SNAPSHOT SHARES THE ARRAYS, SO THE LANES ARE SEARCHED IN PARALLEL
+        // this.tree = new SpatialTreeH2(); // A SNAPSHOT WOULD COPY THE OBJECTS, SO THE LANES ARE SEARCHED SEQUENTIALLY
         // this.tree = new SpatialTreeJsi();
         // this.tree = new SpatialTreeRTree2();
-        // this.tree = new SpatialTreeJtsStrTree(); // DOES NOT WORK: IMMUTABLE
-        // this.tree = new SpatialTreeJtsHbrTree(); // DOES NOT WORK: IMMUTABLE
+        // this.tree = new SpatialTreeLaneLinear(); // USES THE LANE POSITIONS OF THE GTUS
+        // this.tree = new SpatialTreePartitioned(SpatialTreeNative::new); // LANES AND GTUS IN SEPARATE TREES
+        // this.tree = new SpatialTreeJtsStrTree(); // WORKS, BUT REBUILDS THE PACKED TREE AFTER EVERY MOVE
+        // this.tree = new SpatialTreeJtsHprTree(); // WORKS, BUT REBUILDS THE PACKED TREE AFTER EVERY MOVE
+        // this.tree = new SpatialTreeHybrid(new SpatialTreeJtsStrTree(), new SpatialTreeNative()); // PACKED LANES
+        // this.tree = new SpatialTreeHybrid(new SpatialTreeJtsHprTree(), new SpatialTreeNative()); // PACKED LANES
+        // this.tree = new SpatialTreeConcurrent(); // THREAD-SAFE, FOR PARALLEL SEARCHES
         try
         {
             OtsSimulator simulator = new OtsSimulator("ShortMerge");
-            final ShortMergeModel otsModel = new ShortMergeModel(simulator);
+            final ShortMergeModel otsModel = new ShortMergeModel(simulator)
+            {
+                /** */
+                private static final long serialVersionUID = 1L;
+
+                /** {@inheritDoc} */
+                @Override
+                protected RoadNetwork createNetwork(final String id)
+                {
+                    return new SpatialTreeOtsNetwork(id, getSimulator(), ShortMergePrintTree.this.tree);
+                }
+            };
             simulator.initialize(Time.ZERO, Duration.ZERO, Duration.instantiateSI(3600.0), otsModel);
-            this.network = otsModel.getNetwork();
-            addInfra();
-            subscribeGtus();
+            this.network = (SpatialTreeOtsNetwork) otsModel.getNetwork();
             simulator.scheduleEventRel(Duration.instantiateSI(5.0), this, this, "search", new Object[] {});
             simulator.start();
             while (simulator.getSimulatorTime().si < 3600.0)
@@ -77,72 +94,34 @@ public class ShortMergePrintTree implements EventListener
         }
     }
 
-    private void addInfra()
-    {
-        for (Link link : this.network.getLinkMap().values())
-        {
-            CrossSectionLink csl = (CrossSectionLink) link;
-            for (Lane lane : csl.getLanes())
-            {
-                this.tree.add(lane);
-            }
-        }
-    }
-
-    private void subscribeGtus()
-    {
-        this.network.addListener(this, RoadNetwork.GTU_ADD_EVENT);
-        this.network.addListener(this, RoadNetwork.GTU_REMOVE_EVENT);
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    public void notify(final Event event) throws RemoteException
-    {
-        if (event.getType().equals(RoadNetwork.GTU_ADD_EVENT))
-        {
-            String gtuId = event.getContent().toString();
-            Gtu gtu = this.network.getGTU(gtuId);
-            gtu.addListener(this, Gtu.MOVE_EVENT);
-        }
-        else if (event.getType().equals(RoadNetwork.GTU_REMOVE_EVENT))
-        {
-            String gtuId = event.getContent().toString();
-            Gtu gtu = this.network.getGTU(gtuId);
-            gtu.removeListener(this, Gtu.MOVE_EVENT);
-            this.tree.remove(gtu);
-        }
-        else if (event.getType().equals(Gtu.MOVE_EVENT))
-        {
-            Object[] contentArray = (Object[]) event.getContent();
-            String gtuId = contentArray[0].toString();
-            Gtu gtu = this.network.getGTU(gtuId);
-            this.tree.remove(gtu);
-            this.tree.add(gtu);
-        }
-    }
-
     protected void search()
     {
         Time time = this.network.getSimulator().getSimulatorAbsTime();
         int nrGtus = this.network.getGTUs().size();
         Set<String> countSet = new LinkedHashSet<>();
         System.out.println("\nTime: " + time + ", #gtu=" + nrGtus);
+        List<Lane> lanes = new ArrayList<>();
+        List<OtsShape> shapes = new ArrayList<>();
         for (Link link : this.network.getLinkMap().values())
         {
             CrossSectionLink csl = (CrossSectionLink) link;
             for (Lane lane : csl.getLanes())
             {
-                System.out.println("Lane: " + lane);
-                System.out.print("GTUs: ");
-                Set<Gtu> gtus = this.tree.find(DefaultsNl.VEHICLE, lane.getShape(), Gtu.class, time);
-                for (Gtu gtu : gtus)
-                {
-                    System.out.print(gtu.getId() + " ");
-                    countSet.add(gtu.getId());
-                }
-                System.out.println();
+                lanes.add(lane);
+                shapes.add(lane.getShape());
+            }
+        }
+        List<Set<Gtu>> gtusPerLane = this.parallelSearch.findAll(this.tree, DefaultsNl.VEHICLE, shapes, Gtu.class, time);
+        for (int i = 0; i < lanes.size(); i++)
+        {
+            System.out.println("Lane: " + lanes.get(i));
+            System.out.print("GTUs: ");
+            for (Gtu gtu : gtusPerLane.get(i))
+            {
+                System.out.print(gtu.getId() + " ");
+                countSet.add(gtu.getId());
             }
+            System.out.println();
         }
         if (countSet.size() == nrGtus)
             System.out.println("CORRECT number of Gtus in set");
@@ -0,0 +1,98 @@
+package org.opentrafficsim.spatialtree.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.naming.NamingException;
+
+import org.djunits.value.vdouble.scalar.Duration;
+import org.djunits.value.vdouble.scalar.Time;
+import org.opentrafficsim.core.definitions.DefaultsNl;
+import org.opentrafficsim.core.dsol.OtsSimulator;
+import org.opentrafficsim.spatialtree.test.ShortMerge.ShortMergeModel;
+import org.opentrafficsim.spatialtree.trace.TraceRecorder;
+
+import nl.tudelft.simulation.dsol.SimRuntimeException;
+
+/**
+ * Runs the ShortMerge model (shortMerge or shortWeave network) and records the spatial tree operations in a trace file that can
+ * be replayed with TraceReplay. The searches are the same as in ShortMergePrintTree: every second, on every lane.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class ShortMergeRecordTrace
+{
+    /** the recorder. */
+    private TraceRecorder recorder;
+
+    /** whether the recording has finished. */
+    private volatile boolean finished = false;
+
+    /**
+     * Run the model and record the trace.
+     * @param networkName the name of the network, shortMerge or shortWeave
+     * @param duration the simulation duration
+     * @param file the trace file to write
+     */
+    public ShortMergeRecordTrace(final String networkName, final Duration duration, final Path file)
+    {
+        try
+        {
+            OtsSimulator simulator = new OtsSimulator("ShortMerge");
+            final ShortMergeModel otsModel = new ShortMergeModel(simulator, networkName);
+            simulator.initialize(Time.ZERO, Duration.ZERO, Duration.instantiateSI(duration.si + 1.0), otsModel);
+            this.recorder = new TraceRecorder(otsModel.getNetwork(), file, DefaultsNl.VEHICLE, Duration.instantiateSI(1.0));
+            simulator.scheduleEventRel(duration, this, this, "finish", new Object[] {});
+            simulator.start();
+            while (!this.finished)
+            {
+                Thread.sleep(100);
+            }
+        }
+        catch (SimRuntimeException | NamingException | InterruptedException | IOException exception)
+        {
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Close the recorder on the simulator thread, so no events can arrive while closing.
+     */
+    protected void finish()
+    {
+        try
+        {
+            this.recorder.close();
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+        finally
+        {
+            this.finished = true;
+        }
+    }
+
+    /**
+     * Record a trace.
+     * @param args network name (shortMerge or shortWeave), simulation duration in seconds, trace file
+     */
+    public static void main(final String[] args)
+    {
+        String networkName = args.length > 0 ? args[0] : "shortMerge";
+        Duration duration = Duration.instantiateSI(args.length > 1 ? Double.parseDouble(args[1]) : 3600.0);
+        Path file = Paths.get(args.length > 2 ? args[2] : networkName + ".trace");
+        new ShortMergeRecordTrace(networkName, duration, file);
+        System.out.println("Trace written to " + file.toAbsolutePath());
+        System.exit(0);
+    }
+
+}
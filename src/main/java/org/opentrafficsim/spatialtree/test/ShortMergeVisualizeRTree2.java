@@ -3,7 +3,9 @@ package org.opentrafficsim.spatialtree.test;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.naming.NamingException;
@@ -54,6 +56,9 @@ public class ShortMergeVisualizeRTree2 implements EventListener
     /** image. */
     private ImagePanel imagePanel;
 
+    /** the list for the GTUs on a lane, reused for every search. */
+    private final List<Gtu> laneGtus = new ArrayList<>();
+
     /**
      * Create a class to compare the performance of different spatial tree implementations for a model.
      */
@@ -134,8 +139,7 @@ public class ShortMergeVisualizeRTree2 implements EventListener
             Object[] contentArray = (Object[]) event.getContent();
             String gtuId = contentArray[0].toString();
             Gtu gtu = this.network.getGTU(gtuId);
-            this.tree.remove(gtu);
-            this.tree.add(gtu);
+            this.tree.update(gtu);
         }
     }
 
@@ -152,8 +156,9 @@ public class ShortMergeVisualizeRTree2 implements EventListener
             {
                 // System.out.println("Lane: " + lane);
                 // System.out.print("GTUs: ");
-                Set<Gtu> gtus = this.tree.find(DefaultsNl.VEHICLE, lane.getShape(), Gtu.class, time);
-                for (Gtu gtu : gtus)
+                this.laneGtus.clear();
+                this.tree.find(DefaultsNl.VEHICLE, lane.getShape(), Gtu.class, time, this.laneGtus);
+                for (Gtu gtu : this.laneGtus)
                 {
                     // System.out.print(gtu.getId() + " ");
                     countSet.add(gtu.getId());
@@ -0,0 +1,1609 @@
+package org.opentrafficsim.spatialtree.tpr;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.djunits.value.vdouble.scalar.Length;
+import org.djunits.value.vdouble.scalar.Time;
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.core.gtu.Gtu;
+import org.opentrafficsim.core.gtu.plan.operational.OperationalPlan;
+import org.opentrafficsim.spatialtree.SpatialTree;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+import org.opentrafficsim.spatialtree.snapshot.SpatialTreeSnapshot;
+import org.opentrafficsim.spatialtree.util.BulkLoad;
+import org.opentrafficsim.spatialtree.util.IdentityIntMap;
+import org.opentrafficsim.spatialtree.util.NearestSearch;
+import org.opentrafficsim.spatialtree.util.SpatialFilter;
+
+/**
+ * Time-parameterized R-tree (after the TPR-tree of Saltenis et al.) for GTUs that follow an operational plan. Every entry and
+ * every node has a bounding box at a reference time and bounds for the velocity in x and y, so the box at time t is the box at
+ * the reference time that moves and grows linearly with t - reference time. For t before the reference time, the lower and
+ * upper velocity bounds switch roles, so the box is conservative in both directions of time.
+ * <p>
+ * The box of a GTU is its bounding box at the start of its operational plan, widened for the rotation of the GTU along the
+ * path of the plan. The velocity bounds are the directions of the segments of the path times the highest speed of the plan;
+ * the speed is assumed to be monotone over the plan, which holds for the (piecewise) constant acceleration plans of OTS. As a
+ * result, an update of a GTU does nothing as long as the GTU follows the same operational plan: the GTU is only inserted again
+ * when it has a new plan. Objects without a plan (e.g., lanes, or other objects that are not a GTU) have velocity 0.
+ * </p>
+ * <p>
+ * The node structure follows {@link org.opentrafficsim.spatialtree.nativetree.SpatialTreeNative}. Node boxes are recomputed
+ * at the latest time the tree has seen (the latest plan start or search time). Every entry also has the span of its plan,
+ * from the start to the end of the plan, and every node the union of the spans of its children. A search without a time
+ * (which is all the tree knows when the simulator time has moved on since the last plan) uses the box of an entry or node
+ * swept over its span, which holds the object wherever it is on its plan. As the edges of a box move linearly, the swept box
+ * is the union of the boxes at both ends of the span. Objects without a plan have an empty span, as their box does not move.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class SpatialTreeTpr implements SpatialTree
+{
+    /** the maximum number of children of a node. */
+    public static final int MAX_ENTRIES = 16;
+
+    /** the minimum number of children of a node other than the root. */
+    public static final int MIN_ENTRIES = 6;
+
+    /** no node or entry. */
+    private static final int NONE = -1;
+
+    /** kind of an item in the queue of a nearest-neighbour search: a node. */
+    private static final int NEAREST_NODE = 0;
+
+    /** kind of an item in the queue of a nearest-neighbour search: an entry, queued by the distance of its box. */
+    private static final int NEAREST_ENTRY = 1;
+
+    /** kind of an item in the queue of a nearest-neighbour search: an object, queued by its exact distance. */
+    private static final int NEAREST_OBJECT = 2;
+
+    /** bounding boxes of the nodes at their reference time, as minX, minY, maxX, maxY at 4 * node. */
+    private double[] nodeBox;
+
+    /** velocity bounds of the nodes, as minVx, minVy, maxVx, maxVy at 4 * node. */
+    private double[] nodeVel;
+
+    /** reference time of the nodes. */
+    private double[] nodeTime;
+
+    /** start of the span of the nodes: the earliest plan start of the entries below; +infinity when empty. */
+    private double[] nodeStart;
+
+    /** end of the span of the nodes: the latest plan end of the entries below; -infinity when empty. */
+    private double[] nodeEnd;
+
+    /** children of the nodes, entry handles for a leaf and node indexes otherwise, at MAX_ENTRIES * node. */
+    private int[] nodeChild;
+
+    /** the number of children of the nodes. */
+    private int[] nodeCount;
+
+    /** the level of the nodes; 0 for a leaf. */
+    private int[] nodeLevel;
+
+    /** the parent of the nodes; NONE for the root. */
+    private int[] nodeParent;
+
+    /** the number of node indexes that have ever been used. */
+    private int nodeTop = 0;
+
+    /** the free node indexes. */
+    private int[] freeNodes;
+
+    /** the number of free node indexes. */
+    private int freeNodeCount = 0;
+
+    /** bounding boxes of the entries at their reference time, as minX, minY, maxX, maxY at 4 * handle. */
+    private double[] entryBox;
+
+    /** velocity bounds of the entries, as minVx, minVy, maxVx, maxVy at 4 * handle. */
+    private double[] entryVel;
+
+    /** reference time of the entries, which is the start of their span. */
+    private double[] entryTime;
+
+    /** end of the span of the entries: the end of their plan; -infinity when the entry has no plan. */
+    private double[] entryEnd;
+
+    /** the objects of the entries. */
+    private Object[] entryObject;
+
+    /** the operational plan from which the box and velocity bounds of the entries were derived; null when not a GTU. */
+    private Object[] entryPlan;
+
+    /** the leaf of the entries; NONE when the entry is not in the tree. */
+    private int[] entryNode;
+
+    /** the number of handles that have ever been used. */
+    private int entryTop = 0;
+
+    /** the free handles. */
+    private int[] freeEntries;
+
+    /** the number of free handles. */
+    private int freeEntryCount = 0;
+
+    /** the handles of the objects. */
+    private final IdentityIntMap handles;
+
+    /** the root node. */
+    private int root;
+
+    /** the number of objects in the tree. */
+    private int size = 0;
+
+    /** whether the arrays of the tree are shared with a snapshot, and have to be copied before the next change. */
+    private boolean shared = false;
+
+    /** the latest time that the tree has seen, in s. */
+    private double now = 0.0;
+
+    /** node stack for the traversal of the tree. */
+    private int[] stack = new int[4 * MAX_ENTRIES];
+
+    /** handles of the candidates of the last search. */
+    private int[] candidates = new int[64];
+
+    /** handles of the entries of eliminated nodes, that have to be inserted again. */
+    private int[] reinsert = new int[4 * MAX_ENTRIES];
+
+    /** the number of handles to insert again. */
+    private int reinsertCount = 0;
+
+    /** the items (handles or nodes) of a node that is split. */
+    private final int[] splitItems = new int[MAX_ENTRIES + 1];
+
+    /** the bounding boxes at the current time of the items of a node that is split. */
+    private final double[] splitBox = new double[4 * (MAX_ENTRIES + 1)];
+
+    /** the group of the items of a node that is split; 0 when not yet assigned. */
+    private final int[] splitGroup = new int[MAX_ENTRIES + 1];
+
+    /** the bounding box of the first group of a split. */
+    private final double[] groupBox1 = new double[4];
+
+    /** the bounding box of the second group of a split. */
+    private final double[] groupBox2 = new double[4];
+
+    /** a bounding box at the current time. */
+    private final double[] box = new double[4];
+
+    /** a bounding box swept over a span. */
+    private final double[] sweep = new double[4];
+
+    /** the filter for the searches. */
+    private final SpatialFilter filter = new SpatialFilter();
+
+    /** the state of the nearest-neighbour searches. */
+    private final NearestSearch nearestSearch = new NearestSearch();
+
+    /**
+     * Constructor; initialize the spatial index.
+     */
+    public SpatialTreeTpr()
+    {
+        this(256);
+    }
+
+    /**
+     * Constructor; initialize the spatial index with room for the given number of objects before the arrays have to grow.
+     * @param initialCapacity the expected number of objects
+     */
+    public SpatialTreeTpr(final int initialCapacity)
+    {
+        int entryCapacity = Math.max(16, initialCapacity);
+        int nodeCapacity = Math.max(4, 2 * entryCapacity / MIN_ENTRIES);
+        this.nodeBox = new double[4 * nodeCapacity];
+        this.nodeVel = new double[4 * nodeCapacity];
+        this.nodeTime = new double[nodeCapacity];
+        this.nodeStart = new double[nodeCapacity];
+        this.nodeEnd = new double[nodeCapacity];
+        this.nodeChild = new int[MAX_ENTRIES * nodeCapacity];
+        this.nodeCount = new int[nodeCapacity];
+        this.nodeLevel = new int[nodeCapacity];
+        this.nodeParent = new int[nodeCapacity];
+        this.freeNodes = new int[nodeCapacity];
+        this.entryBox = new double[4 * entryCapacity];
+        this.entryVel = new double[4 * entryCapacity];
+        this.entryTime = new double[entryCapacity];
+        this.entryEnd = new double[entryCapacity];
+        this.entryObject = new Object[entryCapacity];
+        this.entryPlan = new Object[entryCapacity];
+        this.entryNode = new int[entryCapacity];
+        this.freeEntries = new int[entryCapacity];
+        this.handles = new IdentityIntMap(entryCapacity);
+        this.root = allocateNode(0);
+    }
+
+    /**
+     * Constructor for a snapshot; share the arrays of a tree, which copies them before its next change. The snapshot only
+     * searches, so it has no handles and free lists.
+     * @param source the tree of which to make a snapshot
+     */
+    private SpatialTreeTpr(final SpatialTreeTpr source)
+    {
+        this.nodeBox = source.nodeBox;
+        this.nodeVel = source.nodeVel;
+        this.nodeTime = source.nodeTime;
+        this.nodeStart = source.nodeStart;
+        this.nodeEnd = source.nodeEnd;
+        this.nodeChild = source.nodeChild;
+        this.nodeCount = source.nodeCount;
+        this.nodeLevel = source.nodeLevel;
+        this.nodeParent = source.nodeParent;
+        this.entryBox = source.entryBox;
+        this.entryVel = source.entryVel;
+        this.entryTime = source.entryTime;
+        this.entryEnd = source.entryEnd;
+        this.entryObject = source.entryObject;
+        this.entryPlan = source.entryPlan;
+        this.entryNode = source.entryNode;
+        this.freeNodes = null;
+        this.freeEntries = null;
+        this.handles = null;
+        this.nodeTop = source.nodeTop;
+        this.freeNodeCount = source.freeNodeCount;
+        this.entryTop = source.entryTop;
+        this.root = source.root;
+        this.size = source.size;
+        this.now = source.now;
+    }
+
+    /**
+     * Add an object to the tree. When the object is already in the tree, it is updated.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are adding
+     * @param object the object to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void add(final I object)
+    {
+        unshare();
+        if (this.handles.get(object) != IdentityIntMap.ABSENT)
+        {
+            update(object);
+            return;
+        }
+        int handle = allocateEntry();
+        this.entryObject[handle] = object;
+        this.handles.put(object, handle);
+        setMotion(handle, object);
+        insert(handle);
+        this.size++;
+    }
+
+    /**
+     * Add objects to the tree. When the tree is empty, it is built bottom-up from the objects: the objects are grouped into
+     * full leaves in sort-tile-recursive order of their boxes at the current time, and the leaves into full nodes in the same
+     * way, up to the root. Otherwise the objects are added one by one in Hilbert order, so that objects that are added one
+     * after the other are close to each other. Objects that are already in the tree are updated.
+     * @param <T> the hierarchical type of the spatial objects
+     * @param <I> the spatial object type we are adding
+     * @param objects the objects to store in the tree
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void addAll(
+            final Collection<? extends I> objects)
+    {
+        Throw.whenNull(objects, "objects in addAll cannot be null");
+        unshare();
+        if (this.size > 0 || objects.size() <= MAX_ENTRIES)
+        {
+            for (I object : BulkLoad.hilbertSorted(objects))
+            {
+                add(object);
+            }
+            return;
+        }
+        int[] items = new int[objects.size()];
+        int n = 0;
+        for (I object : objects)
+        {
+            int handle = this.handles.get(object);
+            if (handle == IdentityIntMap.ABSENT)
+            {
+                handle = allocateEntry();
+                this.entryObject[handle] = object;
+                this.handles.put(object, handle);
+                items[n++] = handle;
+            }
+            setMotion(handle, object);
+        }
+        freeNode(this.root);
+        this.root = pack(items, n);
+        this.size = n;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>,
+            I extends HierarchicallyTyped<T, I> & SpatialObject> boolean remove(final I object)
+    {
+        unshare();
+        int handle = this.handles.remove(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            return false;
+        }
+        delete(handle);
+        this.entryObject[handle] = null;
+        this.entryPlan[handle] = null;
+        this.entryNode[handle] = NONE;
+        this.freeEntries[this.freeEntryCount++] = handle;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Update an object. A GTU that still follows the same operational plan is not touched, as its box and velocity bounds are
+     * still valid. Other objects are only inserted again when their bounding box has changed. When the object is not in the
+     * tree, it is added.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are updating
+     * @param object the object of which the shape or plan has changed
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void update(final I object)
+    {
+        unshare();
+        int handle = this.handles.get(object);
+        if (handle == IdentityIntMap.ABSENT)
+        {
+            add(object);
+            return;
+        }
+        OperationalPlan plan = plan(object);
+        if (plan != null && plan == this.entryPlan[handle])
+        {
+            return;
+        }
+        if (plan == null && this.entryPlan[handle] == null)
+        {
+            Bounds bb = object.getShape().getEnvelope();
+            int b = 4 * handle;
+            if (bb.getMinX() == this.entryBox[b] && bb.getMinY() == this.entryBox[b + 1] && bb.getMaxX() == this.entryBox[b + 2]
+                    && bb.getMaxY() == this.entryBox[b + 3])
+            {
+                return;
+            }
+        }
+        delete(handle);
+        setMotion(handle, object);
+        insert(handle);
+    }
+
+    /**
+     * Return all objects with the right type (or subtype) and class (or subclass) that have an overlap with the given shape.
+     * The candidates are selected with their boxes swept over the span of their plan.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param type the type we are looking for (subtypes also qualify)
+     * @param shape the search area bounded by a polygon
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @return the set of spatial objects that have an overlap with the given shape
+     */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> Set<I> find(final T type,
+            final OtsShape shape, final Class<I> searchClass)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> Set<I> find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time)
+    {
+        final Set<I> returnSet = new LinkedHashSet<>();
+        find(type, shape, searchClass, time, returnSet);
+        return returnSet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> void find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, null, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> void find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time,
+            final SpatialVisitor<? super I> visitor)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(visitor, "visitor in find cannot be null");
+        visit(this.filter.start(type, shape, searchClass, time, visitor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int find(final T type,
+            final OtsShape shape, final Class<I> searchClass, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, null, result));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & DynamicSpatialObject> int find(
+            final T type, final OtsShape shape, final Class<I> searchClass, final Time time, final Collection<? super I> result)
+    {
+        Throw.whenNull(shape, "shape in find cannot be null");
+        Throw.whenNull(searchClass, "searchClass in find cannot be null");
+        Throw.whenNull(time, "time in find cannot be null");
+        Throw.whenNull(result, "result in find cannot be null");
+        return visit(this.filter.start(type, shape, searchClass, time, result));
+    }
+
+    /**
+     * Offer the objects of which the box at the time of the search (or the box swept over the span of their plan, when the
+     * search has no time) intersects with the bounding box of the search shape to a started filter, until the filter stops the
+     * search, and finish the filter.
+     * @param searchFilter the started filter
+     * @return the number of objects that qualified
+     */
+    private int visit(final SpatialFilter searchFilter)
+    {
+        try
+        {
+            double t = Double.NaN;
+            if (searchFilter.getTime() != null)
+            {
+                t = searchFilter.getTime().si;
+                this.now = Math.max(this.now, t);
+            }
+            Bounds bb = searchFilter.getShape().getEnvelope();
+            int n = search(bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY(), t);
+            for (int i = 0; i < n; i++)
+            {
+                if (!searchFilter.offer(this.entryObject[this.candidates[i]]))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            searchFilter.finish();
+        }
+        return searchFilter.getCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int findNearest(
+            final T type, final OtsPoint3d point, final Class<I> searchClass, final int k, final Length maxDistance,
+            final Collection<? super I> result)
+    {
+        Throw.whenNull(point, "point in findNearest cannot be null");
+        Throw.whenNull(searchClass, "searchClass in findNearest cannot be null");
+        Throw.whenNull(maxDistance, "maxDistance in findNearest cannot be null");
+        Throw.whenNull(result, "result in findNearest cannot be null");
+        Throw.when(k < 0, IllegalArgumentException.class, "k in findNearest cannot be negative");
+        NearestSearch search = this.nearestSearch.start(type, point, searchClass, k, maxDistance.si, result);
+        try
+        {
+            if (k > 0 && this.size > 0)
+            {
+                nearest(search);
+            }
+        }
+        finally
+        {
+            search.finish();
+        }
+        return search.getCount();
+    }
+
+    /**
+     * Best-first traversal of the tree for a nearest-neighbour search, with the boxes swept over their span. The queue holds
+     * nodes and entries by the distance of their box, which is a lower bound for the distance of the objects in them, and
+     * objects by their exact distance. The kind of an item is stored in the lowest two bits of the item.
+     * @param search the started search
+     */
+    private void nearest(final NearestSearch search)
+    {
+        search.push(boxDistance(search, this.nodeBox, this.nodeVel, this.nodeTime, this.nodeStart, this.nodeEnd,
+                this.root), this.root << 2 | NEAREST_NODE);
+        while (!search.isEmpty())
+        {
+            int item = search.pop();
+            int index = item >>> 2;
+            int kind = item & 3;
+            if (kind == NEAREST_OBJECT)
+            {
+                if (!search.add(this.entryObject[index]))
+                {
+                    return;
+                }
+            }
+            else if (kind == NEAREST_ENTRY)
+            {
+                search.push(search.distance(this.entryObject[index]), index << 2 | NEAREST_OBJECT);
+            }
+            else
+            {
+                int first = index * MAX_ENTRIES;
+                int last = first + this.nodeCount[index];
+                boolean leaf = this.nodeLevel[index] == 0;
+                for (int c = first; c < last; c++)
+                {
+                    int child = this.nodeChild[c];
+                    if (!leaf)
+                    {
+                        search.push(boxDistance(search, this.nodeBox, this.nodeVel, this.nodeTime, this.nodeStart, this.nodeEnd,
+                                child),
+                                child << 2 | NEAREST_NODE);
+                    }
+                    else if (search.accepts(this.entryObject[child]))
+                    {
+                        search.push(boxDistance(search, this.entryBox, this.entryVel, this.entryTime, this.entryTime,
+                                this.entryEnd, child),
+                                child << 2 | NEAREST_ENTRY);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the distance between the point of a nearest-neighbour search and the box of a node or entry swept over its span.
+     * @param search the started search
+     * @param boxes the box array
+     * @param vels the velocity array
+     * @param times the reference time array
+     * @param starts the span start array
+     * @param ends the span end array
+     * @param index the index of the node or entry
+     * @return the distance between the search point and the box
+     */
+    private double boxDistance(final NearestSearch search, final double[] boxes, final double[] vels, final double[] times,
+            final double[] starts, final double[] ends, final int index)
+    {
+        sweptBox(boxes, vels, times, starts, ends, index);
+        return search.boxDistance(this.sweep[0], this.sweep[1], this.sweep[2], this.sweep[3]);
+    }
+
+    /**
+     * Return a snapshot that shares the arrays of the tree, which takes constant time. The tree copies its arrays before its
+     * next change, once per snapshot, so the snapshot keeps the tree as it was.
+     * @return a read-only, thread-safe view of the tree as it is now
+     */
+    @Override
+    public SpatialTree snapshot()
+    {
+        this.shared = true;
+        return new SpatialTreeSnapshot(new SpatialTreeTpr(this), false);
+    }
+
+    /**
+     * Return a view of this frozen tree that shares its arrays and has its own search state.
+     * @return a read-only view of this frozen tree with its own search state
+     */
+    @Override
+    public SpatialTree view()
+    {
+        return new SpatialTreeTpr(this);
+    }
+
+    /**
+     * Return the number of objects in the tree.
+     * @return the number of objects in the tree
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Return the height of the tree; 1 when the root is a leaf.
+     * @return the height of the tree
+     */
+    public int getHeight()
+    {
+        return this.nodeLevel[this.root] + 1;
+    }
+
+    /**
+     * Return the latest time that the tree has seen.
+     * @return the latest time that the tree has seen
+     */
+    public Time getNow()
+    {
+        return Time.instantiateSI(this.now);
+    }
+
+    /**
+     * Return the operational plan of an object.
+     * @param object the object
+     * @return the operational plan of the object, or null when the object is not a GTU or has no plan
+     */
+    private static OperationalPlan plan(final SpatialObject object)
+    {
+        return object instanceof Gtu ? ((Gtu) object).getOperationalPlan() : null;
+    }
+
+    /**
+     * Set the box, velocity bounds and reference time of an entry from the operational plan of the object, or from its current
+     * shape when it has no plan.
+     * @param handle the handle of the entry
+     * @param object the object
+     */
+    private void setMotion(final int handle, final SpatialObject object)
+    {
+        int b = 4 * handle;
+        OperationalPlan plan = plan(object);
+        this.entryPlan[handle] = plan;
+        if (plan == null)
+        {
+            Bounds bb = object.getShape().getEnvelope();
+            setBox(this.entryBox, handle, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+            setBox(this.entryVel, handle, 0.0, 0.0, 0.0, 0.0);
+            this.entryTime[handle] = this.now;
+            this.entryEnd[handle] = Double.NEGATIVE_INFINITY;
+            return;
+        }
+        Time start = plan.getStartTime();
+        Bounds bb = ((Gtu) object).getShape(start).getEnvelope();
+        double speed = Math.max(plan.getStartSpeed().si, plan.getEndSpeed().si);
+        OtsPoint3d[] path = plan.getPath().getPoints();
+        // directions of the path segments; 0 is included as the GTU can stand still
+        double minUx = 0.0;
+        double minUy = 0.0;
+        double maxUx = 0.0;
+        double maxUy = 0.0;
+        double ux0 = Double.NaN;
+        double uy0 = Double.NaN;
+        double chord = 0.0;
+        for (int i = 1; i < path.length; i++)
+        {
+            double dx = path[i].x - path[i - 1].x;
+            double dy = path[i].y - path[i - 1].y;
+            double length = Math.hypot(dx, dy);
+            if (length > 0.0)
+            {
+                double ux = dx / length;
+                double uy = dy / length;
+                if (Double.isNaN(ux0))
+                {
+                    ux0 = ux;
+                    uy0 = uy;
+                }
+                minUx = Math.min(minUx, ux);
+                minUy = Math.min(minUy, uy);
+                maxUx = Math.max(maxUx, ux);
+                maxUy = Math.max(maxUy, uy);
+                // distance between unit vectors is 2 sin(angle / 2): the displacement per meter for a rotation over the angle
+                chord = Math.max(chord, Math.hypot(ux - ux0, uy - uy0));
+            }
+        }
+        double rotation = chord * Math.hypot(bb.getMaxX() - bb.getMinX(), bb.getMaxY() - bb.getMinY());
+        setBox(this.entryBox, handle, bb.getMinX() - rotation, bb.getMinY() - rotation, bb.getMaxX() + rotation,
+                bb.getMaxY() + rotation);
+        this.entryVel[b] = speed * minUx;
+        this.entryVel[b + 1] = speed * minUy;
+        this.entryVel[b + 2] = speed * maxUx;
+        this.entryVel[b + 3] = speed * maxUy;
+        this.entryTime[handle] = start.si;
+        this.entryEnd[handle] = Math.max(start.si, plan.getEndTime().si);
+        this.now = Math.max(this.now, start.si);
+    }
+
+    /**
+     * Compute the box of a node or entry at a time.
+     * @param boxes the box array
+     * @param vels the velocity array
+     * @param times the reference time array
+     * @param index the index of the node or entry
+     * @param t the time
+     * @param out the array to store the box in
+     * @param o the offset in the output array
+     */
+    private static void boxAt(final double[] boxes, final double[] vels, final double[] times, final int index, final double t,
+            final double[] out, final int o)
+    {
+        int b = 4 * index;
+        double dt = t - times[index];
+        if (dt >= 0.0)
+        {
+            out[o] = boxes[b] + vels[b] * dt;
+            out[o + 1] = boxes[b + 1] + vels[b + 1] * dt;
+            out[o + 2] = boxes[b + 2] + vels[b + 2] * dt;
+            out[o + 3] = boxes[b + 3] + vels[b + 3] * dt;
+        }
+        else
+        {
+            out[o] = boxes[b] + vels[b + 2] * dt;
+            out[o + 1] = boxes[b + 1] + vels[b + 3] * dt;
+            out[o + 2] = boxes[b + 2] + vels[b] * dt;
+            out[o + 3] = boxes[b + 3] + vels[b + 1] * dt;
+        }
+    }
+
+    /**
+     * Return whether the box of a node or entry at a time intersects with a search box. Boxes that touch intersect.
+     * @param boxes the box array
+     * @param vels the velocity array
+     * @param times the reference time array
+     * @param index the index of the node or entry
+     * @param t the time
+     * @param minX minimum x of the search box
+     * @param minY minimum y of the search box
+     * @param maxX maximum x of the search box
+     * @param maxY maximum y of the search box
+     * @return whether the boxes intersect
+     */
+    private static boolean intersectsAt(final double[] boxes, final double[] vels, final double[] times, final int index,
+            final double t, final double minX, final double minY, final double maxX, final double maxY)
+    {
+        int b = 4 * index;
+        double dt = t - times[index];
+        int lo = dt >= 0.0 ? b : b + 2;
+        int hi = dt >= 0.0 ? b + 2 : b;
+        return boxes[b] + vels[lo] * dt <= maxX && boxes[b + 2] + vels[hi] * dt >= minX
+                && boxes[b + 1] + vels[lo + 1] * dt <= maxY && boxes[b + 3] + vels[hi + 1] * dt >= minY;
+    }
+
+    /**
+     * Compute the box of a node or entry swept over its span in the sweep array. The lower edges of the box are a concave and
+     * the upper edges a convex function of time, so the swept box is the union of the boxes at the start and end of the span.
+     * An empty span gives the box at the reference time, as only objects without a plan (velocity 0) have an empty span.
+     * @param boxes the box array
+     * @param vels the velocity array
+     * @param times the reference time array
+     * @param starts the span start array
+     * @param ends the span end array
+     * @param index the index of the node or entry
+     */
+    private void sweptBox(final double[] boxes, final double[] vels, final double[] times, final double[] starts,
+            final double[] ends, final int index)
+    {
+        if (!(starts[index] <= ends[index]))
+        {
+            boxAt(boxes, vels, times, index, times[index], this.sweep, 0);
+            return;
+        }
+        boxAt(boxes, vels, times, index, starts[index], this.sweep, 0);
+        boxAt(boxes, vels, times, index, ends[index], this.box, 0);
+        this.sweep[0] = Math.min(this.sweep[0], this.box[0]);
+        this.sweep[1] = Math.min(this.sweep[1], this.box[1]);
+        this.sweep[2] = Math.max(this.sweep[2], this.box[2]);
+        this.sweep[3] = Math.max(this.sweep[3], this.box[3]);
+    }
+
+    /**
+     * Return whether the box of a node or entry at a time, or swept over its span when the time is NaN, intersects with a
+     * search box. Boxes that touch intersect.
+     * @param boxes the box array
+     * @param vels the velocity array
+     * @param times the reference time array
+     * @param starts the span start array
+     * @param ends the span end array
+     * @param index the index of the node or entry
+     * @param t the time, or NaN for the span
+     * @param minX minimum x of the search box
+     * @param minY minimum y of the search box
+     * @param maxX maximum x of the search box
+     * @param maxY maximum y of the search box
+     * @return whether the boxes intersect
+     */
+    private boolean intersects(final double[] boxes, final double[] vels, final double[] times, final double[] starts,
+            final double[] ends, final int index, final double t, final double minX, final double minY, final double maxX,
+            final double maxY)
+    {
+        if (!Double.isNaN(t))
+        {
+            return intersectsAt(boxes, vels, times, index, t, minX, minY, maxX, maxY);
+        }
+        sweptBox(boxes, vels, times, starts, ends, index);
+        return this.sweep[0] <= maxX && this.sweep[2] >= minX && this.sweep[1] <= maxY && this.sweep[3] >= minY;
+    }
+
+    /**
+     * Collect the handles of the entries of which the box at a time, or swept over its span when the time is NaN, intersects
+     * with the search box in the candidates array.
+     * @param minX minimum x of the search box
+     * @param minY minimum y of the search box
+     * @param maxX maximum x of the search box
+     * @param maxY maximum y of the search box
+     * @param t the time, or NaN for the span
+     * @return the number of candidates
+     */
+    private int search(final double minX, final double minY, final double maxX, final double maxY, final double t)
+    {
+        if (this.size == 0 || !intersects(this.nodeBox, this.nodeVel, this.nodeTime, this.nodeStart, this.nodeEnd, this.root,
+                t, minX, minY, maxX, maxY))
+        {
+            return 0;
+        }
+        int n = 0;
+        int sp = 0;
+        this.stack[sp++] = this.root;
+        while (sp > 0)
+        {
+            int node = this.stack[--sp];
+            int first = node * MAX_ENTRIES;
+            int last = first + this.nodeCount[node];
+            if (this.nodeLevel[node] == 0)
+            {
+                for (int c = first; c < last; c++)
+                {
+                    int handle = this.nodeChild[c];
+                    if (intersects(this.entryBox, this.entryVel, this.entryTime, this.entryTime, this.entryEnd, handle, t, minX,
+                            minY, maxX, maxY))
+                    {
+                        if (n == this.candidates.length)
+                        {
+                            this.candidates = Arrays.copyOf(this.candidates, 2 * n);
+                        }
+                        this.candidates[n++] = handle;
+                    }
+                }
+            }
+            else
+            {
+                if (sp + MAX_ENTRIES > this.stack.length)
+                {
+                    this.stack = Arrays.copyOf(this.stack, 2 * this.stack.length);
+                }
+                for (int c = first; c < last; c++)
+                {
+                    int child = this.nodeChild[c];
+                    if (intersects(this.nodeBox, this.nodeVel, this.nodeTime, this.nodeStart, this.nodeEnd, child, t, minX,
+                            minY, maxX, maxY))
+                    {
+                        this.stack[sp++] = child;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Build a tree bottom-up from entries, of which the motion has been set. The items of a level, first the entries and then
+     * the nodes of the level below, are grouped into nodes of at most MAX_ENTRIES children in sort-tile-recursive order of
+     * their boxes at the current time, until one node is left.
+     * @param handles the handles of the entries; the array is reused for the items of the levels
+     * @param count the number of entries
+     * @return the root of the tree
+     */
+    private int pack(final int[] handles, final int count)
+    {
+        // the boxes of the entries at the current time; the boxes of the nodes are computed at the current time
+        double[] entryBoxNow = new double[4 * this.entryTop];
+        for (int i = 0; i < count; i++)
+        {
+            boxAt(this.entryBox, this.entryVel, this.entryTime, handles[i], this.now, entryBoxNow, 4 * handles[i]);
+        }
+        int[] items = handles;
+        int n = count;
+        int level = 0;
+        while (true)
+        {
+            int[] starts = BulkLoad.strGroups(items, n, level == 0 ? entryBoxNow : this.nodeBox, MAX_ENTRIES);
+            int groups = starts.length - 1;
+            int[] nodes = new int[groups];
+            for (int g = 0; g < groups; g++)
+            {
+                int node = allocateNode(level);
+                int first = node * MAX_ENTRIES;
+                for (int i = starts[g]; i < starts[g + 1]; i++)
+                {
+                    this.nodeChild[first + this.nodeCount[node]++] = items[i];
+                    setParent(node, items[i]);
+                }
+                recomputeBox(node);
+                nodes[g] = node;
+            }
+            if (groups == 1)
+            {
+                return nodes[0];
+            }
+            items = nodes;
+            n = groups;
+            level++;
+        }
+    }
+
+    /**
+     * Insert an entry, of which the motion has been set, in the tree.
+     * @param handle the handle of the entry
+     */
+    private void insert(final int handle)
+    {
+        boxAt(this.entryBox, this.entryVel, this.entryTime, handle, this.now, this.box, 0);
+        double minX = this.box[0];
+        double minY = this.box[1];
+        double maxX = this.box[2];
+        double maxY = this.box[3];
+        int node = this.root;
+        while (this.nodeLevel[node] > 0)
+        {
+            node = chooseChild(node, minX, minY, maxX, maxY);
+        }
+        addChild(node, handle);
+    }
+
+    /**
+     * Return the child of a node that needs the least enlargement at the current time to include a bounding box, resolving ties
+     * by the smallest area.
+     * @param node the node
+     * @param minX minimum x of the bounding box
+     * @param minY minimum y of the bounding box
+     * @param maxX maximum x of the bounding box
+     * @param maxY maximum y of the bounding box
+     * @return the child that needs the least enlargement
+     */
+    private int chooseChild(final int node, final double minX, final double minY, final double maxX, final double maxY)
+    {
+        int best = NONE;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        int first = node * MAX_ENTRIES;
+        int last = first + this.nodeCount[node];
+        for (int c = first; c < last; c++)
+        {
+            int child = this.nodeChild[c];
+            boxAt(this.nodeBox, this.nodeVel, this.nodeTime, child, this.now, this.box, 0);
+            double area = (this.box[2] - this.box[0]) * (this.box[3] - this.box[1]);
+            double enlarged = (Math.max(maxX, this.box[2]) - Math.min(minX, this.box[0]))
+                    * (Math.max(maxY, this.box[3]) - Math.min(minY, this.box[1]));
+            double enlargement = enlarged - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea))
+            {
+                best = child;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Add a child (a handle for a leaf, a node otherwise) to a node, splitting the node when it is full.
+     * @param node the node
+     * @param child the child
+     */
+    private void addChild(final int node, final int child)
+    {
+        if (this.nodeCount[node] < MAX_ENTRIES)
+        {
+            this.nodeChild[node * MAX_ENTRIES + this.nodeCount[node]++] = child;
+            setParent(node, child);
+            expandUpward(node, child);
+            return;
+        }
+        int sibling = split(node, child);
+        if (node == this.root)
+        {
+            int newRoot = allocateNode(this.nodeLevel[node] + 1);
+            this.nodeChild[newRoot * MAX_ENTRIES] = node;
+            this.nodeChild[newRoot * MAX_ENTRIES + 1] = sibling;
+            this.nodeCount[newRoot] = 2;
+            this.nodeParent[node] = newRoot;
+            this.nodeParent[sibling] = newRoot;
+            recomputeBox(newRoot);
+            this.root = newRoot;
+        }
+        else
+        {
+            addChild(this.nodeParent[node], sibling);
+            // the child may have ended up in the node rather than in the sibling; the parents may have been split as well
+            refitUpward(this.nodeParent[node]);
+            refitUpward(this.nodeParent[sibling]);
+        }
+    }
+
+    /**
+     * Split a full node over the node and a new sibling with the quadratic algorithm of Guttman, applied to the boxes at the
+     * current time.
+     * @param node the full node
+     * @param extra the child that has to be added to the node
+     * @return the new sibling
+     */
+    private int split(final int node, final int extra)
+    {
+        int sibling = allocateNode(this.nodeLevel[node]); // first, as allocating can replace the node arrays
+        boolean leaf = this.nodeLevel[node] == 0;
+        int n = MAX_ENTRIES + 1;
+        System.arraycopy(this.nodeChild, node * MAX_ENTRIES, this.splitItems, 0, MAX_ENTRIES);
+        this.splitItems[MAX_ENTRIES] = extra;
+        for (int i = 0; i < n; i++)
+        {
+            if (leaf)
+            {
+                boxAt(this.entryBox, this.entryVel, this.entryTime, this.splitItems[i], this.now, this.splitBox, 4 * i);
+            }
+            else
+            {
+                boxAt(this.nodeBox, this.nodeVel, this.nodeTime, this.splitItems[i], this.now, this.splitBox, 4 * i);
+            }
+            this.splitGroup[i] = 0;
+        }
+
+        // pick the seeds: the pair that wastes the most area when put together
+        int seed1 = 0;
+        int seed2 = 1;
+        double worst = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n - 1; i++)
+        {
+            for (int j = i + 1; j < n; j++)
+            {
+                double waste = unionArea(i, j) - area(i) - area(j);
+                if (waste > worst)
+                {
+                    worst = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        this.splitGroup[seed1] = 1;
+        this.splitGroup[seed2] = 2;
+        double[] box1 = this.groupBox1;
+        double[] box2 = this.groupBox2;
+        System.arraycopy(this.splitBox, 4 * seed1, box1, 0, 4);
+        System.arraycopy(this.splitBox, 4 * seed2, box2, 0, 4);
+        int count1 = 1;
+        int count2 = 1;
+        int remaining = n - 2;
+
+        // assign the other items, one at a time, the one with the strongest preference first
+        while (remaining > 0)
+        {
+            int group = 0;
+            if (count1 + remaining == MIN_ENTRIES)
+            {
+                group = 1;
+            }
+            else if (count2 + remaining == MIN_ENTRIES)
+            {
+                group = 2;
+            }
+            if (group != 0)
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    if (this.splitGroup[i] == 0)
+                    {
+                        this.splitGroup[i] = group;
+                    }
+                }
+                break;
+            }
+            int next = NONE;
+            double maxDiff = Double.NEGATIVE_INFINITY;
+            double next1 = 0.0;
+            double next2 = 0.0;
+            for (int i = 0; i < n; i++)
+            {
+                if (this.splitGroup[i] == 0)
+                {
+                    double d1 = enlargement(box1, i);
+                    double d2 = enlargement(box2, i);
+                    double diff = Math.abs(d1 - d2);
+                    if (diff > maxDiff)
+                    {
+                        maxDiff = diff;
+                        next = i;
+                        next1 = d1;
+                        next2 = d2;
+                    }
+                }
+            }
+            if (next1 < next2 || (next1 == next2 && (boxArea(box1) < boxArea(box2)
+                    || (boxArea(box1) == boxArea(box2) && count1 <= count2))))
+            {
+                this.splitGroup[next] = 1;
+                include(box1, next);
+                count1++;
+            }
+            else
+            {
+                this.splitGroup[next] = 2;
+                include(box2, next);
+                count2++;
+            }
+            remaining--;
+        }
+
+        // write the groups to the node and the sibling, and compute their boxes and velocity bounds
+        int c1 = 0;
+        int c2 = 0;
+        for (int i = 0; i < n; i++)
+        {
+            int item = this.splitItems[i];
+            if (this.splitGroup[i] == 1)
+            {
+                this.nodeChild[node * MAX_ENTRIES + c1++] = item;
+                setParent(node, item);
+            }
+            else
+            {
+                this.nodeChild[sibling * MAX_ENTRIES + c2++] = item;
+                setParent(sibling, item);
+            }
+        }
+        this.nodeCount[node] = c1;
+        this.nodeCount[sibling] = c2;
+        recomputeBox(node);
+        recomputeBox(sibling);
+        return sibling;
+    }
+
+    /**
+     * Remove an entry from the tree, and condense the tree. The entry keeps its handle and motion.
+     * @param handle the handle of the entry
+     */
+    private void delete(final int handle)
+    {
+        int leaf = this.entryNode[handle];
+        removeChild(leaf, handle);
+        this.entryNode[handle] = NONE;
+
+        // condense: eliminate nodes with too few children and collect their entries to insert them again
+        this.reinsertCount = 0;
+        int node = leaf;
+        while (node != this.root)
+        {
+            int parent = this.nodeParent[node];
+            if (this.nodeCount[node] < MIN_ENTRIES)
+            {
+                removeChild(parent, node);
+                collectEntries(node);
+            }
+            else
+            {
+                recomputeBox(node);
+            }
+            node = parent;
+        }
+        recomputeBox(this.root);
+        while (this.nodeLevel[this.root] > 0 && this.nodeCount[this.root] == 1)
+        {
+            int child = this.nodeChild[this.root * MAX_ENTRIES];
+            freeNode(this.root);
+            this.root = child;
+            this.nodeParent[child] = NONE;
+        }
+        if (this.nodeLevel[this.root] > 0 && this.nodeCount[this.root] == 0)
+        {
+            freeNode(this.root);
+            this.root = allocateNode(0);
+        }
+        for (int i = 0; i < this.reinsertCount; i++)
+        {
+            insert(this.reinsert[i]);
+        }
+        this.reinsertCount = 0;
+    }
+
+    /**
+     * Collect the entries of the subtree of a node that has been removed from the tree, and free the nodes of the subtree.
+     * @param subtree the root node of the subtree
+     */
+    private void collectEntries(final int subtree)
+    {
+        int sp = 0;
+        this.stack[sp++] = subtree;
+        while (sp > 0)
+        {
+            int node = this.stack[--sp];
+            int first = node * MAX_ENTRIES;
+            int count = this.nodeCount[node];
+            if (this.nodeLevel[node] == 0)
+            {
+                if (this.reinsertCount + count > this.reinsert.length)
+                {
+                    this.reinsert = Arrays.copyOf(this.reinsert, 2 * (this.reinsertCount + count));
+                }
+                System.arraycopy(this.nodeChild, first, this.reinsert, this.reinsertCount, count);
+                this.reinsertCount += count;
+            }
+            else
+            {
+                if (sp + count > this.stack.length)
+                {
+                    this.stack = Arrays.copyOf(this.stack, 2 * (sp + count));
+                }
+                System.arraycopy(this.nodeChild, first, this.stack, sp, count);
+                sp += count;
+            }
+            freeNode(node);
+        }
+    }
+
+    /**
+     * Remove a child from a node; the last child takes its place.
+     * @param node the node
+     * @param child the child to remove
+     */
+    private void removeChild(final int node, final int child)
+    {
+        int first = node * MAX_ENTRIES;
+        int last = first + this.nodeCount[node] - 1;
+        for (int c = first; c <= last; c++)
+        {
+            if (this.nodeChild[c] == child)
+            {
+                this.nodeChild[c] = this.nodeChild[last];
+                this.nodeCount[node]--;
+                return;
+            }
+        }
+        throw new IllegalStateException("child " + child + " not found in node " + node);
+    }
+
+    /**
+     * Set the parent of a child, which is an entry for a leaf and a node otherwise.
+     * @param node the parent node
+     * @param child the child
+     */
+    private void setParent(final int node, final int child)
+    {
+        if (this.nodeLevel[node] == 0)
+        {
+            this.entryNode[child] = node;
+        }
+        else
+        {
+            this.nodeParent[child] = node;
+        }
+    }
+
+    /**
+     * Expand the boxes, velocity bounds and spans of a node and its ancestors to include a child, until a node already includes
+     * it. A node includes a child for every time when its box at its reference time includes the box of the child at that time,
+     * and its velocity bounds include those of the child. An empty span is included in every span.
+     * @param start the node to which the child was added
+     * @param child the child
+     */
+    private void expandUpward(final int start, final int child)
+    {
+        int node = start;
+        int item = child;
+        boolean leaf = this.nodeLevel[start] == 0;
+        while (node != NONE)
+        {
+            double t = this.nodeTime[node];
+            if (leaf)
+            {
+                boxAt(this.entryBox, this.entryVel, this.entryTime, item, t, this.box, 0);
+            }
+            else
+            {
+                boxAt(this.nodeBox, this.nodeVel, this.nodeTime, item, t, this.box, 0);
+            }
+            double[] vels = leaf ? this.entryVel : this.nodeVel;
+            double spanStart = leaf ? this.entryTime[item] : this.nodeStart[item];
+            double spanEnd = leaf ? this.entryEnd[item] : this.nodeEnd[item];
+            boolean empty = !(spanStart <= spanEnd);
+            int b = 4 * node;
+            int v = 4 * item;
+            if (this.box[0] >= this.nodeBox[b] && this.box[1] >= this.nodeBox[b + 1] && this.box[2] <= this.nodeBox[b + 2]
+                    && this.box[3] <= this.nodeBox[b + 3] && vels[v] >= this.nodeVel[b] && vels[v + 1] >= this.nodeVel[b + 1]
+                    && vels[v + 2] <= this.nodeVel[b + 2] && vels[v + 3] <= this.nodeVel[b + 3]
+                    && (empty || (spanStart >= this.nodeStart[node] && spanEnd <= this.nodeEnd[node])))
+            {
+                return;
+            }
+            if (!empty)
+            {
+                this.nodeStart[node] = Math.min(this.nodeStart[node], spanStart);
+                this.nodeEnd[node] = Math.max(this.nodeEnd[node], spanEnd);
+            }
+            this.nodeBox[b] = Math.min(this.nodeBox[b], this.box[0]);
+            this.nodeBox[b + 1] = Math.min(this.nodeBox[b + 1], this.box[1]);
+            this.nodeBox[b + 2] = Math.max(this.nodeBox[b + 2], this.box[2]);
+            this.nodeBox[b + 3] = Math.max(this.nodeBox[b + 3], this.box[3]);
+            this.nodeVel[b] = Math.min(this.nodeVel[b], vels[v]);
+            this.nodeVel[b + 1] = Math.min(this.nodeVel[b + 1], vels[v + 1]);
+            this.nodeVel[b + 2] = Math.max(this.nodeVel[b + 2], vels[v + 2]);
+            this.nodeVel[b + 3] = Math.max(this.nodeVel[b + 3], vels[v + 3]);
+            item = node;
+            leaf = false;
+            node = this.nodeParent[node];
+        }
+    }
+
+    /**
+     * Recompute the boxes and velocity bounds of a node and all its ancestors from their children.
+     * @param start the first node to recompute
+     */
+    private void refitUpward(final int start)
+    {
+        int node = start;
+        while (node != NONE)
+        {
+            recomputeBox(node);
+            node = this.nodeParent[node];
+        }
+    }
+
+    /**
+     * Recompute the box, velocity bounds and span of a node from its children, with the current time as reference time.
+     * @param node the node
+     */
+    private void recomputeBox(final int node)
+    {
+        boolean leaf = this.nodeLevel[node] == 0;
+        double[] vels = leaf ? this.entryVel : this.nodeVel;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double minVx = Double.POSITIVE_INFINITY;
+        double minVy = Double.POSITIVE_INFINITY;
+        double maxVx = Double.NEGATIVE_INFINITY;
+        double maxVy = Double.NEGATIVE_INFINITY;
+        double[] starts = leaf ? this.entryTime : this.nodeStart;
+        double[] ends = leaf ? this.entryEnd : this.nodeEnd;
+        double start = Double.POSITIVE_INFINITY;
+        double end = Double.NEGATIVE_INFINITY;
+        int first = node * MAX_ENTRIES;
+        int last = first + this.nodeCount[node];
+        for (int c = first; c < last; c++)
+        {
+            int child = this.nodeChild[c];
+            if (leaf)
+            {
+                boxAt(this.entryBox, this.entryVel, this.entryTime, child, this.now, this.box, 0);
+            }
+            else
+            {
+                boxAt(this.nodeBox, this.nodeVel, this.nodeTime, child, this.now, this.box, 0);
+            }
+            int v = 4 * child;
+            minX = Math.min(minX, this.box[0]);
+            minY = Math.min(minY, this.box[1]);
+            maxX = Math.max(maxX, this.box[2]);
+            maxY = Math.max(maxY, this.box[3]);
+            minVx = Math.min(minVx, vels[v]);
+            minVy = Math.min(minVy, vels[v + 1]);
+            maxVx = Math.max(maxVx, vels[v + 2]);
+            maxVy = Math.max(maxVy, vels[v + 3]);
+            if (starts[child] <= ends[child])
+            {
+                start = Math.min(start, starts[child]);
+                end = Math.max(end, ends[child]);
+            }
+        }
+        if (this.nodeCount[node] == 0)
+        {
+            minVx = 0.0;
+            minVy = 0.0;
+            maxVx = 0.0;
+            maxVy = 0.0;
+        }
+        setBox(this.nodeBox, node, minX, minY, maxX, maxY);
+        setBox(this.nodeVel, node, minVx, minVy, maxVx, maxVy);
+        this.nodeTime[node] = this.now;
+        this.nodeStart[node] = start;
+        this.nodeEnd[node] = end;
+    }
+
+    /**
+     * Return the area of an item of a split.
+     * @param i the index of the item
+     * @return the area of the item
+     */
+    private double area(final int i)
+    {
+        int b = 4 * i;
+        return (this.splitBox[b + 2] - this.splitBox[b]) * (this.splitBox[b + 3] - this.splitBox[b + 1]);
+    }
+
+    /**
+     * Return the area of the bounding box of two items of a split.
+     * @param i the index of the first item
+     * @param j the index of the second item
+     * @return the area of the bounding box of the two items
+     */
+    private double unionArea(final int i, final int j)
+    {
+        int a = 4 * i;
+        int b = 4 * j;
+        return (Math.max(this.splitBox[a + 2], this.splitBox[b + 2]) - Math.min(this.splitBox[a], this.splitBox[b]))
+                * (Math.max(this.splitBox[a + 3], this.splitBox[b + 3]) - Math.min(this.splitBox[a + 1], this.splitBox[b + 1]));
+    }
+
+    /**
+     * Return the enlargement of a group box to include an item of a split.
+     * @param groupBox the group box
+     * @param i the index of the item
+     * @return the enlargement of the area of the group box
+     */
+    private double enlargement(final double[] groupBox, final int i)
+    {
+        int b = 4 * i;
+        return (Math.max(groupBox[2], this.splitBox[b + 2]) - Math.min(groupBox[0], this.splitBox[b]))
+                * (Math.max(groupBox[3], this.splitBox[b + 3]) - Math.min(groupBox[1], this.splitBox[b + 1]))
+                - boxArea(groupBox);
+    }
+
+    /**
+     * Expand a group box to include an item of a split.
+     * @param groupBox the group box
+     * @param i the index of the item
+     */
+    private void include(final double[] groupBox, final int i)
+    {
+        int b = 4 * i;
+        groupBox[0] = Math.min(groupBox[0], this.splitBox[b]);
+        groupBox[1] = Math.min(groupBox[1], this.splitBox[b + 1]);
+        groupBox[2] = Math.max(groupBox[2], this.splitBox[b + 2]);
+        groupBox[3] = Math.max(groupBox[3], this.splitBox[b + 3]);
+    }
+
+    /**
+     * Return the area of a group box.
+     * @param groupBox the group box
+     * @return the area of the group box
+     */
+    private static double boxArea(final double[] groupBox)
+    {
+        return (groupBox[2] - groupBox[0]) * (groupBox[3] - groupBox[1]);
+    }
+
+    /**
+     * Write four values at an index of an array of boxes or velocity bounds.
+     * @param array the array
+     * @param index the index
+     * @param minX minimum x
+     * @param minY minimum y
+     * @param maxX maximum x
+     * @param maxY maximum y
+     */
+    private static void setBox(final double[] array, final int index, final double minX, final double minY, final double maxX,
+            final double maxY)
+    {
+        int b = 4 * index;
+        array[b] = minX;
+        array[b + 1] = minY;
+        array[b + 2] = maxX;
+        array[b + 3] = maxY;
+    }
+
+    /**
+     * Copy the arrays of the tree when they are shared with a snapshot, so the snapshot keeps the tree as it was.
+     */
+    private void unshare()
+    {
+        if (this.shared)
+        {
+            this.nodeBox = this.nodeBox.clone();
+            this.nodeVel = this.nodeVel.clone();
+            this.nodeTime = this.nodeTime.clone();
+            this.nodeStart = this.nodeStart.clone();
+            this.nodeEnd = this.nodeEnd.clone();
+            this.nodeChild = this.nodeChild.clone();
+            this.nodeCount = this.nodeCount.clone();
+            this.nodeLevel = this.nodeLevel.clone();
+            this.nodeParent = this.nodeParent.clone();
+            this.entryBox = this.entryBox.clone();
+            this.entryVel = this.entryVel.clone();
+            this.entryTime = this.entryTime.clone();
+            this.entryEnd = this.entryEnd.clone();
+            this.entryObject = this.entryObject.clone();
+            this.entryPlan = this.entryPlan.clone();
+            this.entryNode = this.entryNode.clone();
+            this.shared = false;
+        }
+    }
+
+    /**
+     * Return a free node without children, growing the node arrays when needed.
+     * @param level the level of the node
+     * @return the node
+     */
+    private int allocateNode(final int level)
+    {
+        int node;
+        if (this.freeNodeCount > 0)
+        {
+            node = this.freeNodes[--this.freeNodeCount];
+        }
+        else
+        {
+            if (this.nodeTop == this.nodeCount.length)
+            {
+                int capacity = 2 * this.nodeCount.length;
+                this.nodeBox = Arrays.copyOf(this.nodeBox, 4 * capacity);
+                this.nodeVel = Arrays.copyOf(this.nodeVel, 4 * capacity);
+                this.nodeTime = Arrays.copyOf(this.nodeTime, capacity);
+                this.nodeStart = Arrays.copyOf(this.nodeStart, capacity);
+                this.nodeEnd = Arrays.copyOf(this.nodeEnd, capacity);
+                this.nodeChild = Arrays.copyOf(this.nodeChild, MAX_ENTRIES * capacity);
+                this.nodeCount = Arrays.copyOf(this.nodeCount, capacity);
+                this.nodeLevel = Arrays.copyOf(this.nodeLevel, capacity);
+                this.nodeParent = Arrays.copyOf(this.nodeParent, capacity);
+                this.freeNodes = Arrays.copyOf(this.freeNodes, capacity);
+            }
+            node = this.nodeTop++;
+        }
+        this.nodeCount[node] = 0;
+        this.nodeLevel[node] = level;
+        this.nodeParent[node] = NONE;
+        this.nodeTime[node] = this.now;
+        this.nodeStart[node] = Double.POSITIVE_INFINITY;
+        this.nodeEnd[node] = Double.NEGATIVE_INFINITY;
+        setBox(this.nodeBox, node, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.NEGATIVE_INFINITY);
+        setBox(this.nodeVel, node, 0.0, 0.0, 0.0, 0.0);
+        return node;
+    }
+
+    /**
+     * Return a node to the free list.
+     * @param node the node
+     */
+    private void freeNode(final int node)
+    {
+        this.nodeCount[node] = 0;
+        this.freeNodes[this.freeNodeCount++] = node;
+    }
+
+    /**
+     * Return a free handle, growing the entry arrays when needed.
+     * @return the handle
+     */
+    private int allocateEntry()
+    {
+        if (this.freeEntryCount > 0)
+        {
+            return this.freeEntries[--this.freeEntryCount];
+        }
+        if (this.entryTop == this.entryNode.length)
+        {
+            int capacity = 2 * this.entryNode.length;
+            this.entryBox = Arrays.copyOf(this.entryBox, 4 * capacity);
+            this.entryVel = Arrays.copyOf(this.entryVel, 4 * capacity);
+            this.entryTime = Arrays.copyOf(this.entryTime, capacity);
+            this.entryEnd = Arrays.copyOf(this.entryEnd, capacity);
+            this.entryObject = Arrays.copyOf(this.entryObject, capacity);
+            this.entryPlan = Arrays.copyOf(this.entryPlan, capacity);
+            this.entryNode = Arrays.copyOf(this.entryNode, capacity);
+            this.freeEntries = Arrays.copyOf(this.freeEntries, capacity);
+        }
+        return this.entryTop++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialTreeTpr [size=" + this.size + ", height=" + getHeight() + ", nodes="
+                + (this.nodeTop - this.freeNodeCount) + ", now=" + this.now + "]";
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.opentrafficsim.spatialtree.trace;
+
+/**
+ * Constants of the binary trace format that records the stream of spatial tree operations of a simulation. All values are
+ * big-endian. The file starts with a header:
+ * <ul>
+ * <li><code>int</code> magic number {@link #MAGIC}</li>
+ * <li><code>int</code> format version {@link #VERSION}</li>
+ * <li><code>double</code> minX, minY, maxX, maxY of the extent of the infrastructure</li>
+ * </ul>
+ * followed by records that each start with a one-byte record type:
+ * <ul>
+ * <li>{@link #TYPE}: <code>int</code> type index, <code>int</code> parent type index (-1 for a root type), <code>int</code>
+ * number of bytes and the UTF-8 bytes of the type id</li>
+ * <li>{@link #STATIC}: <code>int</code> handle, <code>int</code> type index, shape</li>
+ * <li>{@link #GTU_ADD}: <code>double</code> time, <code>int</code> handle, <code>int</code> type index</li>
+ * <li>{@link #MOVE}: <code>double</code> time, <code>int</code> handle, shape</li>
+ * <li>{@link #GTU_REMOVE}: <code>double</code> time, <code>int</code> handle</li>
+ * <li>{@link #SEARCH}: <code>double</code> time, <code>int</code> type index, <code>int</code> handle of the static object
+ * whose shape is the search area</li>
+ * <li>{@link #END}: end of the trace</li>
+ * </ul>
+ * A shape is stored as an <code>int</code> number of points n, the <code>double</code> x and y of the first point, and n-1
+ * pairs of <code>float</code> dx and dy of the other points relative to the first point. Relative coordinates keep the shapes
+ * compact without losing precision on large (national grid) coordinates. Handles of static and dynamic objects are never
+ * reused within a trace; types are always defined before they are used.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class TraceFormat
+{
+    /** magic number at the start of a trace file: "OTST". */
+    public static final int MAGIC = 0x4F545354;
+
+    /** version of the trace format. */
+    public static final int VERSION = 1;
+
+    /** the number of bytes in the header. */
+    public static final int HEADER_SIZE = 4 + 4 + 4 * 8;
+
+    /** record type: definition of a (hierarchical) type. */
+    public static final byte TYPE = 1;
+
+    /** record type: a static object (e.g., a lane) is added to the tree. */
+    public static final byte STATIC = 2;
+
+    /** record type: a GTU is added to the network; it enters the tree at its first move. */
+    public static final byte GTU_ADD = 3;
+
+    /** record type: a GTU has moved; remove it from the tree (when present) and add it with the new shape. */
+    public static final byte MOVE = 4;
+
+    /** record type: a GTU is removed from the network and from the tree. */
+    public static final byte GTU_REMOVE = 5;
+
+    /** record type: search for the dynamic objects of a type that overlap with the shape of a static object. */
+    public static final byte SEARCH = 6;
+
+    /** record type: end of the trace. */
+    public static final byte END = 0;
+
+    /**
+     * Do not create instance.
+     */
+    private TraceFormat()
+    {
+        //
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.opentrafficsim.spatialtree.trace;
+
+/**
+ * Receives the records of a trace, in the order in which they were recorded. The coordinate arrays that are passed to the
+ * methods are reused by the reader, and are only valid during the call.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public interface TraceHandler
+{
+    /**
+     * A type is defined.
+     * @param index the index of the type
+     * @param id the id of the type
+     * @param parentIndex the index of the parent type, or -1 for a root type
+     */
+    void type(int index, String id, int parentIndex);
+
+    /**
+     * A static object is added to the tree.
+     * @param handle the handle of the object
+     * @param typeIndex the index of the type of the object
+     * @param x the x-coordinates of the shape
+     * @param y the y-coordinates of the shape
+     * @param n the number of points of the shape
+     */
+    void staticObject(int handle, int typeIndex, double[] x, double[] y, int n);
+
+    /**
+     * A GTU is added to the network.
+     * @param time the simulation time in seconds
+     * @param handle the handle of the GTU
+     * @param typeIndex the index of the type of the GTU
+     */
+    void gtuAdd(double time, int handle, int typeIndex);
+
+    /**
+     * A GTU has moved.
+     * @param time the simulation time in seconds
+     * @param handle the handle of the GTU
+     * @param x the x-coordinates of the new shape
+     * @param y the y-coordinates of the new shape
+     * @param n the number of points of the new shape
+     */
+    void move(double time, int handle, double[] x, double[] y, int n);
+
+    /**
+     * A GTU is removed from the network.
+     * @param time the simulation time in seconds
+     * @param handle the handle of the GTU
+     */
+    void gtuRemove(double time, int handle);
+
+    /**
+     * A search for dynamic objects is carried out.
+     * @param time the simulation time in seconds
+     * @param typeIndex the index of the type to search for
+     * @param queryHandle the handle of the static object whose shape is the search area
+     */
+    void search(double time, int typeIndex, int queryHandle);
+
+}
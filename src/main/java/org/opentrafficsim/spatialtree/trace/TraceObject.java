@@ -0,0 +1,112 @@
+package org.opentrafficsim.spatialtree.trace;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.geometry.OtsGeometryException;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+
+/**
+ * Static or dynamic object in a replayed trace. A dynamic object has the shape of its last recorded move at any time, which is
+ * also the shape it was added to the tree with.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class TraceObject implements HierarchicallyTyped<TraceType, TraceObject>, DynamicSpatialObject
+{
+    /** the handle of the object in the trace. */
+    private final int handle;
+
+    /** the type. */
+    private final TraceType type;
+
+    /** the current shape; null for a dynamic object that has not moved yet. */
+    private OtsShape shape;
+
+    /**
+     * Create an object.
+     * @param handle the handle of the object in the trace
+     * @param type the type
+     */
+    public TraceObject(final int handle, final TraceType type)
+    {
+        this.handle = handle;
+        this.type = type;
+    }
+
+    /**
+     * Set a new shape.
+     * @param x the x-coordinates of the shape
+     * @param y the y-coordinates of the shape
+     * @param n the number of points of the shape
+     */
+    public void setShape(final double[] x, final double[] y, final int n)
+    {
+        OtsPoint3d[] points = new OtsPoint3d[n];
+        for (int i = 0; i < n; i++)
+        {
+            points[i] = new OtsPoint3d(x[i], y[i], 0.0);
+        }
+        try
+        {
+            this.shape = new OtsShape(points);
+        }
+        catch (OtsGeometryException exception)
+        {
+            throw new IllegalArgumentException("Invalid shape for trace object " + this.handle, exception);
+        }
+    }
+
+    /**
+     * Return whether the object has a shape, i.e., whether it is static or has moved at least once.
+     * @return whether the object has a shape
+     */
+    public boolean hasShape()
+    {
+        return this.shape != null;
+    }
+
+    /**
+     * Return the handle of the object in the trace.
+     * @return the handle of the object in the trace
+     */
+    public int getHandle()
+    {
+        return this.handle;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public TraceType getType()
+    {
+        return this.type;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OtsShape getShape()
+    {
+        return this.shape;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public OtsShape getShape(final Time time)
+    {
+        return this.shape;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "TraceObject [handle=" + this.handle + ", type=" + this.type.getId() + "]";
+    }
+
+}
@@ -0,0 +1,267 @@
+package org.opentrafficsim.spatialtree.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trace in the format of {@link TraceFormat} from a memory-mapped file. The file is mapped in windows, so traces
+ * larger than 2 GB can be read as well. The records are passed to a {@link TraceHandler} in the order of the file.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class TraceReader implements Closeable
+{
+    /** the default size of the mapped window. */
+    private static final int WINDOW_SIZE = 1 << 26;
+
+    /** the file channel. */
+    private final FileChannel channel;
+
+    /** the size of the file. */
+    private final long fileSize;
+
+    /** the currently mapped window. */
+    private MappedByteBuffer buffer;
+
+    /** the position of the current window in the file. */
+    private long windowStart;
+
+    /** the extent of the infrastructure: minX, minY, maxX, maxY. */
+    private final double[] extent = new double[4];
+
+    /** reusable x-coordinates of shapes. */
+    private double[] x = new double[64];
+
+    /** reusable y-coordinates of shapes. */
+    private double[] y = new double[64];
+
+    /**
+     * Open a trace file and read the header.
+     * @param file the trace file
+     * @throws IOException when the file cannot be read or is not a trace file of a supported version
+     */
+    public TraceReader(final Path file) throws IOException
+    {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
+        map(0L, 0);
+        ensure(TraceFormat.HEADER_SIZE);
+        if (this.buffer.getInt() != TraceFormat.MAGIC)
+        {
+            close();
+            throw new IOException("File " + file + " is not a trace file");
+        }
+        int version = this.buffer.getInt();
+        if (version != TraceFormat.VERSION)
+        {
+            close();
+            throw new IOException("Trace file " + file + " has version " + version + ", expected " + TraceFormat.VERSION);
+        }
+        for (int i = 0; i < 4; i++)
+        {
+            this.extent[i] = this.buffer.getDouble();
+        }
+    }
+
+    /**
+     * Map a window of the file.
+     * @param position the position in the file where the window starts
+     * @param minSize the minimum size of the window
+     * @throws IOException on read error
+     */
+    private void map(final long position, final int minSize) throws IOException
+    {
+        long size = Math.min(Math.max(WINDOW_SIZE, minSize), this.fileSize - position);
+        this.windowStart = position;
+        this.buffer = this.channel.map(MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Make sure that the given number of bytes can be read from the current window, and map a new window when needed.
+     * @param bytes the number of bytes that will be read
+     * @throws IOException on read error, or when the file ends unexpectedly
+     */
+    private void ensure(final int bytes) throws IOException
+    {
+        if (this.buffer.remaining() < bytes)
+        {
+            long position = this.windowStart + this.buffer.position();
+            if (this.fileSize - position < bytes)
+            {
+                throw new IOException("Unexpected end of trace file at position " + position);
+            }
+            map(position, bytes);
+        }
+    }
+
+    /**
+     * Read a shape into the reusable coordinate arrays.
+     * @return the number of points of the shape
+     * @throws IOException on read error
+     */
+    private int readShape() throws IOException
+    {
+        ensure(4);
+        int n = this.buffer.getInt();
+        if (n > this.x.length)
+        {
+            this.x = new double[n];
+            this.y = new double[n];
+        }
+        ensure(16 + 8 * (n - 1));
+        double x0 = this.buffer.getDouble();
+        double y0 = this.buffer.getDouble();
+        this.x[0] = x0;
+        this.y[0] = y0;
+        for (int i = 1; i < n; i++)
+        {
+            this.x[i] = x0 + this.buffer.getFloat();
+            this.y[i] = y0 + this.buffer.getFloat();
+        }
+        return n;
+    }
+
+    /**
+     * Read all records of the trace and pass them to the handler.
+     * @param handler the handler that receives the records
+     * @return the number of records that was read
+     * @throws IOException on read error or when the trace is corrupt
+     */
+    public long read(final TraceHandler handler) throws IOException
+    {
+        long records = 0;
+        while (true)
+        {
+            ensure(1);
+            byte recordType = this.buffer.get();
+            switch (recordType)
+            {
+                case TraceFormat.TYPE:
+                {
+                    ensure(12);
+                    int index = this.buffer.getInt();
+                    int parentIndex = this.buffer.getInt();
+                    int length = this.buffer.getInt();
+                    ensure(length);
+                    byte[] id = new byte[length];
+                    this.buffer.get(id);
+                    handler.type(index, new String(id, StandardCharsets.UTF_8), parentIndex);
+                    break;
+                }
+
+                case TraceFormat.STATIC:
+                {
+                    ensure(8);
+                    int handle = this.buffer.getInt();
+                    int typeIndex = this.buffer.getInt();
+                    int n = readShape();
+                    handler.staticObject(handle, typeIndex, this.x, this.y, n);
+                    break;
+                }
+
+                case TraceFormat.GTU_ADD:
+                {
+                    ensure(16);
+                    double time = this.buffer.getDouble();
+                    int handle = this.buffer.getInt();
+                    int typeIndex = this.buffer.getInt();
+                    handler.gtuAdd(time, handle, typeIndex);
+                    break;
+                }
+
+                case TraceFormat.MOVE:
+                {
+                    ensure(12);
+                    double time = this.buffer.getDouble();
+                    int handle = this.buffer.getInt();
+                    int n = readShape();
+                    handler.move(time, handle, this.x, this.y, n);
+                    break;
+                }
+
+                case TraceFormat.GTU_REMOVE:
+                {
+                    ensure(12);
+                    double time = this.buffer.getDouble();
+                    int handle = this.buffer.getInt();
+                    handler.gtuRemove(time, handle);
+                    break;
+                }
+
+                case TraceFormat.SEARCH:
+                {
+                    ensure(16);
+                    double time = this.buffer.getDouble();
+                    int typeIndex = this.buffer.getInt();
+                    int queryHandle = this.buffer.getInt();
+                    handler.search(time, typeIndex, queryHandle);
+                    break;
+                }
+
+                case TraceFormat.END:
+                    return records;
+
+                default:
+                    throw new IOException(
+                            "Unknown record type " + recordType + " at position " + (this.windowStart + this.buffer.position()));
+            }
+            records++;
+        }
+    }
+
+    /**
+     * Return the minimum x-coordinate of the infrastructure.
+     * @return the minimum x-coordinate of the infrastructure
+     */
+    public double getMinX()
+    {
+        return this.extent[0];
+    }
+
+    /**
+     * Return the minimum y-coordinate of the infrastructure.
+     * @return the minimum y-coordinate of the infrastructure
+     */
+    public double getMinY()
+    {
+        return this.extent[1];
+    }
+
+    /**
+     * Return the maximum x-coordinate of the infrastructure.
+     * @return the maximum x-coordinate of the infrastructure
+     */
+    public double getMaxX()
+    {
+        return this.extent[2];
+    }
+
+    /**
+     * Return the maximum y-coordinate of the infrastructure.
+     * @return the maximum y-coordinate of the infrastructure
+     */
+    public double getMaxY()
+    {
+        return this.extent[3];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException
+    {
+        this.buffer = null;
+        this.channel.close();
+    }
+
+}
@@ -0,0 +1,297 @@
+package org.opentrafficsim.spatialtree.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.djunits.value.vdouble.scalar.Duration;
+import org.djutils.event.Event;
+import org.djutils.event.EventListener;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.core.gtu.Gtu;
+import org.opentrafficsim.core.gtu.GtuType;
+import org.opentrafficsim.core.network.Link;
+import org.opentrafficsim.road.network.RoadNetwork;
+import org.opentrafficsim.road.network.lane.CrossSectionLink;
+import org.opentrafficsim.road.network.lane.Lane;
+
+/**
+ * Records the spatial tree operations of a simulation in the binary trace format of {@link TraceFormat}. The recorder listens
+ * to the same events as ShortMergePrintTree: the lanes are recorded as static objects, GTUs are recorded when they are added,
+ * when they move and when they are removed, and every search interval a search for GTUs of the search type is recorded for
+ * every lane.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class TraceRecorder implements EventListener, Closeable
+{
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    /** the network. */
+    private final RoadNetwork network;
+
+    /** the output stream. */
+    private final DataOutputStream out;
+
+    /** the type to search for. */
+    private final GtuType searchType;
+
+    /** the time between two searches. */
+    private final Duration searchInterval;
+
+    /** the indexes of the types that have been written. */
+    private final Map<HierarchicalType<?, ?>, Integer> typeMap = new LinkedHashMap<>();
+
+    /** the handles of the lanes. */
+    private final Map<Lane, Integer> laneMap = new LinkedHashMap<>();
+
+    /** the handles of the GTUs, by id. */
+    private final Map<String, Integer> gtuMap = new LinkedHashMap<>();
+
+    /** the next handle. */
+    private int nextHandle = 0;
+
+    /** whether the recorder has been closed. */
+    private boolean closed = false;
+
+    /**
+     * Create a recorder that writes the header and the infrastructure of the network, and starts listening to the GTUs. The
+     * first search is scheduled after one search interval.
+     * @param network the network, with all infrastructure constructed
+     * @param file the file to write the trace to
+     * @param searchType the type to search for
+     * @param searchInterval the time between two searches
+     * @throws IOException when the file cannot be written
+     */
+    public TraceRecorder(final RoadNetwork network, final Path file, final GtuType searchType, final Duration searchInterval)
+            throws IOException
+    {
+        this.network = network;
+        this.searchType = searchType;
+        this.searchInterval = searchInterval;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        List<Lane> lanes = new ArrayList<>();
+        for (Link link : this.network.getLinkMap().values())
+        {
+            if (link instanceof CrossSectionLink)
+            {
+                lanes.addAll(((CrossSectionLink) link).getLanes());
+            }
+        }
+        writeHeader(lanes);
+        for (Lane lane : lanes)
+        {
+            int typeIndex = writeType(lane.getType());
+            int handle = this.nextHandle++;
+            this.laneMap.put(lane, handle);
+            this.out.writeByte(TraceFormat.STATIC);
+            this.out.writeInt(handle);
+            this.out.writeInt(typeIndex);
+            writeShape(lane.getShape());
+        }
+        this.network.addListener(this, RoadNetwork.GTU_ADD_EVENT);
+        this.network.addListener(this, RoadNetwork.GTU_REMOVE_EVENT);
+        this.network.getSimulator().scheduleEventRel(searchInterval, this, this, "search", new Object[] {});
+    }
+
+    /**
+     * Write the header with the extent of the lanes.
+     * @param lanes the lanes
+     * @throws IOException on write error
+     */
+    private void writeHeader(final List<Lane> lanes) throws IOException
+    {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (Lane lane : lanes)
+        {
+            Bounds bb = lane.getShape().getEnvelope();
+            minX = Math.min(minX, bb.getMinX());
+            minY = Math.min(minY, bb.getMinY());
+            maxX = Math.max(maxX, bb.getMaxX());
+            maxY = Math.max(maxY, bb.getMaxY());
+        }
+        if (lanes.isEmpty())
+        {
+            minX = 0.0;
+            minY = 0.0;
+            maxX = 0.0;
+            maxY = 0.0;
+        }
+        this.out.writeInt(TraceFormat.MAGIC);
+        this.out.writeInt(TraceFormat.VERSION);
+        this.out.writeDouble(minX);
+        this.out.writeDouble(minY);
+        this.out.writeDouble(maxX);
+        this.out.writeDouble(maxY);
+    }
+
+    /**
+     * Write the type and its parents when they have not been written before, and return the index of the type.
+     * @param type the type
+     * @return the index of the type
+     * @throws IOException on write error
+     */
+    private int writeType(final HierarchicalType<?, ?> type) throws IOException
+    {
+        Integer index = this.typeMap.get(type);
+        if (index == null)
+        {
+            int parentIndex = type.getParent() == null ? -1 : writeType(type.getParent());
+            index = this.typeMap.size();
+            this.typeMap.put(type, index);
+            byte[] id = type.getId().getBytes(StandardCharsets.UTF_8);
+            this.out.writeByte(TraceFormat.TYPE);
+            this.out.writeInt(index);
+            this.out.writeInt(parentIndex);
+            this.out.writeInt(id.length);
+            this.out.write(id);
+        }
+        return index;
+    }
+
+    /**
+     * Write a shape, with the coordinates of the points relative to the first point.
+     * @param shape the shape
+     * @throws IOException on write error
+     */
+    private void writeShape(final OtsShape shape) throws IOException
+    {
+        OtsPoint3d[] points = shape.getPoints();
+        this.out.writeInt(points.length);
+        double x0 = points[0].x;
+        double y0 = points[0].y;
+        this.out.writeDouble(x0);
+        this.out.writeDouble(y0);
+        for (int i = 1; i < points.length; i++)
+        {
+            this.out.writeFloat((float) (points[i].x - x0));
+            this.out.writeFloat((float) (points[i].y - y0));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void notify(final Event event) throws RemoteException
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        try
+        {
+            double time = this.network.getSimulator().getSimulatorAbsTime().si;
+            if (event.getType().equals(RoadNetwork.GTU_ADD_EVENT))
+            {
+                String gtuId = event.getContent().toString();
+                Gtu gtu = this.network.getGTU(gtuId);
+                int typeIndex = writeType(gtu.getType());
+                int handle = this.nextHandle++;
+                this.gtuMap.put(gtuId, handle);
+                this.out.writeByte(TraceFormat.GTU_ADD);
+                this.out.writeDouble(time);
+                this.out.writeInt(handle);
+                this.out.writeInt(typeIndex);
+                gtu.addListener(this, Gtu.MOVE_EVENT);
+            }
+            else if (event.getType().equals(RoadNetwork.GTU_REMOVE_EVENT))
+            {
+                String gtuId = event.getContent().toString();
+                Gtu gtu = this.network.getGTU(gtuId);
+                gtu.removeListener(this, Gtu.MOVE_EVENT);
+                Integer handle = this.gtuMap.remove(gtuId);
+                if (handle != null)
+                {
+                    this.out.writeByte(TraceFormat.GTU_REMOVE);
+                    this.out.writeDouble(time);
+                    this.out.writeInt(handle);
+                }
+            }
+            else if (event.getType().equals(Gtu.MOVE_EVENT))
+            {
+                Object[] contentArray = (Object[]) event.getContent();
+                String gtuId = contentArray[0].toString();
+                Integer handle = this.gtuMap.get(gtuId);
+                if (handle != null)
+                {
+                    Gtu gtu = this.network.getGTU(gtuId);
+                    this.out.writeByte(TraceFormat.MOVE);
+                    this.out.writeDouble(time);
+                    this.out.writeInt(handle);
+                    writeShape(gtu.getShape());
+                }
+            }
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Record a search for the search type on every lane, and schedule the next search.
+     */
+    protected void search()
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        try
+        {
+            double time = this.network.getSimulator().getSimulatorAbsTime().si;
+            int typeIndex = writeType(this.searchType);
+            for (int handle : this.laneMap.values())
+            {
+                this.out.writeByte(TraceFormat.SEARCH);
+                this.out.writeDouble(time);
+                this.out.writeInt(typeIndex);
+                this.out.writeInt(handle);
+            }
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+        this.network.getSimulator().scheduleEventRel(this.searchInterval, this, this, "search", new Object[] {});
+    }
+
+    /**
+     * Write the end of the trace and close the file. Events that arrive after closing are ignored.
+     * @throws IOException on write error
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (!this.closed)
+        {
+            this.closed = true;
+            this.network.removeListener(this, RoadNetwork.GTU_ADD_EVENT);
+            this.network.removeListener(this, RoadNetwork.GTU_REMOVE_EVENT);
+            this.out.writeByte(TraceFormat.END);
+            this.out.close();
+        }
+    }
+
+}
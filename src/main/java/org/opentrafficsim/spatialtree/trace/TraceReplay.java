@@ -0,0 +1,251 @@
+package org.opentrafficsim.spatialtree.trace;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.opentrafficsim.spatialtree.SpatialTree;
+
+/**
+ * Replays a recorded trace into a spatial tree at full speed, without a simulator. The replay mirrors ShortMergePrintTree: a
+ * move updates the GTU in the tree with its new shape, and a search looks for the objects of the search
+ * type that overlap with the shape of a lane. The time spent in the tree is measured separately from the time to decode the
+ * trace, and a checksum over all search results makes it easy to verify that different implementations give the same answers.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class TraceReplay implements TraceHandler
+{
+    /** the tree to replay the trace into. */
+    private final SpatialTree tree;
+
+    /** the types, by index. */
+    private final List<TraceType> types = new ArrayList<>();
+
+    /** the objects, by handle. */
+    private final List<TraceObject> objects = new ArrayList<>();
+
+    /** the number of static objects. */
+    private long staticCount = 0;
+
+    /** the number of moves. */
+    private long moveCount = 0;
+
+    /** the number of removed GTUs. */
+    private long removeCount = 0;
+
+    /** the list for the results of a search, reused for every search. */
+    private final List<TraceObject> result = new ArrayList<>();
+
+    /** the number of searches. */
+    private long searchCount = 0;
+
+    /** the total number of search results. */
+    private long resultCount = 0;
+
+    /** order-independent checksum of the search results. */
+    private long checksum = 0;
+
+    /** the time spent in the tree, in ns. */
+    private long treeNanos = 0;
+
+    /**
+     * Create a replay into the given tree.
+     * @param tree the tree to replay the trace into
+     */
+    public TraceReplay(final SpatialTree tree)
+    {
+        this.tree = tree;
+    }
+
+    /**
+     * Replay a trace file into a tree.
+     * @param file the trace file
+     * @param tree the tree to replay the trace into
+     * @return the replay, with the statistics of the replay
+     * @throws IOException when the trace cannot be read
+     */
+    public static TraceReplay replay(final Path file, final SpatialTree tree) throws IOException
+    {
+        TraceReplay replay = new TraceReplay(tree);
+        try (TraceReader reader = new TraceReader(file))
+        {
+            reader.read(replay);
+        }
+        return replay;
+    }
+
+    /**
+     * Replay a trace file into a new tree, created for the extent in the header of the trace.
+     * @param file the trace file
+     * @param treeFactory creates the tree to replay the trace into from the extent of the infrastructure
+     * @return the replay, with the statistics of the replay
+     * @throws IOException when the trace cannot be read
+     */
+    public static TraceReplay replay(final Path file, final Function<Rectangle2D, ? extends SpatialTree> treeFactory)
+            throws IOException
+    {
+        try (TraceReader reader = new TraceReader(file))
+        {
+            Rectangle2D extent = new Rectangle2D.Double(reader.getMinX(), reader.getMinY(),
+                    reader.getMaxX() - reader.getMinX(), reader.getMaxY() - reader.getMinY());
+            TraceReplay replay = new TraceReplay(treeFactory.apply(extent));
+            reader.read(replay);
+            return replay;
+        }
+    }
+
+    /**
+     * Store an object at its handle.
+     * @param object the object
+     */
+    private void setObject(final TraceObject object)
+    {
+        while (this.objects.size() <= object.getHandle())
+        {
+            this.objects.add(null);
+        }
+        this.objects.set(object.getHandle(), object);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void type(final int index, final String id, final int parentIndex)
+    {
+        TraceType type = parentIndex < 0 ? new TraceType(id) : new TraceType(id, this.types.get(parentIndex));
+        while (this.types.size() <= index)
+        {
+            this.types.add(null);
+        }
+        this.types.set(index, type);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void staticObject(final int handle, final int typeIndex, final double[] x, final double[] y, final int n)
+    {
+        TraceObject object = new TraceObject(handle, this.types.get(typeIndex));
+        object.setShape(x, y, n);
+        setObject(object);
+        long t0 = System.nanoTime();
+        this.tree.add(object);
+        this.treeNanos += System.nanoTime() - t0;
+        this.staticCount++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gtuAdd(final double time, final int handle, final int typeIndex)
+    {
+        setObject(new TraceObject(handle, this.types.get(typeIndex)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void move(final double time, final int handle, final double[] x, final double[] y, final int n)
+    {
+        TraceObject object = this.objects.get(handle);
+        object.setShape(x, y, n);
+        long t0 = System.nanoTime();
+        this.tree.update(object);
+        this.treeNanos += System.nanoTime() - t0;
+        this.moveCount++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gtuRemove(final double time, final int handle)
+    {
+        TraceObject object = this.objects.get(handle);
+        if (object.hasShape())
+        {
+            long t0 = System.nanoTime();
+            this.tree.remove(object);
+            this.treeNanos += System.nanoTime() - t0;
+        }
+        this.objects.set(handle, null);
+        this.removeCount++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void search(final double time, final int typeIndex, final int queryHandle)
+    {
+        TraceType type = this.types.get(typeIndex);
+        TraceObject query = this.objects.get(queryHandle);
+        long t0 = System.nanoTime();
+        this.result.clear();
+        this.tree.find(type, query.getShape(), TraceObject.class, Time.instantiateSI(time), this.result);
+        this.treeNanos += System.nanoTime() - t0;
+        this.searchCount++;
+        this.resultCount += this.result.size();
+        for (TraceObject object : this.result)
+        {
+            this.checksum += 31L * object.getHandle() + queryHandle;
+        }
+    }
+
+    /**
+     * Return the time spent in the tree, in ns.
+     * @return the time spent in the tree, in ns
+     */
+    public long getTreeNanos()
+    {
+        return this.treeNanos;
+    }
+
+    /**
+     * Return the number of moves.
+     * @return the number of moves
+     */
+    public long getMoveCount()
+    {
+        return this.moveCount;
+    }
+
+    /**
+     * Return the number of searches.
+     * @return the number of searches
+     */
+    public long getSearchCount()
+    {
+        return this.searchCount;
+    }
+
+    /**
+     * Return the total number of search results.
+     * @return the total number of search results
+     */
+    public long getResultCount()
+    {
+        return this.resultCount;
+    }
+
+    /**
+     * Return an order-independent checksum of the search results; equal for implementations that give the same answers.
+     * @return an order-independent checksum of the search results
+     */
+    public long getChecksum()
+    {
+        return this.checksum;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "TraceReplay [static=" + this.staticCount + ", moves=" + this.moveCount + ", removes=" + this.removeCount
+                + ", searches=" + this.searchCount + ", results=" + this.resultCount + ", checksum=" + this.checksum
+                + ", treeTime=" + (this.treeNanos / 1000000L) + " ms]";
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.opentrafficsim.spatialtree.trace;
+
+import org.opentrafficsim.base.HierarchicalType;
+
+/**
+ * Type of an object in a replayed trace, reconstructed from the type records of the trace so that the type hierarchy of the
+ * recorded simulation (e.g., CAR is a VEHICLE) is preserved.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class TraceType extends HierarchicalType<TraceType, TraceObject>
+{
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a root type.
+     * @param id the id of the type
+     */
+    public TraceType(final String id)
+    {
+        super(id);
+    }
+
+    /**
+     * Create a sub type.
+     * @param id the id of the type
+     * @param parent the parent type
+     */
+    public TraceType(final String id, final TraceType parent)
+    {
+        super(id, parent);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "TraceType [id=" + getId() + "]";
+    }
+
+}
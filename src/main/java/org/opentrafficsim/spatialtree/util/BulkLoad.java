@@ -0,0 +1,181 @@
+package org.opentrafficsim.spatialtree.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+
+/**
+ * Orderings for loading many objects into a spatial index at once. The Hilbert order sorts objects along a Hilbert curve through
+ * the centers of their bounding boxes, so that objects that are inserted one after the other are close to each other; indexes
+ * that can only insert objects one by one fill their nodes with nearby objects in this order. The sort-tile-recursive (STR)
+ * order groups items into full nodes of nearby items, for indexes that build their nodes directly.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class BulkLoad
+{
+    /** the number of bits per coordinate of the Hilbert curve; the curve has 2^HILBERT_BITS x 2^HILBERT_BITS cells. */
+    public static final int HILBERT_BITS = 16;
+
+    /**
+     * Utility class.
+     */
+    private BulkLoad()
+    {
+        // utility class
+    }
+
+    /**
+     * Return the objects in the order of a Hilbert curve through the centers of their bounding boxes, over the extent of the
+     * centers.
+     * @param <I> the spatial object type
+     * @param objects the objects
+     * @return a new list with the objects in Hilbert order
+     */
+    public static <I extends SpatialObject> List<I> hilbertSorted(final Collection<? extends I> objects)
+    {
+        List<I> list = new ArrayList<>(objects);
+        int n = list.size();
+        double[] cx = new double[n];
+        double[] cy = new double[n];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++)
+        {
+            Bounds bb = list.get(i).getShape().getEnvelope();
+            cx[i] = 0.5 * (bb.getMinX() + bb.getMaxX());
+            cy[i] = 0.5 * (bb.getMinY() + bb.getMaxY());
+            minX = Math.min(minX, cx[i]);
+            minY = Math.min(minY, cy[i]);
+            maxX = Math.max(maxX, cx[i]);
+            maxY = Math.max(maxY, cy[i]);
+        }
+        int cells = 1 << HILBERT_BITS;
+        double scaleX = maxX > minX ? (cells - 1) / (maxX - minX) : 0.0;
+        double scaleY = maxY > minY ? (cells - 1) / (maxY - minY) : 0.0;
+        // the Hilbert index (2 * HILBERT_BITS bits) in the high bits and the position in the list in the low 31 bits
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            int x = (int) ((cx[i] - minX) * scaleX);
+            int y = (int) ((cy[i] - minY) * scaleY);
+            keys[i] = hilbertIndex(x, y) << 31 | i;
+        }
+        Arrays.sort(keys);
+        List<I> sorted = new ArrayList<>(n);
+        for (long key : keys)
+        {
+            sorted.add(list.get((int) (key & Integer.MAX_VALUE)));
+        }
+        return sorted;
+    }
+
+    /**
+     * Return the index of a cell on the Hilbert curve through 2^HILBERT_BITS x 2^HILBERT_BITS cells.
+     * @param cellX the x index of the cell
+     * @param cellY the y index of the cell
+     * @return the index of the cell on the Hilbert curve
+     */
+    public static long hilbertIndex(final int cellX, final int cellY)
+    {
+        int mask = (1 << HILBERT_BITS) - 1;
+        int x = cellX;
+        int y = cellY;
+        long index = 0L;
+        for (int s = 1 << (HILBERT_BITS - 1); s > 0; s >>= 1)
+        {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0)
+            {
+                if (rx == 1)
+                {
+                    x = mask - x;
+                    y = mask - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Sort items (entry handles or node indexes) in sort-tile-recursive order, and divide them into groups of at most capacity
+     * items. The items are sorted on the x of the centers of their boxes, and cut into vertical slices of about the same size;
+     * the items of a slice are sorted on the y of their centers and cut into groups of about the same size. The number of
+     * slices is the square root of the number of groups, so that the groups are about square.
+     * @param items the items; sorted in place
+     * @param n the number of items
+     * @param boxes the boxes of the items, as minX, minY, maxX, maxY at 4 * item
+     * @param capacity the maximum number of items of a group
+     * @return the start of every group in the items array, followed by n
+     */
+    public static int[] strGroups(final int[] items, final int n, final double[] boxes, final int capacity)
+    {
+        int groups = (n + capacity - 1) / capacity;
+        int slices = (int) Math.ceil(Math.sqrt(groups));
+        sortByCenter(items, 0, n, boxes, 0);
+        int[] starts = new int[groups + slices + 1];
+        int count = 0;
+        for (int s = 0; s < slices; s++)
+        {
+            int from = (int) ((long) n * s / slices);
+            int to = (int) ((long) n * (s + 1) / slices);
+            sortByCenter(items, from, to, boxes, 1);
+            int sliceGroups = (to - from + capacity - 1) / capacity;
+            for (int g = 0; g < sliceGroups; g++)
+            {
+                starts[count++] = from + (int) ((long) (to - from) * g / sliceGroups);
+            }
+        }
+        starts[count++] = n;
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Sort a range of items on the center of their boxes along one axis.
+     * @param items the items
+     * @param from the first index of the range
+     * @param to the index after the range
+     * @param boxes the boxes of the items, as minX, minY, maxX, maxY at 4 * item
+     * @param axis 0 for x, 1 for y
+     */
+    private static void sortByCenter(final int[] items, final int from, final int to, final double[] boxes, final int axis)
+    {
+        Integer[] range = new Integer[to - from];
+        for (int i = from; i < to; i++)
+        {
+            range[i - from] = items[i];
+        }
+        Arrays.sort(range, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(final Integer item1, final Integer item2)
+            {
+                int b1 = 4 * item1 + axis;
+                int b2 = 4 * item2 + axis;
+                return Double.compare(boxes[b1] + boxes[b1 + 2], boxes[b2] + boxes[b2 + 2]);
+            }
+        });
+        for (int i = from; i < to; i++)
+        {
+            items[i] = range[i - from];
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+package org.opentrafficsim.spatialtree.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from objects, compared by identity, to non-negative int values. The map uses open addressing with linear probing in two
+ * parallel arrays, so get, put and remove do not create any objects (no boxing and no entry objects). Only growing the arrays
+ * allocates memory.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public class IdentityIntMap
+{
+    /** value that is returned for absent keys. */
+    public static final int ABSENT = -1;
+
+    /** the keys; null for an empty slot. */
+    private Object[] keys;
+
+    /** the values. */
+    private int[] values;
+
+    /** the number of keys in the map. */
+    private int size = 0;
+
+    /** bit mask for the slot index; the length of the arrays minus 1. */
+    private int mask;
+
+    /**
+     * Create an empty map.
+     */
+    public IdentityIntMap()
+    {
+        this(16);
+    }
+
+    /**
+     * Create an empty map with room for the given number of keys before it has to grow.
+     * @param expectedSize the expected number of keys
+     */
+    public IdentityIntMap(final int expectedSize)
+    {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        this.keys = new Object[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Return the home slot of a key.
+     * @param key the key
+     * @return the home slot of the key
+     */
+    private int slot(final Object key)
+    {
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    /**
+     * Return the value for a key.
+     * @param key the key
+     * @return the value for the key, or {@link #ABSENT} when the key is not in the map
+     */
+    public int get(final Object key)
+    {
+        int i = slot(key);
+        Object k;
+        while ((k = this.keys[i]) != null)
+        {
+            if (k == key)
+            {
+                return this.values[i];
+            }
+            i = (i + 1) & this.mask;
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Store the value for a key.
+     * @param key the key, not null
+     * @param value the value, not negative
+     * @return the previous value for the key, or {@link #ABSENT} when the key was not in the map
+     */
+    public int put(final Object key, final int value)
+    {
+        int i = slot(key);
+        Object k;
+        while ((k = this.keys[i]) != null)
+        {
+            if (k == key)
+            {
+                int old = this.values[i];
+                this.values[i] = value;
+                return old;
+            }
+            i = (i + 1) & this.mask;
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        if (++this.size > (this.mask >> 1))
+        {
+            grow();
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Remove a key. The slots after the removed key are shifted back, so no tombstones are needed.
+     * @param key the key
+     * @return the value for the key, or {@link #ABSENT} when the key was not in the map
+     */
+    public int remove(final Object key)
+    {
+        int i = slot(key);
+        Object k;
+        while ((k = this.keys[i]) != null)
+        {
+            if (k == key)
+            {
+                int old = this.values[i];
+                shiftBack(i);
+                this.size--;
+                return old;
+            }
+            i = (i + 1) & this.mask;
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Fill the gap at a removed slot by moving back the keys further along the probe sequence.
+     * @param removed the slot of the removed key
+     */
+    private void shiftBack(final int removed)
+    {
+        int gap = removed;
+        int i = removed;
+        while (true)
+        {
+            i = (i + 1) & this.mask;
+            Object k = this.keys[i];
+            if (k == null)
+            {
+                break;
+            }
+            int home = slot(k);
+            // move the key into the gap when its home slot is not in the cyclic interval (gap, i]
+            if (((i - home) & this.mask) >= ((i - gap) & this.mask))
+            {
+                this.keys[gap] = k;
+                this.values[gap] = this.values[i];
+                gap = i;
+            }
+        }
+        this.keys[gap] = null;
+    }
+
+    /**
+     * Double the capacity of the map.
+     */
+    private void grow()
+    {
+        Object[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        int capacity = oldKeys.length * 2;
+        this.keys = new Object[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++)
+        {
+            Object k = oldKeys[j];
+            if (k != null)
+            {
+                int i = slot(k);
+                while (this.keys[i] != null)
+                {
+                    i = (i + 1) & this.mask;
+                }
+                this.keys[i] = k;
+                this.values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Return the number of keys in the map.
+     * @return the number of keys in the map
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Remove all keys from the map.
+     */
+    public void clear()
+    {
+        Arrays.fill(this.keys, null);
+        this.size = 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "IdentityIntMap [size=" + this.size + "]";
+    }
+
+}
@@ -0,0 +1,212 @@
+package org.opentrafficsim.spatialtree.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.spatialtree.SpatialObjectIdentifier;
+
+/**
+ * Binary format of the index files to which a tree with static objects, such as the lanes of a network, can be saved, so that
+ * later runs and replications load the index instead of building it. All values are big-endian. The file starts with a header:
+ * <ul>
+ * <li><code>int</code> magic number {@link #MAGIC}</li>
+ * <li><code>int</code> format version {@link #VERSION}</li>
+ * <li><code>byte</code> the kind of tree: {@link #NATIVE}</li>
+ * </ul>
+ * followed by the object table: an <code>int</code> number of objects, the id of each object as modified UTF-8 (see
+ * {@link DataOutputStream#writeUTF(String)}), and a <code>long</code> checksum of the bounding boxes of the objects (see
+ * {@link #checksum(SpatialObject[])}). The rest of the file is written by the tree, and refers to the objects by their index
+ * in the table. On load, the ids are mapped back to the objects of the network that is built in the run, e.g., with
+ * {@link #objectsById(Collection, SpatialObjectIdentifier)}. A file of which an id is not in the network cannot be loaded,
+ * and neither can a file of which the checksum differs from that of the bounding boxes of the objects of the network, e.g.,
+ * when the geometry of a lane with the same id changed since the file was saved; the stored boxes would then be stale.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class IndexFile
+{
+    /** magic number at the start of an index file: "OTSI". */
+    public static final int MAGIC = 0x4F545349;
+
+    /** version of the index format. */
+    public static final int VERSION = 2;
+
+    /** kind of tree: SpatialTreeNative. */
+    public static final byte NATIVE = 1;
+
+    /**
+     * Do not create instance.
+     */
+    private IndexFile()
+    {
+        //
+    }
+
+    /**
+     * Create or overwrite an index file, and write the header.
+     * @param file the file
+     * @param kind the kind of tree
+     * @return the stream to write the rest of the file to, which the caller should close
+     * @throws IOException when the file cannot be written
+     */
+    public static DataOutputStream create(final Path file, final byte kind) throws IOException
+    {
+        Throw.whenNull(file, "file cannot be null");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeByte(kind);
+        return out;
+    }
+
+    /**
+     * Open an index file, and check the header.
+     * @param file the file
+     * @param kind the kind of tree that the file should contain
+     * @return the stream to read the rest of the file from, which the caller should close
+     * @throws IOException when the file cannot be read, or is not an index file of the supported version and the given kind
+     */
+    public static DataInputStream open(final Path file, final byte kind) throws IOException
+    {
+        Throw.whenNull(file, "file cannot be null");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        try
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException("File " + file + " is not an index file");
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Index file " + file + " has version " + version + ", expected " + VERSION);
+            }
+            byte fileKind = in.readByte();
+            if (fileKind != kind)
+            {
+                throw new IOException("Index file " + file + " contains a tree of kind " + fileKind + ", expected " + kind);
+            }
+            return in;
+        }
+        catch (IOException exception)
+        {
+            in.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Write the object table, with the checksum of the bounding boxes of the objects.
+     * @param out the stream of the index file, after the header
+     * @param objects the objects, in the order of their index
+     * @param identifier the identifier of the objects
+     * @throws IOException on write error
+     * @throws IllegalArgumentException when two objects have the same id
+     */
+    public static void writeObjects(final DataOutputStream out, final List<? extends SpatialObject> objects,
+            final SpatialObjectIdentifier identifier) throws IOException
+    {
+        Throw.whenNull(identifier, "identifier cannot be null");
+        Set<String> ids = new HashSet<>();
+        out.writeInt(objects.size());
+        for (SpatialObject object : objects)
+        {
+            String id = identifier.getId(object);
+            Throw.when(!ids.add(id), IllegalArgumentException.class, "id %s is not unique", id);
+            out.writeUTF(id);
+        }
+        out.writeLong(checksum(objects.toArray(new SpatialObject[objects.size()])));
+    }
+
+    /**
+     * Read the object table, map the ids to the objects of the network, and check the bounding boxes of these objects against
+     * the checksum of the file.
+     * @param in the stream of the index file, after the header
+     * @param objects the objects of the network by their id
+     * @return the objects, in the order of their index
+     * @throws IOException on read error, when an id is not in the network, or when the bounding boxes of the objects differ
+     *             from those of the objects that were saved
+     */
+    public static SpatialObject[] readObjects(final DataInputStream in, final Map<String, ? extends SpatialObject> objects)
+            throws IOException
+    {
+        Throw.whenNull(objects, "objects cannot be null");
+        SpatialObject[] table = new SpatialObject[in.readInt()];
+        for (int i = 0; i < table.length; i++)
+        {
+            String id = in.readUTF();
+            table[i] = objects.get(id);
+            if (table[i] == null)
+            {
+                throw new IOException("Object " + id + " of the index file is not in the network");
+            }
+        }
+        if (in.readLong() != checksum(table))
+        {
+            throw new IOException("The bounding boxes of the objects of the network differ from those in the index file");
+        }
+        return table;
+    }
+
+    /**
+     * Return a checksum of the bounding boxes of the objects, in their order. The checksum combines the bits of the four
+     * values of each box, so any change of a box, or of the order of the objects, changes the checksum (up to the odd
+     * collision). The bounding boxes are computed from the shapes of the objects.
+     * @param objects the objects
+     * @return the checksum of the bounding boxes of the objects
+     */
+    public static long checksum(final SpatialObject[] objects)
+    {
+        long checksum = objects.length;
+        for (SpatialObject object : objects)
+        {
+            Bounds bb = object.getShape().getEnvelope();
+            checksum = 31 * checksum + Double.doubleToLongBits(bb.getMinX());
+            checksum = 31 * checksum + Double.doubleToLongBits(bb.getMinY());
+            checksum = 31 * checksum + Double.doubleToLongBits(bb.getMaxX());
+            checksum = 31 * checksum + Double.doubleToLongBits(bb.getMaxY());
+        }
+        return checksum;
+    }
+
+    /**
+     * Map objects to their id, to load an index file.
+     * @param objects the objects, e.g., the lanes of a network
+     * @param identifier the identifier of the objects
+     * @return the objects by their id
+     * @throws IllegalArgumentException when two objects have the same id
+     */
+    public static Map<String, SpatialObject> objectsById(final Collection<? extends SpatialObject> objects,
+            final SpatialObjectIdentifier identifier)
+    {
+        Throw.whenNull(objects, "objects cannot be null");
+        Throw.whenNull(identifier, "identifier cannot be null");
+        Map<String, SpatialObject> map = new HashMap<>(2 * objects.size());
+        for (SpatialObject object : objects)
+        {
+            String id = identifier.getId(object);
+            Throw.when(map.put(id, object) != null, IllegalArgumentException.class, "id %s is not unique", id);
+        }
+        return map;
+    }
+
+}
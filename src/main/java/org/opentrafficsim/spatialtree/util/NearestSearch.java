@@ -0,0 +1,377 @@
+package org.opentrafficsim.spatialtree.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.OtsGeometryException;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialTree;
+
+/**
+ * Reusable state of a k-nearest-neighbour search: the arguments of the search, a priority queue of int items ordered by
+ * distance, and the result. A tree-based index keeps one search, and starts and finishes it for every query, so a best-first
+ * traversal of the tree does not allocate. What an item means is up to the index, e.g., a node index or an entry handle; its
+ * distance is a lower bound for the objects under a node or in a bounding box, and the exact distance for an object. Items of
+ * which the distance exceeds the maximum distance of the search are not queued. Like a {@link SpatialFilter}, a search serves
+ * one query at a time.
+ * <p>
+ * The distance of an object is the smallest 2D distance between the search point and the shape of the object, which is 0 when
+ * the point lies within the shape.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class NearestSearch
+{
+    /** the radius of the first box of a search by expanding boxes. */
+    public static final double INITIAL_RADIUS = 16.0;
+
+    /** the radius beyond which a search by expanding boxes without maximum distance stops growing its box. */
+    public static final double MAX_RADIUS = 1.0E7;
+
+    /** the type we are looking for; null for all types. */
+    private HierarchicalType<?, ?> type;
+
+    /** the class we are looking for. */
+    private Class<?> searchClass;
+
+    /** x of the search point. */
+    private double x;
+
+    /** y of the search point. */
+    private double y;
+
+    /** the number of objects we are looking for. */
+    private int k;
+
+    /** the maximum distance of the objects. */
+    private double maxDistance;
+
+    /** the collection to which the objects are added. */
+    private Collection<Object> result;
+
+    /** whether a search is running. */
+    private boolean active = false;
+
+    /** the number of objects that were found. */
+    private int count;
+
+    /** the distances of the queued items, as a binary min-heap. */
+    private double[] distances = new double[64];
+
+    /** the queued items, in the same order as the distances. */
+    private int[] items = new int[64];
+
+    /** the number of queued items. */
+    private int queueSize = 0;
+
+    /**
+     * Start a search.
+     * @param <I> the spatial object type we are looking for
+     * @param searchType the type we are looking for (subtypes also qualify); null for all types
+     * @param point the search point
+     * @param searchClassOfI the class we are looking for (subclasses also qualify)
+     * @param searchK the number of objects we are looking for
+     * @param searchMaxDistance the maximum distance of the objects
+     * @param searchResult the collection to which the objects are added, nearest first
+     * @return this search
+     * @throws IllegalStateException when a search is already running
+     */
+    @SuppressWarnings("unchecked")
+    public <I> NearestSearch start(final HierarchicalType<?, ?> searchType, final OtsPoint3d point,
+            final Class<I> searchClassOfI, final int searchK, final double searchMaxDistance,
+            final Collection<? super I> searchResult)
+    {
+        if (this.active)
+        {
+            throw new IllegalStateException("A spatial tree cannot be searched from within a search of the same tree");
+        }
+        this.active = true;
+        this.type = searchType;
+        this.x = point.x;
+        this.y = point.y;
+        this.searchClass = searchClassOfI;
+        this.k = searchK;
+        this.maxDistance = searchMaxDistance;
+        this.result = (Collection<Object>) searchResult;
+        this.count = 0;
+        this.queueSize = 0;
+        return this;
+    }
+
+    /**
+     * Return whether a candidate has the right class and type.
+     * @param candidate the candidate, a SpatialObject
+     * @return whether the candidate has the right class and type
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public boolean accepts(final Object candidate)
+    {
+        return this.searchClass.isAssignableFrom(candidate.getClass())
+                && (this.type == null || ((HierarchicallyTyped) candidate).isOfType((HierarchicalType) this.type));
+    }
+
+    /**
+     * Return the distance between the search point and the shape of an object.
+     * @param object the object, a SpatialObject
+     * @return the distance between the search point and the shape of the object
+     */
+    public double distance(final Object object)
+    {
+        return distance(((SpatialObject) object).getShape(), this.x, this.y);
+    }
+
+    /**
+     * Return the distance between the search point and a bounding box; a lower bound for the distance of everything in the box.
+     * @param minX minimum x of the box
+     * @param minY minimum y of the box
+     * @param maxX maximum x of the box
+     * @param maxY maximum y of the box
+     * @return the distance between the search point and the box
+     */
+    public double boxDistance(final double minX, final double minY, final double maxX, final double maxY)
+    {
+        double dx = this.x < minX ? minX - this.x : (this.x > maxX ? this.x - maxX : 0.0);
+        double dy = this.y < minY ? minY - this.y : (this.y > maxY ? this.y - maxY : 0.0);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Queue an item, unless its distance exceeds the maximum distance.
+     * @param distance the distance of the item
+     * @param item the item
+     */
+    public void push(final double distance, final int item)
+    {
+        if (distance > this.maxDistance)
+        {
+            return;
+        }
+        if (this.queueSize == this.items.length)
+        {
+            this.distances = Arrays.copyOf(this.distances, 2 * this.queueSize);
+            this.items = Arrays.copyOf(this.items, 2 * this.queueSize);
+        }
+        int i = this.queueSize++;
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (this.distances[parent] <= distance)
+            {
+                break;
+            }
+            this.distances[i] = this.distances[parent];
+            this.items[i] = this.items[parent];
+            i = parent;
+        }
+        this.distances[i] = distance;
+        this.items[i] = item;
+    }
+
+    /**
+     * Return whether the queue is empty.
+     * @return whether the queue is empty
+     */
+    public boolean isEmpty()
+    {
+        return this.queueSize == 0;
+    }
+
+    /**
+     * Remove the item with the smallest distance from the queue.
+     * @return the item with the smallest distance
+     */
+    public int pop()
+    {
+        int top = this.items[0];
+        int n = --this.queueSize;
+        double distance = this.distances[n];
+        int item = this.items[n];
+        int i = 0;
+        int child = 1;
+        while (child < n)
+        {
+            if (child + 1 < n && this.distances[child + 1] < this.distances[child])
+            {
+                child++;
+            }
+            if (distance <= this.distances[child])
+            {
+                break;
+            }
+            this.distances[i] = this.distances[child];
+            this.items[i] = this.items[child];
+            i = child;
+            child = 2 * i + 1;
+        }
+        this.distances[i] = distance;
+        this.items[i] = item;
+        return top;
+    }
+
+    /**
+     * Add the next nearest object to the result.
+     * @param object the object
+     * @return whether the search should continue, i.e., fewer than k objects have been found
+     */
+    public boolean add(final Object object)
+    {
+        this.result.add(object);
+        return ++this.count < this.k;
+    }
+
+    /**
+     * Return the number of objects that were found in the last search.
+     * @return the number of objects that were found in the last search
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Finish the search, and release the references to the arguments of the search. The count remains available.
+     */
+    public void finish()
+    {
+        this.type = null;
+        this.searchClass = null;
+        this.result = null;
+        this.queueSize = 0;
+        this.active = false;
+    }
+
+    /**
+     * Return the smallest 2D distance between a point and a shape, which is 0 when the point lies within the shape.
+     * @param shape the shape
+     * @param px x of the point
+     * @param py y of the point
+     * @return the distance between the point and the shape
+     */
+    public static double distance(final OtsShape shape, final double px, final double py)
+    {
+        OtsPoint3d[] points = shape.getPoints();
+        double best = Double.POSITIVE_INFINITY;
+        boolean inside = false;
+        OtsPoint3d from = points[points.length - 1];
+        for (OtsPoint3d to : points)
+        {
+            double dx = to.x - from.x;
+            double dy = to.y - from.y;
+            double lengthSquared = dx * dx + dy * dy;
+            double f = lengthSquared == 0.0 ? 0.0 : ((px - from.x) * dx + (py - from.y) * dy) / lengthSquared;
+            f = f < 0.0 ? 0.0 : (f > 1.0 ? 1.0 : f);
+            double ex = from.x + f * dx - px;
+            double ey = from.y + f * dy - py;
+            best = Math.min(best, ex * ex + ey * ey);
+            if ((from.y > py) != (to.y > py) && px < from.x + (py - from.y) * dx / dy)
+            {
+                inside = !inside;
+            }
+            from = to;
+        }
+        return inside ? 0.0 : Math.sqrt(best);
+    }
+
+    /**
+     * Find the k nearest objects in a tree that has no nearest-neighbour search of its own, with box searches of a growing
+     * radius. The radius starts at {@link #INITIAL_RADIUS} and doubles until k objects lie within the radius, or until it
+     * reaches the maximum distance; without a maximum distance the radius stops growing at {@link #MAX_RADIUS}.
+     * @param <T> the hierarchical type of the spatial object
+     * @param <I> the spatial object type we are looking for
+     * @param tree the tree to search
+     * @param type the type we are looking for (subtypes also qualify); null for all types
+     * @param point the search point
+     * @param searchClass the class we are looking for (subclasses also qualify)
+     * @param k the number of objects we are looking for
+     * @param maxDistance the maximum distance of the objects
+     * @param result the collection to which the objects are added, nearest first
+     * @return the number of objects that were found
+     */
+    public static <T extends HierarchicalType<T, I>, I extends HierarchicallyTyped<T, I> & SpatialObject> int expand(
+            final SpatialTree tree, final T type, final OtsPoint3d point, final Class<I> searchClass, final int k,
+            final double maxDistance, final Collection<? super I> result)
+    {
+        if (k == 0)
+        {
+            return 0;
+        }
+        List<I> candidates = new ArrayList<>();
+        double radius = Math.min(INITIAL_RADIUS, maxDistance);
+        while (true)
+        {
+            candidates.clear();
+            tree.find(type, box(point, radius), searchClass, candidates);
+            int within = 0;
+            for (I candidate : candidates)
+            {
+                if (distance(candidate.getShape(), point.x, point.y) <= radius)
+                {
+                    within++;
+                }
+            }
+            if (within >= k || radius >= maxDistance || radius >= MAX_RADIUS)
+            {
+                break;
+            }
+            radius = Math.min(2.0 * radius, maxDistance);
+        }
+        // objects in the corners of the box can be farther away than objects just outside the box, so limit to the radius
+        NearestSearch search = new NearestSearch().start(type, point, searchClass, k, radius, result);
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            search.push(search.distance(candidates.get(i)), i);
+        }
+        while (!search.isEmpty())
+        {
+            if (!search.add(candidates.get(search.pop())))
+            {
+                break;
+            }
+        }
+        search.finish();
+        return search.getCount();
+    }
+
+    /**
+     * Return a square around a point. A radius of 0 gives a tiny square, as a shape cannot have coinciding points.
+     * @param point the center of the square
+     * @param radius half the width of the square
+     * @return the square
+     */
+    private static OtsShape box(final OtsPoint3d point, final double radius)
+    {
+        double r = Math.max(radius, 1.0E-3);
+        try
+        {
+            return new OtsShape(new OtsPoint3d(point.x - r, point.y - r, 0.0),
+                    new OtsPoint3d(point.x + r, point.y - r, 0.0),
+                    new OtsPoint3d(point.x + r, point.y + r, 0.0),
+                    new OtsPoint3d(point.x - r, point.y + r, 0.0),
+                    new OtsPoint3d(point.x - r, point.y - r, 0.0));
+        }
+        catch (OtsGeometryException exception)
+        {
+            throw new IllegalArgumentException("Cannot create search box around " + point, exception);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "NearestSearch [active=" + this.active + ", count=" + this.count + ", queueSize=" + this.queueSize + "]";
+    }
+
+}
@@ -0,0 +1,552 @@
+package org.opentrafficsim.spatialtree.util;
+
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.core.geometry.OtsPoint3d;
+import org.opentrafficsim.core.geometry.OtsShape;
+
+/**
+ * A shape that is prepared for many overlap tests with other shapes, such as the search shape of a tree that is searched over
+ * and over with the same lane polygons. The preparation stores the vertices in arrays, determines whether the shape is convex,
+ * and sorts the edges into slabs along the longest side of the bounding box. A convex shape tests whether it contains a point
+ * with a binary search over its vertices, and another shape tests whether a point lies in it, or whether an edge crosses it,
+ * only against the edges in the slabs that the point or the edge covers, instead of against all edges.
+ * <p>
+ * The overlap test is 2D and gives the same answer as {@link OtsShape#intersects(OtsShape)}, where shapes that only touch
+ * overlap. A prepared shape is immutable and can be used by multiple threads at the same time.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class PreparedShape
+{
+    /** the maximum number of slabs of the edge index. */
+    private static final int MAX_SLABS = 256;
+
+    /** the shape that was prepared. */
+    private final OtsShape shape;
+
+    /** whether the slabs are along x; otherwise they are along y, and u is y and v is x. */
+    private final boolean alongX;
+
+    /** the coordinates of the vertices along the slab axis, counterclockwise in (u, v) when the shape is convex. */
+    private final double[] u;
+
+    /** the coordinates of the vertices across the slab axis. */
+    private final double[] v;
+
+    /** the number of edges: the number of vertices for a polygon, 1 for a line segment and 0 for a point. */
+    private final int edges;
+
+    /** whether the shape is a convex polygon. */
+    private final boolean convex;
+
+    /** the bounding box: minimum u. */
+    private final double minU;
+
+    /** the bounding box: minimum v. */
+    private final double minV;
+
+    /** the bounding box: maximum u. */
+    private final double maxU;
+
+    /** the bounding box: maximum v. */
+    private final double maxV;
+
+    /** the number of slabs. */
+    private final int slabs;
+
+    /** the width of a slab along u. */
+    private final double slabWidth;
+
+    /** the index in slabEdges of the first edge of each slab, plus the end of the last slab. */
+    private final int[] slabStart;
+
+    /** the edges of all slabs; edge i runs from vertex i to vertex i + 1 (modulo the number of vertices). */
+    private final int[] slabEdges;
+
+    /**
+     * Prepare a shape for overlap tests.
+     * @param shape the shape
+     */
+    public PreparedShape(final OtsShape shape)
+    {
+        Throw.whenNull(shape, "shape cannot be null");
+        this.shape = shape;
+        OtsPoint3d[] points = shape.getPoints();
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (OtsPoint3d point : points)
+        {
+            minX = Math.min(minX, point.x);
+            minY = Math.min(minY, point.y);
+            maxX = Math.max(maxX, point.x);
+            maxY = Math.max(maxY, point.y);
+        }
+        this.alongX = maxX - minX >= maxY - minY;
+        this.minU = this.alongX ? minX : minY;
+        this.maxU = this.alongX ? maxX : maxY;
+        this.minV = this.alongX ? minY : minX;
+        this.maxV = this.alongX ? maxY : maxX;
+
+        // copy the vertices without repeated points and without the closing point
+        double[] pu = new double[points.length];
+        double[] pv = new double[points.length];
+        int n = 0;
+        for (OtsPoint3d point : points)
+        {
+            double pointU = this.alongX ? point.x : point.y;
+            double pointV = this.alongX ? point.y : point.x;
+            if (n == 0 || pointU != pu[n - 1] || pointV != pv[n - 1])
+            {
+                pu[n] = pointU;
+                pv[n] = pointV;
+                n++;
+            }
+        }
+        if (n > 1 && pu[0] == pu[n - 1] && pv[0] == pv[n - 1])
+        {
+            n--;
+        }
+        this.edges = n >= 3 ? n : n - 1;
+        this.convex = n >= 3 && isConvex(pu, pv, n);
+        if (this.convex && signedArea(pu, pv, n) < 0.0)
+        {
+            reverse(pu, n);
+            reverse(pv, n);
+        }
+        this.u = trim(pu, n);
+        this.v = trim(pv, n);
+
+        // sort the edges into slabs along u
+        int slabCount = Math.max(1, Math.min(MAX_SLABS, this.edges / 4));
+        double width = (this.maxU - this.minU) / slabCount;
+        if (!(width > 0.0))
+        {
+            slabCount = 1;
+            width = 1.0;
+        }
+        this.slabs = slabCount;
+        this.slabWidth = width;
+        this.slabStart = new int[slabCount + 1];
+        for (int i = 0; i < this.edges; i++)
+        {
+            int j = next(i);
+            for (int s = slab(Math.min(this.u[i], this.u[j])); s <= slab(Math.max(this.u[i], this.u[j])); s++)
+            {
+                this.slabStart[s + 1]++;
+            }
+        }
+        for (int s = 0; s < slabCount; s++)
+        {
+            this.slabStart[s + 1] += this.slabStart[s];
+        }
+        this.slabEdges = new int[this.slabStart[slabCount]];
+        int[] fill = new int[slabCount];
+        for (int i = 0; i < this.edges; i++)
+        {
+            int j = next(i);
+            for (int s = slab(Math.min(this.u[i], this.u[j])); s <= slab(Math.max(this.u[i], this.u[j])); s++)
+            {
+                this.slabEdges[this.slabStart[s] + fill[s]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Return whether a polygon without repeated points is convex: all turns are in the same direction, and the direction of
+     * the edges along both axes changes at most twice, which excludes self-intersecting polygons such as a star.
+     * @param pu the coordinates along u
+     * @param pv the coordinates along v
+     * @param n the number of vertices, at least 3
+     * @return whether the polygon is convex
+     */
+    private static boolean isConvex(final double[] pu, final double[] pv, final int n)
+    {
+        int turn = 0;
+        int uChanges = 0;
+        int vChanges = 0;
+        double lastDu = 0.0;
+        double lastDv = 0.0;
+        for (int k = 0; k <= n; k++)
+        {
+            int i = k % n;
+            int j = (k + 1) % n;
+            int l = (k + 2) % n;
+            double du = pu[j] - pu[i];
+            double dv = pv[j] - pv[i];
+            double cross = du * (pv[l] - pv[j]) - dv * (pu[l] - pu[j]);
+            int sign = cross > 0.0 ? 1 : (cross < 0.0 ? -1 : 0);
+            if (sign != 0)
+            {
+                if (turn != 0 && sign != turn)
+                {
+                    return false;
+                }
+                turn = sign;
+            }
+            if (du != 0.0)
+            {
+                uChanges += lastDu != 0.0 && (du > 0.0) != (lastDu > 0.0) ? 1 : 0;
+                lastDu = du;
+            }
+            if (dv != 0.0)
+            {
+                vChanges += lastDv != 0.0 && (dv > 0.0) != (lastDv > 0.0) ? 1 : 0;
+                lastDv = dv;
+            }
+        }
+        // the loop passes the first edge twice, so it also counts the change from the last edge to the first edge
+        return turn != 0 && uChanges <= 2 && vChanges <= 2;
+    }
+
+    /**
+     * Return twice the signed area of a polygon, positive when it is counterclockwise.
+     * @param pu the coordinates along u
+     * @param pv the coordinates along v
+     * @param n the number of vertices
+     * @return twice the signed area of the polygon
+     */
+    private static double signedArea(final double[] pu, final double[] pv, final int n)
+    {
+        double area = 0.0;
+        for (int i = 0; i < n; i++)
+        {
+            int j = (i + 1) % n;
+            area += pu[i] * pv[j] - pu[j] * pv[i];
+        }
+        return area;
+    }
+
+    /**
+     * Reverse the first n values of an array.
+     * @param values the array
+     * @param n the number of values to reverse
+     */
+    private static void reverse(final double[] values, final int n)
+    {
+        for (int i = 0, j = n - 1; i < j; i++, j--)
+        {
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    /**
+     * Return an array with the first n values of an array.
+     * @param values the array
+     * @param n the number of values
+     * @return the array itself when it has n values, or a copy of its first n values
+     */
+    private static double[] trim(final double[] values, final int n)
+    {
+        if (values.length == n)
+        {
+            return values;
+        }
+        double[] trimmed = new double[n];
+        System.arraycopy(values, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    /**
+     * Return the vertex after a vertex.
+     * @param i the vertex
+     * @return the vertex after the vertex, which is vertex 0 after the last vertex
+     */
+    private int next(final int i)
+    {
+        return i + 1 == this.u.length ? 0 : i + 1;
+    }
+
+    /**
+     * Return the slab of a coordinate along u, clamped to the slabs.
+     * @param coordinate the coordinate along u
+     * @return the slab of the coordinate
+     */
+    private int slab(final double coordinate)
+    {
+        int s = (int) ((coordinate - this.minU) / this.slabWidth);
+        return s < 0 ? 0 : (s >= this.slabs ? this.slabs - 1 : s);
+    }
+
+    /**
+     * Return the shape that was prepared.
+     * @return the shape that was prepared
+     */
+    public OtsShape getShape()
+    {
+        return this.shape;
+    }
+
+    /**
+     * Return whether the shape is a convex polygon.
+     * @return whether the shape is a convex polygon
+     */
+    public boolean isConvex()
+    {
+        return this.convex;
+    }
+
+    /**
+     * Return the number of edges of the shape.
+     * @return the number of edges of the shape
+     */
+    public int getEdgeCount()
+    {
+        return this.edges;
+    }
+
+    /**
+     * Return whether the shape overlaps with another shape, where shapes that only touch also overlap.
+     * @param other the other shape
+     * @return whether the shape overlaps with the other shape
+     */
+    public boolean intersects(final OtsShape other)
+    {
+        OtsPoint3d[] points = other.getPoints();
+        int m = points.length;
+        if (m == 0)
+        {
+            return false;
+        }
+        double otherMinU = Double.POSITIVE_INFINITY;
+        double otherMinV = Double.POSITIVE_INFINITY;
+        double otherMaxU = Double.NEGATIVE_INFINITY;
+        double otherMaxV = Double.NEGATIVE_INFINITY;
+        for (OtsPoint3d point : points)
+        {
+            double pointU = this.alongX ? point.x : point.y;
+            double pointV = this.alongX ? point.y : point.x;
+            otherMinU = Math.min(otherMinU, pointU);
+            otherMinV = Math.min(otherMinV, pointV);
+            otherMaxU = Math.max(otherMaxU, pointU);
+            otherMaxV = Math.max(otherMaxV, pointV);
+        }
+        if (otherMaxU < this.minU || otherMinU > this.maxU || otherMaxV < this.minV || otherMinV > this.maxV)
+        {
+            return false;
+        }
+
+        // a vertex of the other shape in this shape
+        for (OtsPoint3d point : points)
+        {
+            if (containsUv(this.alongX ? point.x : point.y, this.alongX ? point.y : point.x))
+            {
+                return true;
+            }
+        }
+
+        // an edge of the other shape that crosses or touches an edge of this shape
+        int otherEdges = m >= 3 ? m : m - 1;
+        for (int k = 0; k < otherEdges; k++)
+        {
+            OtsPoint3d from = points[k];
+            OtsPoint3d to = points[k + 1 == m ? 0 : k + 1];
+            double au = this.alongX ? from.x : from.y;
+            double av = this.alongX ? from.y : from.x;
+            double bu = this.alongX ? to.x : to.y;
+            double bv = this.alongX ? to.y : to.x;
+            if (Math.max(au, bu) < this.minU || Math.min(au, bu) > this.maxU || Math.max(av, bv) < this.minV
+                    || Math.min(av, bv) > this.maxV)
+            {
+                continue;
+            }
+            int lastSlab = slab(Math.max(au, bu));
+            for (int s = slab(Math.min(au, bu)); s <= lastSlab; s++)
+            {
+                for (int e = this.slabStart[s]; e < this.slabStart[s + 1]; e++)
+                {
+                    int i = this.slabEdges[e];
+                    int j = next(i);
+                    if (segmentsIntersect(this.u[i], this.v[i], this.u[j], this.v[j], au, av, bu, bv))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        // this shape completely within the other shape
+        return this.u.length > 0 && m >= 3 && polygonContains(points, this.u[0], this.v[0]);
+    }
+
+    /**
+     * Return whether the shape contains a point. Points on the boundary may or may not be contained.
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @return whether the shape contains the point
+     */
+    public boolean contains(final double x, final double y)
+    {
+        return this.alongX ? containsUv(x, y) : containsUv(y, x);
+    }
+
+    /**
+     * Return whether the shape contains a point in (u, v) coordinates.
+     * @param pu the coordinate of the point along u
+     * @param pv the coordinate of the point along v
+     * @return whether the shape contains the point
+     */
+    private boolean containsUv(final double pu, final double pv)
+    {
+        if (this.edges < 3 || pu < this.minU || pu > this.maxU || pv < this.minV || pv > this.maxV)
+        {
+            return false;
+        }
+        if (this.convex)
+        {
+            // binary search for the wedge from vertex 0 that holds the point
+            int n = this.u.length;
+            if (cross(0, 1, pu, pv) < 0.0 || cross(0, n - 1, pu, pv) > 0.0)
+            {
+                return false;
+            }
+            int lo = 1;
+            int hi = n - 1;
+            while (hi - lo > 1)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (cross(0, mid, pu, pv) >= 0.0)
+                {
+                    lo = mid;
+                }
+                else
+                {
+                    hi = mid;
+                }
+            }
+            return cross(lo, hi, pu, pv) >= 0.0;
+        }
+        // crossings of a ray along +v with the edges in the slab of the point
+        boolean inside = false;
+        int s = slab(pu);
+        for (int e = this.slabStart[s]; e < this.slabStart[s + 1]; e++)
+        {
+            int i = this.slabEdges[e];
+            int j = next(i);
+            if ((this.u[i] > pu) != (this.u[j] > pu)
+                    && pv < this.v[i] + (pu - this.u[i]) * (this.v[j] - this.v[i]) / (this.u[j] - this.u[i]))
+            {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Return the cross product of the vector from vertex a to vertex b and the vector from vertex a to a point, which is
+     * positive when the point is left of the line from a to b.
+     * @param a the first vertex
+     * @param b the second vertex
+     * @param pu the coordinate of the point along u
+     * @param pv the coordinate of the point along v
+     * @return the cross product
+     */
+    private double cross(final int a, final int b, final double pu, final double pv)
+    {
+        return (this.u[b] - this.u[a]) * (pv - this.v[a]) - (this.v[b] - this.v[a]) * (pu - this.u[a]);
+    }
+
+    /**
+     * Return whether a polygon that is given by its points contains a point in (u, v) coordinates.
+     * @param points the points of the polygon
+     * @param pu the coordinate of the point along u
+     * @param pv the coordinate of the point along v
+     * @return whether the polygon contains the point
+     */
+    private boolean polygonContains(final OtsPoint3d[] points, final double pu, final double pv)
+    {
+        boolean inside = false;
+        OtsPoint3d from = points[points.length - 1];
+        for (OtsPoint3d to : points)
+        {
+            double fu = this.alongX ? from.x : from.y;
+            double fv = this.alongX ? from.y : from.x;
+            double tu = this.alongX ? to.x : to.y;
+            double tv = this.alongX ? to.y : to.x;
+            if ((fu > pu) != (tu > pu) && pv < fv + (pu - fu) * (tv - fv) / (tu - fu))
+            {
+                inside = !inside;
+            }
+            from = to;
+        }
+        return inside;
+    }
+
+    /**
+     * Return whether two line segments intersect or touch.
+     * @param au the u-coordinate of the start of the first segment
+     * @param av the v-coordinate of the start of the first segment
+     * @param bu the u-coordinate of the end of the first segment
+     * @param bv the v-coordinate of the end of the first segment
+     * @param cu the u-coordinate of the start of the second segment
+     * @param cv the v-coordinate of the start of the second segment
+     * @param du the u-coordinate of the end of the second segment
+     * @param dv the v-coordinate of the end of the second segment
+     * @return whether the segments intersect or touch
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    private static boolean segmentsIntersect(final double au, final double av, final double bu, final double bv,
+            final double cu, final double cv, final double du, final double dv)
+    {
+        double d1 = orientation(cu, cv, du, dv, au, av);
+        double d2 = orientation(cu, cv, du, dv, bu, bv);
+        double d3 = orientation(au, av, bu, bv, cu, cv);
+        double d4 = orientation(au, av, bu, bv, du, dv);
+        if (((d1 > 0.0 && d2 < 0.0) || (d1 < 0.0 && d2 > 0.0)) && ((d3 > 0.0 && d4 < 0.0) || (d3 < 0.0 && d4 > 0.0)))
+        {
+            return true;
+        }
+        return (d1 == 0.0 && onSegment(cu, cv, du, dv, au, av)) || (d2 == 0.0 && onSegment(cu, cv, du, dv, bu, bv))
+                || (d3 == 0.0 && onSegment(au, av, bu, bv, cu, cv)) || (d4 == 0.0 && onSegment(au, av, bu, bv, du, dv));
+    }
+
+    /**
+     * Return the orientation of a point relative to a line: positive when it lies to the left, negative when it lies to the
+     * right, and 0 when it lies on the line.
+     * @param au the u-coordinate of the start of the line
+     * @param av the v-coordinate of the start of the line
+     * @param bu the u-coordinate of the end of the line
+     * @param bv the v-coordinate of the end of the line
+     * @param pu the u-coordinate of the point
+     * @param pv the v-coordinate of the point
+     * @return the orientation of the point relative to the line
+     */
+    private static double orientation(final double au, final double av, final double bu, final double bv, final double pu,
+            final double pv)
+    {
+        return (bu - au) * (pv - av) - (bv - av) * (pu - au);
+    }
+
+    /**
+     * Return whether a point that lies on the line through a segment lies within the bounding box of the segment.
+     * @param au the u-coordinate of the start of the segment
+     * @param av the v-coordinate of the start of the segment
+     * @param bu the u-coordinate of the end of the segment
+     * @param bv the v-coordinate of the end of the segment
+     * @param pu the u-coordinate of the point
+     * @param pv the v-coordinate of the point
+     * @return whether the point lies within the bounding box of the segment
+     */
+    private static boolean onSegment(final double au, final double av, final double bu, final double bv, final double pu,
+            final double pv)
+    {
+        return pu >= Math.min(au, bu) && pu <= Math.max(au, bu) && pv >= Math.min(av, bv) && pv <= Math.max(av, bv);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "PreparedShape [edges=" + this.edges + ", convex=" + this.convex + ", slabs=" + this.slabs + "]";
+    }
+
+}
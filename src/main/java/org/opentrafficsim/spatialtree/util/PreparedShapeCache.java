@@ -0,0 +1,277 @@
+package org.opentrafficsim.spatialtree.util;
+
+import org.djutils.exceptions.Throw;
+import org.opentrafficsim.core.geometry.OtsShape;
+
+/**
+ * Bounded cache of prepared shapes, keyed on the identity of the shape, that evicts the least recently used shape when it is
+ * full. The cache keeps the shapes in arrays with a doubly linked list of slots in the order of use, and an IdentityIntMap from
+ * the shapes to their slots, so a hit does not allocate. The cache counts its hits and misses.
+ * <p>
+ * When the caches are enabled with {@link #enable(int)}, the SpatialFilter of every tree prepares the search shape of a search
+ * in the cache of its thread at the first exact overlap test, and tests all candidates against the prepared shape. This pays
+ * off when the same shape instances are searched over and over, such as the shapes of the lanes; search shapes that are
+ * created for one search pass through the cache and evict shapes that are used again, so the capacity should exceed the
+ * number of shapes that are searched repeatedly. The shapes of OTS are immutable, so a prepared shape never becomes stale.
+ * </p>
+ * <p>
+ * A cache serves one thread; the caches that are created by {@link #enable(int)} are held per thread.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class PreparedShapeCache
+{
+    /** the capacity of the caches of the threads; 0 when the filters do not prepare their search shapes. */
+    private static volatile int threadCapacity = 0;
+
+    /** the cache of each thread; null until the thread needs a cache. */
+    private static final ThreadLocal<PreparedShapeCache> CACHES = new ThreadLocal<>();
+
+    /** the maximum number of shapes in the cache. */
+    private final int capacity;
+
+    /** the prepared shapes per slot. */
+    private final PreparedShape[] shapes;
+
+    /** the previous (more recently used) slot per slot; -1 for the most recently used slot. */
+    private final int[] previous;
+
+    /** the next (less recently used) slot per slot; -1 for the least recently used slot. */
+    private final int[] next;
+
+    /** the slots of the shapes. */
+    private final IdentityIntMap slots;
+
+    /** the number of shapes in the cache. */
+    private int size = 0;
+
+    /** the most recently used slot; -1 when the cache is empty. */
+    private int head = -1;
+
+    /** the least recently used slot; -1 when the cache is empty. */
+    private int tail = -1;
+
+    /** the number of hits. */
+    private long hits = 0;
+
+    /** the number of misses. */
+    private long misses = 0;
+
+    /**
+     * Create an empty cache.
+     * @param capacity the maximum number of shapes in the cache
+     * @throws IllegalArgumentException when the capacity is not positive
+     */
+    public PreparedShapeCache(final int capacity)
+    {
+        Throw.when(capacity <= 0, IllegalArgumentException.class, "capacity %d should be positive", capacity);
+        this.capacity = capacity;
+        this.shapes = new PreparedShape[capacity];
+        this.previous = new int[capacity];
+        this.next = new int[capacity];
+        this.slots = new IdentityIntMap(capacity);
+    }
+
+    /**
+     * Let the filters of all trees prepare their search shapes in a cache per thread from now on.
+     * @param capacity the maximum number of shapes in the cache of a thread
+     * @throws IllegalArgumentException when the capacity is not positive
+     */
+    public static void enable(final int capacity)
+    {
+        Throw.when(capacity <= 0, IllegalArgumentException.class, "capacity %d should be positive", capacity);
+        threadCapacity = capacity;
+    }
+
+    /**
+     * Stop preparing the search shapes of the filters. The caches of the threads are released when the threads next search.
+     */
+    public static void disable()
+    {
+        threadCapacity = 0;
+    }
+
+    /**
+     * Return the cache of this thread when the caches are enabled.
+     * @return the cache of this thread, or null when the caches are not enabled
+     */
+    public static PreparedShapeCache current()
+    {
+        int c = threadCapacity;
+        PreparedShapeCache cache = CACHES.get();
+        if (c == 0)
+        {
+            if (cache != null)
+            {
+                CACHES.remove();
+            }
+            return null;
+        }
+        if (cache == null || cache.capacity != c)
+        {
+            cache = new PreparedShapeCache(c);
+            CACHES.set(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Return the prepared shape of a shape, and prepare the shape when it is not in the cache. The shape becomes the most
+     * recently used shape; when the cache is full, the least recently used shape is evicted.
+     * @param shape the shape
+     * @return the prepared shape
+     */
+    public PreparedShape get(final OtsShape shape)
+    {
+        int slot = this.slots.get(shape);
+        if (slot != IdentityIntMap.ABSENT)
+        {
+            this.hits++;
+            if (slot != this.head)
+            {
+                unlink(slot);
+                linkFirst(slot);
+            }
+            return this.shapes[slot];
+        }
+        this.misses++;
+        PreparedShape prepared = new PreparedShape(shape);
+        if (this.size < this.capacity)
+        {
+            slot = this.size++;
+        }
+        else
+        {
+            slot = this.tail;
+            unlink(slot);
+            this.slots.remove(this.shapes[slot].getShape());
+        }
+        this.shapes[slot] = prepared;
+        this.slots.put(shape, slot);
+        linkFirst(slot);
+        return prepared;
+    }
+
+    /**
+     * Remove a slot from the list in the order of use.
+     * @param slot the slot
+     */
+    private void unlink(final int slot)
+    {
+        int p = this.previous[slot];
+        int n = this.next[slot];
+        if (p < 0)
+        {
+            this.head = n;
+        }
+        else
+        {
+            this.next[p] = n;
+        }
+        if (n < 0)
+        {
+            this.tail = p;
+        }
+        else
+        {
+            this.previous[n] = p;
+        }
+    }
+
+    /**
+     * Insert a slot at the front of the list in the order of use.
+     * @param slot the slot
+     */
+    private void linkFirst(final int slot)
+    {
+        this.previous[slot] = -1;
+        this.next[slot] = this.head;
+        if (this.head >= 0)
+        {
+            this.previous[this.head] = slot;
+        }
+        this.head = slot;
+        if (this.tail < 0)
+        {
+            this.tail = slot;
+        }
+    }
+
+    /**
+     * Return the maximum number of shapes in the cache.
+     * @return the maximum number of shapes in the cache
+     */
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    /**
+     * Return the number of shapes in the cache.
+     * @return the number of shapes in the cache
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Return the number of times that a shape was in the cache.
+     * @return the number of hits
+     */
+    public long getHits()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Return the number of times that a shape had to be prepared.
+     * @return the number of misses
+     */
+    public long getMisses()
+    {
+        return this.misses;
+    }
+
+    /**
+     * Return the fraction of the lookups that were hits.
+     * @return the fraction of the lookups that were hits; NaN when there were no lookups
+     */
+    public double getHitRatio()
+    {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? Double.NaN : (double) this.hits / lookups;
+    }
+
+    /**
+     * Remove all shapes from the cache and reset the counts.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < this.size; i++)
+        {
+            this.shapes[i] = null;
+        }
+        this.slots.clear();
+        this.size = 0;
+        this.head = -1;
+        this.tail = -1;
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "PreparedShapeCache [size=" + this.size + ", capacity=" + this.capacity + ", hits=" + this.hits + ", misses="
+                + this.misses + "]";
+    }
+
+}
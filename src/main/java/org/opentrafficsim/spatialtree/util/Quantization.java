@@ -0,0 +1,125 @@
+package org.opentrafficsim.spatialtree.util;
+
+/**
+ * Conversion of coordinates to fewer bits, rounded outward, so that a box that is stored with less precision always contains
+ * the exact box, and a search in the stored boxes never misses a candidate. A box may grow a little, which gives a few more
+ * candidates for the exact test of the search.
+ * <p>
+ * Coordinates are quantized to 16 bits relative to a reference box, e.g., the box of the parent node in a tree: the range of
+ * the reference box is divided into {@value #STEPS} steps, and a coordinate is stored as the number of steps from the
+ * minimum of the reference box. Since the reference is the box of the parent rather than a global origin, the precision is
+ * relative to the size of the node, and does not depend on the size of the coordinates, such as the hundreds of kilometres of
+ * national grid coordinates. The minimum and maximum of the reference box are decoded exactly.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class Quantization
+{
+    /** the number of steps of the 16-bit quantization; the largest quantized value. */
+    public static final int STEPS = 0xFFFF;
+
+    /**
+     * Do not create instance.
+     */
+    private Quantization()
+    {
+        //
+    }
+
+    /**
+     * Return the largest float that is not larger than a value; to store the minimum of a box as a float.
+     * @param value the value
+     * @return the largest float that is not larger than the value
+     */
+    public static float floatDown(final double value)
+    {
+        float f = (float) value;
+        return f > value ? Math.nextDown(f) : f;
+    }
+
+    /**
+     * Return the smallest float that is not smaller than a value; to store the maximum of a box as a float.
+     * @param value the value
+     * @return the smallest float that is not smaller than the value
+     */
+    public static float floatUp(final double value)
+    {
+        float f = (float) value;
+        return f < value ? Math.nextUp(f) : f;
+    }
+
+    /**
+     * Return the size of a step of the quantization of a reference range.
+     * @param min the minimum of the reference range
+     * @param max the maximum of the reference range
+     * @return the size of a step
+     */
+    public static double step(final double min, final double max)
+    {
+        return (max - min) / STEPS;
+    }
+
+    /**
+     * Return the coordinate of a quantized value.
+     * @param q the quantized value, from 0 to {@value #STEPS}
+     * @param min the minimum of the reference range
+     * @param step the size of a step of the reference range, see {@link #step(double, double)}
+     * @param max the maximum of the reference range
+     * @return the coordinate of the quantized value; min for 0 and max for {@value #STEPS}
+     */
+    public static double decode(final int q, final double min, final double step, final double max)
+    {
+        return q == STEPS ? max : min + q * step;
+    }
+
+    /**
+     * Quantize the minimum of a box, rounded down. The value should be in the reference range.
+     * @param value the value
+     * @param min the minimum of the reference range
+     * @param step the size of a step of the reference range, see {@link #step(double, double)}
+     * @param max the maximum of the reference range
+     * @return the largest quantized value of which the coordinate is not larger than the value
+     */
+    public static int encodeDown(final double value, final double min, final double step, final double max)
+    {
+        if (step == 0.0)
+        {
+            return 0;
+        }
+        int q = (int) Math.max(0.0, Math.min(STEPS, Math.floor((value - min) / step)));
+        while (q > 0 && decode(q, min, step, max) > value)
+        {
+            q--;
+        }
+        return q;
+    }
+
+    /**
+     * Quantize the maximum of a box, rounded up. The value should be in the reference range.
+     * @param value the value
+     * @param min the minimum of the reference range
+     * @param step the size of a step of the reference range, see {@link #step(double, double)}
+     * @param max the maximum of the reference range
+     * @return the smallest quantized value of which the coordinate is not smaller than the value
+     */
+    public static int encodeUp(final double value, final double min, final double step, final double max)
+    {
+        if (step == 0.0)
+        {
+            return STEPS;
+        }
+        int q = (int) Math.max(0.0, Math.min(STEPS, Math.ceil((value - min) / step)));
+        while (q < STEPS && decode(q, min, step, max) < value)
+        {
+            q++;
+        }
+        return q;
+    }
+
+}
@@ -0,0 +1,187 @@
+package org.opentrafficsim.spatialtree.util;
+
+/**
+ * Per-thread collector of the candidate counts of the searches of a SpatialFilter, for the instrumentation of a tree with
+ * SpatialTreeInstrumented. An instrumented tree opens the probe of its thread around a search; every filter that is finished
+ * while the probe is open adds its counts, except filters that run inside the search of another filter, such as the filter
+ * of the tree under a SpatialTreeLoose, so every candidate is counted once. Filters only look for a probe when a tree has ever
+ * been instrumented, so searches of trees that are not instrumented do not pay for the probe.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class SearchProbe
+{
+    /** whether a tree has ever been instrumented; until then, filters do not look for a probe. */
+    private static volatile boolean enabled = false;
+
+    /** the probe of each thread. */
+    private static final ThreadLocal<SearchProbe> PROBES = new ThreadLocal<SearchProbe>()
+    {
+        @Override
+        protected SearchProbe initialValue()
+        {
+            return new SearchProbe();
+        }
+    };
+
+    /** whether the probe is open. */
+    private boolean open = false;
+
+    /** the number of filters of the thread that are running. */
+    private int depth = 0;
+
+    /** the number of candidates that were offered to the outermost filters. */
+    private long candidates;
+
+    /** the number of candidates that did not have the class of the search. */
+    private long classRejects;
+
+    /** the number of candidates that did not have the type of the search. */
+    private long typeRejects;
+
+    /** the number of candidates of which the shape did not overlap with the search shape. */
+    private long shapeRejects;
+
+    /** the number of candidates that qualified. */
+    private long results;
+
+    /**
+     * Create the probe of a thread.
+     */
+    private SearchProbe()
+    {
+        // one per thread
+    }
+
+    /**
+     * Let the filters of all threads look for a probe from now on. Called when a tree is instrumented.
+     */
+    public static void enable()
+    {
+        enabled = true;
+    }
+
+    /**
+     * Open the probe of this thread for a search, and reset its counts.
+     * @return the probe of this thread
+     */
+    public static SearchProbe open()
+    {
+        SearchProbe probe = PROBES.get();
+        probe.open = true;
+        probe.depth = 0;
+        probe.candidates = 0;
+        probe.classRejects = 0;
+        probe.typeRejects = 0;
+        probe.shapeRejects = 0;
+        probe.results = 0;
+        return probe;
+    }
+
+    /**
+     * Close the probe after the search; the counts remain available.
+     */
+    public void close()
+    {
+        this.open = false;
+    }
+
+    /**
+     * Return the probe of this thread when it is open, for a filter that starts a search.
+     * @return the open probe of this thread, or null when no tree is instrumented or the probe is not open
+     */
+    static SearchProbe started()
+    {
+        if (!enabled)
+        {
+            return null;
+        }
+        SearchProbe probe = PROBES.get();
+        if (!probe.open)
+        {
+            return null;
+        }
+        probe.depth++;
+        return probe;
+    }
+
+    /**
+     * Add the counts of a filter that finishes its search, when it is not running inside the search of another filter.
+     * @param filterCandidates the number of candidates that were offered to the filter
+     * @param filterClassRejects the number of candidates that did not have the class of the search
+     * @param filterTypeRejects the number of candidates that did not have the type of the search
+     * @param filterShapeRejects the number of candidates of which the shape did not overlap with the search shape
+     * @param filterResults the number of candidates that qualified
+     */
+    void finished(final int filterCandidates, final int filterClassRejects, final int filterTypeRejects,
+            final int filterShapeRejects, final int filterResults)
+    {
+        this.depth--;
+        if (this.depth == 0)
+        {
+            this.candidates += filterCandidates;
+            this.classRejects += filterClassRejects;
+            this.typeRejects += filterTypeRejects;
+            this.shapeRejects += filterShapeRejects;
+            this.results += filterResults;
+        }
+    }
+
+    /**
+     * Return the number of candidates that were offered to the filters.
+     * @return the number of candidates that were offered to the filters
+     */
+    public long getCandidates()
+    {
+        return this.candidates;
+    }
+
+    /**
+     * Return the number of candidates that did not have the class of the search.
+     * @return the number of candidates that did not have the class of the search
+     */
+    public long getClassRejects()
+    {
+        return this.classRejects;
+    }
+
+    /**
+     * Return the number of candidates that did not have the type of the search.
+     * @return the number of candidates that did not have the type of the search
+     */
+    public long getTypeRejects()
+    {
+        return this.typeRejects;
+    }
+
+    /**
+     * Return the number of candidates of which the shape did not overlap with the search shape.
+     * @return the number of candidates of which the shape did not overlap with the search shape
+     */
+    public long getShapeRejects()
+    {
+        return this.shapeRejects;
+    }
+
+    /**
+     * Return the number of candidates that qualified.
+     * @return the number of candidates that qualified
+     */
+    public long getResults()
+    {
+        return this.results;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SearchProbe [open=" + this.open + ", candidates=" + this.candidates + ", results=" + this.results + "]";
+    }
+
+}
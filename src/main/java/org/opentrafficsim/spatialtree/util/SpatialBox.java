@@ -0,0 +1,29 @@
+package org.opentrafficsim.spatialtree.util;
+
+import org.opentrafficsim.core.SpatialObject;
+
+/**
+ * Spatial object of which the extent is an axis-aligned box, such as the entries of a tree that is stored in another tree.
+ * A {@link SpatialFilter} tests such a candidate with its box against the bounding box of the search shape, instead of with
+ * the exact shapes, so the box does not have to be a valid polygon for the search.
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public interface SpatialBox extends SpatialObject
+{
+    /**
+     * Return whether the box of the object intersects with a bounding box. Boxes that touch intersect.
+     * @param minX minimum x of the bounding box
+     * @param minY minimum y of the bounding box
+     * @param maxX maximum x of the bounding box
+     * @param maxY maximum y of the bounding box
+     * @return whether the boxes intersect
+     */
+    boolean intersects(double minX, double minY, double maxX, double maxY);
+
+}
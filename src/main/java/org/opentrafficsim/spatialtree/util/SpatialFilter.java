@@ -0,0 +1,313 @@
+package org.opentrafficsim.spatialtree.util;
+
+import java.util.Collection;
+
+import org.djunits.value.vdouble.scalar.Time;
+import org.opentrafficsim.base.HierarchicalType;
+import org.opentrafficsim.base.HierarchicallyTyped;
+import org.opentrafficsim.core.DynamicSpatialObject;
+import org.opentrafficsim.core.SpatialObject;
+import org.opentrafficsim.core.geometry.Bounds;
+import org.opentrafficsim.core.geometry.OtsShape;
+import org.opentrafficsim.spatialtree.SpatialVisitor;
+
+/**
+ * Reusable filter for the candidates of a search: it checks the class, the type and the exact shape of a candidate, and passes
+ * the candidates that qualify to a visitor or adds them to a collection. A spatial tree keeps one filter, and starts and
+ * finishes it for every search, so a search does not allocate for its state. A filter serves one search at a time; starting
+ * it while a search is still running, e.g., a search from a visitor into the same tree, is an error.
+ * <p>
+ * When the caches of prepared shapes are enabled, see {@link PreparedShapeCache}, the filter tests the candidates against the
+ * prepared search shape from the cache of its thread, instead of with {@link OtsShape#intersects(OtsShape)}. A candidate that
+ * is a {@link SpatialBox} is tested with its box against the bounding box of the search shape.
+ * </p>
+ * <p>
+ * Copyright (c) 2022-2024 Delft University of Technology, PO Box 5, 2600 AA, Delft, the Netherlands. All rights reserved. <br>
+ * BSD-style license. See <a href="https://opentrafficsim.org/docs/license.html">OpenTrafficSim License</a>.
+ * </p>
+ * @author <a href="https://github.com/averbraeck">Alexander Verbraeck</a>
+ * @author <a href="https://tudelft.nl/staff/p.knoppers-1">Peter Knoppers</a>
+ * @author <a href="https://dittlab.tudelft.nl">Wouter Schakel</a>
+ */
+public final class SpatialFilter
+{
+    /** the type we are looking for; null for all types. */
+    private HierarchicalType<?, ?> type;
+
+    /** the search shape. */
+    private OtsShape shape;
+
+    /** the bounding box of the search shape; null until the first candidate that is a box. */
+    private Bounds bounds;
+
+    /** the class we are looking for. */
+    private Class<?> searchClass;
+
+    /** the time for which the shapes of dynamic objects are evaluated; null to use their current shape. */
+    private Time time;
+
+    /** the visitor; null when the objects are added to a collection. */
+    private SpatialVisitor<Object> visitor;
+
+    /** the collection; null when the objects are passed to a visitor. */
+    private Collection<Object> collection;
+
+    /** whether a search is running. */
+    private boolean active = false;
+
+    /** whether the visitor has stopped the search. */
+    private boolean stopped;
+
+    /** the number of objects that qualified. */
+    private int count;
+
+    /** the number of candidates that were offered. */
+    private int candidates;
+
+    /** the number of candidates that did not have the class of the search. */
+    private int classRejects;
+
+    /** the number of candidates that did not have the type of the search. */
+    private int typeRejects;
+
+    /** the number of candidates of which the shape did not overlap with the search shape. */
+    private int shapeRejects;
+
+    /** the cache of prepared shapes of this thread; null when the search shapes are not prepared. */
+    private PreparedShapeCache shapeCache;
+
+    /** the prepared search shape; null until the first exact test of a search with a cache. */
+    private PreparedShape preparedShape;
+
+    /** the probe of an instrumented tree that collects the counts of the search; null when there is none. */
+    private SearchProbe probe;
+
+    /**
+     * Start a search that passes the objects to a visitor.
+     * @param <I> the spatial object type we are looking for
+     * @param searchType the type we are looking for (subtypes also qualify); null for all types
+     * @param searchShape the search area bounded by a polygon
+     * @param searchClassOfI the class we are looking for (subclasses also qualify)
+     * @param searchTime the time for which the shapes of dynamic objects are evaluated; null to use the current shapes
+     * @param searchVisitor the visitor that receives the objects
+     * @return this filter
+     * @throws IllegalStateException when a search is already running
+     */
+    @SuppressWarnings("unchecked")
+    public <I> SpatialFilter start(final HierarchicalType<?, ?> searchType, final OtsShape searchShape,
+            final Class<I> searchClassOfI, final Time searchTime, final SpatialVisitor<? super I> searchVisitor)
+    {
+        init(searchType, searchShape, searchClassOfI, searchTime);
+        this.visitor = (SpatialVisitor<Object>) searchVisitor;
+        return this;
+    }
+
+    /**
+     * Start a search that adds the objects to a collection.
+     * @param <I> the spatial object type we are looking for
+     * @param searchType the type we are looking for (subtypes also qualify); null for all types
+     * @param searchShape the search area bounded by a polygon
+     * @param searchClassOfI the class we are looking for (subclasses also qualify)
+     * @param searchTime the time for which the shapes of dynamic objects are evaluated; null to use the current shapes
+     * @param result the collection to which the objects are added
+     * @return this filter
+     * @throws IllegalStateException when a search is already running
+     */
+    @SuppressWarnings("unchecked")
+    public <I> SpatialFilter start(final HierarchicalType<?, ?> searchType, final OtsShape searchShape,
+            final Class<I> searchClassOfI, final Time searchTime, final Collection<? super I> result)
+    {
+        init(searchType, searchShape, searchClassOfI, searchTime);
+        this.collection = (Collection<Object>) result;
+        return this;
+    }
+
+    /**
+     * Store the arguments of a search.
+     * @param searchType the type we are looking for; null for all types
+     * @param searchShape the search area bounded by a polygon
+     * @param searchClassOfI the class we are looking for
+     * @param searchTime the time for which the shapes of dynamic objects are evaluated; null to use the current shapes
+     * @throws IllegalStateException when a search is already running
+     */
+    private void init(final HierarchicalType<?, ?> searchType, final OtsShape searchShape, final Class<?> searchClassOfI,
+            final Time searchTime)
+    {
+        if (this.active)
+        {
+            throw new IllegalStateException("A spatial tree cannot be searched from within a search of the same tree");
+        }
+        this.active = true;
+        this.type = searchType;
+        this.shape = searchShape;
+        this.bounds = null;
+        this.searchClass = searchClassOfI;
+        this.time = searchTime;
+        this.stopped = false;
+        this.count = 0;
+        this.candidates = 0;
+        this.classRejects = 0;
+        this.typeRejects = 0;
+        this.shapeRejects = 0;
+        this.shapeCache = PreparedShapeCache.current();
+        this.preparedShape = null;
+        this.probe = SearchProbe.started();
+    }
+
+    /**
+     * Offer a candidate of the search. When the candidate has the right class and type, and its shape overlaps with the search
+     * shape, it is passed to the visitor or added to the collection.
+     * @param candidate the candidate, a SpatialObject
+     * @return whether the search should continue
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public boolean offer(final Object candidate)
+    {
+        if (this.stopped)
+        {
+            return false;
+        }
+        this.candidates++;
+        SpatialObject so = (SpatialObject) candidate;
+        if (!this.searchClass.isAssignableFrom(so.getClass()))
+        {
+            this.classRejects++;
+            return true;
+        }
+        if (this.type != null && !((HierarchicallyTyped) so).isOfType((HierarchicalType) this.type))
+        {
+            this.typeRejects++;
+            return true;
+        }
+        if (!overlaps(so))
+        {
+            this.shapeRejects++;
+            return true;
+        }
+        this.count++;
+        if (this.collection != null)
+        {
+            this.collection.add(so);
+        }
+        else if (!this.visitor.visit(so))
+        {
+            this.stopped = true;
+        }
+        return !this.stopped;
+    }
+
+    /**
+     * Return whether the shape of a candidate overlaps with the search shape.
+     * @param so the candidate
+     * @return whether the shape of the candidate overlaps with the search shape
+     */
+    private boolean overlaps(final SpatialObject so)
+    {
+        if (so instanceof SpatialBox && this.time == null)
+        {
+            if (this.bounds == null)
+            {
+                this.bounds = this.shape.getEnvelope();
+            }
+            return ((SpatialBox) so).intersects(this.bounds.getMinX(), this.bounds.getMinY(), this.bounds.getMaxX(),
+                    this.bounds.getMaxY());
+        }
+        if (this.shapeCache == null)
+        {
+            return this.time == null ? so.getShape().intersects(this.shape)
+                    : this.shape.intersects(((DynamicSpatialObject) so).getShape(this.time));
+        }
+        if (this.preparedShape == null)
+        {
+            this.preparedShape = this.shapeCache.get(this.shape);
+        }
+        return this.preparedShape
+                .intersects(this.time == null ? so.getShape() : ((DynamicSpatialObject) so).getShape(this.time));
+    }
+
+    /**
+     * Return the search shape.
+     * @return the search shape
+     */
+    public OtsShape getShape()
+    {
+        return this.shape;
+    }
+
+    /**
+     * Return the time for which the shapes of dynamic objects are evaluated.
+     * @return the time, or null when the current shapes are used
+     */
+    public Time getTime()
+    {
+        return this.time;
+    }
+
+    /**
+     * Return whether the visitor has stopped the search.
+     * @return whether the visitor has stopped the search
+     */
+    public boolean isStopped()
+    {
+        return this.stopped;
+    }
+
+    /**
+     * Return the number of objects that qualified in the last search.
+     * @return the number of objects that qualified in the last search
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Return the number of candidates that were offered in the last search.
+     * @return the number of candidates that were offered in the last search
+     */
+    public int getCandidates()
+    {
+        return this.candidates;
+    }
+
+    /**
+     * Return the number of candidates of the last search that did not qualify: they did not have the class or type of the
+     * search, or their shape did not overlap with the search shape.
+     * @return the number of candidates of the last search that did not qualify
+     */
+    public int getRejects()
+    {
+        return this.classRejects + this.typeRejects + this.shapeRejects;
+    }
+
+    /**
+     * Finish the search, and release the references to the arguments of the search. The counts remain available, and are
+     * passed to the probe of an instrumented tree when the search runs inside one.
+     */
+    public void finish()
+    {
+        if (this.probe != null)
+        {
+            this.probe.finished(this.candidates, this.classRejects, this.typeRejects, this.shapeRejects, this.count);
+            this.probe = null;
+        }
+        this.type = null;
+        this.shape = null;
+        this.bounds = null;
+        this.shapeCache = null;
+        this.preparedShape = null;
+        this.searchClass = null;
+        this.time = null;
+        this.visitor = null;
+        this.collection = null;
+        this.active = false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return "SpatialFilter [active=" + this.active + ", count=" + this.count + ", stopped=" + this.stopped + "]";
+    }
+
+}